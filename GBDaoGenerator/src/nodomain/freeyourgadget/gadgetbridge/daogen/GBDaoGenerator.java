@@ -45,7 +45,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        final Schema schema = new Schema(65, MAIN_PACKAGE + ".entities");
+        final Schema schema = new Schema(66, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -107,6 +107,7 @@ public class GBDaoGenerator {
         addWena3Vo2Sample(schema, user, device);
         addWena3StressSample(schema, user, device);
         addFemometerVinca2TemperatureSample(schema, user, device);
+        addTimeSampleBlock(schema, user, device);
 
         addCalendarSyncState(schema, device);
         addAlarms(schema, user, device);
@@ -573,6 +574,37 @@ public class GBDaoGenerator {
         return downloadedFitFile;
     }
 
+    private static Entity addTimeSampleBlock(Schema schema, Entity user, Entity device) {
+        final Entity timeSampleBlock = addEntity(schema, "TimeSampleBlock");
+        timeSampleBlock.setJavaDoc(
+                "This class represents the time samples of one type, device and day, stored in a compact columnar form.\n" +
+                        "The data is encoded and decoded by the TimeSampleBlockCodec.");
+        timeSampleBlock.addIdProperty().autoincrement();
+        final Property deviceId = timeSampleBlock.addLongProperty("deviceId").notNull().getProperty();
+        timeSampleBlock.addToOne(device, deviceId);
+        final Property userId = timeSampleBlock.addLongProperty("userId").notNull().getProperty();
+        timeSampleBlock.addToOne(user, userId);
+        final Property sampleType = timeSampleBlock.addStringProperty("sampleType").notNull()
+                .javaDocGetterAndSetter("The table name of the samples stored in this block.").getProperty();
+        // named timestamp so the incremental export tracks blocks like samples, they are never updated in place
+        final Property timestamp = timeSampleBlock.addLongProperty("timestamp").notNull()
+                .javaDocGetterAndSetter("The start of the UTC day covered by this block, in milliseconds.").getProperty();
+        timeSampleBlock.addLongProperty("firstTimestamp").notNull();
+        timeSampleBlock.addLongProperty("lastTimestamp").notNull();
+        timeSampleBlock.addIntProperty("sampleCount").notNull();
+        timeSampleBlock.addByteArrayProperty("data").notNull();
+
+        final Index indexUnique = new Index();
+        indexUnique.addProperty(deviceId);
+        indexUnique.addProperty(sampleType);
+        indexUnique.addProperty(timestamp);
+        indexUnique.makeUnique();
+
+        timeSampleBlock.addIndex(indexUnique);
+
+        return timeSampleBlock;
+    }
+
     private static Entity addWatchXPlusHealthActivitySample(Schema schema, Entity user, Entity device) {
         Entity activitySample = addEntity(schema, "WatchXPlusActivitySample");
         activitySample.implementsSerializable();
@@ -37,8 +37,11 @@ import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.DatePicker;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.FileProvider;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
@@ -65,6 +68,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.export.GpxRegenerationJob;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummary;
@@ -85,6 +89,7 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
     String nameContainsFilter;
     private GBDevice mGBDevice;
     private SwipeRefreshLayout swipeLayout;
+    private GpxRegenerationJob gpxRegenerationJob;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -139,6 +144,14 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
             case R.id.activity_action_filter:
                 runFilterActivity();
                 return true;
+            case R.id.activity_action_regenerate_all_gpx:
+                final List<BaseActivitySummary> summaries = new ArrayList<>();
+                for (BaseActivitySummary summary : getItemAdapter().getItems()) {
+                    if (summary.getStartTime() == null) continue; //first item is empty, for dashboard
+                    summaries.add(summary);
+                }
+                regenerateGpxTracks(summaries, null);
+                return true;
         }
         return processed;
     }
@@ -256,23 +269,26 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
                         processed = true;
                         break;
                     case R.id.activity_action_export:
-                        List<String> paths = new ArrayList<>();
-
+                        final List<BaseActivitySummary> toShare = new ArrayList<>();
                         for (int i = 0; i < checked.size(); i++) {
                             if (checked.valueAt(i)) {
-
                                 BaseActivitySummary item = getItemAdapter().getItem(checked.keyAt(i));
                                 if (item != null) {
-                                    ActivitySummary summary = item;
-
-                                    String gpxTrack = summary.getGpxTrack();
-                                    if (gpxTrack != null) {
-                                        paths.add(gpxTrack);
-                                    }
+                                    toShare.add(item);
                                 }
                             }
                         }
-                        shareMultiple(paths);
+                        shareGpxTracks(toShare);
+                        processed = true;
+                        break;
+                    case R.id.activity_action_regenerate_gpx:
+                        final List<BaseActivitySummary> toRegenerate = new ArrayList<>();
+                        for (int i = 0; i < checked.size(); i++) {
+                            if (checked.valueAt(i)) {
+                                toRegenerate.add(getItemAdapter().getItem(checked.keyAt(i)));
+                            }
+                        }
+                        regenerateGpxTracks(toRegenerate, null);
                         processed = true;
                         break;
                     case R.id.activity_action_select_all:
@@ -366,6 +382,9 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
     @Override
     protected void onDestroy() {
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        if (gpxRegenerationJob != null) {
+            gpxRegenerationJob.cancel();
+        }
         super.onDestroy();
     }
 
@@ -411,6 +430,102 @@ public class ActivitySummariesActivity extends AbstractListActivity<BaseActivity
 
     }
 
+    /**
+     * Shares the GPX tracks of the given activities. Tracks which were not exported yet, or whose
+     * file is gone, are exported from the raw details in parallel first.
+     */
+    private void shareGpxTracks(final List<BaseActivitySummary> summaries) {
+        final List<BaseActivitySummary> toExport = new ArrayList<>();
+        for (BaseActivitySummary summary : summaries) {
+            final String gpxTrack = summary.getGpxTrack();
+            if (summary.getRawDetailsPath() != null && (gpxTrack == null || !new File(gpxTrack).isFile())) {
+                toExport.add(summary);
+            }
+        }
+
+        final Runnable share = new Runnable() {
+            @Override
+            public void run() {
+                List<String> paths = new ArrayList<>();
+                for (ActivitySummary summary : summaries) {
+                    String gpxTrack = summary.getGpxTrack();
+                    if (gpxTrack != null && new File(gpxTrack).isFile()) {
+                        paths.add(gpxTrack);
+                    }
+                }
+                shareMultiple(paths);
+            }
+        };
+
+        if (toExport.isEmpty()) {
+            share.run();
+        } else {
+            regenerateGpxTracks(toExport, share);
+        }
+    }
+
+    /**
+     * @param onSuccess run on the UI thread once the tracks were regenerated, unless cancelled
+     */
+    private void regenerateGpxTracks(final List<BaseActivitySummary> summaries, @Nullable final Runnable onSuccess) {
+        final ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        final int padding = getResources().getDimensionPixelSize(R.dimen.dialog_margin);
+        progressBar.setPadding(padding, padding, padding, 0);
+
+        final AlertDialog dialog = new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.activity_summaries_regenerating_gpx)
+                .setView(progressBar)
+                .setCancelable(false)
+                .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(final DialogInterface dialog, final int which) {
+                        if (gpxRegenerationJob != null) {
+                            gpxRegenerationJob.cancel();
+                        }
+                    }
+                })
+                .show();
+
+        gpxRegenerationJob = new GpxRegenerationJob(getApplicationContext(), summaries, new GpxRegenerationJob.Listener() {
+            @Override
+            public void onProgress(final int done, final int total) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressBar.setMax(total);
+                        progressBar.setProgress(done);
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final GpxRegenerationJob.Result result) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        gpxRegenerationJob = null;
+                        if (isFinishing() || isDestroyed()) {
+                            return;
+                        }
+                        dialog.dismiss();
+                        final String message;
+                        if (result.cancelled) {
+                            message = getString(R.string.activity_summaries_regenerate_gpx_cancelled, result.regenerated);
+                        } else {
+                            message = getString(R.string.activity_summaries_regenerated_gpx, result.regenerated, result.durationMillis / 1000f, result.getTracksPerSecond(), result.skipped, result.failed);
+                        }
+                        GB.toast(ActivitySummariesActivity.this, message, Toast.LENGTH_LONG, result.failed > 0 ? GB.WARN : GB.INFO);
+                        refresh();
+                        if (onSuccess != null && !result.cancelled) {
+                            onSuccess.run();
+                        }
+                    }
+                });
+            }
+        });
+        new Thread(gpxRegenerationJob, "GpxRegeneration").start();
+    }
+
     private void showActivityDetail(int position) {
         Intent ActivitySummaryDetailIntent = new Intent(this, ActivitySummaryDetail.class);
         Bundle bundle = new Bundle();
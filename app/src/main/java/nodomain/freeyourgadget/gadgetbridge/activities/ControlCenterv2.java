@@ -70,7 +70,6 @@ import com.google.android.material.navigation.NavigationView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -91,9 +90,8 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.DailyTotals;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSampleBuffer;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GBChangeLog;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
@@ -146,9 +144,6 @@ public class ControlCenterv2 extends AppCompatActivity
                     mGBDeviceAdapter.rebuildFolders();
                     refreshPairedDevices();
                     break;
-                case DeviceService.ACTION_REALTIME_SAMPLES:
-                    handleRealtimeSample(intent.getSerializableExtra(DeviceService.EXTRA_REALTIME_SAMPLE));
-                    break;
                 case ACTION_REQUEST_PERMISSIONS:
                     checkAndRequestPermissions();
                     break;
@@ -160,23 +155,29 @@ public class ControlCenterv2 extends AppCompatActivity
         }
     };
     private boolean pesterWithPermissions = true;
-    private ActivitySample currentHRSample;
-
-    public ActivitySample getCurrentHRSample() {
-        return currentHRSample;
+    private int currentHeartRate = -1;
+    private boolean currentHeartRateChanged;
+    private Runnable realtimeSampleListener;
+
+    /**
+     * @return the last valid heart rate received from a device, or -1 if none was received yet
+     */
+    public int getCurrentHeartRate() {
+        return currentHeartRate;
     }
 
-    private void setCurrentHRSample(ActivitySample sample) {
-        if (HeartRateUtils.getInstance().isValidHeartRateValue(sample.getHeartRate())) {
-            currentHRSample = sample;
-            refreshPairedDevices();
-        }
-    }
-
-    private void handleRealtimeSample(Serializable extra) {
-        if (extra instanceof ActivitySample) {
-            ActivitySample sample = (ActivitySample) extra;
-            setCurrentHRSample(sample);
+    private void handleRealtimeSample(int timestamp, int heartRate, int steps) {
+        if (!HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
+            return;
+        }
+        currentHeartRate = heartRate;
+        if (!currentHeartRateChanged) {
+            currentHeartRateChanged = true;
+            // runs after the rest of the drained samples, so the list is refreshed once per batch
+            deviceListView.post(() -> {
+                currentHeartRateChanged = false;
+                refreshPairedDevices();
+            });
         }
     }
 
@@ -286,10 +287,10 @@ public class ControlCenterv2 extends AppCompatActivity
         filterLocal.addAction(GBApplication.ACTION_QUIT);
         filterLocal.addAction(GBApplication.ACTION_NEW_DATA);
         filterLocal.addAction(DeviceManager.ACTION_DEVICES_CHANGED);
-        filterLocal.addAction(DeviceService.ACTION_REALTIME_SAMPLES);
         filterLocal.addAction(ACTION_REQUEST_PERMISSIONS);
         filterLocal.addAction(ACTION_REQUEST_LOCATION_PERMISSIONS);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, filterLocal);
+        realtimeSampleListener = RealtimeSampleBuffer.getInstance().addConsumer(ContextCompat.getMainExecutor(this), this::handleRealtimeSample);
 
         refreshPairedDevices();
 
@@ -396,6 +397,7 @@ public class ControlCenterv2 extends AppCompatActivity
     protected void onDestroy() {
         unregisterForContextMenu(deviceListView);
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        RealtimeSampleBuffer.getInstance().removeListener(realtimeSampleListener);
         super.onDestroy();
     }
 
@@ -27,6 +27,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.provider.DocumentsContract;
+import android.text.format.Formatter;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ArrayAdapter;
@@ -51,7 +52,9 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IncrementalExporter;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
+import nodomain.freeyourgadget.gadgetbridge.database.TimeSampleBlockMigration;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
@@ -139,6 +142,14 @@ public class DataManagementActivity extends AbstractGBActivity {
             }
         });
 
+        Button compactSamplesButton = findViewById(R.id.compactSamplesButton);
+        compactSamplesButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                compactSamples();
+            }
+        });
+
         TextView dbPath2 = findViewById(R.id.activity_data_management_path2);
         dbPath2.setText(getExternalPath());
 
@@ -371,7 +382,15 @@ public class DataManagementActivity extends AbstractGBActivity {
                             File dir = FileUtils.getExternalFilesDir();
                             SQLiteOpenHelper sqLiteOpenHelper = dbHandler.getHelper();
                             File sourceFile = new File(dir, sqLiteOpenHelper.getDatabaseName());
-                            helper.importDB(dbHandler, sourceFile);
+                            IncrementalExporter incrementalExporter = new IncrementalExporter(dir, sqLiteOpenHelper.getDatabaseName());
+                            if (incrementalExporter.isNewerThan(sourceFile)) {
+                                helper.importDB(dbHandler, incrementalExporter.getBaseFile());
+                                int deltas = incrementalExporter.importDeltas(dbHandler.getDatabase());
+                                LOG.info("Imported incremental export with {} deltas", deltas);
+                            } else {
+                                helper.importDB(dbHandler, sourceFile);
+                            }
+                            IncrementalExporter.stopChangeTracking(dbHandler.getDatabase());
                             helper.validateDB(sqLiteOpenHelper);
                             GB.toast(DataManagementActivity.this, getString(R.string.dbmanagementactivity_import_successful), Toast.LENGTH_LONG, GB.INFO);
                         } catch (Exception ex) {
@@ -412,6 +431,40 @@ public class DataManagementActivity extends AbstractGBActivity {
                 .show();
     }
 
+    private void compactSamples() {
+        new MaterialAlertDialogBuilder(this)
+                .setCancelable(true)
+                .setIcon(R.drawable.ic_warning)
+                .setTitle(R.string.dbmanagementactivity_compact_samples_title)
+                .setMessage(R.string.dbmanagementactivity_compact_samples_confirmation)
+                .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final Context context = getApplicationContext();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                                    final TimeSampleBlockMigration.Result result = TimeSampleBlockMigration.migrate(dbHandler);
+                                    GB.toast(context, context.getString(R.string.dbmanagementactivity_compact_samples_done,
+                                            result.samples,
+                                            Formatter.formatShortFileSize(context, result.sizeBefore),
+                                            Formatter.formatShortFileSize(context, result.sizeAfter)), Toast.LENGTH_LONG, GB.INFO);
+                                } catch (Exception ex) {
+                                    GB.toast(context, context.getString(R.string.dbmanagementactivity_compact_samples_failed, ex.getMessage()), Toast.LENGTH_LONG, GB.ERROR, ex);
+                                }
+                            }
+                        }, "TimeSampleBlockMigration").start();
+                    }
+                })
+                .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                    }
+                })
+                .show();
+    }
+
     private void deleteOldActivityDbFile() {
         new MaterialAlertDialogBuilder(this)
                 .setCancelable(true)
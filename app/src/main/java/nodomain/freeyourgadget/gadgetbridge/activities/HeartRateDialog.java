@@ -1,11 +1,8 @@
 package nodomain.freeyourgadget.gadgetbridge.activities;
 
 import android.app.Dialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.ImageView;
@@ -14,17 +11,13 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.core.content.ContextCompat;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
-import java.util.Objects;
-
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSampleBuffer;
 
 public class HeartRateDialog extends Dialog {
     protected static final Logger LOG = LoggerFactory.getLogger(HeartRateDialog.class);
@@ -41,46 +34,26 @@ public class HeartRateDialog extends Dialog {
 
     TextView heart_rate_dialog_label;
 
-    final BroadcastReceiver mReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            switch (Objects.requireNonNull(intent.getAction())) {
-                case DeviceService.ACTION_REALTIME_SAMPLES:
-                    setMeasurementResults(intent.getSerializableExtra(DeviceService.EXTRA_REALTIME_SAMPLE));
-                    break;
-                default:
-                    LOG.info("ignoring intent action " + intent.getAction());
-                    break;
-            }
-        }
-    };
+    private Runnable mSampleListener;
 
     public HeartRateDialog(@NonNull Context context) {
         super(context);
     }
 
-    private void setMeasurementResults(Serializable result) {
+    private void setMeasurementResults(int timestamp, int heartRate, int steps) {
         heart_rate_dialog_results_layout.setVisibility(View.VISIBLE);
         heart_rate_dialog_loading_layout.setVisibility(View.GONE);
         heart_rate_dialog_label.setText(getContext().getString(R.string.heart_rate_result));
 
-        if (result instanceof ActivitySample) {
-            ActivitySample sample = (ActivitySample) result;
-            heart_rate_hr.setVisibility(View.VISIBLE);
-            if (HeartRateUtils.getInstance().isValidHeartRateValue(sample.getHeartRate()))
-                heart_rate_widget_hr_value.setText(String.valueOf(sample.getHeartRate()));
-        }
+        heart_rate_hr.setVisibility(View.VISIBLE);
+        if (HeartRateUtils.getInstance().isValidHeartRateValue(heartRate))
+            heart_rate_widget_hr_value.setText(String.valueOf(heartRate));
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(DeviceService.ACTION_REALTIME_SAMPLES);
-        LocalBroadcastManager.getInstance(getContext()).registerReceiver(mReceiver, filter);
-        getContext().registerReceiver(mReceiver, filter);
-
         setContentView(R.layout.heart_rate_dialog);
         heart_rate_dialog_results_layout = findViewById(R.id.heart_rate_dialog_results_layout);
         heart_rate_dialog_loading_layout = findViewById(R.id.heart_rate_dialog_loading_layout);
@@ -117,11 +90,12 @@ public class HeartRateDialog extends Dialog {
         heart_rate_dialog_results_layout.setVisibility(View.GONE);
         heart_rate_dialog_loading_layout.setVisibility(View.VISIBLE);
 
+        mSampleListener = RealtimeSampleBuffer.getInstance().addConsumer(ContextCompat.getMainExecutor(getContext()), this::setMeasurementResults);
+
         setOnCancelListener(new DialogInterface.OnCancelListener() {
             @Override
             public void onCancel(DialogInterface dialogInterface) {
-                LocalBroadcastManager.getInstance(getContext()).unregisterReceiver(mReceiver);
-                getContext().unregisterReceiver(mReceiver);
+                RealtimeSampleBuffer.getInstance().removeListener(mSampleListener);
             }
         });
     }
@@ -331,6 +331,19 @@ public class SettingsActivity extends AbstractSettingsActivityV2 {
                 pref.setOnPreferenceChangeListener((preference, autoExportEnabled) -> {
                     int autoExportInterval = GBApplication.getPrefs().getInt(GBPrefs.AUTO_EXPORT_INTERVAL, 0);
                     PeriodicExporter.scheduleAlarm(requireContext().getApplicationContext(), autoExportInterval, (boolean) autoExportEnabled);
+                    if (!(boolean) autoExportEnabled) {
+                        PeriodicExporter.stopIncrementalExport();
+                    }
+                    return true;
+                });
+            }
+
+            pref = findPreference(GBPrefs.AUTO_EXPORT_INCREMENTAL);
+            if (pref != null) {
+                pref.setOnPreferenceChangeListener((preference, autoExportIncremental) -> {
+                    if (!(boolean) autoExportIncremental) {
+                        PeriodicExporter.stopIncrementalExport();
+                    }
                     return true;
                 });
             }
@@ -27,7 +27,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -48,7 +47,6 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,9 +55,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -86,6 +87,8 @@ public abstract class AbstractAppManagerFragment extends Fragment {
             = "nodomain.freeyourgadget.gadgetbridge.appmanager.action.refresh_applist";
     private static final Logger LOG = LoggerFactory.getLogger(AbstractAppManagerFragment.class);
     private static final int CHILD_ACTIVITY_WATCHFACE_EDITOR = 0;
+    /// Number of preview images decoded before they are shown
+    private static final int PREVIEW_PAGE_SIZE = 24;
 
     private ItemTouchHelper appManagementTouchHelper;
 
@@ -95,6 +98,11 @@ public abstract class AbstractAppManagerFragment extends Fragment {
     protected DeviceCoordinator mCoordinator = null;
     private Class<? extends Activity> watchfaceDesignerActivity;
 
+    /// Reads the metadata index and the preview images off the UI thread
+    private final ExecutorService appListLoader = Executors.newSingleThreadExecutor();
+    /// Incremented on every refresh, so a previous one stops updating the list
+    private volatile int appListGeneration = 0;
+
     protected abstract List<GBDeviceApp> getSystemAppsInCategory();
 
     protected abstract String getSortFilename();
@@ -116,7 +124,6 @@ public abstract class AbstractAppManagerFragment extends Fragment {
     }
 
     protected void refreshList() {
-        appList.clear();
         ArrayList<UUID> uuids = AppManagerActivity.getUuidsFromFile(getSortFilename());
         List<GBDeviceApp> systemApps = getSystemAppsInCategory();
         boolean needsRewrite = false;
@@ -129,78 +136,188 @@ public abstract class AbstractAppManagerFragment extends Fragment {
         if (needsRewrite) {
             AppManagerActivity.rewriteAppOrderFile(getSortFilename(), uuids);
         }
-        appList.addAll(getCachedApps(uuids));
+        loadCachedApps(uuids, false);
     }
 
-    private void refreshListFromDevice(Intent intent) {
-        final Map<UUID, GBDeviceApp> cachedAppsMap = getCachedAppsMap(null);
-
-        appList.clear();
-        int appCount = intent.getIntExtra("app_count", 0);
-        for (int i = 0; i < appCount; i++) {
-            String appName = intent.getStringExtra("app_name" + i);
-            String appCreator = intent.getStringExtra("app_creator" + i);
-            String appVersion = intent.getStringExtra("app_version" + i);
-            UUID uuid = UUID.fromString(intent.getStringExtra("app_uuid" + i));
-            GBDeviceApp.Type appType = GBDeviceApp.Type.values()[intent.getIntExtra("app_type" + i, 0)];
-            Bitmap previewImage = getAppPreviewImage(uuid.toString());
-
-            // Fill out information from the cached app if missing
-            final GBDeviceApp cachedApp = cachedAppsMap.get(uuid);
-            if (cachedApp != null) {
-                if (StringUtils.isBlank(appName)) {
-                    appName = cachedApp.getName();
-                }
-                if (StringUtils.isBlank(appCreator)) {
-                    appCreator = cachedApp.getCreator();
-                }
-            } else {
-                if (StringUtils.isBlank(appName)) {
-                    // If the app does not have a name, fallback to uuid
-                    appName = uuid.toString();
-                }
+    /**
+     * Replaces the list with the cached apps, which are read from the metadata index in the
+     * background. Their preview images are loaded afterwards, a page at a time.
+     *
+     * @param uuids the apps to show, or null for all cached apps
+     * @param sort  whether to sort the apps by the sort file
+     */
+    protected void loadCachedApps(final List<UUID> uuids, final boolean sort) {
+        final int generation = ++appListGeneration;
+        final AppMetadataIndex index = getAppMetadataIndex();
+        if (index == null) {
+            appList.clear();
+            return;
+        }
+        appListLoader.execute(() -> {
+            final Map<GBDeviceApp, AppMetadataIndex.Entry> indexEntries = new IdentityHashMap<>();
+            final List<GBDeviceApp> cachedApps = readCachedApps(index, uuids, indexEntries);
+            if (sort) {
+                sortAppList(cachedApps);
             }
+            postToAppList(generation, () -> {
+                appList.clear();
+                appList.addAll(cachedApps);
+                mGBDeviceAppAdapter.notifyDataSetChanged();
+            });
+            loadPreviews(generation, index, cachedApps, indexEntries);
+            index.save();
+        });
+    }
 
-            GBDeviceApp app = new GBDeviceApp(uuid, appName, appCreator, appVersion, appType, previewImage);
-            app.setOnDevice(true);
-            if (mGBDevice.getType() == DeviceType.FOSSILQHYBRID) {
-                if ((app.getType() == GBDeviceApp.Type.WATCHFACE) && (!QHybridConstants.HYBRIDHR_WATCHFACE_VERSION.equals(appVersion))) {
-                    app.setUpToDate(false);
+    private void refreshListFromDevice(final Intent intent) {
+        final int generation = ++appListGeneration;
+        final List<GBDeviceApp> systemApps = mGBDevice.getType() == DeviceType.FOSSILQHYBRID
+                ? getSystemAppsInCategory()
+                : Collections.<GBDeviceApp>emptyList();
+
+        // the cached apps are looked up in the metadata index, so the list is built on the loader
+        appListLoader.execute(() -> {
+            final Map<UUID, GBDeviceApp> cachedAppsMap = getCachedAppsMap(null);
+
+            final List<GBDeviceApp> deviceAppList = new ArrayList<>();
+            final List<String> baseNames = new ArrayList<>();
+            final List<GBDeviceApp> deviceApps = new ArrayList<>();
+            int appCount = intent.getIntExtra("app_count", 0);
+            for (int i = 0; i < appCount; i++) {
+                String appName = intent.getStringExtra("app_name" + i);
+                String appCreator = intent.getStringExtra("app_creator" + i);
+                String appVersion = intent.getStringExtra("app_version" + i);
+                UUID uuid = UUID.fromString(intent.getStringExtra("app_uuid" + i));
+                GBDeviceApp.Type appType = GBDeviceApp.Type.values()[intent.getIntExtra("app_type" + i, 0)];
+
+                // Fill out information from the cached app if missing
+                final GBDeviceApp cachedApp = cachedAppsMap.get(uuid);
+                if (cachedApp != null) {
+                    if (StringUtils.isBlank(appName)) {
+                        appName = cachedApp.getName();
+                    }
+                    if (StringUtils.isBlank(appCreator)) {
+                        appCreator = cachedApp.getCreator();
+                    }
+                } else {
+                    if (StringUtils.isBlank(appName)) {
+                        // If the app does not have a name, fallback to uuid
+                        appName = uuid.toString();
+                    }
                 }
-                try {
-                    if ((app.getType() == GBDeviceApp.Type.APP_GENERIC) && ((new Version(app.getVersion())).smallerThan(new Version(QHybridConstants.KNOWN_WAPP_VERSIONS.get(app.getName()))))) {
+
+                // the preview image is loaded from the metadata index below
+                GBDeviceApp app = new GBDeviceApp(uuid, appName, appCreator, appVersion, appType, null);
+                app.setOnDevice(true);
+                if (mGBDevice.getType() == DeviceType.FOSSILQHYBRID) {
+                    if ((app.getType() == GBDeviceApp.Type.WATCHFACE) && (!QHybridConstants.HYBRIDHR_WATCHFACE_VERSION.equals(appVersion))) {
                         app.setUpToDate(false);
                     }
-                } catch (IllegalArgumentException e) {
-                    LOG.warn("App JSON: " + app.getJSON().toString());
-                    LOG.warn("Couldn't read app version", e);
+                    try {
+                        if ((app.getType() == GBDeviceApp.Type.APP_GENERIC) && ((new Version(app.getVersion())).smallerThan(new Version(QHybridConstants.KNOWN_WAPP_VERSIONS.get(app.getName()))))) {
+                            app.setUpToDate(false);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("App JSON: " + app.getJSON().toString());
+                        LOG.warn("Couldn't read app version", e);
+                    }
+                }
+
+                if (filterApp(app)) {
+                    deviceAppList.add(app);
+                    deviceApps.add(app);
+                    baseNames.add(uuid.toString());
                 }
             }
+            deviceAppList.addAll(systemApps);
 
-            if (filterApp(app)) {
-                appList.add(app);
+            postToAppList(generation, () -> {
+                appList.clear();
+                appList.addAll(deviceAppList);
+                mGBDeviceAppAdapter.notifyDataSetChanged();
+            });
+
+            final AppMetadataIndex index = getAppMetadataIndex();
+            if (index != null) {
+                final List<AppMetadataIndex.Entry> entries = index.query(baseNames);
+                final Map<GBDeviceApp, AppMetadataIndex.Entry> indexEntries = new IdentityHashMap<>();
+                for (int i = 0; i < deviceApps.size(); i++) {
+                    indexEntries.put(deviceApps.get(i), entries.get(i));
+                }
+                loadPreviews(generation, index, deviceApps, indexEntries);
+                index.save();
             }
+        });
+    }
+
+    private AppMetadataIndex getAppMetadataIndex() {
+        final File cachePath;
+        try {
+            cachePath = mCoordinator.getAppCacheDir();
+        } catch (IOException e) {
+            LOG.warn("could not get external dir while reading app cache.");
+            return null;
         }
-        if (mGBDevice.getType() == DeviceType.FOSSILQHYBRID) {
-            List<GBDeviceApp> systemApps = getSystemAppsInCategory();
-            for (GBDeviceApp systemApp : systemApps) {
-                appList.add(systemApp);
-            }
+
+        if (cachePath == null) {
+            LOG.warn("Cached apps path is null");
+            return null;
         }
+        return AppMetadataIndex.forDirectory(cachePath, mCoordinator.getAppFileExtension());
     }
 
-    private Bitmap getAppPreviewImage(String name) {
-        Bitmap previewImage = null;
-        try {
-            File cacheDir = mCoordinator.getAppCacheDir();
-            File previewImgFile = new File(cacheDir, name + "_preview.png");
-            if (previewImgFile.exists()) {
-                previewImage = BitmapFactory.decodeFile(previewImgFile.getAbsolutePath());
+    /**
+     * Decodes the preview thumbnails of the apps on the loader thread, creating those which were
+     * not yet, and shows them a page at a time, until the list is refreshed again.
+     */
+    private void loadPreviews(final int generation, final AppMetadataIndex index, final List<GBDeviceApp> apps, final Map<GBDeviceApp, AppMetadataIndex.Entry> indexEntries) {
+        for (int start = 0; start < apps.size(); start += PREVIEW_PAGE_SIZE) {
+            if (generation != appListGeneration) {
+                return;
             }
-        } catch (IOException e) {
-            LOG.warn("Couldn't load watch app preview image", e);
+            final List<GBDeviceApp> pageApps = new ArrayList<>();
+            final List<Bitmap> pagePreviews = new ArrayList<>();
+            for (int i = start; i < Math.min(apps.size(), start + PREVIEW_PAGE_SIZE); i++) {
+                final AppMetadataIndex.Entry entry = indexEntries.get(apps.get(i));
+                if (entry == null) {
+                    continue;
+                }
+                final Bitmap preview = index.loadThumbnail(entry);
+                if (preview != null) {
+                    pageApps.add(apps.get(i));
+                    pagePreviews.add(preview);
+                }
+            }
+            if (pageApps.isEmpty()) {
+                continue;
+            }
+            postToAppList(generation, () -> {
+                for (int i = 0; i < pageApps.size(); i++) {
+                    final GBDeviceApp app = pageApps.get(i);
+                    app.setPreviewImage(pagePreviews.get(i));
+                    // the user may have moved the app in the meantime
+                    final int position = appList.indexOf(app);
+                    if (position >= 0) {
+                        mGBDeviceAppAdapter.notifyItemChanged(position);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the update of the app list on the UI thread, unless the list was refreshed again since.
+     */
+    private void postToAppList(final int generation, final Runnable update) {
+        final Activity activity = getActivity();
+        if (activity == null) {
+            return;
         }
-        return previewImage;
+        activity.runOnUiThread(() -> {
+            if (generation == appListGeneration && mGBDeviceAppAdapter != null) {
+                update.run();
+            }
+        });
     }
 
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
@@ -269,114 +386,103 @@ public abstract class AbstractAppManagerFragment extends Fragment {
         return cachedAppsMap;
     }
 
+    /**
+     * Reads the cached apps from the metadata index, without their preview images. Call it off the
+     * UI thread, e.g. on the app list loader.
+     *
+     * @param uuids the apps to read, or null for all cached apps
+     */
     protected List<GBDeviceApp> getCachedApps(List<UUID> uuids) {
-        List<GBDeviceApp> cachedAppList = new ArrayList<>();
-        File cachePath;
-        try {
-            cachePath = mCoordinator.getAppCacheDir();
-        } catch (IOException e) {
-            LOG.warn("could not get external dir while reading app cache.");
-            return cachedAppList;
-        }
-
-        if (cachePath == null) {
-            LOG.warn("Cached apps path is null");
+        final AppMetadataIndex index = getAppMetadataIndex();
+        if (index == null) {
             return Collections.emptyList();
         }
+        final List<GBDeviceApp> cachedAppList = readCachedApps(index, uuids, new IdentityHashMap<>());
+        appListLoader.execute(index::save);
+        return cachedAppList;
+    }
 
-        File[] files;
-        if (uuids == null) {
-            files = cachePath.listFiles();
-        } else {
-            files = new File[uuids.size()];
-            int index = 0;
+    private List<GBDeviceApp> readCachedApps(final AppMetadataIndex index, final List<UUID> uuids, final Map<GBDeviceApp, AppMetadataIndex.Entry> indexEntries) {
+        List<String> baseNames = null;
+        if (uuids != null) {
+            baseNames = new ArrayList<>(uuids.size());
             for (UUID uuid : uuids) {
-                files[index++] = new File(uuid.toString() + mCoordinator.getAppFileExtension());
+                baseNames.add(uuid.toString());
             }
         }
-        if (files != null) {
-            for (File file : files) {
-                if (file.getName().endsWith(mCoordinator.getAppFileExtension())) {
-                    String baseName = file.getName().substring(0, file.getName().length() - mCoordinator.getAppFileExtension().length());
-                    //metadata
-                    File jsonFile = new File(cachePath, baseName + ".json");
-                    //configuration
-                    File configFile = new File(cachePath, baseName + "_config.js");
+
+        List<GBDeviceApp> cachedAppList = new ArrayList<>();
+        for (AppMetadataIndex.Entry entry : index.query(baseNames)) {
+            String baseName = entry.baseName;
+            GBDeviceApp app = entry.createApp();
+            if (app != null) {
+                if (mGBDevice.getType() == DeviceType.FOSSILQHYBRID) {
+                    if ((app.getType() == GBDeviceApp.Type.WATCHFACE) && (!QHybridConstants.HYBRIDHR_WATCHFACE_VERSION.equals(app.getVersion()))) {
+                        app.setUpToDate(false);
+                    }
                     try {
-                        String jsonstring = FileUtils.getStringFromFile(jsonFile);
-                        JSONObject json = new JSONObject(jsonstring);
-                        GBDeviceApp app = new GBDeviceApp(json, configFile.exists(), getAppPreviewImage(baseName));
-                        if (mGBDevice.getType() == DeviceType.FOSSILQHYBRID) {
-                            if ((app.getType() == GBDeviceApp.Type.WATCHFACE) && (!QHybridConstants.HYBRIDHR_WATCHFACE_VERSION.equals(app.getVersion()))) {
-                                app.setUpToDate(false);
-                            }
-                            try {
-                                if ((app.getType() == GBDeviceApp.Type.APP_GENERIC) && ((new Version(app.getVersion())).smallerThan(new Version(QHybridConstants.KNOWN_WAPP_VERSIONS.get(app.getName()))))) {
-                                    app.setUpToDate(false);
-                                }
-                            } catch (IllegalArgumentException e) {
-                                LOG.warn("Couldn't read app version", e);
-                            }
+                        if ((app.getType() == GBDeviceApp.Type.APP_GENERIC) && ((new Version(app.getVersion())).smallerThan(new Version(QHybridConstants.KNOWN_WAPP_VERSIONS.get(app.getName()))))) {
+                            app.setUpToDate(false);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Couldn't read app version", e);
+                    }
+                }
+                cachedAppList.add(app);
+                indexEntries.put(app, entry);
+            } else if (mGBDevice.getType() == DeviceType.PEBBLE) {
+                //FIXME: this is really ugly, if we do not find system uuids in pbw cache add them manually. Also duplicated code
+                switch (baseName) {
+                    case "8f3c8686-31a1-4f5f-91f5-01600c9bdc59":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Tic Toc (System)", "Pebble Inc.", "", GBDeviceApp.Type.WATCHFACE_SYSTEM));
+                        break;
+                    case "1f03293d-47af-4f28-b960-f2b02a6dd757":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Music (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        break;
+                    case "b2cae818-10f8-46df-ad2b-98ad2254a3c1":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Notifications (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        break;
+                    case "67a32d95-ef69-46d4-a0b9-854cc62f97f9":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Alarms (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        break;
+                    case "18e443ce-38fd-47c8-84d5-6d0c775fbe55":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Watchfaces (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        break;
+                    case "0863fc6a-66c5-4f62-ab8a-82ed00a98b5d":
+                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Send Text (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        break;
+                }
+                /*
+                else if (baseName.equals("4dab81a6-d2fc-458a-992c-7a1f3b96a970")) {
+                    cachedAppList.add(new GBDeviceApp(UUID.fromString("4dab81a6-d2fc-458a-992c-7a1f3b96a970"), "Sports (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                } else if (baseName.equals("cf1e816a-9db0-4511-bbb8-f60c48ca8fac")) {
+                    cachedAppList.add(new GBDeviceApp(UUID.fromString("cf1e816a-9db0-4511-bbb8-f60c48ca8fac"), "Golf (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                }
+                */
+                if (mGBDevice != null) {
+                    if (PebbleUtils.hasHealth(mGBDevice.getModel())) {
+                        if (baseName.equals(PebbleProtocol.UUID_PEBBLE_HEALTH.toString())) {
+                            cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_PEBBLE_HEALTH, "Health (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                            continue;
                         }
-                        cachedAppList.add(app);
-                    } catch (Exception e) {
-                        LOG.info("could not read json file for " + baseName);
-                        if (mGBDevice.getType() == DeviceType.PEBBLE) {
-                            //FIXME: this is really ugly, if we do not find system uuids in pbw cache add them manually. Also duplicated code
-                            switch (baseName) {
-                                case "8f3c8686-31a1-4f5f-91f5-01600c9bdc59":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Tic Toc (System)", "Pebble Inc.", "", GBDeviceApp.Type.WATCHFACE_SYSTEM));
-                                    break;
-                                case "1f03293d-47af-4f28-b960-f2b02a6dd757":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Music (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    break;
-                                case "b2cae818-10f8-46df-ad2b-98ad2254a3c1":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Notifications (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    break;
-                                case "67a32d95-ef69-46d4-a0b9-854cc62f97f9":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Alarms (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    break;
-                                case "18e443ce-38fd-47c8-84d5-6d0c775fbe55":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Watchfaces (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    break;
-                                case "0863fc6a-66c5-4f62-ab8a-82ed00a98b5d":
-                                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Send Text (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    break;
-                            }
-                            /*
-                            else if (baseName.equals("4dab81a6-d2fc-458a-992c-7a1f3b96a970")) {
-                                cachedAppList.add(new GBDeviceApp(UUID.fromString("4dab81a6-d2fc-458a-992c-7a1f3b96a970"), "Sports (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                            } else if (baseName.equals("cf1e816a-9db0-4511-bbb8-f60c48ca8fac")) {
-                                cachedAppList.add(new GBDeviceApp(UUID.fromString("cf1e816a-9db0-4511-bbb8-f60c48ca8fac"), "Golf (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                            }
-                            */
-                            if (mGBDevice != null) {
-                                if (PebbleUtils.hasHealth(mGBDevice.getModel())) {
-                                    if (baseName.equals(PebbleProtocol.UUID_PEBBLE_HEALTH.toString())) {
-                                        cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_PEBBLE_HEALTH, "Health (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                        continue;
-                                    }
-                                }
-                                if (PebbleUtils.hasHRM(mGBDevice.getModel())) {
-                                    if (baseName.equals(PebbleProtocol.UUID_WORKOUT.toString())) {
-                                        cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_WORKOUT, "Workout (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                        continue;
-                                    }
-                                }
-                                if (PebbleUtils.getFwMajor(mGBDevice.getFirmwareVersion()) >= 4) {
-                                    if (baseName.equals("3af858c3-16cb-4561-91e7-f1ad2df8725f")) {
-                                        cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Kickstart (System)", "Pebble Inc.", "", GBDeviceApp.Type.WATCHFACE_SYSTEM));
-                                    }
-                                    if (baseName.equals(PebbleProtocol.UUID_WEATHER.toString())) {
-                                        cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_WEATHER, "Weather (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
-                                    }
-                                }
-                            }
-                            if (uuids == null) {
-                                cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), baseName, "N/A", "", GBDeviceApp.Type.UNKNOWN));
-                            }
+                    }
+                    if (PebbleUtils.hasHRM(mGBDevice.getModel())) {
+                        if (baseName.equals(PebbleProtocol.UUID_WORKOUT.toString())) {
+                            cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_WORKOUT, "Workout (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                            continue;
                         }
                     }
+                    if (PebbleUtils.getFwMajor(mGBDevice.getFirmwareVersion()) >= 4) {
+                        if (baseName.equals("3af858c3-16cb-4561-91e7-f1ad2df8725f")) {
+                            cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), "Kickstart (System)", "Pebble Inc.", "", GBDeviceApp.Type.WATCHFACE_SYSTEM));
+                        }
+                        if (baseName.equals(PebbleProtocol.UUID_WEATHER.toString())) {
+                            cachedAppList.add(new GBDeviceApp(PebbleProtocol.UUID_WEATHER, "Weather (System)", "Pebble Inc.", "", GBDeviceApp.Type.APP_SYSTEM));
+                        }
+                    }
+                }
+                if (uuids == null) {
+                    cachedAppList.add(new GBDeviceApp(UUID.fromString(baseName), baseName, "N/A", "", GBDeviceApp.Type.UNKNOWN));
                 }
             }
         }
@@ -743,6 +849,8 @@ public abstract class AbstractAppManagerFragment extends Fragment {
     @Override
     public void onDestroy() {
         LocalBroadcastManager.getInstance(getContext()).unregisterReceiver(mReceiver);
+        appListGeneration++;
+        appListLoader.shutdown();
         super.onDestroy();
     }
 
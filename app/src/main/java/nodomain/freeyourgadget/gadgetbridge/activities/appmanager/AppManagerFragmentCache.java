@@ -23,10 +23,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
 public class AppManagerFragmentCache extends AbstractAppManagerFragment {
     @Override
     public void refreshList() {
-        appList.clear();
-        final List<GBDeviceApp> cachedApps = getCachedApps(null);
-        sortAppList(cachedApps);
-        appList.addAll(cachedApps);
+        loadCachedApps(null, true);
     }
 
     @Override
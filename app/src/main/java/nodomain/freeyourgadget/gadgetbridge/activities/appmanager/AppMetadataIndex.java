@@ -0,0 +1,405 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.appmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Persistent index of the metadata of the apps and watchfaces in an app cache directory.
+ * <p>
+ * Each entry is keyed by the path of the app file and remembers the size and modification time of
+ * the app, its metadata, configuration and preview files. The metadata is only read again, and the
+ * preview only scaled down again, when one of those changed. Queries only read the metadata, the
+ * thumbnails are created when the previews are first loaded. The index is stored as JSON in the
+ * cache directory, the preview thumbnails in a sub directory next to it.
+ */
+class AppMetadataIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(AppMetadataIndex.class);
+
+    static final String INDEX_FILENAME = ".app_metadata_index.json";
+    static final String THUMBNAIL_DIRNAME = ".app_thumbnails";
+
+    /// Maximum width and height of the thumbnails, the width of the app manager grid columns
+    static final int THUMBNAIL_SIZE = 300;
+
+    private static final int VERSION = 1;
+
+    private static final Map<String, AppMetadataIndex> INDEXES = new HashMap<>();
+
+    private final File cacheDir;
+    private final String appFileExtension;
+    private final File indexFile;
+    private final File thumbnailDir;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded = false;
+    private boolean dirty = false;
+
+    AppMetadataIndex(final File cacheDir, final String appFileExtension) {
+        this.cacheDir = cacheDir;
+        this.appFileExtension = appFileExtension;
+        this.indexFile = new File(cacheDir, INDEX_FILENAME);
+        this.thumbnailDir = new File(cacheDir, THUMBNAIL_DIRNAME);
+    }
+
+    /**
+     * The index of the given app cache directory, shared by all app manager fragments.
+     */
+    static synchronized AppMetadataIndex forDirectory(final File cacheDir, final String appFileExtension) {
+        final String key = cacheDir.getAbsolutePath() + File.pathSeparator + appFileExtension;
+        AppMetadataIndex index = INDEXES.get(key);
+        if (index == null) {
+            index = new AppMetadataIndex(cacheDir, appFileExtension);
+            INDEXES.put(key, index);
+        }
+        return index;
+    }
+
+    static final class Entry {
+        final String baseName;
+        private final long[] stamp;
+        /// The normalized metadata, null if the metadata file could not be read
+        final JSONObject metadata;
+        final boolean configurable;
+        /// The thumbnail path relative to the cache directory, null if there is no preview. Only
+        /// valid once thumbnailCreated is set, both are guarded by the index.
+        private String thumbnail;
+        private boolean thumbnailCreated;
+
+        private Entry(final String baseName, final long[] stamp, final JSONObject metadata, final boolean configurable) {
+            this.baseName = baseName;
+            this.stamp = stamp;
+            this.metadata = metadata;
+            this.configurable = configurable;
+        }
+
+        /**
+         * Creates the app without a preview image, or returns null if there is no metadata.
+         */
+        GBDeviceApp createApp() {
+            if (metadata == null) {
+                return null;
+            }
+            return new GBDeviceApp(metadata, configurable, null);
+        }
+    }
+
+    /**
+     * Returns the entries of the given apps, or of all app files in the directory if baseNames
+     * is null, in that order. Apps which changed since they were indexed are read again. A query
+     * of all app files also drops the entries of apps that were removed.
+     */
+    synchronized List<Entry> query(List<String> baseNames) {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+
+        final boolean fullScan = baseNames == null;
+        if (fullScan) {
+            baseNames = listAppFiles();
+        }
+
+        final List<Entry> result = new ArrayList<>(baseNames.size());
+        final Set<String> seen = fullScan ? new HashSet<>() : null;
+        int reread = 0;
+        for (final String baseName : baseNames) {
+            final String key = getAppFile(baseName).getPath();
+            final long[] stamp = getStamp(baseName);
+            Entry entry = entries.get(key);
+            if (entry == null || !Arrays.equals(entry.stamp, stamp)) {
+                if (entry != null) {
+                    deleteThumbnail(entry);
+                }
+                entry = read(baseName, stamp);
+                entries.put(key, entry);
+                dirty = true;
+                reread++;
+            }
+            if (seen != null) {
+                seen.add(key);
+            }
+            result.add(entry);
+        }
+
+        if (fullScan) {
+            for (final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, Entry> e = it.next();
+                if (!seen.contains(e.getKey())) {
+                    deleteThumbnail(e.getValue());
+                    it.remove();
+                    dirty = true;
+                }
+            }
+        }
+
+        LOG.debug("Queried {} apps from the metadata index, {} read again", result.size(), reread);
+        return result;
+    }
+
+    /**
+     * Decodes the thumbnail of the entry, creating it first if it was not yet, or returns null if
+     * it has none. Call it off the UI thread.
+     */
+    Bitmap loadThumbnail(final Entry entry) {
+        final String thumbnail;
+        synchronized (this) {
+            if (!entry.thumbnailCreated) {
+                if (entries.get(getAppFile(entry.baseName).getPath()) != entry) {
+                    // read again by a later query, whose entry will get the thumbnail
+                    return null;
+                }
+                entry.thumbnail = createThumbnail(entry.baseName);
+                entry.thumbnailCreated = true;
+                dirty = true;
+            }
+            thumbnail = entry.thumbnail;
+        }
+        if (thumbnail == null) {
+            return null;
+        }
+        return BitmapFactory.decodeFile(new File(cacheDir, thumbnail).getAbsolutePath());
+    }
+
+    /**
+     * Writes the index if it changed since it was loaded or last saved.
+     */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        final JSONArray array = new JSONArray();
+        try {
+            for (final Map.Entry<String, Entry> e : entries.entrySet()) {
+                final Entry entry = e.getValue();
+                final JSONObject json = new JSONObject();
+                json.put("path", e.getKey());
+                json.put("baseName", entry.baseName);
+                final JSONArray stamp = new JSONArray();
+                for (final long value : entry.stamp) {
+                    stamp.put(value);
+                }
+                json.put("stamp", stamp);
+                json.putOpt("metadata", entry.metadata);
+                json.put("configurable", entry.configurable);
+                json.put("thumbnailCreated", entry.thumbnailCreated);
+                json.putOpt("thumbnail", entry.thumbnail);
+                array.put(json);
+            }
+        } catch (final JSONException e) {
+            LOG.error("Failed to serialize the app metadata index", e);
+            return;
+        }
+
+        final JSONObject root = new JSONObject();
+        try {
+            root.put("version", VERSION);
+            root.put("entries", array);
+        } catch (final JSONException e) {
+            LOG.error("Failed to serialize the app metadata index", e);
+            return;
+        }
+
+        // Write to a temporary file first, so a crash never leaves a truncated index behind
+        final File tmpFile = new File(cacheDir, indexFile.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(root.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            LOG.error("Failed to write the app metadata index", e);
+            return;
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            LOG.error("Failed to replace {}", indexFile);
+            return;
+        }
+        dirty = false;
+        LOG.debug("Saved {} entries to the app metadata index", entries.size());
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(indexFile)) {
+            final JSONObject root = new JSONObject(new String(FileUtils.readAll(in, indexFile.length()), StandardCharsets.UTF_8));
+            if (root.optInt("version") != VERSION) {
+                LOG.info("Ignoring app metadata index of version {}", root.optInt("version"));
+                return;
+            }
+            final JSONArray array = root.getJSONArray("entries");
+            for (int i = 0; i < array.length(); i++) {
+                final JSONObject json = array.getJSONObject(i);
+                final JSONArray stampArray = json.getJSONArray("stamp");
+                final long[] stamp = new long[stampArray.length()];
+                for (int j = 0; j < stamp.length; j++) {
+                    stamp[j] = stampArray.getLong(j);
+                }
+                final Entry entry = new Entry(
+                        json.getString("baseName"),
+                        stamp,
+                        json.optJSONObject("metadata"),
+                        json.optBoolean("configurable")
+                );
+                entry.thumbnailCreated = json.optBoolean("thumbnailCreated");
+                entry.thumbnail = json.has("thumbnail") ? json.getString("thumbnail") : null;
+                entries.put(json.getString("path"), entry);
+            }
+            LOG.info("Loaded {} entries from the app metadata index", entries.size());
+        } catch (final IOException | JSONException e) {
+            LOG.error("Failed to load the app metadata index, rebuilding it", e);
+            entries.clear();
+        }
+    }
+
+    private List<String> listAppFiles() {
+        final List<String> baseNames = new ArrayList<>();
+        final File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (name.endsWith(appFileExtension)) {
+                    baseNames.add(name.substring(0, name.length() - appFileExtension.length()));
+                }
+            }
+        }
+        return baseNames;
+    }
+
+    private File getAppFile(final String baseName) {
+        return new File(cacheDir, baseName + appFileExtension);
+    }
+
+    private File getMetadataFile(final String baseName) {
+        return new File(cacheDir, baseName + ".json");
+    }
+
+    private File getConfigFile(final String baseName) {
+        return new File(cacheDir, baseName + "_config.js");
+    }
+
+    private File getPreviewFile(final String baseName) {
+        return new File(cacheDir, baseName + "_preview.png");
+    }
+
+    /// Size and modification time of all files an entry is built from, 0 for missing files
+    private long[] getStamp(final String baseName) {
+        final File[] files = {getAppFile(baseName), getMetadataFile(baseName), getConfigFile(baseName), getPreviewFile(baseName)};
+        final long[] stamp = new long[files.length * 2];
+        for (int i = 0; i < files.length; i++) {
+            stamp[i * 2] = files[i].length();
+            stamp[i * 2 + 1] = files[i].lastModified();
+        }
+        return stamp;
+    }
+
+    private Entry read(final String baseName, final long[] stamp) {
+        JSONObject metadata = null;
+        try {
+            final JSONObject json = new JSONObject(FileUtils.getStringFromFile(getMetadataFile(baseName)));
+            // keep only what the app list shows, the metadata files can be large
+            metadata = new GBDeviceApp(json, false, null).getJSON();
+        } catch (final Exception e) {
+            LOG.info("could not read json file for " + baseName);
+        }
+        final boolean configurable = getConfigFile(baseName).exists();
+        return new Entry(baseName, stamp, metadata, configurable);
+    }
+
+    private String createThumbnail(final String baseName) {
+        final File previewFile = getPreviewFile(baseName);
+        if (!previewFile.exists()) {
+            return null;
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(previewFile.getAbsolutePath(), options);
+        final int size = Math.max(options.outWidth, options.outHeight);
+        if (size <= 0) {
+            LOG.warn("Could not decode preview image {}", previewFile);
+            return null;
+        }
+        if (size <= THUMBNAIL_SIZE) {
+            // small enough to be shown as it is
+            return previewFile.getName();
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (size / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        final Bitmap sampled = BitmapFactory.decodeFile(previewFile.getAbsolutePath(), options);
+        if (sampled == null) {
+            LOG.warn("Could not decode preview image {}", previewFile);
+            return null;
+        }
+        final float scale = (float) THUMBNAIL_SIZE / Math.max(sampled.getWidth(), sampled.getHeight());
+        final Bitmap thumbnail = scale < 1
+                ? Bitmap.createScaledBitmap(sampled, Math.max(1, Math.round(sampled.getWidth() * scale)), Math.max(1, Math.round(sampled.getHeight() * scale)), true)
+                : sampled;
+
+        if (!thumbnailDir.exists() && !thumbnailDir.mkdirs()) {
+            LOG.error("Failed to create {}", thumbnailDir);
+            return previewFile.getName();
+        }
+        final String thumbnailPath = THUMBNAIL_DIRNAME + File.separator + baseName + ".png";
+        try (OutputStream out = new FileOutputStream(new File(cacheDir, thumbnailPath))) {
+            thumbnail.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (final IOException e) {
+            LOG.error("Failed to write the thumbnail of {}", baseName, e);
+            return previewFile.getName();
+        }
+        return thumbnailPath;
+    }
+
+    private void deleteThumbnail(final Entry entry) {
+        if (entry.thumbnail == null || !entry.thumbnail.startsWith(THUMBNAIL_DIRNAME)) {
+            return;
+        }
+        final File file = new File(cacheDir, entry.thumbnail);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete {}", file);
+        }
+    }
+}
@@ -17,6 +17,7 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
+import android.app.Activity;
 import android.util.TypedValue;
 
 import androidx.core.content.ContextCompat;
@@ -159,7 +160,11 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
      */
     protected List<? extends ActivitySample> getAllSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         SampleProvider<? extends ActivitySample> provider = getProvider(db, device);
-        return provider.getAllActivitySamples(tsFrom, tsTo);
+        SampleCache sampleCache = getSampleCache();
+        if (sampleCache == null) {
+            return provider.getAllActivitySamples(tsFrom, tsTo);
+        }
+        return sampleCache.get(device.getAddress(), "all", tsFrom, tsTo, provider.isRangeDependent(), provider::getAllActivitySamples);
     }
 
     protected List<? extends AbstractActivitySample> getActivitySamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
@@ -170,7 +175,22 @@ public abstract class AbstractActivityChartFragment<D extends ChartsData> extend
 
     protected List<? extends ActivitySample> getSleepSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         SampleProvider<? extends ActivitySample> provider = getProvider(db, device);
-        return provider.getSleepSamples(tsFrom, tsTo);
+        SampleCache sampleCache = getSampleCache();
+        if (sampleCache == null) {
+            return provider.getSleepSamples(tsFrom, tsTo);
+        }
+        return sampleCache.get(device.getAddress(), "sleep", tsFrom, tsTo, provider.isRangeDependent(), provider::getSleepSamples);
+    }
+
+    /**
+     * Returns the sample cache of the hosting charts activity, or null if there is none.
+     */
+    private SampleCache getSampleCache() {
+        Activity activity = getActivity();
+        if (activity instanceof AbstractChartsActivity) {
+            return ((AbstractChartsActivity) activity).mSampleCache;
+        }
+        return null;
     }
 
     public DefaultChartsData<LineData> refresh(GBDevice gbDevice, List<? extends ActivitySample> samples) {
@@ -69,6 +69,8 @@ public abstract class AbstractChartsActivity extends AbstractGBFragmentActivity
     private GBDevice mGBDevice;
     private ViewGroup dateBar;
 
+    final SampleCache mSampleCache = new SampleCache();
+
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -80,6 +82,9 @@ public abstract class AbstractChartsActivity extends AbstractGBFragmentActivity
                         refreshBusyState(dev);
                     }
                     break;
+                case GBApplication.ACTION_NEW_DATA:
+                    mSampleCache.invalidate(mGBDevice.getAddress());
+                    break;
             }
         }
     };
@@ -91,6 +96,7 @@ public abstract class AbstractChartsActivity extends AbstractGBFragmentActivity
             boolean wasBusy = swipeLayout.isRefreshing();
             swipeLayout.setRefreshing(false);
             if (wasBusy) {
+                mSampleCache.invalidate(mGBDevice.getAddress());
                 LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(REFRESH));
             }
         }
@@ -113,6 +119,7 @@ public abstract class AbstractChartsActivity extends AbstractGBFragmentActivity
 
         final IntentFilter filterLocal = new IntentFilter();
         filterLocal.addAction(GBDevice.ACTION_DEVICE_CHANGED);
+        filterLocal.addAction(GBApplication.ACTION_NEW_DATA);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, filterLocal);
 
         final Bundle extras = getIntent().getExtras();
@@ -382,8 +382,9 @@ public abstract class AbstractWeekChartFragment extends AbstractActivityChartFra
         }
 
         if (amounts == null) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            amounts = analysis.calculateActivityAmounts(getSamplesOfDay(db, day, mOffsetHours, device));
+            ActivityAnalysis.AmountsAccumulator amountsAccumulator = new ActivityAnalysis.AmountsAccumulator();
+            new SampleAnalysisPipeline().add(amountsAccumulator).run(getSamplesOfDay(db, day, mOffsetHours, device));
+            amounts = amountsAccumulator.getResult();
             if (activityAmountCache != null) {
                 activityAmountCache.add(key, amounts);
             }
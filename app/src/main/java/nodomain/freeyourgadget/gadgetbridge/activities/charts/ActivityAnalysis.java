@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
@@ -33,19 +34,43 @@ public class ActivityAnalysis {
 
     // store raw steps and duration
     protected HashMap<Integer, Long> stats = new HashMap<Integer, Long>();
-    // max speed determined from samples
-    private int maxSpeed = 0;
 
     public ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
-        ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
-        ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
-        ActivityAmount remSleep = new ActivityAmount(ActivityKind.TYPE_REM_SLEEP);
-        ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
-        ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
-
-        ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
+        AmountsAccumulator amounts = new AmountsAccumulator();
+        new SampleAnalysisPipeline()
+                .add(amounts)
+                .add(new SpeedZonesAccumulator(stats))
+                .run(samples);
+        return amounts.getResult();
+    }
+
+    int calculateTotalSteps(List<? extends ActivitySample> samples) {
+        int totalSteps = 0;
         for (ActivitySample sample : samples) {
+            int steps = sample.getSteps();
+            if (steps > 0) {
+                totalSteps += steps;
+            }
+        }
+        return totalSteps;
+    }
+
+    /**
+     * Sums up the steps and the time spent per activity kind.
+     */
+    public static class AmountsAccumulator implements SampleAccumulator {
+        private final ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+        private final ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+        private final ActivityAmount remSleep = new ActivityAmount(ActivityKind.TYPE_REM_SLEEP);
+        private final ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
+        private final ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+
+        private ActivityAmount previousAmount = null;
+        private ActivitySample previousSample = null;
+        private ActivityAmounts result;
+
+        @Override
+        public void accept(ActivitySample sample) {
             ActivityAmount amount;
             switch (sample.getKind()) {
                 case ActivityKind.TYPE_DEEP_SLEEP:
@@ -80,22 +105,6 @@ public class ActivityAnalysis {
                     previousAmount.addSeconds(sharedTimeDifference);
                     amount.addSeconds(sharedTimeDifference);
                 }
-
-                // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
-                    if (steps > maxSpeed) {
-                        maxSpeed = steps;
-                    }
-
-                    if (!stats.containsKey(steps)) {
-//                        LOG.debug("Adding: " + steps);
-                        stats.put(steps, timeDifference);
-                    } else {
-                        long time = stats.get(steps);
-//                        LOG.debug("Updating: " + steps + " " + timeDifference + time);
-                        stats.put(steps, timeDifference + time);
-                    }
-                }
             }
 
             amount.setStartDate(sample.getTimestamp());
@@ -105,36 +114,64 @@ public class ActivityAnalysis {
             previousSample = sample;
         }
 
-        ActivityAmounts result = new ActivityAmounts();
-        if (deepSleep.getTotalSeconds() > 0) {
-            result.addAmount(deepSleep);
-        }
-        if (lightSleep.getTotalSeconds() > 0) {
-            result.addAmount(lightSleep);
-        }
-        if (remSleep.getTotalSeconds() > 0) {
-            result.addAmount(remSleep);
-        }
-        if (activity.getTotalSeconds() > 0) {
-            result.addAmount(activity);
-        }
-        if (notWorn.getTotalSeconds() > 0) {
-            result.addAmount(notWorn);
-        }
+        @Override
+        public void finish() {
+            result = new ActivityAmounts();
+            if (deepSleep.getTotalSeconds() > 0) {
+                result.addAmount(deepSleep);
+            }
+            if (lightSleep.getTotalSeconds() > 0) {
+                result.addAmount(lightSleep);
+            }
+            if (remSleep.getTotalSeconds() > 0) {
+                result.addAmount(remSleep);
+            }
+            if (activity.getTotalSeconds() > 0) {
+                result.addAmount(activity);
+            }
+            if (notWorn.getTotalSeconds() > 0) {
+                result.addAmount(notWorn);
+            }
 
-        result.calculatePercentages();
+            result.calculatePercentages();
+        }
 
-        return result;
+        public ActivityAmounts getResult() {
+            return result;
+        }
     }
 
-    int calculateTotalSteps(List<? extends ActivitySample> samples) {
-        int totalSteps = 0;
-        for (ActivitySample sample : samples) {
+    /**
+     * Sums up the time spent at each step rate (steps per sample) while active.
+     */
+    public static class SpeedZonesAccumulator implements SampleAccumulator {
+        private final Map<Integer, Long> stats;
+        private ActivitySample previousSample = null;
+
+        /**
+         * @param stats the map to add the time per step rate to
+         */
+        public SpeedZonesAccumulator(Map<Integer, Long> stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void accept(ActivitySample sample) {
             int steps = sample.getSteps();
-            if (steps > 0) {
-                totalSteps += steps;
+            if (previousSample != null && steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
+                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
+                Long time = stats.get(steps);
+                stats.put(steps, time == null ? timeDifference : timeDifference + time);
             }
+            previousSample = sample;
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        public Map<Integer, Long> getStats() {
+            return stats;
         }
-        return totalSteps;
     }
 }
@@ -0,0 +1,84 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Minimum, maximum and average of the valid heart rates of the samples of the given activity
+ * kinds.
+ */
+public class HeartRateStatsAccumulator implements SampleAccumulator {
+    private final int[] activityKinds;
+    private final HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+
+    private int count = 0;
+    private float sum = 0;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    /**
+     * @param activityKinds the ActivityKinds of the samples to include
+     */
+    public HeartRateStatsAccumulator(int... activityKinds) {
+        this.activityKinds = activityKinds;
+    }
+
+    @Override
+    public void accept(ActivitySample sample) {
+        if (!isIncluded(sample.getKind())) {
+            return;
+        }
+        int heartRate = sample.getHeartRate();
+        if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
+            count++;
+            sum += heartRate;
+            min = Math.min(min, heartRate);
+            max = Math.max(max, heartRate);
+        }
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    private boolean isIncluded(int kind) {
+        for (int activityKind : activityKinds) {
+            if (kind == activityKind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getAverage() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public int getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public int getMax() {
+        return count > 0 ? max : 0;
+    }
+}
@@ -0,0 +1,89 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Sum, minimum and maximum of the intensities of the samples of the given activity kinds.
+ */
+public class IntensityStatsAccumulator implements SampleAccumulator {
+    private final int[] activityKinds;
+
+    private int count = 0;
+    private float sum = 0;
+    private float min = 0;
+    private float max = 0;
+
+    /**
+     * @param activityKinds the ActivityKinds of the samples to include
+     */
+    public IntensityStatsAccumulator(int... activityKinds) {
+        this.activityKinds = activityKinds;
+    }
+
+    @Override
+    public void accept(ActivitySample sample) {
+        if (!isIncluded(sample.getKind())) {
+            return;
+        }
+        float intensity = sample.getIntensity();
+        if (count == 0) {
+            min = intensity;
+            max = intensity;
+        } else {
+            // same ordering as Float.compareTo, like Collections.min/max
+            if (Float.compare(intensity, min) < 0) {
+                min = intensity;
+            }
+            if (Float.compare(intensity, max) > 0) {
+                max = intensity;
+            }
+        }
+        count++;
+        sum += intensity;
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    private boolean isIncluded(int kind) {
+        for (int activityKind : activityKinds) {
+            if (kind == activityKind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getSum() {
+        return sum;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+}
@@ -17,10 +17,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.graphics.Paint;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -52,10 +48,10 @@ import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.Nullable;
 import androidx.fragment.app.FragmentActivity;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
@@ -63,7 +59,7 @@ import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSampleBuffer;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsData> {
@@ -71,6 +67,7 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
     private static final int MAX_STEPS_PER_MINUTE = 300;
     private static final int MIN_STEPS_PER_MINUTE = 60;
     private static final int RESET_COUNT = 10; // reset the max steps per minute value every 10s
+    private static final int HISTORY_CAPACITY = 3600; // keep the last hour of the history chart
 
     private BarEntry totalStepsEntry;
     private BarEntry stepsPerMinuteEntry;
@@ -90,6 +87,13 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
     private int mMaxHeartRate = 0;
     private TimestampTranslation tsTranslation;
 
+    private final RealtimeSampleBuffer mSampleBuffer = RealtimeSampleBuffer.getInstance();
+    private long mSamplePosition;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    private final Runnable mFrameCallback = this::onFrame;
+    private final Runnable mSampleListener = this::scheduleFrame;
+    private boolean mHeartRateChanged;
+
     private class Steps {
         private int steps;
         private int lastTimestamp;
@@ -154,36 +158,43 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
         }
     }
 
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            String action = intent.getAction();
-            switch (action) {
-                case DeviceService.ACTION_REALTIME_SAMPLES: {
-                    ActivitySample sample = (ActivitySample) intent.getSerializableExtra(DeviceService.EXTRA_REALTIME_SAMPLE);
-                    addSample(sample);
-                    break;
-                }
-            }
+    /**
+     * Called on the thread that added a sample to the buffer. Coalesces all samples arriving
+     * within a display frame into a single UI update.
+     */
+    private void scheduleFrame() {
+        View view = mStepsPerMinuteHistoryChart;
+        if (view != null && mFrameScheduled.compareAndSet(false, true)) {
+            view.postOnAnimation(mFrameCallback);
+        }
+    }
+
+    /**
+     * Called in the UI thread, with all the samples that arrived since the previous frame.
+     */
+    private void onFrame() {
+        mFrameScheduled.set(false);
+        if (!isAdded()) {
+            // posted before the fragment was detached, the samples are skipped on the next resume
+            return;
         }
-    };
+        mHeartRateChanged = false;
+        mSamplePosition = mSampleBuffer.drain(mSamplePosition, this::addSample);
+        if (mHeartRateChanged) {
+            mMaxHeartRateView.setText(getContext().getString(R.string.live_activity_max_heart_rate, mHeartRate, mMaxHeartRate));
+        }
+    }
 
-    private void addSample(ActivitySample sample) {
-        int heartRate = sample.getHeartRate();
-        int timestamp = tsTranslation.shorten(sample.getTimestamp());
+    private void addSample(int sampleTimestamp, int heartRate, int steps) {
+        int timestamp = tsTranslation.shorten(sampleTimestamp);
         if (HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
             setCurrentHeartRate(heartRate, timestamp);
         }
-        int steps = sample.getSteps();
         if (steps > 0) {
             addEntries(steps, timestamp);
         }
     }
 
-    private int translateTimestampFrom(Intent intent) {
-        return translateTimestamp(intent.getLongExtra(DeviceService.EXTRA_TIMESTAMP, System.currentTimeMillis()));
-    }
-
     private int translateTimestamp(long tsMillis) {
         int timestamp = (int) (tsMillis / 1000); // translate to seconds
         return tsTranslation.shorten(timestamp); // and shorten
@@ -195,7 +206,7 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
         if (mMaxHeartRate < mHeartRate) {
             mMaxHeartRate = mHeartRate;
         }
-        mMaxHeartRateView.setText(getContext().getString(R.string.live_activity_max_heart_rate, heartRate, mMaxHeartRate));
+        mHeartRateChanged = true;
     }
 
     private int getCurrentHeartRate() {
@@ -238,13 +249,30 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
         if (stepsPerMinute < 0) {
             stepsPerMinute = 0;
         }
-        mHistorySet.addEntry(new Entry(timestamp, stepsPerMinute));
+        addHistoryEntry(mHistorySet, timestamp, stepsPerMinute, HISTORY_CAPACITY);
         int hr = getCurrentHeartRate();
         if (hr > HeartRateUtils.getInstance().getMinHeartRate()) {
-            mHeartRateSet.addEntry(new Entry(timestamp, hr));
+            addHistoryEntry(mHeartRateSet, timestamp, hr, HISTORY_CAPACITY);
         }
     }
 
+    /**
+     * Appends an entry to the given data set. Once the data set holds {@code capacity} entries,
+     * the oldest entry is dropped and reused, so that long sessions do not grow the chart data.
+     */
+    static void addHistoryEntry(LineDataSet set, float x, float y, int capacity) {
+        Entry entry;
+        if (set.getEntryCount() >= capacity) {
+            entry = set.getEntryForIndex(0);
+            set.removeFirst();
+            entry.setX(x);
+            entry.setY(y);
+        } else {
+            entry = new Entry(x, y);
+        }
+        set.addEntry(entry);
+    }
+
     private boolean addHistoryDataSet(boolean force) {
         if (mStepsPerMinuteHistoryChart.getData() == null) {
             // ignore the first default value to keep the "no-data-description" visible
@@ -263,8 +291,6 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-        IntentFilter filterLocal = new IntentFilter();
-        filterLocal.addAction(DeviceService.ACTION_REALTIME_SAMPLES);
         tsTranslation = new TimestampTranslation();
 
         View rootView = inflater.inflate(R.layout.fragment_live_activity, container, false);
@@ -285,8 +311,6 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
         setupHistoryChart(mStepsPerMinuteHistoryChart);
         mMaxHeartRateView = rootView.findViewById(R.id.livechart_max_heart_rate);
 
-        LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mReceiver, filterLocal);
-
         return rootView;
     }
 
@@ -369,11 +393,16 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
         GBApplication.deviceService().onEnableRealtimeSteps(enable);
         GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(enable);
         if (enable) {
+            // only samples from now on
+            mSamplePosition = mSampleBuffer.getPosition();
+            mFrameScheduled.set(false);
+            mSampleBuffer.addListener(mSampleListener);
             if (getActivity() != null) {
                 getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
             }
             pulseScheduler = startActivityPulse();
         } else {
+            mSampleBuffer.removeListener(mSampleListener);
             stopActivityPulse();
             if (getActivity() != null) {
                 getActivity().getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -390,7 +419,6 @@ public class LiveActivityFragment extends AbstractActivityChartFragment<ChartsDa
     @Override
     public void onDestroyView() {
         onMadeInvisibleInActivity();
-        LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mReceiver);
         super.onDestroyView();
     }
 
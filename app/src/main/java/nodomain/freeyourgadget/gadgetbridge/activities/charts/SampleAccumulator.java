@@ -0,0 +1,36 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Computes a result from a stream of samples, as part of a {@link SampleAnalysisPipeline}.
+ * Implementations keep all their state themselves, so that any number of them can be fed from the
+ * same pass over the samples.
+ */
+public interface SampleAccumulator {
+    /**
+     * Called for every sample, in the order of the sample list.
+     */
+    void accept(ActivitySample sample);
+
+    /**
+     * Called once after the last sample, to complete the result.
+     */
+    void finish();
+}
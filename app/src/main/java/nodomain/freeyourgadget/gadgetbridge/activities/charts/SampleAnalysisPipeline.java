@@ -0,0 +1,47 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Runs several analyses over the same samples in a single pass, instead of iterating the sample
+ * list once per analysis.
+ */
+public class SampleAnalysisPipeline {
+    private final List<SampleAccumulator> accumulators = new ArrayList<>();
+
+    public SampleAnalysisPipeline add(SampleAccumulator accumulator) {
+        accumulators.add(accumulator);
+        return this;
+    }
+
+    public void run(List<? extends ActivitySample> samples) {
+        SampleAccumulator[] consumers = accumulators.toArray(new SampleAccumulator[0]);
+        for (ActivitySample sample : samples) {
+            for (SampleAccumulator consumer : consumers) {
+                consumer.accept(sample);
+            }
+        }
+        for (SampleAccumulator consumer : consumers) {
+            consumer.finish();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * Range-keyed cache of sample query results, shared by the chart fragments of an
+ * {@link AbstractChartsActivity}. Most tabs query the same or overlapping ranges for the same
+ * device, so switching tabs and going back and forth between days does not need to hit the
+ * database again.
+ * <p>
+ * Entries are evicted in LRU order once the total number of cached samples exceeds the limit.
+ * A query for a range that lies within a cached range is answered from that entry, unless the
+ * caller says the query results depend on the range (see {@link SampleProvider#isRangeDependent()}).
+ * <p>
+ * Callers always get a fresh list of their own copies of the samples, which they are free to
+ * modify, so the cached samples are never shared between fragments or threads.
+ */
+public class SampleCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleCache.class);
+
+    /**
+     * About one month of minute samples.
+     */
+    static final int DEFAULT_MAX_SAMPLES = 50000;
+
+    public interface Loader {
+        List<? extends AbstractActivitySample> load(int tsFrom, int tsTo);
+    }
+
+    private static final class Key {
+        private final String device;
+        private final String query;
+        private final int tsFrom;
+        private final int tsTo;
+
+        private Key(final String device, final String query, final int tsFrom, final int tsTo) {
+            this.device = device;
+            this.query = query;
+            this.tsFrom = tsFrom;
+            this.tsTo = tsTo;
+        }
+
+        private boolean covers(final String device, final String query, final int tsFrom, final int tsTo) {
+            return this.device.equals(device) && this.query.equals(query) && this.tsFrom <= tsFrom && this.tsTo >= tsTo;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return tsFrom == key.tsFrom && tsTo == key.tsTo && device.equals(key.device) && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(device, query, tsFrom, tsTo);
+        }
+    }
+
+    private final int maxSamples;
+    private final LinkedHashMap<Key, List<AbstractActivitySample>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedSamples;
+    /**
+     * Incremented on every invalidation, so that queries that were running at that time do not
+     * put outdated samples into the cache.
+     */
+    private int generation;
+
+    private long hits;
+    private long subRangeHits;
+    private long misses;
+
+    public SampleCache() {
+        this(DEFAULT_MAX_SAMPLES);
+    }
+
+    SampleCache(final int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Returns the samples of the given query and range, loading them with the given loader
+     * if they are not cached yet. May be called from any thread; the loader is called without
+     * holding the lock. The returned samples are owned by the caller.
+     *
+     * @param device          the address of the device the samples belong to
+     * @param query           identifies the kind of query, e.g. all samples or only sleep samples
+     * @param rangeDependent  whether the loader post-processes the samples depending on the queried
+     *                        range (e.g. adds virtual samples), so that samples of a larger range
+     *                        cannot simply be cut down to a smaller one
+     */
+    public List<AbstractActivitySample> get(final String device,
+                                            final String query,
+                                            final int tsFrom,
+                                            final int tsTo,
+                                            final boolean rangeDependent,
+                                            final Loader loader) {
+        final int startGeneration;
+        // the cached lists are never modified, so they can be copied without holding the lock
+        List<AbstractActivitySample> cached = null;
+        boolean exactHit = false;
+        synchronized (this) {
+            cached = entries.get(new Key(device, query, tsFrom, tsTo));
+            if (cached != null) {
+                hits++;
+                exactHit = true;
+            } else if (!rangeDependent) {
+                for (final Map.Entry<Key, List<AbstractActivitySample>> entry : entries.entrySet()) {
+                    if (entry.getKey().covers(device, query, tsFrom, tsTo)) {
+                        cached = entry.getValue();
+                        // touch the entry, so that it is not evicted while its sub ranges are in use
+                        entries.get(entry.getKey());
+                        subRangeHits++;
+                        break;
+                    }
+                }
+            }
+            if (cached == null) {
+                misses++;
+            }
+            startGeneration = generation;
+        }
+        if (cached != null) {
+            return exactHit ? copy(cached) : copy(cached, tsFrom, tsTo);
+        }
+
+        final List<AbstractActivitySample> loaded = new ArrayList<>(loader.load(tsFrom, tsTo));
+        if (loaded.size() <= maxSamples) {
+            // the caller keeps the loaded samples, the cache gets its own copies
+            put(new Key(device, query, tsFrom, tsTo), copy(loaded), startGeneration);
+        }
+        return loaded;
+    }
+
+    private synchronized void put(final Key key, final List<AbstractActivitySample> samples, final int startGeneration) {
+        if (startGeneration != generation) {
+            return;
+        }
+        final List<AbstractActivitySample> previous = entries.put(key, samples);
+        if (previous != null) {
+            cachedSamples -= previous.size();
+        }
+        cachedSamples += samples.size();
+
+        final Iterator<List<AbstractActivitySample>> it = entries.values().iterator();
+        while (cachedSamples > maxSamples && it.hasNext()) {
+            cachedSamples -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops all cached samples of the given device, to be called when new samples were written
+     * to the database.
+     */
+    public synchronized void invalidate(final String device) {
+        generation++;
+        final Iterator<Map.Entry<Key, List<AbstractActivitySample>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, List<AbstractActivitySample>> entry = it.next();
+            if (entry.getKey().device.equals(device)) {
+                cachedSamples -= entry.getValue().size();
+                it.remove();
+            }
+        }
+        LOG.debug("Sample cache invalidated for {}: {} hits, {} sub range hits, {} misses", device, hits, subRangeHits, misses);
+    }
+
+    synchronized int getCachedSampleCount() {
+        return cachedSamples;
+    }
+
+    private static List<AbstractActivitySample> copy(final List<AbstractActivitySample> samples) {
+        final List<AbstractActivitySample> result = new ArrayList<>(samples.size());
+        for (final AbstractActivitySample sample : samples) {
+            result.add(sample.copy());
+        }
+        return result;
+    }
+
+    private static List<AbstractActivitySample> copy(final List<AbstractActivitySample> samples, final int tsFrom, final int tsTo) {
+        final List<AbstractActivitySample> result = new ArrayList<>();
+        for (final AbstractActivitySample sample : samples) {
+            final int ts = sample.getTimestamp();
+            if (ts >= tsFrom && ts <= tsTo) {
+                result.add(sample.copy());
+            }
+        }
+        return result;
+    }
+}
@@ -29,17 +29,38 @@ public class SleepAnalysis {
     public static final long MAX_WAKE_PHASE_LENGTH = 2 * 60 * 60;
 
     public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
-        List<SleepSession> result = new ArrayList<>();
+        SessionAccumulator sessions = new SessionAccumulator();
+        new SampleAnalysisPipeline().add(sessions).run(samples);
+        return sessions.getResult();
+    }
+
+    private static boolean isSleep(ActivitySample sample) {
+        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP ||
+                sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP ||
+                sample.getKind() == ActivityKind.TYPE_REM_SLEEP;
+    }
 
-        ActivitySample previousSample = null;
-        Date sleepStart = null;
-        Date sleepEnd = null;
-        long lightSleepDuration = 0;
-        long deepSleepDuration = 0;
-        long remSleepDuration = 0;
-        long durationSinceLastSleep = 0;
+    private static Date getDateFromSample(ActivitySample sample) {
+        return new Date(sample.getTimestamp() * 1000L);
+    }
 
-        for (ActivitySample sample : samples) {
+    /**
+     * Splits the samples into sleep sessions, separated by wake phases longer than
+     * {@link #MAX_WAKE_PHASE_LENGTH} or by samples of any other kind.
+     */
+    public static class SessionAccumulator implements SampleAccumulator {
+        private final List<SleepSession> result = new ArrayList<>();
+
+        private ActivitySample previousSample = null;
+        private Date sleepStart = null;
+        private Date sleepEnd = null;
+        private long lightSleepDuration = 0;
+        private long deepSleepDuration = 0;
+        private long remSleepDuration = 0;
+        private long durationSinceLastSleep = 0;
+
+        @Override
+        public void accept(ActivitySample sample) {
             if (isSleep(sample)) {
                 if (sleepStart == null)
                     sleepStart = getDateFromSample(sample);
@@ -48,13 +69,7 @@ public class SleepAnalysis {
                 durationSinceLastSleep = 0;
             } else {
                 //exclude "not worn" times from sleep sessions as this makes a discrepancy with the charts
-                if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH)
-                    result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
-                sleepStart = null;
-                sleepEnd = null;
-                lightSleepDuration = 0;
-                deepSleepDuration = 0;
-                remSleepDuration = 0;
+                endSession();
             }
 
             if (previousSample != null) {
@@ -68,36 +83,36 @@ public class SleepAnalysis {
                 } else {
                     durationSinceLastSleep += durationSinceLastSample;
                     if (sleepStart != null && durationSinceLastSleep > MAX_WAKE_PHASE_LENGTH) {
-                        if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH)
-                            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
-                        sleepStart = null;
-                        sleepEnd = null;
-                        lightSleepDuration = 0;
-                        deepSleepDuration = 0;
-                        remSleepDuration = 0;
+                        endSession();
                     }
                 }
             }
 
             previousSample = sample;
         }
-        if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH) {
-            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
+
+        @Override
+        public void finish() {
+            if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH) {
+                result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
+            }
         }
-        return result;
-    }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP ||
-                sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP ||
-                sample.getKind() == ActivityKind.TYPE_REM_SLEEP;
-    }
+        private void endSession() {
+            if (lightSleepDuration + deepSleepDuration + remSleepDuration > MIN_SESSION_LENGTH)
+                result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration, remSleepDuration));
+            sleepStart = null;
+            sleepEnd = null;
+            lightSleepDuration = 0;
+            deepSleepDuration = 0;
+            remSleepDuration = 0;
+        }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+        public List<SleepSession> getResult() {
+            return result;
+        }
     }
 
-
     public static class SleepSession {
         private final Date sleepStart;
         private final Date sleepEnd;
@@ -44,13 +44,11 @@ import com.github.mikephil.charting.data.PieDataSet;
 import com.github.mikephil.charting.data.PieEntry;
 import com.github.mikephil.charting.formatter.ValueFormatter;
 
-import org.apache.commons.lang3.tuple.Triple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -102,12 +100,23 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
             samples = getSamplesofSleep(db, device);
         }
 
-        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, samples);
+        SleepAnalysis.SessionAccumulator sleepSessions = new SleepAnalysis.SessionAccumulator();
+        HeartRateStatsAccumulator heartRateStats = new HeartRateStatsAccumulator(ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP);
+        IntensityStatsAccumulator intensityStats = new IntensityStatsAccumulator(ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP);
 
-        if (!CHARTS_SLEEP_RANGE_24H) {
-            if (mySleepChartsData.sleepSessions.size() > 0) {
-                long tstart = mySleepChartsData.sleepSessions.get(0).getSleepStart().getTime() / 1000;
-                long tend = mySleepChartsData.sleepSessions.get(mySleepChartsData.sleepSessions.size() - 1).getSleepEnd().getTime() / 1000;
+        if (CHARTS_SLEEP_RANGE_24H) {
+            // all samples are shown, so the stats can be calculated in the same pass as the sessions
+            new SampleAnalysisPipeline()
+                    .add(sleepSessions)
+                    .add(heartRateStats)
+                    .add(intensityStats)
+                    .run(samples);
+        } else {
+            new SampleAnalysisPipeline().add(sleepSessions).run(samples);
+            List<SleepSession> sessions = sleepSessions.getResult();
+            if (sessions.size() > 0) {
+                long tstart = sessions.get(0).getSleepStart().getTime() / 1000;
+                long tend = sessions.get(sessions.size() - 1).getSleepEnd().getTime() / 1000;
 
                 for (Iterator<ActivitySample> iterator = (Iterator<ActivitySample>) samples.iterator(); iterator.hasNext(); ) {
                     ActivitySample sample = iterator.next();
@@ -116,18 +125,22 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
                     }
                 }
             }
+            new SampleAnalysisPipeline()
+                    .add(heartRateStats)
+                    .add(intensityStats)
+                    .run(samples);
         }
+
+        MySleepChartsData mySleepChartsData = refreshSleepAmounts(device, sleepSessions.getResult());
         DefaultChartsData<LineData> chartsData = refresh(device, samples);
-        Triple<Float, Integer, Integer> hrData = calculateHrData(samples);
-        Triple<Float, Float, Float> intensityData = calculateIntensityData(samples);
-        return new MyChartsData(mySleepChartsData, chartsData, hrData.getLeft(), hrData.getMiddle(), hrData.getRight(), intensityData.getLeft(), intensityData.getMiddle(), intensityData.getRight());
+        return new MyChartsData(mySleepChartsData, chartsData,
+                heartRateStats.getAverage(), heartRateStats.getMin(), heartRateStats.getMax(),
+                intensityStats.getSum(), intensityStats.getMin(), intensityStats.getMax());
     }
 
 
 
-    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<? extends ActivitySample> samples) {
-        SleepAnalysis sleepAnalysis = new SleepAnalysis();
-        List<SleepSession> sleepSessions = sleepAnalysis.calculateSleepSessions(samples);
+    private MySleepChartsData refreshSleepAmounts(GBDevice mGBDevice, List<SleepSession> sleepSessions) {
 
         PieData data = new PieData();
 
@@ -228,73 +241,6 @@ public class SleepChartFragment extends AbstractActivityChartFragment<SleepChart
         }
     }
 
-    private Triple<Float, Integer, Integer> calculateHrData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
-            return Triple.of(0f, 0, 0);
-        }
-
-        List<Integer> heartRateValues = new ArrayList<>();
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
-        for (ActivitySample sample : samples) {
-            if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                int heartRate = sample.getHeartRate();
-                if (heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
-                    heartRateValues.add(heartRate);
-                }
-            }
-        }
-        if (heartRateValues.toArray().length < 1) {
-            return Triple.of(0f, 0, 0);
-        }
-
-        int min = Collections.min(heartRateValues);
-        int max = Collections.max(heartRateValues);
-        int count = heartRateValues.toArray().length;
-        float sum = calculateSumOfInts(heartRateValues);
-        float average = sum / count;
-        return Triple.of(average, min, max);
-    }
-
-    private float calculateIntensitySum(List<Float> samples) {
-        float result = 0;
-        for (Float sample : samples) {
-            result += sample;
-        }
-        return result;
-    }
-
-    private float calculateSumOfInts(List<Integer> samples) {
-        float result = 0;
-        for (Integer sample : samples) {
-            result += sample;
-        }
-        return result;
-    }
-
-    private Triple<Float, Float, Float> calculateIntensityData(List<? extends ActivitySample> samples) {
-        if (samples.toArray().length < 1) {
-            return Triple.of(0f, 0f, 0f);
-        }
-
-        List<Float> allIntensities = new ArrayList<>();
-
-        for (ActivitySample s : samples) {
-            if (s.getKind() == ActivityKind.TYPE_LIGHT_SLEEP || s.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                float intensity = s.getIntensity();
-                allIntensities.add(intensity);
-            }
-        }
-        if (allIntensities.toArray().length < 1) {
-            return Triple.of(0f, 0f, 0f);
-        }
-
-        Float min = Collections.min(allIntensities);
-        Float max = Collections.max(allIntensities);
-        Float sum = calculateIntensitySum(allIntensities);
-
-        return Triple.of(sum, min, max);
-    }
-
     private String buildYouSleptText(MySleepChartsData pieData) {
         final StringBuilder result = new StringBuilder();
         if (pieData.getSleepSessions().isEmpty()) {
@@ -34,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -60,8 +61,8 @@ public class SpeedZonesFragment extends AbstractActivityChartFragment<ChartsData
     }
 
     private MySpeedZonesData refreshStats(List<? extends ActivitySample> samples) {
-        ActivityAnalysis analysis = new ActivityAnalysis();
-        analysis.calculateActivityAmounts(samples);
+        ActivityAnalysis.SpeedZonesAccumulator speedZones = new ActivityAnalysis.SpeedZonesAccumulator(new HashMap<Integer, Long>());
+        new SampleAnalysisPipeline().add(speedZones).run(samples);
         BarData data = new BarData();
         data.setValueTextColor(CHART_TEXT_COLOR);
         List<BarEntry> entries = new ArrayList<>();
@@ -74,7 +75,7 @@ public class SpeedZonesFragment extends AbstractActivityChartFragment<ChartsData
             distanceFactorCm = user.getHeightCm() * user.GENDER_FEMALE_DISTANCE_FACTOR / 1000;
         }*/
 
-        for (Map.Entry<Integer, Long> entry : analysis.stats.entrySet()) {
+        for (Map.Entry<Integer, Long> entry : speedZones.getStats().entrySet()) {
             entries.add(new BarEntry(entry.getKey(), entry.getValue() / 60));
         }
 
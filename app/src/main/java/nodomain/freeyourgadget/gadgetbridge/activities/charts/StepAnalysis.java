@@ -36,32 +36,40 @@ public class StepAnalysis {
 
     public List<ActivitySession> calculateStepSessions(List<? extends ActivitySample> samples) {
         LOG.debug("get all samples activitysessions: " + samples.toArray().length);
-        List<ActivitySession> result = new ArrayList<>();
-        ActivityUser activityUser = new ActivityUser();
-        final int MIN_SESSION_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_min_session_length", 5);
-        final int MAX_IDLE_PHASE_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_max_idle_phase_length", 5);
-        final int MIN_STEPS_PER_MINUTE = GBApplication.getPrefs().getInt("chart_list_min_steps_per_minute", 40);
-        int stepLengthCm = activityUser.getStepLengthCm();
-        final double STEP_LENGTH_M = stepLengthCm * 0.01;
-        final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
-        totalDailySteps = 0;
-
-        ActivitySample previousSample = null;
-        Date sessionStart = null;
-        Date sessionEnd;
-        int activeSteps = 0; //steps that we count
-        int stepsBetweenActivePeriods = 0; //steps during time when we maybe take a rest but then restart
-        int durationSinceLastActiveStep = 0;
-        int activityKind;
-
-        List<Integer> heartRateSum = new ArrayList<>();
-        List<Integer> heartRateBetweenActivePeriodsSum = new ArrayList<>();
-
-        float activeIntensity = 0;
-        float intensityBetweenActivePeriods = 0;
-        HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+        SessionAccumulator sessions = new SessionAccumulator();
+        new SampleAnalysisPipeline().add(sessions).run(samples);
+        totalDailySteps = sessions.getTotalDailySteps();
+        return sessions.getResult();
+    }
 
-        for (ActivitySample sample : samples) {
+    /**
+     * Detects walking, running and exercise sessions from the step counts, splitting sessions at
+     * idle phases that are too long.
+     */
+    public static class SessionAccumulator implements SampleAccumulator {
+        private final List<ActivitySession> result = new ArrayList<>();
+        private final int MIN_SESSION_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_min_session_length", 5);
+        private final int MAX_IDLE_PHASE_LENGTH = 60 * GBApplication.getPrefs().getInt("chart_list_max_idle_phase_length", 5);
+        private final int MIN_STEPS_PER_MINUTE = GBApplication.getPrefs().getInt("chart_list_min_steps_per_minute", 40);
+        private final double STEP_LENGTH_M = new ActivityUser().getStepLengthCm() * 0.01;
+        private final double MIN_SESSION_INTENSITY = Math.max(0, Math.min(1, MIN_STEPS_PER_MINUTE * 0.01));
+        private final HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
+        private int totalDailySteps = 0;
+
+        private ActivitySample previousSample = null;
+        private Date sessionStart = null;
+        private int activeSteps = 0; //steps that we count
+        private int stepsBetweenActivePeriods = 0; //steps during time when we maybe take a rest but then restart
+        private int durationSinceLastActiveStep = 0;
+
+        private List<Integer> heartRateSum = new ArrayList<>();
+        private List<Integer> heartRateBetweenActivePeriodsSum = new ArrayList<>();
+
+        private float activeIntensity = 0;
+        private float intensityBetweenActivePeriods = 0;
+
+        @Override
+        public void accept(ActivitySample sample) {
             int steps = sample.getSteps();
             if (steps > 0) {
                 totalDailySteps += steps;
@@ -116,8 +124,8 @@ public class StepAnalysis {
                         if (session_length >= MIN_SESSION_LENGTH) { //valid activity session
                             int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
                             float distance = (float) (activeSteps * STEP_LENGTH_M);
-                            sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
-                            activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
+                            Date sessionEnd = new Date((sample.getTimestamp() - durationSinceLastActiveStep) * 1000L);
+                            int activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
                             ActivitySession activitySession = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
                             //activitySession.setSessionType(ActivitySession.SESSION_ONGOING);
                             result.add(activitySession);
@@ -128,24 +136,35 @@ public class StepAnalysis {
                 previousSample = sample;
             }
         }
-        //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
-
-        if (sessionStart != null && previousSample != null) {
-            int current = previousSample.getTimestamp();
-            int starting = (int) (sessionStart.getTime() / 1000);
-            int session_length = current - starting - durationSinceLastActiveStep;
-
-            if (session_length >= MIN_SESSION_LENGTH) {
-                int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
-                float distance = (float) (activeSteps * STEP_LENGTH_M);
-                sessionEnd = getDateFromSample(previousSample);
-                activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
-                ActivitySession ongoingActivity = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
-                ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
-                result.add(ongoingActivity);
+
+        @Override
+        public void finish() {
+            //trailing activity: make sure we show the last portion of the data as well in case no further activity is recorded yet
+
+            if (sessionStart != null && previousSample != null) {
+                int current = previousSample.getTimestamp();
+                int starting = (int) (sessionStart.getTime() / 1000);
+                int session_length = current - starting - durationSinceLastActiveStep;
+
+                if (session_length >= MIN_SESSION_LENGTH) {
+                    int heartRateAverage = heartRateSum.toArray().length > 0 ? calculateSumOfInts(heartRateSum) / heartRateSum.toArray().length : 0;
+                    float distance = (float) (activeSteps * STEP_LENGTH_M);
+                    Date sessionEnd = getDateFromSample(previousSample);
+                    int activityKind = detect_activity_kind(session_length, activeSteps, heartRateAverage, activeIntensity);
+                    ActivitySession ongoingActivity = new ActivitySession(sessionStart, sessionEnd, activeSteps, heartRateAverage, activeIntensity, distance, activityKind);
+                    ongoingActivity.setSessionType(ActivitySession.SESSION_ONGOING);
+                    result.add(ongoingActivity);
+                }
             }
         }
-        return result;
+
+        public List<ActivitySession> getResult() {
+            return result;
+        }
+
+        public int getTotalDailySteps() {
+            return totalDailySteps;
+        }
     }
 
     public ActivitySession calculateSummary(List<ActivitySession> sessions, boolean empty) {
@@ -199,7 +218,7 @@ public class StepAnalysis {
         return null;
     }
 
-    private int calculateSumOfInts(List<Integer> samples) {
+    private static int calculateSumOfInts(List<Integer> samples) {
         int result = 0;
         for (Integer sample : samples) {
             result += sample;
@@ -207,7 +226,7 @@ public class StepAnalysis {
         return result;
     }
 
-    private int detect_activity_kind(int session_length, int activeSteps, int heartRateAverage, float intensity) {
+    private static int detect_activity_kind(int session_length, int activeSteps, int heartRateAverage, float intensity) {
         final int MIN_STEPS_PER_MINUTE_FOR_RUN = GBApplication.getPrefs().getInt("chart_list_min_steps_per_minute_for_run", 120);
         int spm = (int) (activeSteps / (session_length / 60));
         if (spm > MIN_STEPS_PER_MINUTE_FOR_RUN) {
@@ -222,7 +241,7 @@ public class StepAnalysis {
         return ActivityKind.TYPE_ACTIVITY;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
+    private static Date getDateFromSample(ActivitySample sample) {
         return new Date(sample.getTimestamp() * 1000L);
     }
 }
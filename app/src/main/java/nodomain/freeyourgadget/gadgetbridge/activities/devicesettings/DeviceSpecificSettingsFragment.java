@@ -49,6 +49,7 @@ import nodomain.freeyourgadget.gadgetbridge.activities.loyaltycards.LoyaltyCards
 import nodomain.freeyourgadget.gadgetbridge.activities.widgets.WidgetScreensListActivity;
 import nodomain.freeyourgadget.gadgetbridge.capabilities.HeartRateCapability;
 import nodomain.freeyourgadget.gadgetbridge.capabilities.password.PasswordCapabilityImpl;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCapabilities;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
@@ -183,6 +184,8 @@ public class DeviceSpecificSettingsFragment extends AbstractPreferenceFragment i
         invokeLater(new Runnable() {
             @Override
             public void run() {
+                // some coordinators derive their capabilities from the device settings
+                DeviceCapabilities.invalidate(device);
                 GBApplication.deviceService(device).onSendConfiguration(preferenceKey);
             }
         });
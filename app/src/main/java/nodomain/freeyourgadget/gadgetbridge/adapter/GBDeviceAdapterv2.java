@@ -106,13 +106,13 @@ import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSett
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCapabilities;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceManager;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceFolder;
-import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
 import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
@@ -280,6 +280,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         }
 
         final DeviceCoordinator coordinator = device.getDeviceCoordinator();
+        final DeviceCapabilities capabilities = DeviceCapabilities.of(device);
         holder.container.setOnClickListener(new View.OnClickListener() {
 
             @Override
@@ -322,15 +323,15 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         // multiple battery support: at this point we support up to three batteries
         // to support more batteries, the battery UI would need to be extended
 
-        holder.batteryStatusBox0.setVisibility(coordinator.getBatteryCount() > 0 ? View.VISIBLE : View.GONE);
-        holder.batteryStatusBox1.setVisibility(coordinator.getBatteryCount() > 1 ? View.VISIBLE : View.GONE);
-        holder.batteryStatusBox2.setVisibility(coordinator.getBatteryCount() > 2 ? View.VISIBLE : View.GONE);
+        holder.batteryStatusBox0.setVisibility(capabilities.getBatteryCount() > 0 ? View.VISIBLE : View.GONE);
+        holder.batteryStatusBox1.setVisibility(capabilities.getBatteryCount() > 1 ? View.VISIBLE : View.GONE);
+        holder.batteryStatusBox2.setVisibility(capabilities.getBatteryCount() > 2 ? View.VISIBLE : View.GONE);
 
         LinearLayout[] batteryStatusBoxes = {holder.batteryStatusBox0, holder.batteryStatusBox1, holder.batteryStatusBox2};
         TextView[] batteryStatusLabels = {holder.batteryStatusLabel0, holder.batteryStatusLabel1, holder.batteryStatusLabel2};
         ImageView[] batteryIcons = {holder.batteryIcon0, holder.batteryIcon1, holder.batteryIcon2};
 
-        for (int batteryIndex = 0; batteryIndex < coordinator.getBatteryCount(); batteryIndex++) {
+        for (int batteryIndex = 0; batteryIndex < capabilities.getBatteryCount(); batteryIndex++) {
 
             int batteryLevel = device.getBatteryLevel(batteryIndex);
             float batteryVoltage = device.getBatteryVoltage(batteryIndex);
@@ -379,11 +380,11 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
                 batteryStatusLabels[batteryIndex].setVisibility(View.VISIBLE);
             }
         }
-        holder.heartRateStatusBox.setVisibility((device.isInitialized() && coordinator.supportsRealtimeData() && coordinator.supportsManualHeartRateMeasurement(device)) ? View.VISIBLE : View.GONE);
+        holder.heartRateStatusBox.setVisibility((device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.REALTIME_DATA) && capabilities.supports(DeviceCapabilities.Capability.MANUAL_HEART_RATE_MEASUREMENT)) ? View.VISIBLE : View.GONE);
         if (parent.getContext() instanceof ControlCenterv2) {
-            ActivitySample sample = ((ControlCenterv2) parent.getContext()).getCurrentHRSample();
-            if (sample != null) {
-                holder.heartRateStatusLabel.setText(String.valueOf(sample.getHeartRate()));
+            int heartRate = ((ControlCenterv2) parent.getContext()).getCurrentHeartRate();
+            if (heartRate >= 0) {
+                holder.heartRateStatusLabel.setText(String.valueOf(heartRate));
             } else {
                 holder.heartRateStatusLabel.setText("");
             }
@@ -407,7 +408,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //device specific settings
-        holder.deviceSpecificSettingsView.setVisibility(coordinator.getSupportedDeviceSpecificSettings(device)  != null ? View.VISIBLE : View.GONE);
+        holder.deviceSpecificSettingsView.setVisibility(capabilities.supports(DeviceCapabilities.Capability.DEVICE_SPECIFIC_SETTINGS) ? View.VISIBLE : View.GONE);
         holder.deviceSpecificSettingsView.setOnClickListener(new View.OnClickListener()
 
                                                 {
@@ -423,7 +424,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //fetch activity data
-        holder.fetchActivityDataBox.setVisibility((device.isInitialized() && coordinator.supportsActivityDataFetching()) ? View.VISIBLE : View.GONE);
+        holder.fetchActivityDataBox.setVisibility((device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_DATA_FETCHING)) ? View.VISIBLE : View.GONE);
         holder.fetchActivityData.setOnClickListener(new View.OnClickListener()
 
                                                     {
@@ -437,7 +438,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
 
 
         //take screenshot
-        holder.takeScreenshotView.setVisibility((device.isInitialized() && coordinator.supportsScreenshots()) ? View.VISIBLE : View.GONE);
+        holder.takeScreenshotView.setVisibility((device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.SCREENSHOTS)) ? View.VISIBLE : View.GONE);
         holder.takeScreenshotView.setOnClickListener(new View.OnClickListener()
 
                                                      {
@@ -450,7 +451,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //manage apps
-        holder.manageAppsView.setVisibility((device.isInitialized() && coordinator.supportsAppsManagement(device)) ? View.VISIBLE : View.GONE);
+        holder.manageAppsView.setVisibility((device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.APPS_MANAGEMENT)) ? View.VISIBLE : View.GONE);
         holder.manageAppsView.setOnClickListener(new View.OnClickListener()
 
                                                  {
@@ -468,7 +469,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //set alarms
-        holder.setAlarmsView.setVisibility(coordinator.getAlarmSlotCount(device) > 0 ? View.VISIBLE : View.GONE);
+        holder.setAlarmsView.setVisibility(capabilities.getAlarmSlotCount() > 0 ? View.VISIBLE : View.GONE);
         holder.setAlarmsView.setOnClickListener(new View.OnClickListener()
 
                                                 {
@@ -483,7 +484,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //set reminders
-        holder.setRemindersView.setVisibility(coordinator.getReminderSlotCount(device) > 0 ? View.VISIBLE : View.GONE);
+        holder.setRemindersView.setVisibility(capabilities.getReminderSlotCount() > 0 ? View.VISIBLE : View.GONE);
         holder.setRemindersView.setOnClickListener(new View.OnClickListener()
 
                                                 {
@@ -498,7 +499,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //show graphs
-        holder.showActivityGraphs.setVisibility(coordinator.supportsActivityTracking() ? View.VISIBLE : View.GONE);
+        holder.showActivityGraphs.setVisibility(capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_TRACKING) ? View.VISIBLE : View.GONE);
         holder.showActivityGraphs.setOnClickListener(new View.OnClickListener()
 
                                                      {
@@ -513,7 +514,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         );
 
         //show activity tracks
-        holder.showActivityTracks.setVisibility(coordinator.supportsActivityTracks() ? View.VISIBLE : View.GONE);
+        holder.showActivityTracks.setVisibility(capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_TRACKS) ? View.VISIBLE : View.GONE);
         holder.showActivityTracks.setOnClickListener(new View.OnClickListener()
                                                      {
                                                          @Override
@@ -546,7 +547,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
             }
         });
 
-        holder.findDevice.setVisibility(device.isInitialized() && coordinator.supportsFindDevice() ? View.VISIBLE : View.GONE);
+        holder.findDevice.setVisibility(device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.FIND_DEVICE) ? View.VISIBLE : View.GONE);
         holder.findDevice.setOnClickListener(new View.OnClickListener() {
                                                  @Override
                                                  public void onClick(View v) {
@@ -743,7 +744,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         });
 
         holder.ledColor.setVisibility(View.GONE);
-        if (device.isInitialized() && device.getExtraInfo("led_color") != null && coordinator.supportsLedColor()) {
+        if (device.isInitialized() && device.getExtraInfo("led_color") != null && capabilities.supports(DeviceCapabilities.Capability.LED_COLOR)) {
             holder.ledColor.setVisibility(View.VISIBLE);
             final GradientDrawable ledColor = (GradientDrawable) holder.ledColor.getDrawable().mutate();
             ledColor.setColor((int) device.getExtraInfo("led_color"));
@@ -792,7 +793,7 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
         }
 
         holder.powerOff.setVisibility(View.GONE);
-        if (device.isInitialized() && coordinator.supportsPowerOff()) {
+        if (device.isInitialized() && capabilities.supports(DeviceCapabilities.Capability.POWER_OFF)) {
             holder.powerOff.setVisibility(View.VISIBLE);
             holder.powerOff.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -812,17 +813,17 @@ public class GBDeviceAdapterv2 extends ListAdapter<GBDevice, GBDeviceAdapterv2.V
             });
         }
 
-        holder.cardViewActivityCardLayout.setVisibility(coordinator.supportsActivityTracking() ? View.VISIBLE : View.GONE);
-        holder.cardViewActivityCardLayout.setMinimumWidth(coordinator.supportsActivityTracking() ? View.VISIBLE : View.GONE);
+        holder.cardViewActivityCardLayout.setVisibility(capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_TRACKING) ? View.VISIBLE : View.GONE);
+        holder.cardViewActivityCardLayout.setMinimumWidth(capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_TRACKING) ? View.VISIBLE : View.GONE);
 
-        if (coordinator.supportsActivityTracking()) {
+        if (capabilities.supports(DeviceCapabilities.Capability.ACTIVITY_TRACKING)) {
             setActivityCard(holder, device, dailyTotals);
         }
     }
 
     private boolean showInstallerItem(GBDevice device) {
-        final DeviceCoordinator coordinator = device.getDeviceCoordinator();
-        return coordinator.supportsAppsManagement(device) || coordinator.supportsFlashing();
+        final DeviceCapabilities capabilities = DeviceCapabilities.of(device);
+        return capabilities.supports(DeviceCapabilities.Capability.APPS_MANAGEMENT) || capabilities.supports(DeviceCapabilities.Capability.FLASHING);
     }
 
     private void showDeviceSubmenu(final View v, final GBDevice device) {
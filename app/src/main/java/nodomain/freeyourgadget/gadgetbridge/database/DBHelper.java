@@ -19,8 +19,10 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -29,7 +31,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -38,12 +43,14 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.zip.GZIPInputStream;
 
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.Query;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescription;
@@ -141,6 +148,89 @@ public class DBHelper {
         }
     }
 
+    /**
+     * Writes a consistent copy of the live database to the given file, without blocking writers
+     * where possible: on Android 11+ (SQLite 3.27+) with the database in WAL mode, VACUUM INTO runs
+     * on a separate read-only connection and the DB lock is only taken to look up the path.
+     * Otherwise the snapshot is taken while holding the DB lock, using VACUUM INTO on the app's
+     * connection or, on older versions, by closing the database and copying the file.
+     * <p>
+     * Callers should not hold the DB lock, as that would block writers for the whole copy.
+     *
+     * @param destFile the destination, which must not exist yet
+     */
+    public void snapshotDB(File destFile) throws IOException {
+        if (destFile.exists()) {
+            throw new IOException("Snapshot destination already exists: " + destFile);
+        }
+        String dbPath;
+        DBHandler dbHandler = acquireDBForSnapshot();
+        try {
+            dbPath = dbHandler.getDatabase().getPath();
+        } finally {
+            GBApplication.releaseDB();
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try (SQLiteDatabase readOnly = SQLiteDatabase.openDatabase(dbPath, null, SQLiteDatabase.OPEN_READONLY)) {
+                // in rollback journal mode the snapshot's read lock would make writers fail once their busy timeout expires
+                if (isWalMode(readOnly)) {
+                    readOnly.execSQL("VACUUM INTO ?", new Object[]{destFile.getAbsolutePath()});
+                    return;
+                }
+                LOG.info("Database is not in WAL mode, taking the snapshot while holding the DB lock");
+            } catch (SQLException e) {
+                LOG.warn("Read-only database snapshot failed, retrying while holding the DB lock", e);
+                deleteIncompleteSnapshot(destFile, e);
+            }
+        }
+
+        dbHandler = acquireDBForSnapshot();
+        try {
+            snapshotLockedDB(dbHandler, destFile);
+        } finally {
+            GBApplication.releaseDB();
+        }
+    }
+
+    private static DBHandler acquireDBForSnapshot() throws IOException {
+        try {
+            return GBApplication.acquireDB();
+        } catch (GBException e) {
+            throw new IOException("Unable to access the database", e);
+        }
+    }
+
+    private void snapshotLockedDB(DBHandler dbHandler, File destFile) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            try {
+                dbHandler.getDatabase().execSQL("VACUUM INTO ?", new Object[]{destFile.getAbsolutePath()});
+                return;
+            } catch (SQLException e) {
+                LOG.warn("Online database snapshot failed, falling back to copying the closed database", e);
+                deleteIncompleteSnapshot(destFile, e);
+            }
+        }
+        String dbPath = getClosedDBPath(dbHandler);
+        try {
+            FileUtils.copyFile(new File(dbPath), destFile);
+        } finally {
+            dbHandler.openDb();
+        }
+    }
+
+    private static boolean isWalMode(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("PRAGMA journal_mode", null)) {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        }
+    }
+
+    private static void deleteIncompleteSnapshot(File destFile, Exception cause) throws IOException {
+        if (destFile.exists() && !destFile.delete()) {
+            throw new IOException("Failed to delete incomplete snapshot " + destFile, cause);
+        }
+    }
+
     private String getDate() {
         return new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
     }
@@ -149,12 +239,26 @@ public class DBHelper {
         String dbPath = getClosedDBPath(dbHandler);
         try {
             File toFile = new File(dbPath);
-            FileUtils.copyFile(fromFile, toFile);
+            if (isGzipFile(fromFile)) {
+                // written by the periodic export with compression enabled
+                try (InputStream in = new GZIPInputStream(new FileInputStream(fromFile));
+                     OutputStream out = new FileOutputStream(toFile)) {
+                    FileUtils.copyStream(in, out);
+                }
+            } else {
+                FileUtils.copyFile(fromFile, toFile);
+            }
         } finally {
             dbHandler.openDb();
         }
     }
 
+    private static boolean isGzipFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
     public void validateDB(SQLiteOpenHelper dbHandler) throws IOException {
         try (SQLiteDatabase db = dbHandler.getReadableDatabase()) {
             if (!db.isDatabaseIntegrityOk()) {
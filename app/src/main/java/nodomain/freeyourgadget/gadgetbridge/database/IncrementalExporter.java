@@ -0,0 +1,552 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Exports the database as a base snapshot followed by delta files, each containing only the rows
+ * that changed since the previous export.
+ * <p>
+ * Tables with a primary key are tracked by triggers, which record the primary key of every
+ * inserted, updated or deleted row in a change log table next to the tracked table. A delta holds
+ * the current rows for all logged keys, plus the keys themselves so that deleted rows can be
+ * deleted on import. This also catches samples that are backfilled with older timestamps, and
+ * keeps large rows such as activity summaries out of deltas they did not change in. The few tables
+ * without a primary key can not be tracked, so they are copied in full into every delta.
+ * <p>
+ * The triggers are installed when a base is written, and the change logs are cleared by every
+ * delta. A new base is written whenever the triggers are missing (eg. after an import), the
+ * schema version changes or {@link #MAX_DELTAS} deltas have accumulated.
+ */
+public class IncrementalExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalExporter.class);
+
+    public static final String EXPORT_DIR_SUFFIX = "-incremental";
+    public static final int MAX_DELTAS = 30;
+
+    private static final String BASE_FILE = "base.db";
+    private static final String STATE_FILE = "state.json";
+    private static final String DELTA_ALIAS = "delta";
+    private static final String DELTA_META_TABLE = "_delta_tables";
+    private static final String CHANGES_PREFIX = "INCREMENTAL_EXPORT_";
+
+    private static final String MODE_TRACKED = "tracked";
+    private static final String MODE_FULL = "full";
+
+    private final File exportDir;
+    private final File baseFile;
+
+    /**
+     * @param parentDir the directory holding the manual export, the incremental export is
+     *                  written to its own subdirectory so it never replaces the manual export
+     */
+    public IncrementalExporter(final File parentDir, final String dbName) {
+        this.exportDir = new File(parentDir, dbName + EXPORT_DIR_SUFFIX);
+        this.baseFile = new File(exportDir, BASE_FILE);
+    }
+
+    public static class Result {
+        public final boolean base;
+        public final File file;
+        public final long bytes;
+        public final long durationMillis;
+
+        Result(final boolean base, final File file, final long durationMillis) {
+            this.base = base;
+            this.file = file;
+            this.bytes = file.length();
+            this.durationMillis = durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %s: %d bytes in %dms", base ? "base" : "delta", file.getName(), bytes, durationMillis);
+        }
+    }
+
+    /**
+     * Exports a delta since the last export, or a new base snapshot if no usable base exists.
+     * The DB lock is held while checking the state and writing a delta, but not while taking the
+     * base snapshot.
+     *
+     * @param helper used to take the base snapshot
+     */
+    public Result export(final DBHelper helper) throws IOException, GBException {
+        final long start = System.currentTimeMillis();
+        final State baseState;
+        final DBHandler dbHandler = GBApplication.acquireDB();
+        try {
+            final SQLiteDatabase db = dbHandler.getDatabase();
+            final State state = loadState();
+            if (!needsBase(state, db)) {
+                return writeDelta(db, state, start);
+            }
+            // rows changed between starting the change logs and taking the snapshot end up in both
+            // the base and the next delta, which is harmless as deltas are replayed idempotently
+            baseState = startChangeTracking(db);
+        } finally {
+            GBApplication.releaseDB();
+        }
+
+        if (!exportDir.exists() && !exportDir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + exportDir);
+        }
+        final File snapshot = new File(exportDir, "base.tmp");
+        if (snapshot.exists() && !snapshot.delete()) {
+            throw new IOException("Unable to delete stale snapshot: " + snapshot);
+        }
+        helper.snapshotDB(snapshot);
+        return commitBase(snapshot, baseState, start);
+    }
+
+    /**
+     * Installs the change log triggers and clears the change logs, to be followed by taking a
+     * base snapshot.
+     *
+     * @return the state to store along with the base snapshot
+     */
+    State startChangeTracking(final SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (final TableInfo table : getTables(db)) {
+                if (table.mode.equals(MODE_TRACKED)) {
+                    table.installChangeLog(db);
+                    db.execSQL("DELETE FROM main.\"" + table.changesTable() + "\"");
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        final State state = new State();
+        state.schemaVersion = db.getVersion();
+        return state;
+    }
+
+    /**
+     * Removes the change log triggers and tables, eg. from a database that was just imported, since
+     * the change logs only make sense relative to the base they were started for.
+     */
+    public static void stopChangeTracking(final SQLiteDatabase db) {
+        final List<String> triggers = new ArrayList<>();
+        final List<String> tables = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT type, name FROM main.sqlite_master WHERE type IN ('table', 'trigger')", null)) {
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(1);
+                if (!name.startsWith(CHANGES_PREFIX)) {
+                    continue;
+                }
+                if ("trigger".equals(cursor.getString(0))) {
+                    triggers.add(name);
+                } else {
+                    tables.add(name);
+                }
+            }
+        }
+        for (final String trigger : triggers) {
+            db.execSQL("DROP TRIGGER IF EXISTS main.\"" + trigger + "\"");
+        }
+        for (final String table : tables) {
+            db.execSQL("DROP TABLE IF EXISTS main.\"" + table + "\"");
+        }
+    }
+
+    /**
+     * Moves a freshly taken snapshot of the database into place as the new base, along with the
+     * state returned by {@link #startChangeTracking(SQLiteDatabase)} right before it was taken.
+     */
+    Result commitBase(final File snapshot, final State state, final long start) throws IOException {
+        if (!exportDir.exists() && !exportDir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + exportDir);
+        }
+        final File[] oldFiles = exportDir.listFiles();
+        if (oldFiles != null) {
+            for (final File file : oldFiles) {
+                if (!file.equals(snapshot) && !file.delete()) {
+                    LOG.warn("Failed to delete {}", file);
+                }
+            }
+        }
+        if (baseFile.exists() && !baseFile.delete()) {
+            throw new IOException("Unable to replace " + baseFile);
+        }
+        if (!snapshot.renameTo(baseFile)) {
+            FileUtils.copyFile(snapshot, baseFile);
+            if (!snapshot.delete()) {
+                LOG.warn("Failed to delete {}", snapshot);
+            }
+        }
+
+        state.sequence = 0;
+        state.baseLength = baseFile.length();
+        state.baseModified = baseFile.lastModified();
+        saveState(state);
+
+        final Result result = new Result(true, baseFile, System.currentTimeMillis() - start);
+        LOG.info("Incremental export wrote {}", result);
+        return result;
+    }
+
+    Result writeDelta(final SQLiteDatabase db, final State state, final long start) throws IOException {
+        state.sequence++;
+        final File deltaFile = new File(exportDir, String.format(Locale.ROOT, "delta-%06d.db", state.sequence));
+        if (deltaFile.exists() && !deltaFile.delete()) {
+            throw new IOException("Unable to replace " + deltaFile);
+        }
+
+        final List<TableInfo> tables = getTables(db);
+        db.execSQL("ATTACH DATABASE ? AS " + DELTA_ALIAS, new Object[]{deltaFile.getAbsolutePath()});
+        try {
+            db.beginTransaction();
+            try {
+                db.execSQL("CREATE TABLE " + DELTA_ALIAS + "." + DELTA_META_TABLE + " (NAME TEXT, MODE TEXT)");
+                for (final TableInfo table : tables) {
+                    if (table.mode.equals(MODE_FULL)) {
+                        db.execSQL("CREATE TABLE " + DELTA_ALIAS + ".\"" + table.name + "\" AS SELECT * FROM main.\"" + table.name + "\"");
+                    } else {
+                        final String changes = table.changesTable();
+                        db.execSQL("CREATE TABLE " + DELTA_ALIAS + ".\"" + changes + "\" AS SELECT * FROM main.\"" + changes + "\"");
+                        db.execSQL("CREATE TABLE " + DELTA_ALIAS + ".\"" + table.name + "\" AS SELECT t.* FROM main.\"" + table.name + "\" t"
+                                + " JOIN main.\"" + changes + "\" c ON " + keyJoin(table.keyColumns, "t", "c"));
+                        db.execSQL("DELETE FROM main.\"" + changes + "\"");
+                    }
+                    db.execSQL("INSERT INTO " + DELTA_ALIAS + "." + DELTA_META_TABLE + " VALUES (?, ?)", new Object[]{table.name, table.mode});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.execSQL("DETACH DATABASE " + DELTA_ALIAS);
+        }
+        saveState(state);
+
+        final Result result = new Result(false, deltaFile, System.currentTimeMillis() - start);
+        LOG.info("Incremental export wrote {}", result);
+        return result;
+    }
+
+    /**
+     * Whether the incremental export was last written after the given file was modified, so it
+     * should be preferred when importing.
+     */
+    public boolean isNewerThan(final File file) {
+        final File stateFile = new File(exportDir, STATE_FILE);
+        return baseFile.exists() && stateFile.exists() && stateFile.lastModified() > file.lastModified();
+    }
+
+    /**
+     * Replays all deltas belonging to the base file onto a database that was just restored from
+     * it. Deltas are skipped if the base file was replaced in the meantime.
+     *
+     * @return the number of deltas applied
+     */
+    public int importDeltas(final SQLiteDatabase db) throws IOException {
+        final State state = loadState();
+        if (state == null || state.sequence == 0) {
+            return 0;
+        }
+        if (state.baseLength != baseFile.length() || state.baseModified != baseFile.lastModified()) {
+            LOG.warn("Not applying deltas, {} is not the base they were exported against", baseFile);
+            return 0;
+        }
+
+        int applied = 0;
+        for (int sequence = 1; sequence <= state.sequence; sequence++) {
+            final File deltaFile = new File(exportDir, String.format(Locale.ROOT, "delta-%06d.db", sequence));
+            if (!deltaFile.exists()) {
+                throw new IOException("Missing delta " + deltaFile);
+            }
+            applyDelta(db, deltaFile);
+            applied++;
+        }
+        LOG.info("Applied {} deltas on top of {}", applied, baseFile);
+        return applied;
+    }
+
+    static void applyDelta(final SQLiteDatabase db, final File deltaFile) {
+        db.execSQL("ATTACH DATABASE ? AS " + DELTA_ALIAS, new Object[]{deltaFile.getAbsolutePath()});
+        try {
+            final Map<String, String> modes = new LinkedHashMap<>();
+            try (Cursor cursor = db.rawQuery("SELECT NAME, MODE FROM " + DELTA_ALIAS + "." + DELTA_META_TABLE, null)) {
+                while (cursor.moveToNext()) {
+                    modes.put(cursor.getString(0), cursor.getString(1));
+                }
+            }
+
+            db.beginTransaction();
+            try {
+                for (final Map.Entry<String, String> entry : modes.entrySet()) {
+                    final String table = entry.getKey();
+                    // the schema may have been upgraded since the delta was written
+                    final List<String> columns = getColumns(db, "main", table);
+                    columns.retainAll(getColumns(db, DELTA_ALIAS, table));
+                    if (columns.isEmpty()) {
+                        LOG.warn("Skipping table {} from {}, no matching columns", table, deltaFile.getName());
+                        continue;
+                    }
+                    if (MODE_FULL.equals(entry.getValue())) {
+                        db.execSQL("DELETE FROM main.\"" + table + "\"");
+                    } else {
+                        // changed and deleted rows are deleted first, the changed ones are re-inserted below
+                        final String changes = CHANGES_PREFIX + table;
+                        final List<String> keyColumns = getColumns(db, DELTA_ALIAS, changes);
+                        db.execSQL("DELETE FROM main.\"" + table + "\" WHERE EXISTS (SELECT 1 FROM " + DELTA_ALIAS + ".\"" + changes + "\" c"
+                                + " WHERE " + keyJoin(keyColumns, "main.\"" + table + "\"", "c") + ")");
+                    }
+                    final String columnList = "\"" + joinColumns(columns) + "\"";
+                    db.execSQL("INSERT OR REPLACE INTO main.\"" + table + "\" (" + columnList + ") SELECT " + columnList + " FROM " + DELTA_ALIAS + ".\"" + table + "\"");
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.execSQL("DETACH DATABASE " + DELTA_ALIAS);
+        }
+    }
+
+    boolean needsBase(final State state, final SQLiteDatabase db) {
+        if (state == null || !baseFile.exists()) {
+            return true;
+        }
+        if (state.baseLength != baseFile.length() || state.baseModified != baseFile.lastModified()) {
+            LOG.info("Base export was replaced, writing a new base");
+            return true;
+        }
+        if (state.sequence >= MAX_DELTAS) {
+            LOG.info("{} deltas accumulated, writing a new base", state.sequence);
+            return true;
+        }
+        if (state.schemaVersion != db.getVersion()) {
+            LOG.info("Schema changed from {} to {}, writing a new base", state.schemaVersion, db.getVersion());
+            return true;
+        }
+        final Set<String> schemaObjects = new HashSet<>();
+        try (Cursor cursor = db.rawQuery("SELECT name FROM main.sqlite_master WHERE type IN ('table', 'trigger')", null)) {
+            while (cursor.moveToNext()) {
+                schemaObjects.add(cursor.getString(0));
+            }
+        }
+        for (final TableInfo table : getTables(db)) {
+            if (table.mode.equals(MODE_TRACKED) && !schemaObjects.containsAll(table.changeLogObjects())) {
+                LOG.info("Changes to {} were not tracked, writing a new base", table.name);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<TableInfo> getTables(final SQLiteDatabase db) {
+        final List<String> names = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT name FROM main.sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null)) {
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(0);
+                if (!name.startsWith(CHANGES_PREFIX)) {
+                    names.add(name);
+                }
+            }
+        }
+
+        final List<TableInfo> tables = new ArrayList<>();
+        for (final String name : names) {
+            final SortedMap<Integer, String> keyColumns = new TreeMap<>();
+            try (Cursor cursor = db.rawQuery("PRAGMA main.table_info(\"" + name + "\")", null)) {
+                final int nameIndex = cursor.getColumnIndexOrThrow("name");
+                final int pkIndex = cursor.getColumnIndexOrThrow("pk");
+                while (cursor.moveToNext()) {
+                    final String column = cursor.getString(nameIndex);
+                    if (cursor.getInt(pkIndex) > 0) {
+                        keyColumns.put(cursor.getInt(pkIndex), column);
+                    }
+                }
+            }
+            tables.add(new TableInfo(name, keyColumns.isEmpty() ? MODE_FULL : MODE_TRACKED, new ArrayList<>(keyColumns.values())));
+        }
+        return tables;
+    }
+
+    private static List<String> getColumns(final SQLiteDatabase db, final String schema, final String table) {
+        final List<String> columns = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("PRAGMA " + schema + ".table_info(\"" + table + "\")", null)) {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+        }
+        return columns;
+    }
+
+    private static String joinColumns(final List<String> columns) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Iterator<String> it = columns.iterator(); it.hasNext(); ) {
+            sb.append(it.next());
+            if (it.hasNext()) {
+                sb.append("\", \"");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String keyJoin(final List<String> keyColumns, final String left, final String right) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Iterator<String> it = keyColumns.iterator(); it.hasNext(); ) {
+            final String column = it.next();
+            sb.append(left).append(".\"").append(column).append("\" = ").append(right).append(".\"").append(column).append('"');
+            if (it.hasNext()) {
+                sb.append(" AND ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String keyValues(final List<String> keyColumns, final String row) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Iterator<String> it = keyColumns.iterator(); it.hasNext(); ) {
+            sb.append(row).append(".\"").append(it.next()).append('"');
+            if (it.hasNext()) {
+                sb.append(", ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class TableInfo {
+        private final String name;
+        private final String mode;
+        private final List<String> keyColumns;
+
+        private TableInfo(final String name, final String mode, final List<String> keyColumns) {
+            this.name = name;
+            this.mode = mode;
+            this.keyColumns = keyColumns;
+        }
+
+        private String changesTable() {
+            return CHANGES_PREFIX + name;
+        }
+
+        private List<String> changeLogObjects() {
+            final String changes = changesTable();
+            return Arrays.asList(changes, changes + "_INSERT", changes + "_UPDATE", changes + "_DELETE");
+        }
+
+        private void installChangeLog(final SQLiteDatabase db) {
+            final String changes = changesTable();
+            final String keys = "\"" + joinColumns(keyColumns) + "\"";
+            // statements within triggers can not use qualified table names
+            final String insert = "INSERT OR IGNORE INTO \"" + changes + "\" (" + keys + ") VALUES ";
+            db.execSQL("CREATE TABLE IF NOT EXISTS main.\"" + changes + "\" (" + keys + ", PRIMARY KEY (" + keys + ")) WITHOUT ROWID");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS main.\"" + changes + "_INSERT\" AFTER INSERT ON \"" + name + "\" BEGIN "
+                    + insert + "(" + keyValues(keyColumns, "NEW") + "); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS main.\"" + changes + "_UPDATE\" AFTER UPDATE ON \"" + name + "\" BEGIN "
+                    + insert + "(" + keyValues(keyColumns, "OLD") + "); "
+                    + insert + "(" + keyValues(keyColumns, "NEW") + "); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS main.\"" + changes + "_DELETE\" AFTER DELETE ON \"" + name + "\" BEGIN "
+                    + insert + "(" + keyValues(keyColumns, "OLD") + "); END");
+        }
+    }
+
+    static class State {
+        int schemaVersion;
+        int sequence;
+        long baseLength;
+        long baseModified;
+    }
+
+    State loadState() {
+        final File stateFile = new File(exportDir, STATE_FILE);
+        if (!stateFile.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(stateFile)) {
+            final JSONObject json = new JSONObject(new String(FileUtils.readAll(in, stateFile.length()), StandardCharsets.UTF_8));
+            final State state = new State();
+            state.schemaVersion = json.getInt("schemaVersion");
+            state.sequence = json.getInt("sequence");
+            state.baseLength = json.getLong("baseLength");
+            state.baseModified = json.getLong("baseModified");
+            return state;
+        } catch (final IOException | JSONException e) {
+            LOG.error("Failed to read incremental export state, a new base will be exported", e);
+            return null;
+        }
+    }
+
+    private void saveState(final State state) throws IOException {
+        try {
+            final JSONObject json = new JSONObject();
+            json.put("schemaVersion", state.schemaVersion);
+            json.put("sequence", state.sequence);
+            json.put("baseLength", state.baseLength);
+            json.put("baseModified", state.baseModified);
+
+            final File tmpFile = new File(exportDir, STATE_FILE + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmpFile.renameTo(new File(exportDir, STATE_FILE))) {
+                throw new IOException("Failed to write incremental export state");
+            }
+        } catch (final JSONException e) {
+            throw new IOException("Failed to serialize incremental export state", e);
+        }
+    }
+
+    public File getBaseFile() {
+        return baseFile;
+    }
+
+    List<File> getDeltaFiles() {
+        final File[] files = exportDir.listFiles((dir, name) -> name.startsWith("delta-") && name.endsWith(".db"));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+}
@@ -22,16 +22,25 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.SystemClock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.PendingIntentUtils;
@@ -81,50 +90,123 @@ public class PeriodicExporter extends BroadcastReceiver {
         );
     }
 
+    /**
+     * Removes the change log triggers of the incremental export in the background once it was
+     * disabled, so they no longer slow down every write to the database.
+     */
+    public static void stopIncrementalExport() {
+        new Thread(() -> {
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                IncrementalExporter.stopChangeTracking(dbHandler.getDatabase());
+                LOG.info("Stopped tracking changes for the incremental export");
+            } catch (Exception e) {
+                LOG.error("Failed to stop tracking changes for the incremental export", e);
+            }
+        }, "StopIncrementalExport").start();
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         LOG.info("Received command to export DB");
-        createRefreshTask("Export database", context).execute();
+        createRefreshTask(context).execute();
     }
 
-    protected RefreshTask createRefreshTask(String task, Context context) {
-        return new RefreshTask(task, context);
+    protected RefreshTask createRefreshTask(Context context) {
+        return new RefreshTask(context);
     }
 
-    public class RefreshTask extends DBAccess {
+    /**
+     * Exports the database without holding the DB lock for the whole export: a local snapshot is
+     * taken first (see {@link DBHelper#snapshotDB(File)}), compressing and writing it to the export
+     * location (which may be slow, eg. for cloud-backed storage) happens afterwards.
+     */
+    public class RefreshTask extends AsyncTask<Void, Void, Void> {
         Context localContext;
 
-        public RefreshTask(String task, Context context) {
-            super(task, context);
+        public RefreshTask(Context context) {
             localContext = context;
         }
 
         @Override
-        protected void doInBackground(DBHandler handler) {
+        protected Void doInBackground(Void... params) {
             LOG.info("Exporting DB in a background thread");
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                DBHelper helper = new DBHelper(localContext);
+            File snapshot = null;
+            try {
+                if (GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_INCREMENTAL, false)) {
+                    exportIncremental();
+                    return null;
+                }
+
                 String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
                 if (dst == null) {
                     LOG.warn("Unable to export DB, export location not set");
                     broadcastSuccess(false);
-                    return;
+                    return null;
                 }
+                boolean compress = GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_COMPRESS, false);
+
+                long start = System.currentTimeMillis();
+                try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                    // incremental export may have been disabled, its change log triggers are no longer needed
+                    IncrementalExporter.stopChangeTracking(dbHandler.getDatabase());
+                }
+                snapshot = new File(localContext.getCacheDir(), "export-" + start + ".db");
+                new DBHelper(localContext).snapshotDB(snapshot);
+                long snapshotDone = System.currentTimeMillis();
+
                 Uri dstUri = Uri.parse(dst);
-                try (OutputStream out = localContext.getContentResolver().openOutputStream(dstUri)) {
-                    helper.exportDB(dbHandler, out);
+                long bytesWritten;
+                try (OutputStream out = localContext.getContentResolver().openOutputStream(dstUri);
+                     InputStream in = new FileInputStream(snapshot)) {
+                    if (out == null) {
+                        throw new IOException("Failed to open " + dstUri);
+                    }
+                    CountingOutputStream countingOut = new CountingOutputStream(out);
+                    if (compress) {
+                        try (GZIPOutputStream gzipOut = new GZIPOutputStream(countingOut, 65536)) {
+                            FileUtils.copyStream(in, gzipOut);
+                        }
+                    } else {
+                        FileUtils.copyStream(in, countingOut);
+                    }
+                    bytesWritten = countingOut.getCount();
                     GBApplication gbApp = GBApplication.app();
                     gbApp.setLastAutoExportTimestamp(System.currentTimeMillis());
                 }
 
                 broadcastSuccess(true);
 
-                LOG.info("DB export completed");
+                LOG.info(
+                        "DB export completed in {}ms (snapshot {}ms), {} bytes database, {} bytes written",
+                        System.currentTimeMillis() - start,
+                        snapshotDone - start,
+                        snapshot.length(),
+                        bytesWritten
+                );
             } catch (Exception ex) {
                 GB.updateExportFailedNotification(localContext.getString(R.string.notif_export_failed_title), localContext);
                 LOG.info("Exception while exporting DB: ", ex);
                 broadcastSuccess(false);
+            } finally {
+                if (snapshot != null && snapshot.exists() && !snapshot.delete()) {
+                    LOG.warn("Failed to delete temporary export snapshot {}", snapshot);
+                }
             }
+            return null;
+        }
+
+        /**
+         * Writes a base snapshot or a delta into the Gadgetbridge export directory, where it is
+         * picked up by the regular import. The SAF export location only holds a single document,
+         * so it can not be used for the delta files.
+         */
+        private void exportIncremental() throws IOException, GBException {
+            DBHelper helper = new DBHelper(localContext);
+            IncrementalExporter exporter = new IncrementalExporter(FileUtils.getExternalFilesDir(), GBApplication.DATABASE_NAME);
+            IncrementalExporter.Result result = exporter.export(helper);
+            LOG.info("Incremental DB export completed: {}", result);
+            GBApplication.app().setLastAutoExportTimestamp(System.currentTimeMillis());
+            broadcastSuccess(true);
         }
 
         private void broadcastSuccess(final boolean success) {
@@ -139,8 +221,35 @@ public class PeriodicExporter extends BroadcastReceiver {
             localContext.sendBroadcast(exportedNotifyIntent);
         }
 
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
         @Override
-        protected void onPostExecute(Object o) {
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the underlying stream is closed by the caller
+            flush();
+        }
+
+        long getCount() {
+            return count;
         }
     }
 }
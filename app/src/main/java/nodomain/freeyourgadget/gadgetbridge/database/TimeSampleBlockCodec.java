@@ -0,0 +1,198 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the samples of one {@link nodomain.freeyourgadget.gadgetbridge.entities.TimeSampleBlock}
+ * in a compact columnar form.
+ * <p>
+ * The timestamps are stored as deltas to the previous one, starting at the block start, divided by
+ * their greatest common divisor, so samples taken every full second or minute need one or two
+ * bytes each. Every value column follows, each value as the zigzag encoded delta to the previous
+ * value of that column. All numbers are written as varints.
+ */
+public final class TimeSampleBlockCodec {
+    public static final long BLOCK_DURATION = 24 * 60 * 60 * 1000L;
+
+    private static final int VERSION = 1;
+
+    private TimeSampleBlockCodec() {
+    }
+
+    /**
+     * The decoded samples of a block, sorted by timestamp. The values of sample i are
+     * {@code columns[c][i]}.
+     */
+    public static final class Block {
+        public final int count;
+        public final long[] timestamps;
+        public final int[][] columns;
+
+        public Block(final int count, final int columnCount) {
+            this.count = count;
+            this.timestamps = new long[count];
+            this.columns = new int[columnCount][count];
+        }
+    }
+
+    /// The start of the block that contains the timestamp, in milliseconds
+    public static long getBlockStart(final long timestamp) {
+        final long offset = timestamp % BLOCK_DURATION;
+        return timestamp - (offset < 0 ? offset + BLOCK_DURATION : offset);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the timestamps are not strictly increasing or outside of
+     *                                  the block starting at blockStart
+     */
+    public static byte[] encode(final long blockStart, final Block block) {
+        long unit = 0;
+        long previous = blockStart;
+        for (int i = 0; i < block.count; i++) {
+            final long timestamp = block.timestamps[i];
+            if (timestamp < previous || (i > 0 && timestamp == previous) || timestamp >= blockStart + BLOCK_DURATION) {
+                throw new IllegalArgumentException("Timestamp " + timestamp + " out of order for block " + blockStart);
+            }
+            unit = gcd(unit, timestamp - previous);
+            previous = timestamp;
+        }
+        if (unit == 0) {
+            unit = 1;
+        }
+
+        final Output out = new Output(16 + block.count * (2 + block.columns.length));
+        out.write(VERSION);
+        out.writeVarLong(block.count);
+        out.writeVarLong(block.columns.length);
+        out.writeVarLong(unit);
+        previous = blockStart;
+        for (int i = 0; i < block.count; i++) {
+            out.writeVarLong((block.timestamps[i] - previous) / unit);
+            previous = block.timestamps[i];
+        }
+        for (final int[] column : block.columns) {
+            int previousValue = 0;
+            for (int i = 0; i < block.count; i++) {
+                final int delta = column[i] - previousValue;
+                out.writeVarLong(((delta << 1) ^ (delta >> 31)) & 0xffffffffL);
+                previousValue = column[i];
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not a valid block
+     */
+    public static Block decode(final long blockStart, final byte[] data) {
+        final Input in = new Input(data);
+        final int version = in.read();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported block version " + version);
+        }
+        final int count = (int) in.readVarLong();
+        final int columnCount = (int) in.readVarLong();
+        // every sample takes at least one byte per timestamp and column
+        if (count < 0 || columnCount < 0 || (long) count * (columnCount + 1) > data.length) {
+            throw new IllegalArgumentException("Invalid block size " + count + "x" + columnCount);
+        }
+        final long unit = in.readVarLong();
+
+        final Block block = new Block(count, columnCount);
+        long timestamp = blockStart;
+        for (int i = 0; i < count; i++) {
+            timestamp += in.readVarLong() * unit;
+            block.timestamps[i] = timestamp;
+        }
+        for (final int[] column : block.columns) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                final int zigzag = (int) in.readVarLong();
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+                column[i] = value;
+            }
+        }
+        return block;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int length;
+
+        Output(final int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void write(final int b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(final byte[] data) {
+            this.data = data;
+        }
+
+        int read() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated block");
+            }
+            return data[position++] & 0xff;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = read();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid varint");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+
+/**
+ * Moves the time samples of all devices from their row tables into compact
+ * {@link nodomain.freeyourgadget.gadgetbridge.entities.TimeSampleBlock}s, and enables
+ * {@link GBPrefs#COMPACT_SAMPLE_STORAGE} so that new samples are written into blocks as well.
+ * The database is vacuumed afterwards, to actually release the space of the deleted rows.
+ */
+public class TimeSampleBlockMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSampleBlockMigration.class);
+
+    public static class Result {
+        public final int samples;
+        public final long sizeBefore;
+        public final long sizeAfter;
+        public final long durationMillis;
+
+        Result(final int samples, final long sizeBefore, final long sizeAfter, final long durationMillis) {
+            this.samples = samples;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+            this.durationMillis = durationMillis;
+        }
+    }
+
+    public static Result migrate(final DBHandler dbHandler) {
+        final long start = System.currentTimeMillis();
+        final SQLiteDatabase db = dbHandler.getDatabase();
+        final DaoSession session = dbHandler.getDaoSession();
+        final long sizeBefore = getDatabaseSize(db);
+
+        // enabled first, so samples added while migrating are not left behind as rows
+        GBApplication.getPrefs().getPreferences().edit().putBoolean(GBPrefs.COMPACT_SAMPLE_STORAGE, true).apply();
+
+        int samples = 0;
+        for (final Device dbDevice : session.getDeviceDao().loadAll()) {
+            final GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(dbDevice);
+            for (final AbstractTimeSampleProvider<?> provider : getProviders(gbDevice, session)) {
+                final long providerStart = System.currentTimeMillis();
+                final int moved = provider.moveSamplesToBlocks();
+                if (moved > 0) {
+                    LOG.info("Moved {} samples of {} from {} into blocks in {}ms", moved, gbDevice.getName(),
+                            provider.getSampleDao().getTablename(), System.currentTimeMillis() - providerStart);
+                }
+                samples += moved;
+            }
+        }
+        session.clear();
+
+        db.execSQL("VACUUM");
+        final long sizeAfter = getDatabaseSize(db);
+        final Result result = new Result(samples, sizeBefore, sizeAfter, System.currentTimeMillis() - start);
+        LOG.info("Moved {} samples into blocks in {}ms, database size {} -> {} bytes",
+                result.samples, result.durationMillis, result.sizeBefore, result.sizeAfter);
+        return result;
+    }
+
+    static List<AbstractTimeSampleProvider<?>> getProviders(final GBDevice gbDevice, final DaoSession session) {
+        final DeviceCoordinator coordinator = gbDevice.getDeviceCoordinator();
+        final List<TimeSampleProvider<?>> candidates = new ArrayList<>();
+        candidates.add(coordinator.getStressSampleProvider(gbDevice, session));
+        candidates.add(coordinator.getSpo2SampleProvider(gbDevice, session));
+        candidates.add(coordinator.getHeartRateMaxSampleProvider(gbDevice, session));
+        candidates.add(coordinator.getHeartRateRestingSampleProvider(gbDevice, session));
+        candidates.add(coordinator.getHeartRateManualSampleProvider(gbDevice, session));
+        candidates.add(coordinator.getPaiSampleProvider(gbDevice, session));
+        candidates.add(coordinator.getSleepRespiratoryRateSampleProvider(gbDevice, session));
+
+        final List<AbstractTimeSampleProvider<?>> providers = new ArrayList<>();
+        final Set<String> tables = new HashSet<>();
+        for (final TimeSampleProvider<?> candidate : candidates) {
+            if (candidate instanceof AbstractTimeSampleProvider) {
+                final AbstractTimeSampleProvider<?> provider = (AbstractTimeSampleProvider<?>) candidate;
+                if (tables.add(provider.getSampleDao().getTablename())) {
+                    providers.add(provider);
+                }
+            }
+        }
+        return providers;
+    }
+
+    private static long getDatabaseSize(final SQLiteDatabase db) {
+        try (Cursor pageCount = db.rawQuery("PRAGMA page_count", null);
+             Cursor pageSize = db.rawQuery("PRAGMA page_size", null)) {
+            if (pageCount.moveToFirst() && pageSize.moveToFirst()) {
+                return pageCount.getLong(0) * pageSize.getLong(0);
+            }
+        }
+        return 0;
+    }
+}
@@ -18,6 +18,7 @@
 package nodomain.freeyourgadget.gadgetbridge.devices;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -42,12 +43,26 @@ import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
  */
 public abstract class AbstractSampleProvider<T extends AbstractActivitySample> implements SampleProvider<T> {
     private static final WhereCondition[] NO_CONDITIONS = new WhereCondition[0];
+
+    // raw kinds are mostly small enums, sometimes negative, raw intensities mostly a byte
+    private static final int TYPE_LOOKUP_MIN = -128;
+    private static final int TYPE_LOOKUP_MAX = 255;
+    private static final int INTENSITY_LOOKUP_MAX = 255;
+    private static final int TYPE_NOT_LOOKED_UP = Integer.MIN_VALUE;
+
     private final DaoSession mSession;
     private final GBDevice mDevice;
 
+    // allocated up front so the sentinels are safely published through the final fields; the
+    // entries are filled lazily, and a racy fill just stores the same value twice
+    private final int[] mTypeLookup = new int[TYPE_LOOKUP_MAX - TYPE_LOOKUP_MIN + 1];
+    private final float[] mIntensityLookup = new float[INTENSITY_LOOKUP_MAX + 1];
+
     protected AbstractSampleProvider(GBDevice device, DaoSession session) {
         mDevice = device;
         mSession = session;
+        Arrays.fill(mTypeLookup, TYPE_NOT_LOOKED_UP);
+        Arrays.fill(mIntensityLookup, Float.NaN);
     }
 
     public GBDevice getDevice() {
@@ -58,6 +73,42 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         return mSession;
     }
 
+    @Override
+    public final int getNormalizedType(int rawType) {
+        if (rawType < TYPE_LOOKUP_MIN || rawType > TYPE_LOOKUP_MAX) {
+            return normalizeType(rawType);
+        }
+        int type = mTypeLookup[rawType - TYPE_LOOKUP_MIN];
+        if (type == TYPE_NOT_LOOKED_UP) {
+            type = normalizeType(rawType);
+            mTypeLookup[rawType - TYPE_LOOKUP_MIN] = type;
+        }
+        return type;
+    }
+
+    @Override
+    public final float getNormalizedIntensity(int rawIntensity) {
+        if (rawIntensity < 0 || rawIntensity > INTENSITY_LOOKUP_MAX) {
+            return normalizeIntensity(rawIntensity);
+        }
+        float intensity = mIntensityLookup[rawIntensity];
+        if (Float.isNaN(intensity)) {
+            intensity = normalizeIntensity(rawIntensity);
+            mIntensityLookup[rawIntensity] = intensity;
+        }
+        return intensity;
+    }
+
+    /**
+     * The samples are queried as they are stored, so this returns false. Subclasses that
+     * post-process the queried samples depending on the range or on neighbouring samples must
+     * override this.
+     */
+    @Override
+    public boolean isRangeDependent() {
+        return false;
+    }
+
     @Override
     public List<T> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         return getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
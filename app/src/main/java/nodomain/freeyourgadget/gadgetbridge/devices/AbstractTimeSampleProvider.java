@@ -20,25 +20,46 @@ package nodomain.freeyourgadget.gadgetbridge.devices;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.TimeSampleBlockCodec;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractTimeSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.TimeSampleBlock;
+import nodomain.freeyourgadget.gadgetbridge.entities.TimeSampleBlockDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 
 /**
  * Base class for all time sample providers. A Sample provider is device specific and provides
  * access to the device specific samples. There are both read and write operations.
+ * <p>
+ * Providers that declare their {@link #getSampleColumns() columns} can also keep their samples in
+ * compact per-day {@link TimeSampleBlock}s. Blocks are always read together with the rows, with a
+ * block sample replacing a row with the same timestamp. New samples are only written into blocks
+ * once {@link GBPrefs#COMPACT_SAMPLE_STORAGE} was enabled by the
+ * {@link nodomain.freeyourgadget.gadgetbridge.database.TimeSampleBlockMigration}.
  *
  * @param <T> the sample type
  */
 public abstract class AbstractTimeSampleProvider<T extends AbstractTimeSample> implements TimeSampleProvider<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractTimeSampleProvider.class);
+
+    private static final int MIGRATION_PAGE_SIZE = 10000;
+
     private final DaoSession mSession;
     private final GBDevice mDevice;
 
@@ -70,16 +91,52 @@ public abstract class AbstractTimeSampleProvider<T extends AbstractTimeSample> i
                 .where(timestampProperty.le(timestampTo));
         final List<T> samples = qb.build().list();
         detachFromSession();
-        return samples;
+        if (getSampleColumns() == null) {
+            return samples;
+        }
+
+        final List<TimeSampleBlock> blocks = queryBlocks(dbDevice.getId())
+                .where(TimeSampleBlockDao.Properties.Timestamp.ge(TimeSampleBlockCodec.getBlockStart(timestampFrom)))
+                .where(TimeSampleBlockDao.Properties.Timestamp.le(timestampTo))
+                .orderAsc(TimeSampleBlockDao.Properties.Timestamp)
+                .build().list();
+        getSession().getTimeSampleBlockDao().detachAll();
+        if (blocks.isEmpty()) {
+            return samples;
+        }
+
+        final List<T> blockSamples = new ArrayList<>();
+        for (final TimeSampleBlock block : blocks) {
+            addBlockSamples(block, timestampFrom, timestampTo, blockSamples);
+        }
+        if (samples.isEmpty()) {
+            return blockSamples;
+        }
+        final Map<Long, T> merged = new TreeMap<>();
+        for (final T sample : samples) {
+            merged.put(sample.getTimestamp(), sample);
+        }
+        for (final T sample : blockSamples) {
+            merged.put(sample.getTimestamp(), sample);
+        }
+        return new ArrayList<>(merged.values());
     }
 
     @Override
     public void addSample(final T activitySample) {
+        if (isBlockStorageEnabled()) {
+            addSamplesToBlocks(Collections.singletonList(activitySample));
+            return;
+        }
         getSampleDao().insertOrReplace(activitySample);
     }
 
     @Override
     public void addSamples(final List<T> activitySamples) {
+        if (isBlockStorageEnabled()) {
+            addSamplesToBlocks(activitySamples);
+            return;
+        }
         getSampleDao().insertOrReplaceInTx(activitySamples);
     }
 
@@ -95,10 +152,19 @@ public abstract class AbstractTimeSampleProvider<T extends AbstractTimeSample> i
         final Property deviceProperty = getDeviceIdentifierSampleProperty();
         qb.where(deviceProperty.eq(dbDevice.getId())).orderDesc(getTimestampSampleProperty()).limit(1);
         final List<T> samples = qb.build().list();
-        if (samples.isEmpty()) {
-            return null;
+        final T sample = samples.isEmpty() ? null : samples.get(0);
+        if (getSampleColumns() == null) {
+            return sample;
+        }
+
+        final List<TimeSampleBlock> blocks = queryBlocks(dbDevice.getId())
+                .orderDesc(TimeSampleBlockDao.Properties.LastTimestamp).limit(1).build().list();
+        getSession().getTimeSampleBlockDao().detachAll();
+        if (blocks.isEmpty() || (sample != null && sample.getTimestamp() > blocks.get(0).getLastTimestamp())) {
+            return sample;
         }
-        return samples.get(0);
+        final TimeSampleBlock block = blocks.get(0);
+        return getBlockSample(block, block.getLastTimestamp());
     }
 
     @Nullable
@@ -113,10 +179,184 @@ public abstract class AbstractTimeSampleProvider<T extends AbstractTimeSample> i
         final Property deviceProperty = getDeviceIdentifierSampleProperty();
         qb.where(deviceProperty.eq(dbDevice.getId())).orderAsc(getTimestampSampleProperty()).limit(1);
         final List<T> samples = qb.build().list();
+        final T sample = samples.isEmpty() ? null : samples.get(0);
+        if (getSampleColumns() == null) {
+            return sample;
+        }
+
+        final List<TimeSampleBlock> blocks = queryBlocks(dbDevice.getId())
+                .orderAsc(TimeSampleBlockDao.Properties.FirstTimestamp).limit(1).build().list();
+        getSession().getTimeSampleBlockDao().detachAll();
+        if (blocks.isEmpty() || (sample != null && sample.getTimestamp() < blocks.get(0).getFirstTimestamp())) {
+            return sample;
+        }
+        final TimeSampleBlock block = blocks.get(0);
+        return getBlockSample(block, block.getFirstTimestamp());
+    }
+
+    /**
+     * Moves the samples of this device that are stored as rows into blocks, in a single
+     * transaction. Does nothing if the provider has no {@link #getSampleColumns() columns}.
+     *
+     * @return the number of moved samples
+     */
+    public int moveSamplesToBlocks() {
+        if (getSampleColumns() == null) {
+            return 0;
+        }
+        final Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
+        if (dbDevice == null) {
+            return 0;
+        }
+        final Property timestampProperty = getTimestampSampleProperty();
+        final Property deviceProperty = getDeviceIdentifierSampleProperty();
+        final int[] moved = new int[1];
+        getSession().runInTx(() -> {
+            long lastTimestamp = Long.MIN_VALUE;
+            while (true) {
+                final List<T> samples = getSampleDao().queryBuilder()
+                        .where(deviceProperty.eq(dbDevice.getId()), timestampProperty.gt(lastTimestamp))
+                        .orderAsc(timestampProperty)
+                        .limit(MIGRATION_PAGE_SIZE)
+                        .build().list();
+                detachFromSession();
+                if (samples.isEmpty()) {
+                    break;
+                }
+                addSamplesToBlocks(samples);
+                moved[0] += samples.size();
+                lastTimestamp = samples.get(samples.size() - 1).getTimestamp();
+            }
+            getSampleDao().queryBuilder()
+                    .where(deviceProperty.eq(dbDevice.getId()))
+                    .buildDelete().executeDeleteWithoutDetachingEntities();
+        });
+        return moved[0];
+    }
+
+    /**
+     * The value columns of the samples, besides the timestamp, device and user, to store them in
+     * {@link TimeSampleBlock}s. Samples of providers without columns are always stored as rows.
+     */
+    @Nullable
+    protected TimeSampleColumns<T> getSampleColumns() {
+        return null;
+    }
+
+    protected boolean isBlockStorageEnabled() {
+        return getSampleColumns() != null && GBApplication.getPrefs().getBoolean(GBPrefs.COMPACT_SAMPLE_STORAGE, false);
+    }
+
+    private QueryBuilder<TimeSampleBlock> queryBlocks(final long deviceId) {
+        return getSession().getTimeSampleBlockDao().queryBuilder()
+                .where(TimeSampleBlockDao.Properties.DeviceId.eq(deviceId))
+                .where(TimeSampleBlockDao.Properties.SampleType.eq(getSampleDao().getTablename()));
+    }
+
+    private void addBlockSamples(final TimeSampleBlock block, final long timestampFrom, final long timestampTo, final List<T> samples) {
+        final TimeSampleColumns<T> columns = getSampleColumns();
+        final TimeSampleBlockCodec.Block decoded = TimeSampleBlockCodec.decode(block.getTimestamp(), block.getData());
+        for (int i = 0; i < decoded.count; i++) {
+            final long timestamp = decoded.timestamps[i];
+            if (timestamp < timestampFrom || timestamp > timestampTo) {
+                continue;
+            }
+            final T sample = createSample();
+            sample.setTimestamp(timestamp);
+            sample.setDeviceId(block.getDeviceId());
+            sample.setUserId(block.getUserId());
+            for (int c = 0; c < columns.size(); c++) {
+                columns.set(sample, c, decoded.columns[c][i]);
+            }
+            samples.add(sample);
+        }
+    }
+
+    @Nullable
+    private T getBlockSample(final TimeSampleBlock block, final long timestamp) {
+        final List<T> samples = new ArrayList<>(1);
+        addBlockSamples(block, timestamp, timestamp, samples);
+        return samples.isEmpty() ? null : samples.get(0);
+    }
+
+    private void addSamplesToBlocks(final List<T> samples) {
         if (samples.isEmpty()) {
-            return null;
+            return;
+        }
+        final List<T> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted, (s1, s2) -> {
+            final int byDevice = Long.compare(s1.getDeviceId(), s2.getDeviceId());
+            return byDevice != 0 ? byDevice : Long.compare(s1.getTimestamp(), s2.getTimestamp());
+        });
+        getSession().runInTx(() -> {
+            int start = 0;
+            while (start < sorted.size()) {
+                final long deviceId = sorted.get(start).getDeviceId();
+                final long blockStart = TimeSampleBlockCodec.getBlockStart(sorted.get(start).getTimestamp());
+                int end = start + 1;
+                while (end < sorted.size() && sorted.get(end).getDeviceId() == deviceId
+                        && TimeSampleBlockCodec.getBlockStart(sorted.get(end).getTimestamp()) == blockStart) {
+                    end++;
+                }
+                mergeIntoBlock(sorted.subList(start, end), deviceId, blockStart);
+                start = end;
+            }
+        });
+    }
+
+    private void mergeIntoBlock(final List<T> samples, final long deviceId, final long blockStart) {
+        final TimeSampleColumns<T> columns = getSampleColumns();
+        final TimeSampleBlockDao blockDao = getSession().getTimeSampleBlockDao();
+        final List<TimeSampleBlock> existing = queryBlocks(deviceId)
+                .where(TimeSampleBlockDao.Properties.Timestamp.eq(blockStart))
+                .build().list();
+
+        final TreeMap<Long, int[]> values = new TreeMap<>();
+        for (final TimeSampleBlock block : existing) {
+            try {
+                final TimeSampleBlockCodec.Block decoded = TimeSampleBlockCodec.decode(blockStart, block.getData());
+                for (int i = 0; i < decoded.count; i++) {
+                    final int[] sampleValues = new int[columns.size()];
+                    for (int c = 0; c < sampleValues.length && c < decoded.columns.length; c++) {
+                        sampleValues[c] = decoded.columns[c][i];
+                    }
+                    values.put(decoded.timestamps[i], sampleValues);
+                }
+            } catch (final IllegalArgumentException e) {
+                LOG.error("Dropping invalid sample block {} of {}", blockStart, block.getSampleType(), e);
+            }
+        }
+        for (final T sample : samples) {
+            final int[] sampleValues = new int[columns.size()];
+            for (int c = 0; c < sampleValues.length; c++) {
+                sampleValues[c] = columns.get(sample, c);
+            }
+            values.put(sample.getTimestamp(), sampleValues);
         }
-        return samples.get(0);
+
+        final TimeSampleBlockCodec.Block block = new TimeSampleBlockCodec.Block(values.size(), columns.size());
+        int i = 0;
+        for (final Map.Entry<Long, int[]> entry : values.entrySet()) {
+            block.timestamps[i] = entry.getKey();
+            for (int c = 0; c < columns.size(); c++) {
+                block.columns[c][i] = entry.getValue()[c];
+            }
+            i++;
+        }
+
+        // a new row instead of an update, so that the incremental export picks it up
+        blockDao.deleteInTx(existing);
+        final TimeSampleBlock newBlock = new TimeSampleBlock();
+        newBlock.setDeviceId(deviceId);
+        newBlock.setUserId(samples.get(0).getUserId());
+        newBlock.setSampleType(getSampleDao().getTablename());
+        newBlock.setTimestamp(blockStart);
+        newBlock.setFirstTimestamp(values.firstKey());
+        newBlock.setLastTimestamp(values.lastKey());
+        newBlock.setSampleCount(block.count);
+        newBlock.setData(TimeSampleBlockCodec.encode(blockStart, block));
+        blockDao.insert(newBlock);
+        blockDao.detachAll();
     }
 
     /**
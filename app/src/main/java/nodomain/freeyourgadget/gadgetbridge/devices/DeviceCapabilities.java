@@ -0,0 +1,175 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Immutable snapshot of the capabilities a {@link DeviceCoordinator} reports for a specific
+ * {@link GBDevice}. Some coordinators look at the device preferences to answer the supports*()
+ * queries, so the snapshots are cached per device address and dropped whenever the device
+ * (re)connects or one of its preferences changes, no matter which code path changed it. A device
+ * state update invalidates them before it is broadcast, and deleting a device drops its snapshot.
+ */
+public final class DeviceCapabilities {
+    public enum Capability {
+        ACTIVITY_DATA_FETCHING,
+        ACTIVITY_TRACKING,
+        ACTIVITY_TRACKS,
+        CALENDAR_EVENTS,
+        WEATHER,
+        MUSIC_INFO,
+        NAVIGATION,
+        REALTIME_DATA,
+        MANUAL_HEART_RATE_MEASUREMENT,
+        APPS_MANAGEMENT,
+        FLASHING,
+        SCREENSHOTS,
+        FIND_DEVICE,
+        LED_COLOR,
+        RGB_LED_COLOR,
+        POWER_OFF,
+        DEVICE_SPECIFIC_SETTINGS,
+    }
+
+    private static final Map<String, DeviceCapabilities> CACHE = new ConcurrentHashMap<>();
+    /// Per device address, kept here because SharedPreferences only holds its listeners weakly
+    private static final Map<String, SharedPreferences.OnSharedPreferenceChangeListener> PREF_LISTENERS = new ConcurrentHashMap<>();
+
+    private final long flags;
+    private final int batteryCount;
+    private final int alarmSlotCount;
+    private final int reminderSlotCount;
+
+    private DeviceCapabilities(final long flags,
+                               final int batteryCount,
+                               final int alarmSlotCount,
+                               final int reminderSlotCount) {
+        this.flags = flags;
+        this.batteryCount = batteryCount;
+        this.alarmSlotCount = alarmSlotCount;
+        this.reminderSlotCount = reminderSlotCount;
+    }
+
+    /**
+     * Returns the cached capabilities for the device, building them from its coordinator if needed.
+     */
+    @NonNull
+    public static DeviceCapabilities of(@NonNull final GBDevice device) {
+        final String key = cacheKey(device);
+        DeviceCapabilities capabilities = CACHE.get(key);
+        if (capabilities == null) {
+            watchPreferences(device.getAddress());
+            capabilities = build(device.getDeviceCoordinator(), device);
+            CACHE.put(key, capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Drops the cached snapshot for a device, so that it gets rebuilt on the next query.
+     */
+    public static void invalidate(@NonNull final GBDevice device) {
+        CACHE.remove(cacheKey(device));
+    }
+
+    private static void watchPreferences(final String address) {
+        if (PREF_LISTENERS.containsKey(address)) {
+            return;
+        }
+        final SharedPreferences sharedPrefs = GBApplication.getDeviceSpecificSharedPrefs(address);
+        if (sharedPrefs == null) {
+            return;
+        }
+        final SharedPreferences.OnSharedPreferenceChangeListener listener = (prefs, key) -> invalidateAddress(address);
+        if (PREF_LISTENERS.putIfAbsent(address, listener) == null) {
+            sharedPrefs.registerOnSharedPreferenceChangeListener(listener);
+        }
+    }
+
+    private static void invalidateAddress(final String address) {
+        final String prefix = address + "/";
+        for (final Iterator<String> it = CACHE.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    @NonNull
+    static DeviceCapabilities build(@NonNull final DeviceCoordinator coordinator, @NonNull final GBDevice device) {
+        long flags = 0;
+        flags |= flag(Capability.ACTIVITY_DATA_FETCHING, coordinator.supportsActivityDataFetching());
+        flags |= flag(Capability.ACTIVITY_TRACKING, coordinator.supportsActivityTracking());
+        flags |= flag(Capability.ACTIVITY_TRACKS, coordinator.supportsActivityTracks());
+        flags |= flag(Capability.CALENDAR_EVENTS, coordinator.supportsCalendarEvents());
+        flags |= flag(Capability.WEATHER, coordinator.supportsWeather());
+        flags |= flag(Capability.MUSIC_INFO, coordinator.supportsMusicInfo());
+        flags |= flag(Capability.NAVIGATION, coordinator.supportsNavigation());
+        flags |= flag(Capability.REALTIME_DATA, coordinator.supportsRealtimeData());
+        flags |= flag(Capability.MANUAL_HEART_RATE_MEASUREMENT, coordinator.supportsManualHeartRateMeasurement(device));
+        flags |= flag(Capability.APPS_MANAGEMENT, coordinator.supportsAppsManagement(device));
+        flags |= flag(Capability.FLASHING, coordinator.supportsFlashing());
+        flags |= flag(Capability.SCREENSHOTS, coordinator.supportsScreenshots());
+        flags |= flag(Capability.FIND_DEVICE, coordinator.supportsFindDevice());
+        flags |= flag(Capability.LED_COLOR, coordinator.supportsLedColor());
+        flags |= flag(Capability.RGB_LED_COLOR, coordinator.supportsRgbLedColor());
+        flags |= flag(Capability.POWER_OFF, coordinator.supportsPowerOff());
+        flags |= flag(Capability.DEVICE_SPECIFIC_SETTINGS, coordinator.getSupportedDeviceSpecificSettings(device) != null);
+
+        return new DeviceCapabilities(
+                flags,
+                coordinator.getBatteryCount(),
+                coordinator.getAlarmSlotCount(device),
+                coordinator.getReminderSlotCount(device)
+        );
+    }
+
+    private static long flag(final Capability capability, final boolean supported) {
+        return supported ? 1L << capability.ordinal() : 0L;
+    }
+
+    private static String cacheKey(final GBDevice device) {
+        // the same address may be re-added with a different device type
+        return device.getAddress() + "/" + device.getType().name();
+    }
+
+    public boolean supports(final Capability capability) {
+        return (flags & (1L << capability.ordinal())) != 0;
+    }
+
+    public int getBatteryCount() {
+        return batteryCount;
+    }
+
+    public int getAlarmSlotCount() {
+        return alarmSlotCount;
+    }
+
+    public int getReminderSlotCount() {
+        return reminderSlotCount;
+    }
+}
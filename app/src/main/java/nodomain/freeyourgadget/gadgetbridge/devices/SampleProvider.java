@@ -44,6 +44,18 @@ public interface SampleProvider<T extends AbstractActivitySample> {
 
     float normalizeIntensity(int rawIntensity);
 
+    /**
+     * Same as {@link #normalizeType(int)}, but answered from a lookup table for the common raw
+     * values. Used on every sample access, so it must be cheap.
+     */
+    int getNormalizedType(int rawType);
+
+    /**
+     * Same as {@link #normalizeIntensity(int)}, but answered from a lookup table for the common
+     * raw values. Used on every sample access, so it must be cheap.
+     */
+    float getNormalizedIntensity(int rawIntensity);
+
     /**
      * Returns the list of all samples, of any type, within the given time span.
      * @param timestamp_from the start timestamp
@@ -73,6 +85,14 @@ public interface SampleProvider<T extends AbstractActivitySample> {
     @NonNull
     List<T> getSleepSamples(int timestamp_from, int timestamp_to);
 
+    /**
+     * Whether the samples returned by {@link #getAllActivitySamples} and {@link #getSleepSamples}
+     * depend on the queried range, e.g. because virtual samples are added for it, so that the
+     * samples of a larger range cannot simply be cut down to a smaller one.
+     * @return true if the samples of a range have to be queried for exactly that range
+     */
+    boolean isRangeDependent();
+
     /**
      * Adds the given sample to the database. An existing sample with the same
      * timestamp will be overwritten.
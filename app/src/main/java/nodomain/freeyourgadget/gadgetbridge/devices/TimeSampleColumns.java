@@ -0,0 +1,74 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The value columns of a time sample, besides the timestamp and the device and user, as they are
+ * stored in a {@link nodomain.freeyourgadget.gadgetbridge.entities.TimeSampleBlock}. Every column
+ * is stored as an int, floats by their bits.
+ *
+ * @param <T> the sample type
+ * @see AbstractTimeSampleProvider#getSampleColumns()
+ */
+public class TimeSampleColumns<T> {
+    public interface IntGetter<T> {
+        int get(T sample);
+    }
+
+    public interface IntSetter<T> {
+        void set(T sample, int value);
+    }
+
+    public interface FloatGetter<T> {
+        float get(T sample);
+    }
+
+    public interface FloatSetter<T> {
+        void set(T sample, float value);
+    }
+
+    private final List<IntGetter<T>> getters = new ArrayList<>();
+    private final List<IntSetter<T>> setters = new ArrayList<>();
+
+    public TimeSampleColumns<T> addInt(final IntGetter<T> getter, final IntSetter<T> setter) {
+        getters.add(getter);
+        setters.add(setter);
+        return this;
+    }
+
+    public TimeSampleColumns<T> addFloat(final FloatGetter<T> getter, final FloatSetter<T> setter) {
+        return addInt(
+                sample -> Float.floatToIntBits(getter.get(sample)),
+                (sample, value) -> setter.set(sample, Float.intBitsToFloat(value))
+        );
+    }
+
+    public int size() {
+        return getters.size();
+    }
+
+    public int get(final T sample, final int column) {
+        return getters.get(column).get(sample);
+    }
+
+    public void set(final T sample, final int column, final int value) {
+        setters.get(column).set(sample, value);
+    }
+}
@@ -60,6 +60,16 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return 0;
         }
 
+        @Override
+        public int getNormalizedType(int rawType) {
+            return ActivityKind.TYPE_UNKNOWN;
+        }
+
+        @Override
+        public float getNormalizedIntensity(int rawIntensity) {
+            return 0;
+        }
+
         @Override
         public List getAllActivitySamples(int timestamp_from, int timestamp_to) {
             return null;
@@ -75,6 +85,11 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return null;
         }
 
+        @Override
+        public boolean isRangeDependent() {
+            return true;
+        }
+
         @Override
         public void addGBActivitySample(AbstractActivitySample activitySample) {
         }
@@ -110,6 +110,7 @@ public class AppsManagementActivity extends AbstractGBActivity {
         commandFilter.addAction(GBDevice.ACTION_DEVICE_CHANGED);
         commandFilter.addAction(BangleJSDeviceSupport.BANGLEJS_COMMAND_RX);
         LocalBroadcastManager.getInstance(this).registerReceiver(deviceUpdateReceiver, commandFilter);
+        BangleJSDeviceSupport.registerRxListener();
         initViews();
     }
 
@@ -118,6 +119,7 @@ public class AppsManagementActivity extends AbstractGBActivity {
         webView.destroy();
         webView = null;
         LocalBroadcastManager.getInstance(this).unregisterReceiver(deviceUpdateReceiver);
+        BangleJSDeviceSupport.unregisterRxListener();
         super.onDestroy();
         finish();
     }
@@ -21,11 +21,15 @@ package nodomain.freeyourgadget.gadgetbridge.devices.hplus;
 * @author João Paulo Barraca &lt;jpbarraca@gmail.com&gt;
 */
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
@@ -122,6 +126,12 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return getAllActivitySamples(timestamp_from, timestamp_to);
     }
 
+    @Override
+    public boolean isRangeDependent() {
+        // adds virtual samples for the queried range
+        return true;
+    }
+
     @NonNull
     @Override
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
@@ -143,54 +153,21 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
 
 
 
-        //Apply Overlays
+        //Create fake events to improve activity counters if there are no events around the overlay
+        //timestamp boundaries
+        //Insert one before, one at the beginning, one at the end, and one 1s after.
+        List<HPlusHealthActivitySample> virtualSamples = new ArrayList<>(overlayRecords.size() * 4);
         for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            //Create fake events to improve activity counters if there are no events around the overlay
-            //timestamp boundaries
-            //Insert one before, one at the beginning, one at the end, and one 1s after.
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
         }
 
-        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
-            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
-                return one.getTimestamp() - other.getTimestamp();
-            }
-        });
+        samples = mergeByTimestamp(samples, virtualSamples);
 
         //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            long nonSleepTimeEnd = 0;
-            for (HPlusHealthActivitySample sample : samples) {
-                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                    continue;
-
-                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
-                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
-                            continue;
-                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
-                            continue;
-                        }
-
-                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                            sample.setHeartRate(0);
-
-                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
-                            sample.setRawKind(overlay.getRawKind());
-
-                        sample.setRawIntensity(10);
-                    }
-                }
-            }
-        }
-
-
+        applyOverlays(samples, overlayRecords);
 
         //Fix Step counters
         //Todays sample steps will come from the Day Slots messages
@@ -237,6 +214,97 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return samples;
     }
 
+    /**
+     * Merges two lists into one sorted by timestamp, keeping the samples before the virtual
+     * samples at the same timestamp. The database mostly returns the samples in order already, so
+     * sorting both lists separately and merging them is close to linear.
+     */
+    static List<HPlusHealthActivitySample> mergeByTimestamp(List<HPlusHealthActivitySample> samples, List<HPlusHealthActivitySample> virtualSamples) {
+        Comparator<HPlusHealthActivitySample> byTimestamp = new Comparator<HPlusHealthActivitySample>() {
+            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
+                return one.getTimestamp() - other.getTimestamp();
+            }
+        };
+        samples = new ArrayList<>(samples);
+        Collections.sort(samples, byTimestamp);
+        Collections.sort(virtualSamples, byTimestamp);
+
+        List<HPlusHealthActivitySample> merged = new ArrayList<>(samples.size() + virtualSamples.size());
+        int i = 0;
+        int j = 0;
+        while (i < samples.size() && j < virtualSamples.size()) {
+            if (samples.get(i).getTimestamp() <= virtualSamples.get(j).getTimestamp()) {
+                merged.add(samples.get(i++));
+            } else {
+                merged.add(virtualSamples.get(j++));
+            }
+        }
+        merged.addAll(samples.subList(i, samples.size()));
+        merged.addAll(virtualSamples.subList(j, virtualSamples.size()));
+        return merged;
+    }
+
+    /**
+     * Applies the sleep and not worn overlays to the samples, which must be sorted by timestamp.
+     * Overlays are applied in list order, so the last overlay wins where they intersect, except
+     * that a sample marked as not worn keeps that kind. Day slots with steps, and realtime samples
+     * up to 10 minutes after them within the same overlay, are not overridden.
+     * <p>
+     * Sweeps once over the samples, keeping the overlays covering the current timestamp in a set
+     * ordered by list position, together with the end of the non-sleep time of each overlay.
+     */
+    static void applyOverlays(List<HPlusHealthActivitySample> samples, List<HPlusHealthActivityOverlay> overlays) {
+        List<Integer> byStart = new ArrayList<>(overlays.size());
+        for (int i = 0; i < overlays.size(); i++) {
+            int rawKind = overlays.get(i).getRawKind();
+            if (rawKind == ActivityKind.TYPE_NOT_WORN || rawKind == ActivityKind.TYPE_LIGHT_SLEEP || rawKind == ActivityKind.TYPE_DEEP_SLEEP) {
+                byStart.add(i);
+            }
+        }
+        if (byStart.isEmpty()) {
+            return;
+        }
+        Collections.sort(byStart, (a, b) -> Integer.compare(overlays.get(a).getTimestampFrom(), overlays.get(b).getTimestampFrom()));
+
+        // list position of the active overlays, mapped to the end of their non-sleep time
+        TreeMap<Integer, Long> active = new TreeMap<>();
+        int nextOverlay = 0;
+        for (HPlusHealthActivitySample sample : samples) {
+            int timestamp = sample.getTimestamp();
+            while (nextOverlay < byStart.size() && overlays.get(byStart.get(nextOverlay)).getTimestampFrom() <= timestamp) {
+                active.put(byStart.get(nextOverlay++), 0L);
+            }
+            if (active.isEmpty()) {
+                continue;
+            }
+
+            Iterator<Map.Entry<Integer, Long>> it = active.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, Long> entry = it.next();
+                HPlusHealthActivityOverlay overlay = overlays.get(entry.getKey());
+                if (overlay.getTimestampTo() <= timestamp) {
+                    it.remove();
+                    continue;
+                }
+                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    break;
+
+                if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0) {
+                    entry.setValue(sample.getTimestamp() + 10 * 60L); // 10 minutes
+                    continue;
+                } else if (sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= entry.getValue()) {
+                    continue;
+                }
+
+                if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    sample.setHeartRate(0);
+
+                sample.setRawKind(overlay.getRawKind());
+                sample.setRawIntensity(10);
+            }
+        }
+    }
+
     private List<HPlusHealthActivitySample> insertVirtualItem(List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,            // ts
@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateManualSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateManualSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiHeartRateManualSampleProvider extends AbstractTimeSampleProvider<HuamiHeartRateManualSample> {
+    private static final TimeSampleColumns<HuamiHeartRateManualSample> COLUMNS = new TimeSampleColumns<HuamiHeartRateManualSample>()
+            .addInt(HuamiHeartRateManualSample::getUtcOffset, HuamiHeartRateManualSample::setUtcOffset)
+            .addInt(HuamiHeartRateManualSample::getHeartRate, HuamiHeartRateManualSample::setHeartRate);
+
     public HuamiHeartRateManualSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiHeartRateManualSampleProvider extends AbstractTimeSampleProvid
         return HuamiHeartRateManualSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiHeartRateManualSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiHeartRateManualSample createSample() {
         return new HuamiHeartRateManualSample();
@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateMaxSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateMaxSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiHeartRateMaxSampleProvider extends AbstractTimeSampleProvider<HuamiHeartRateMaxSample> {
+    private static final TimeSampleColumns<HuamiHeartRateMaxSample> COLUMNS = new TimeSampleColumns<HuamiHeartRateMaxSample>()
+            .addInt(HuamiHeartRateMaxSample::getUtcOffset, HuamiHeartRateMaxSample::setUtcOffset)
+            .addInt(HuamiHeartRateMaxSample::getHeartRate, HuamiHeartRateMaxSample::setHeartRate);
+
     public HuamiHeartRateMaxSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiHeartRateMaxSampleProvider extends AbstractTimeSampleProvider<
         return HuamiHeartRateMaxSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiHeartRateMaxSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiHeartRateMaxSample createSample() {
         return new HuamiHeartRateMaxSample();
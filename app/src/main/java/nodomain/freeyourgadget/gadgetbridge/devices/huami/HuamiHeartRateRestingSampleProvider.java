@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateRestingSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateRestingSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiHeartRateRestingSampleProvider extends AbstractTimeSampleProvider<HuamiHeartRateRestingSample> {
+    private static final TimeSampleColumns<HuamiHeartRateRestingSample> COLUMNS = new TimeSampleColumns<HuamiHeartRateRestingSample>()
+            .addInt(HuamiHeartRateRestingSample::getUtcOffset, HuamiHeartRateRestingSample::setUtcOffset)
+            .addInt(HuamiHeartRateRestingSample::getHeartRate, HuamiHeartRateRestingSample::setHeartRate);
+
     public HuamiHeartRateRestingSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiHeartRateRestingSampleProvider extends AbstractTimeSampleProvi
         return HuamiHeartRateRestingSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiHeartRateRestingSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiHeartRateRestingSample createSample() {
         return new HuamiHeartRateRestingSample();
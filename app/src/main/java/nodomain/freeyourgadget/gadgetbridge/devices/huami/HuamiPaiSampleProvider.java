@@ -21,12 +21,24 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiPaiSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiPaiSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiPaiSampleProvider extends AbstractTimeSampleProvider<HuamiPaiSample> {
+    private static final TimeSampleColumns<HuamiPaiSample> COLUMNS = new TimeSampleColumns<HuamiPaiSample>()
+            .addInt(HuamiPaiSample::getUtcOffset, HuamiPaiSample::setUtcOffset)
+            .addFloat(HuamiPaiSample::getPaiLow, HuamiPaiSample::setPaiLow)
+            .addFloat(HuamiPaiSample::getPaiModerate, HuamiPaiSample::setPaiModerate)
+            .addFloat(HuamiPaiSample::getPaiHigh, HuamiPaiSample::setPaiHigh)
+            .addInt(HuamiPaiSample::getTimeLow, HuamiPaiSample::setTimeLow)
+            .addInt(HuamiPaiSample::getTimeModerate, HuamiPaiSample::setTimeModerate)
+            .addInt(HuamiPaiSample::getTimeHigh, HuamiPaiSample::setTimeHigh)
+            .addFloat(HuamiPaiSample::getPaiToday, HuamiPaiSample::setPaiToday)
+            .addFloat(HuamiPaiSample::getPaiTotal, HuamiPaiSample::setPaiTotal);
+
     public HuamiPaiSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +61,11 @@ public class HuamiPaiSampleProvider extends AbstractTimeSampleProvider<HuamiPaiS
         return HuamiPaiSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiPaiSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiPaiSample createSample() {
         return new HuamiPaiSample();
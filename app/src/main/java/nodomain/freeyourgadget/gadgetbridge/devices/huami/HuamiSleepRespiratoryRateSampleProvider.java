@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiSleepRespiratoryRateSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiSleepRespiratoryRateSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiSleepRespiratoryRateSampleProvider extends AbstractTimeSampleProvider<HuamiSleepRespiratoryRateSample> {
+    private static final TimeSampleColumns<HuamiSleepRespiratoryRateSample> COLUMNS = new TimeSampleColumns<HuamiSleepRespiratoryRateSample>()
+            .addInt(HuamiSleepRespiratoryRateSample::getUtcOffset, HuamiSleepRespiratoryRateSample::setUtcOffset)
+            .addInt(HuamiSleepRespiratoryRateSample::getRate, HuamiSleepRespiratoryRateSample::setRate);
+
     public HuamiSleepRespiratoryRateSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiSleepRespiratoryRateSampleProvider extends AbstractTimeSampleP
         return HuamiSleepRespiratoryRateSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiSleepRespiratoryRateSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiSleepRespiratoryRateSample createSample() {
         return new HuamiSleepRespiratoryRateSample();
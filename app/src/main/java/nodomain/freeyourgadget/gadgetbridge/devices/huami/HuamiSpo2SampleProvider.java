@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiSpo2Sample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiSpo2SampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiSpo2SampleProvider extends AbstractTimeSampleProvider<HuamiSpo2Sample> {
+    private static final TimeSampleColumns<HuamiSpo2Sample> COLUMNS = new TimeSampleColumns<HuamiSpo2Sample>()
+            .addInt(HuamiSpo2Sample::getTypeNum, HuamiSpo2Sample::setTypeNum)
+            .addInt(HuamiSpo2Sample::getSpo2, HuamiSpo2Sample::setSpo2);
+
     public HuamiSpo2SampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiSpo2SampleProvider extends AbstractTimeSampleProvider<HuamiSpo
         return HuamiSpo2SampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiSpo2Sample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiSpo2Sample createSample() {
         return new HuamiSpo2Sample();
@@ -21,12 +21,17 @@ import androidx.annotation.NonNull;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiStressSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.HuamiStressSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class HuamiStressSampleProvider extends AbstractTimeSampleProvider<HuamiStressSample> {
+    private static final TimeSampleColumns<HuamiStressSample> COLUMNS = new TimeSampleColumns<HuamiStressSample>()
+            .addInt(HuamiStressSample::getTypeNum, HuamiStressSample::setTypeNum)
+            .addInt(HuamiStressSample::getStress, HuamiStressSample::setStress);
+
     public HuamiStressSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -49,6 +54,11 @@ public class HuamiStressSampleProvider extends AbstractTimeSampleProvider<HuamiS
         return HuamiStressSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<HuamiStressSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public HuamiStressSample createSample() {
         return new HuamiStressSample();
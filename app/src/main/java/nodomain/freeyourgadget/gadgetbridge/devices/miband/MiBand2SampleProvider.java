@@ -36,6 +36,12 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
         super(device, session);
     }
 
+    @Override
+    public boolean isRangeDependent() {
+        // unknown kinds are filled from the previous samples within the queried range
+        return true;
+    }
+
     @Override
     protected List<MiBandActivitySample> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
         List<MiBandActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, activityType);
@@ -17,8 +17,11 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
@@ -67,18 +70,50 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
                 .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(timestamp_to));
         List<PebbleHealthActivityOverlay> overlayRecords = qb.build().list();
 
-        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
-            for (PebbleHealthActivitySample sample : samples) {
-                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    // patch in the raw kind
-                    sample.setRawKind(overlay.getRawKind());
-                }
-            }
-        }
+        applyOverlays(samples, overlayRecords);
         detachFromSession();
         return samples;
     }
 
+    /**
+     * Patches the raw kind of every sample covered by an overlay, the last overlay in the list
+     * being dominant where overlays intersect.
+     * <p>
+     * Sweeps over the samples in timestamp order, keeping the overlays that started so far in a
+     * heap ordered by their list position. Overlays that ended are only dropped once they reach
+     * the top of the heap, so that each one is added and removed exactly once.
+     */
+    static void applyOverlays(final List<PebbleHealthActivitySample> samples, final List<PebbleHealthActivityOverlay> overlays) {
+        if (samples.isEmpty() || overlays.isEmpty()) {
+            return;
+        }
+
+        final List<PebbleHealthActivitySample> sortedSamples = new ArrayList<>(samples);
+        Collections.sort(sortedSamples, (a, b) -> Integer.compare(a.getTimestamp(), b.getTimestamp()));
+
+        final Integer[] byStart = new Integer[overlays.size()];
+        for (int i = 0; i < byStart.length; i++) {
+            byStart[i] = i;
+        }
+        Arrays.sort(byStart, (a, b) -> Integer.compare(overlays.get(a).getTimestampFrom(), overlays.get(b).getTimestampFrom()));
+
+        final PriorityQueue<Integer> active = new PriorityQueue<>(Math.max(1, overlays.size()), Collections.reverseOrder());
+        int nextOverlay = 0;
+        for (final PebbleHealthActivitySample sample : sortedSamples) {
+            final int timestamp = sample.getTimestamp();
+            while (nextOverlay < byStart.length && overlays.get(byStart[nextOverlay]).getTimestampFrom() <= timestamp) {
+                active.add(byStart[nextOverlay++]);
+            }
+            while (!active.isEmpty() && overlays.get(active.peek()).getTimestampTo() <= timestamp) {
+                active.poll();
+            }
+            if (!active.isEmpty()) {
+                // patch in the raw kind
+                sample.setRawKind(overlays.get(active.peek()).getRawKind());
+            }
+        }
+    }
+
     @Override
     public AbstractDao<PebbleHealthActivitySample, ?> getSampleDao() {
         return getSession().getPebbleHealthActivitySampleDao();
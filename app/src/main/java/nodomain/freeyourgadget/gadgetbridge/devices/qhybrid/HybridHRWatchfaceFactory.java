@@ -171,13 +171,13 @@ public class HybridHRWatchfaceFactory {
         if (invert) {
             bgImage = BitmapUtil.invertBitmapColors(bgImage);
         }
-        return new ByteArrayInputStream(ImageConverter.encodeToRLEImage(ImageConverter.get2BitsRLEImageBytes(bgImage), QHybridConstants.HYBRID_HR_WATCHFACE_WIDGET_SIZE, QHybridConstants.HYBRID_HR_WATCHFACE_WIDGET_SIZE));
+        return new ByteArrayInputStream(ImageConverter.encodeToRLEImage(bgImage, QHybridConstants.HYBRID_HR_WATCHFACE_WIDGET_SIZE, QHybridConstants.HYBRID_HR_WATCHFACE_WIDGET_SIZE));
     }
 
     public byte[] getWapp(Context context) throws IOException {
-        byte[] backgroundBytes = ImageConverter.encodeToRawImage(ImageConverter.get2BitsRAWImageBytes(background));
+        byte[] backgroundBytes = ImageConverter.encodeToRawImage(background);
         InputStream backgroundStream = new ByteArrayInputStream(backgroundBytes);
-        byte[] previewBytes = ImageConverter.encodeToRLEImage(ImageConverter.get2BitsRLEImageBytes(Bitmap.createScaledBitmap(getPreviewImage(context), PREVIEW_WIDTH, PREVIEW_HEIGHT, true)), PREVIEW_HEIGHT, PREVIEW_WIDTH);
+        byte[] previewBytes = ImageConverter.encodeToRLEImage(Bitmap.createScaledBitmap(getPreviewImage(context), PREVIEW_WIDTH, PREVIEW_HEIGHT, true), PREVIEW_HEIGHT, PREVIEW_WIDTH);
         InputStream previewStream = new ByteArrayInputStream(previewBytes);
         LinkedHashMap<String, InputStream> code = new LinkedHashMap<>();
         try {
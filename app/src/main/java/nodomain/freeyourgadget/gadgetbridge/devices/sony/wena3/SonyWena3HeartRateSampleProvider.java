@@ -26,12 +26,16 @@ import java.util.List;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Wena3HeartRateSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Wena3HeartRateSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class SonyWena3HeartRateSampleProvider extends AbstractTimeSampleProvider<Wena3HeartRateSample> {
+    private static final TimeSampleColumns<Wena3HeartRateSample> COLUMNS = new TimeSampleColumns<Wena3HeartRateSample>()
+            .addInt(Wena3HeartRateSample::getHeartRate, Wena3HeartRateSample::setHeartRate);
+
     public SonyWena3HeartRateSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -54,6 +58,11 @@ public class SonyWena3HeartRateSampleProvider extends AbstractTimeSampleProvider
         return Wena3HeartRateSampleDao.Properties.DeviceId;
     }
 
+    @Override
+    protected TimeSampleColumns<Wena3HeartRateSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public Wena3HeartRateSample createSample() {
         return new Wena3HeartRateSample();
@@ -26,12 +26,17 @@ import java.util.List;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractTimeSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.TimeSampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Wena3StressSample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Wena3StressSampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 
 public class SonyWena3StressSampleProvider extends AbstractTimeSampleProvider<Wena3StressSample> {
+    private static final TimeSampleColumns<Wena3StressSample> COLUMNS = new TimeSampleColumns<Wena3StressSample>()
+            .addInt(Wena3StressSample::getTypeNum, Wena3StressSample::setTypeNum)
+            .addInt(Wena3StressSample::getStress, Wena3StressSample::setStress);
+
     public SonyWena3StressSampleProvider(final GBDevice device, final DaoSession session) {
         super(device, session);
     }
@@ -69,6 +74,11 @@ public class SonyWena3StressSampleProvider extends AbstractTimeSampleProvider<We
         return samples;
     }
 
+    @Override
+    protected TimeSampleColumns<Wena3StressSample> getSampleColumns() {
+        return COLUMNS;
+    }
+
     @Override
     public Wena3StressSample createSample() {
         return new Wena3StressSample();
@@ -86,6 +86,12 @@ public class XiaomiSampleProvider extends AbstractSampleProvider<XiaomiActivityS
         return new XiaomiActivitySample();
     }
 
+    @Override
+    public boolean isRangeDependent() {
+        // sleep times that started before the queried range are not overlaid
+        return true;
+    }
+
     @Override
     protected List<XiaomiActivitySample> getGBActivitySamples(final int timestamp_from, final int timestamp_to, final int activityType) {
         final List<XiaomiActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, activityType);
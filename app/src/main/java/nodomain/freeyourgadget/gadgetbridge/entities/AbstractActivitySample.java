@@ -20,9 +20,19 @@ import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 
-public abstract class AbstractActivitySample implements ActivitySample {
+public abstract class AbstractActivitySample implements ActivitySample, Cloneable {
+    private static final int KIND_NOT_CACHED = Integer.MIN_VALUE;
+    private static final long KINDS_NOT_CACHED = (long) KIND_NOT_CACHED << 32;
+
     private SampleProvider mProvider;
 
+    /**
+     * The raw kind in the upper and the normalized kind in the lower 32 bits, packed into a single
+     * volatile field so that a concurrent reader never pairs a raw kind with a stale normalized
+     * kind. The raw kind may be patched after loading, eg. by activity overlays.
+     */
+    private volatile long mCachedKinds = KINDS_NOT_CACHED;
+
     @Override
     public SampleProvider getProvider() {
         return mProvider;
@@ -30,11 +40,31 @@ public abstract class AbstractActivitySample implements ActivitySample {
 
     public void setProvider(SampleProvider provider) {
         mProvider = provider;
+        mCachedKinds = KINDS_NOT_CACHED;
     }
 
     @Override
     public int getKind() {
-        return getProvider().normalizeType(getRawKind());
+        int rawKind = getRawKind();
+        long cachedKinds = mCachedKinds;
+        if ((int) (cachedKinds >>> 32) == rawKind && rawKind != KIND_NOT_CACHED) {
+            return (int) cachedKinds;
+        }
+        int kind = getProvider().getNormalizedType(rawKind);
+        mCachedKinds = ((long) rawKind << 32) | (kind & 0xffffffffL);
+        return kind;
+    }
+
+    /**
+     * Returns a shallow copy of this sample that shares the provider and any resolved relations,
+     * e.g. to hand out cached samples to callers that may modify them.
+     */
+    public AbstractActivitySample copy() {
+        try {
+            return (AbstractActivitySample) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
@@ -44,7 +74,7 @@ public abstract class AbstractActivitySample implements ActivitySample {
 
     @Override
     public float getIntensity() {
-        return getProvider().normalizeIntensity(getRawIntensity());
+        return getProvider().getNormalizedIntensity(getRawIntensity());
     }
 
     public void setRawKind(int kind) {
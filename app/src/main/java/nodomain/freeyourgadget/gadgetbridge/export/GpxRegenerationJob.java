@@ -0,0 +1,369 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiActivitySummaryParser;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummaryDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityPoint;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySummaryParser;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityTrack;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.AbstractHuamiActivityDetailsParser;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiActivityDetailsParser;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.XiaomiActivityFileId;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.impl.WorkoutGpsParser;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.impl.WorkoutSummaryParser;
+import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Regenerates the GPX files of activities from the raw details stored when they were fetched, e.g.
+ * after a fix in one of the details parsers, or to export the tracks of several activities before
+ * sharing them.
+ * <p>
+ * The raw details are parsed and exported by a small pool of workers. Activities which did not
+ * have a GPX track yet are updated in the database in a single transaction at the end. Run it on a
+ * background thread, progress and the result are reported to the listener from that thread.
+ */
+public class GpxRegenerationJob implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(GpxRegenerationJob.class);
+
+    private static final int MAX_WORKERS = 4;
+    private static final long MAX_RAW_DETAILS_SIZE = 32 * 1024 * 1024;
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10;
+
+    public interface Listener {
+        void onProgress(int done, int total);
+
+        void onFinished(Result result);
+    }
+
+    public static class Result {
+        public final int regenerated;
+        public final int skipped;
+        public final int failed;
+        public final long trackPoints;
+        public final long durationMillis;
+        public final boolean cancelled;
+
+        Result(final int regenerated, final int skipped, final int failed, final long trackPoints, final long durationMillis, final boolean cancelled) {
+            this.regenerated = regenerated;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.trackPoints = trackPoints;
+            this.durationMillis = durationMillis;
+            this.cancelled = cancelled;
+        }
+
+        public float getTracksPerSecond() {
+            return durationMillis > 0 ? regenerated * 1000f / durationMillis : regenerated;
+        }
+    }
+
+    private final Context context;
+    private final List<BaseActivitySummary> summaries;
+    private final Listener listener;
+
+    private volatile boolean cancelled = false;
+
+    public GpxRegenerationJob(final Context context, final List<BaseActivitySummary> summaries, final Listener listener) {
+        this.context = context;
+        this.summaries = new ArrayList<>(summaries);
+        this.listener = listener;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        final long start = System.currentTimeMillis();
+
+        // resolve everything that needs the database or the device coordinators up front, the
+        // workers only parse and write files. User and device of the summaries are loaded lazily,
+        // so this happens while holding the database.
+        final List<Task> tasks = new ArrayList<>(summaries.size());
+        int skipped = 0;
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            for (final BaseActivitySummary summary : summaries) {
+                final Task task = createTask(summary);
+                if (task != null) {
+                    tasks.add(task);
+                } else {
+                    skipped++;
+                }
+            }
+        } catch (final Exception e) {
+            LOG.error("Failed to access the database", e);
+            listener.onFinished(new Result(0, 0, summaries.size(), 0, System.currentTimeMillis() - start, cancelled));
+            return;
+        }
+
+        int regenerated = 0;
+        int failed = 0;
+        long trackPoints = 0;
+        final List<BaseActivitySummary> changedSummaries = new ArrayList<>();
+
+        if (!tasks.isEmpty()) {
+            final int workers = Math.min(tasks.size(), Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors()));
+            final ExecutorService executor = Executors.newFixedThreadPool(workers);
+            final CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+            try {
+                for (final Task task : tasks) {
+                    completionService.submit(task::regenerate);
+                }
+                listener.onProgress(0, tasks.size());
+
+                for (int done = 1; done <= tasks.size() && !cancelled; done++) {
+                    try {
+                        final int points = completionService.take().get();
+                        if (points >= 0) {
+                            regenerated++;
+                            trackPoints += points;
+                        } else {
+                            skipped++;
+                        }
+                    } catch (final ExecutionException e) {
+                        LOG.warn("Failed to regenerate GPX track", e.getCause());
+                        failed++;
+                    }
+                    listener.onProgress(done, tasks.size());
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted while waiting for GPX regeneration");
+                cancelled = true;
+            } finally {
+                executor.shutdownNow();
+                awaitTermination(executor);
+            }
+
+            for (final Task task : tasks) {
+                if (task.done && !task.targetFile.getAbsolutePath().equals(task.summary.getGpxTrack())) {
+                    task.summary.setGpxTrack(task.targetFile.getAbsolutePath());
+                    changedSummaries.add(task.summary);
+                }
+            }
+        }
+
+        if (!changedSummaries.isEmpty()) {
+            try (DBHandler dbHandler = GBApplication.acquireDB()) {
+                final BaseActivitySummaryDao summaryDao = dbHandler.getDaoSession().getBaseActivitySummaryDao();
+                summaryDao.updateInTx(changedSummaries);
+            } catch (final Exception e) {
+                LOG.error("Failed to store the regenerated GPX tracks", e);
+            }
+        }
+
+        final Result result = new Result(regenerated, skipped, failed, trackPoints, System.currentTimeMillis() - start, cancelled);
+        LOG.info(
+                "Regenerated {} GPX tracks ({} points) in {}ms, {} tracks/s, {} skipped, {} failed{}",
+                result.regenerated,
+                result.trackPoints,
+                result.durationMillis,
+                result.getTracksPerSecond(),
+                result.skipped,
+                result.failed,
+                result.cancelled ? ", cancelled" : ""
+        );
+        listener.onFinished(result);
+    }
+
+    /**
+     * Waits for the interrupted workers, so that they removed their temporary files and no task
+     * changes its state after the results were collected.
+     */
+    private static void awaitTermination(final ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("GPX regeneration workers did not terminate in time");
+            }
+        } catch (final InterruptedException e) {
+            LOG.warn("Interrupted while waiting for the GPX regeneration workers");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Nullable
+    private Task createTask(final BaseActivitySummary summary) {
+        if (summary == null || summary.getRawDetailsPath() == null) {
+            return null;
+        }
+        final File rawDetailsFile = new File(summary.getRawDetailsPath());
+        if (!rawDetailsFile.isFile()) {
+            LOG.debug("Raw details of {} are gone", summary.getStartTime());
+            return null;
+        }
+
+        final User user;
+        final Device device;
+        final ActivitySummaryParser summaryParser;
+        try {
+            user = summary.getUser();
+            device = summary.getDevice();
+            final GBDevice gbDevice = DeviceHelper.getInstance().toGBDevice(device);
+            summaryParser = gbDevice.getDeviceCoordinator().getActivitySummaryParser(gbDevice);
+        } catch (final Exception e) {
+            LOG.warn("Unable to find the device of {}", summary.getStartTime(), e);
+            return null;
+        }
+
+        final File targetFile;
+        if (summary.getGpxTrack() != null) {
+            targetFile = new File(summary.getGpxTrack());
+        } else {
+            try {
+                final String fileName = FileUtils.makeValidFileName("gadgetbridge-" + DateTimeUtils.formatIso8601(summary.getStartTime()) + ".gpx");
+                targetFile = new File(FileUtils.getExternalFilesDir(), fileName);
+            } catch (final IOException e) {
+                LOG.warn("Unable to get the export directory", e);
+                return null;
+            }
+        }
+
+        if (summaryParser instanceof HuamiActivitySummaryParser) {
+            final AbstractHuamiActivityDetailsParser detailsParser = ((HuamiActivitySummaryParser) summaryParser).getDetailsParser(summary);
+            if (detailsParser instanceof HuamiActivityDetailsParser) {
+                ((HuamiActivityDetailsParser) detailsParser).setSkipCounterByte(false); // is stripped when saving
+            }
+            return new Task(summary, rawDetailsFile, targetFile) {
+                @Override
+                ActivityTrack parse(final byte[] rawDetails) throws Exception {
+                    return detailsParser.parse(rawDetails);
+                }
+            };
+        } else if (summaryParser instanceof WorkoutSummaryParser) {
+            final String name = ActivityKind.asString(summary.getActivityKind(), context);
+            return new Task(summary, rawDetailsFile, targetFile) {
+                @Override
+                ActivityTrack parse(final byte[] rawDetails) {
+                    // the raw details start with the file id
+                    if (rawDetails.length < 7) {
+                        return null;
+                    }
+                    final XiaomiActivityFileId fileId = XiaomiActivityFileId.from(Arrays.copyOf(rawDetails, 7));
+                    if (fileId.getDetailType() != XiaomiActivityFileId.DetailType.GPS_TRACK) {
+                        return null;
+                    }
+                    final ActivityTrack track = WorkoutGpsParser.parseTrack(fileId, Arrays.copyOfRange(rawDetails, 7, rawDetails.length));
+                    if (track != null) {
+                        track.setUser(user);
+                        track.setDevice(device);
+                        track.setName(name);
+                    }
+                    return track;
+                }
+            };
+        }
+
+        LOG.debug("No GPX support for the activities of {}", device.getName());
+        return null;
+    }
+
+    private abstract class Task {
+        final BaseActivitySummary summary;
+        final File rawDetailsFile;
+        final File targetFile;
+
+        volatile boolean done = false;
+
+        Task(final BaseActivitySummary summary, final File rawDetailsFile, final File targetFile) {
+            this.summary = summary;
+            this.rawDetailsFile = rawDetailsFile;
+            this.targetFile = targetFile;
+        }
+
+        /**
+         * @return the track, or null if the raw details do not contain one
+         */
+        @Nullable
+        abstract ActivityTrack parse(byte[] rawDetails) throws Exception;
+
+        /**
+         * @return the number of exported track points, or -1 if there was nothing to export
+         */
+        int regenerate() throws Exception {
+            if (cancelled) {
+                return -1;
+            }
+
+            final byte[] rawDetails;
+            try (InputStream in = new FileInputStream(rawDetailsFile)) {
+                rawDetails = FileUtils.readAll(in, MAX_RAW_DETAILS_SIZE);
+            }
+
+            final ActivityTrack track = parse(rawDetails);
+            if (track == null) {
+                return -1;
+            }
+
+            final GPXExporter exporter = new GPXExporter();
+            exporter.setCreator(GBApplication.app().getNameAndVersion());
+
+            // do not destroy the existing file if the export fails or is interrupted
+            final File tempFile = new File(targetFile.getPath() + ".tmp");
+            try {
+                exporter.performExport(track, tempFile);
+                if (!tempFile.renameTo(targetFile)) {
+                    throw new IOException("Failed to replace " + targetFile);
+                }
+            } catch (final ActivityTrackExporter.GPXTrackEmptyException e) {
+                return -1;
+            } finally {
+                if (tempFile.exists() && !tempFile.delete()) {
+                    LOG.warn("Failed to delete {}", tempFile);
+                }
+            }
+
+            done = true;
+
+            int points = 0;
+            for (final List<ActivityPoint> segment : track.getSegments()) {
+                points += segment.size();
+            }
+            return points;
+        }
+    }
+}
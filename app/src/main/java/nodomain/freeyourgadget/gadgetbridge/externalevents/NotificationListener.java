@@ -78,11 +78,12 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
 import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
+import nodomain.freeyourgadget.gadgetbridge.util.DevicePrefsSnapshot;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 import nodomain.freeyourgadget.gadgetbridge.util.MediaManager;
+import nodomain.freeyourgadget.gadgetbridge.util.NotificationPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.NotificationUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
-import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST;
 import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_WHITELIST;
@@ -107,6 +108,8 @@ public class NotificationListener extends NotificationListenerService {
     private final LimitedQueue<Integer, NotificationCompat.Action> mActionLookup = new LimitedQueue<>(32);
     private final LimitedQueue<Integer, String> mPackageLookup = new LimitedQueue<>(64);
     private final LimitedQueue<Integer, Long> mNotificationHandleLookup = new LimitedQueue<>(128);
+    private final LimitedQueue<String, List<Object>> mNotificationContents = new LimitedQueue<>(128);
+    private int unchangedRepostsSkipped = 0;
 
     private final HashMap<String, Long> notificationBurstPrevention = new HashMap<>();
     private final HashMap<String, Long> notificationOldRepeatPrevention = new HashMap<>();
@@ -174,7 +177,7 @@ public class NotificationListener extends NotificationListenerService {
                         break;
                     }
                     LOG.info("going to mute " + packageName);
-                    if (GBApplication.getPrefs().getString("notification_list_is_blacklist", "true").equals("true")) {
+                    if (NotificationPrefs.get().listIsBlacklist) {
                         GBApplication.addAppToNotifBlacklist(packageName);
                     } else {
                         GBApplication.removeFromAppsNotifBlacklist(packageName);
@@ -270,15 +273,14 @@ public class NotificationListener extends NotificationListenerService {
 
         if (isServiceNotRunningAndShouldIgnoreNotifications()) return;
 
-        final Prefs prefs = GBApplication.getPrefs();
+        final NotificationPrefs prefs = NotificationPrefs.get();
 
-        final boolean ignoreWorkProfile = prefs.getBoolean("notifications_ignore_work_profile", false);
-        if (ignoreWorkProfile && isWorkProfile(sbn)) {
+        if (prefs.ignoreWorkProfile && isWorkProfile(sbn)) {
             LOG.debug("Ignoring notification from work profile");
             return;
         }
 
-        final boolean mediaIgnoresAppList = prefs.getBoolean("notification_media_ignores_application_list", false);
+        final boolean mediaIgnoresAppList = prefs.mediaIgnoresAppList;
 
         // If media notifications ignore app list, check them before
         if (mediaIgnoresAppList && handleMediaSessionNotification(sbn)) return;
@@ -300,13 +302,13 @@ public class NotificationListener extends NotificationListenerService {
             }
         }
 
-        if (prefs.getBoolean("notification_filter", false) && dndSuppressed == 1) {
+        if (prefs.dndFilter && dndSuppressed == 1) {
             LOG.debug("Ignoring notification because of do not disturb");
             return;
         }
 
         if (NotificationCompat.CATEGORY_CALL.equals(sbn.getNotification().category)
-                && prefs.getBoolean("notification_support_voip_calls", false)
+                && prefs.supportVoipCalls
                 && (sbn.isOngoing() || shouldDisplayNonOngoingCallNotification(sbn))) {
             handleCallNotification(sbn);
             return;
@@ -336,7 +338,7 @@ public class NotificationListener extends NotificationListenerService {
         Long notificationBurstPreventionValue = notificationBurstPrevention.get(source);
         if (notificationBurstPreventionValue != null) {
             long diff = curTime - notificationBurstPreventionValue;
-            if (diff < TimeUnit.SECONDS.toNanos(prefs.getInt("notifications_timeout", 0))) {
+            if (diff < TimeUnit.SECONDS.toNanos(prefs.timeoutSeconds)) {
                 LOG.info("Ignoring frequent notification, last one was {} ms ago", TimeUnit.NANOSECONDS.toMillis(diff));
                 return;
             }
@@ -383,7 +385,7 @@ public class NotificationListener extends NotificationListenerService {
                 notification.flags
         );
 
-        boolean preferBigText = prefs.getBoolean("notification_prefer_long_text", true);
+        boolean preferBigText = prefs.preferLongText;
 
         dissectNotificationTo(notification, notificationSpec, preferBigText);
 
@@ -412,6 +414,14 @@ public class NotificationListener extends NotificationListenerService {
             return;
         }
 
+        // Messaging apps re-post the same notification many times, eg. to update its progress or
+        // group state. Skip those early if neither the content nor the notification time changed.
+        if (isUnchangedRepost(sbn.getKey(), notification.when, notificationSpec, actions)) {
+            unchangedRepostsSkipped++;
+            LOG.info("Not forwarding notification, content unchanged since last post ({} skipped so far)", unchangedRepostsSkipped);
+            return;
+        }
+
         notificationSpec.attachedActions = new ArrayList<>();
         notificationSpec.dndSuppressed = dndSuppressed;
 
@@ -464,6 +474,48 @@ public class NotificationListener extends NotificationListenerService {
         GBApplication.deviceService().onNotification(notificationSpec);
     }
 
+    /**
+     * Remembers the content of a posted notification and checks whether it is the same as that of
+     * the previous post with the same key.
+     *
+     * @param when the time of the notification itself, which differs for a new message even if its
+     *             text is the same as that of the previous one
+     */
+    boolean isUnchangedRepost(final String key,
+                              final long when,
+                              final NotificationSpec notificationSpec,
+                              final List<NotificationCompat.Action> actions) {
+        final List<Object> content = getNotificationContent(when, notificationSpec, actions);
+        if (content.equals(mNotificationContents.lookup(key))) {
+            return true;
+        }
+        mNotificationContents.add(key, content);
+        return false;
+    }
+
+    /**
+     * The parts of a notification that are shown on the device, compared as they are so that a
+     * changed notification is never mistaken for a re-post.
+     */
+    private static List<Object> getNotificationContent(final long when,
+                                                       final NotificationSpec notificationSpec,
+                                                       final List<NotificationCompat.Action> actions) {
+        final List<Object> content = new ArrayList<>(7 + actions.size());
+        content.add(when);
+        content.add(notificationSpec.sourceAppId);
+        content.add(notificationSpec.type);
+        content.add(notificationSpec.sender);
+        content.add(notificationSpec.subject);
+        content.add(notificationSpec.title);
+        content.add(notificationSpec.body);
+        for (final NotificationCompat.Action action : actions) {
+            if (action != null) {
+                content.add(action.getTitle() != null ? action.getTitle().toString() : null);
+            }
+        }
+        return content;
+    }
+
     private boolean checkNotificationContentForWhiteAndBlackList(String packageName, String body) {
         long start = System.currentTimeMillis();
 
@@ -719,19 +771,20 @@ public class NotificationListener extends NotificationListenerService {
     public void onNotificationRemoved(StatusBarNotification sbn) {
         logNotification(sbn, false);
 
+        mNotificationContents.remove(sbn.getKey());
+
         notificationStack.remove(sbn.getPackageName());
 
         if (isServiceNotRunningAndShouldIgnoreNotifications()) return;
 
-        final Prefs prefs = GBApplication.getPrefs();
+        final NotificationPrefs prefs = NotificationPrefs.get();
 
-        final boolean ignoreWorkProfile = prefs.getBoolean("notifications_ignore_work_profile", false);
-        if (ignoreWorkProfile && isWorkProfile(sbn)) {
+        if (prefs.ignoreWorkProfile && isWorkProfile(sbn)) {
             LOG.debug("Ignoring notification removal from work profile");
             return;
         }
 
-        final boolean mediaIgnoresAppList = prefs.getBoolean("notification_media_ignores_application_list", false);
+        final boolean mediaIgnoresAppList = prefs.mediaIgnoresAppList;
 
         // If media notifications ignore app list, check them before
         if (mediaIgnoresAppList && handleMediaSessionNotification(sbn)) return;
@@ -781,8 +834,7 @@ public class NotificationListener extends NotificationListenerService {
                 continue;
             }
 
-            Prefs devicePrefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(device.getAddress()));
-            if (devicePrefs.getBoolean("autoremove_notifications", true)) {
+            if (DevicePrefsSnapshot.of(device).isAutoRemoveNotifications()) {
                 for (int id : notificationsToRemove) {
                     LOG.info("Notification {} removed, deleting from {}", id, device.getAliasOrName());
                     GBApplication.deviceService(device).onDeleteNotification(id);
@@ -830,7 +882,7 @@ public class NotificationListener extends NotificationListenerService {
     private boolean shouldIgnoreSource(StatusBarNotification sbn) {
         String source = sbn.getPackageName();
 
-        Prefs prefs = GBApplication.getPrefs();
+        final NotificationPrefs prefs = NotificationPrefs.get();
 
         /* do not display messages from "android"
          * This includes keyboard selection message, usb connection messages, etc
@@ -851,13 +903,13 @@ public class NotificationListener extends NotificationListenerService {
                 source.equals("com.sonyericsson.conversations") ||
                 source.equals("com.android.messaging") ||
                 source.equals("org.smssecure.smssecure")) {
-            if (!"never".equals(prefs.getString("notification_mode_sms", "when_screen_off"))) {
+            if (prefs.ignoreSmsApps) {
                 LOG.info("Ignoring notification, it's an sms notification");
                 return true;
             }
         }
 
-        if (GBApplication.getPrefs().getString("notification_list_is_blacklist", "true").equals("true")) {
+        if (prefs.listIsBlacklist) {
             if (GBApplication.appIsNotifBlacklisted(source)) {
                 LOG.info("Ignoring notification, application is blacklisted");
                 return true;
@@ -940,12 +992,12 @@ public class NotificationListener extends NotificationListenerService {
             return true;
         }
 
-        Prefs prefs = GBApplication.getPrefs();
+        final NotificationPrefs prefs = NotificationPrefs.get();
 
         // Check for screen on when posting the notification; for removal, the screen
         // has to be on (obviously)
         if (!remove) {
-            if (!prefs.getBoolean("notifications_generic_whenscreenon", false)) {
+            if (!prefs.genericWhenScreenOn) {
                 PowerManager powermanager = (PowerManager) getSystemService(POWER_SERVICE);
                 if (powermanager != null && powermanager.isScreenOn()) {
                     LOG.info("Not forwarding notification, screen seems to be on and settings do not allow this");
@@ -955,7 +1007,7 @@ public class NotificationListener extends NotificationListenerService {
         }
 
         if (sbn.getNotification().priority < Notification.PRIORITY_DEFAULT) {
-            if (prefs.getBoolean("notifications_ignore_low_priority", true)) {
+            if (prefs.ignoreLowPriority) {
                 LOG.info("Ignoring low priority notification");
                 return true;
             }
@@ -38,6 +38,7 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCapabilities;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
@@ -498,6 +499,11 @@ public class GBDevice implements Parcelable {
 
     // TODO: this doesn't really belong here
     public void sendDeviceUpdateIntent(Context context, DeviceUpdateSubject subject) {
+        if (subject == DeviceUpdateSubject.DEVICE_STATE) {
+            // capabilities may depend on the firmware reported during initialization, drop them
+            // before any receiver of this broadcast queries them again
+            DeviceCapabilities.invalidate(this);
+        }
         Intent deviceUpdateIntent = new Intent(ACTION_DEVICE_CHANGED);
         deviceUpdateIntent.putExtra(EXTRA_DEVICE, this);
         deviceUpdateIntent.putExtra(EXTRA_UPDATE_SUBJECT, subject);
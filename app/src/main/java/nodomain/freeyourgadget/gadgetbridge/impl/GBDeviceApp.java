@@ -33,7 +33,7 @@ public class GBDeviceApp {
     private final boolean inCache;
     private boolean isOnDevice;
     private final boolean configurable;
-    private final Bitmap previewImage;
+    private Bitmap previewImage;
     private boolean isUpToDate = true;
 
     public GBDeviceApp(UUID uuid, String name, String creator, String version, Type type, Bitmap previewImage) {
@@ -126,6 +126,10 @@ public class GBDeviceApp {
         return previewImage;
     }
 
+    public void setPreviewImage(Bitmap previewImage) {
+        this.previewImage = previewImage;
+    }
+
     public enum Type {
         UNKNOWN,
         WATCHFACE,
@@ -27,6 +27,7 @@ import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SampleAnalysisPipeline;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
@@ -77,12 +78,8 @@ public class DailyTotals {
     }
 
     public long[] getDailyTotalsForDevice(GBDevice device, Calendar day, DBHandler handler) {
-            ActivityAnalysis analysis = new ActivityAnalysis();
-            ActivityAmounts amountsSteps;
-            ActivityAmounts amountsSleep;
-
-            amountsSteps = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, 0, device));
-            amountsSleep = analysis.calculateActivityAmounts(getSamplesOfDay(handler, day, -12, device));
+            ActivityAmounts amountsSteps = calculateActivityAmounts(getSamplesOfDay(handler, day, 0, device));
+            ActivityAmounts amountsSleep = calculateActivityAmounts(getSamplesOfDay(handler, day, -12, device));
 
             long[] sleep = getTotalsSleepForActivityAmounts(amountsSleep);
             long steps = getTotalsStepsForActivityAmounts(amountsSteps);
@@ -90,6 +87,13 @@ public class DailyTotals {
             return new long[]{steps, sleep[0] + sleep[1] + sleep[2]};
     }
 
+    private static ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
+        // only the amounts are needed, not the speed zones calculated by ActivityAnalysis
+        ActivityAnalysis.AmountsAccumulator amounts = new ActivityAnalysis.AmountsAccumulator();
+        new SampleAnalysisPipeline().add(amounts).run(samples);
+        return amounts.getResult();
+    }
+
     private long[] getTotalsSleepForActivityAmounts(ActivityAmounts activityAmounts) {
         long totalSecondsDeepSleep = 0;
         long totalSecondsLightSleep = 0;
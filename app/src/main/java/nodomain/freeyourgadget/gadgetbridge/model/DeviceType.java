@@ -21,6 +21,9 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.model;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.UnknownDeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.asteroidos.AsteroidOSDeviceCoordinator;
@@ -298,6 +301,14 @@ public enum DeviceType {
     PIXOO(PixooCoordinator.class),
     TEST(TestDeviceCoordinator.class);
 
+    private static final Map<String, DeviceType> BY_NAME = new HashMap<>();
+
+    static {
+        for (DeviceType type : values()) {
+            BY_NAME.put(type.name(), type);
+        }
+    }
+
     private DeviceCoordinator coordinator;
 
     private Class<? extends DeviceCoordinator> coordinatorClass;
@@ -311,12 +322,8 @@ public enum DeviceType {
     }
 
     public static DeviceType fromName(String name) {
-        for (DeviceType type : values()) {
-            if (type.name().equals(name)) {
-                return type;
-            }
-        }
-        return DeviceType.UNKNOWN;
+        final DeviceType type = BY_NAME.get(name);
+        return type != null ? type : DeviceType.UNKNOWN;
     }
 
     public DeviceCoordinator getDeviceCoordinator() {
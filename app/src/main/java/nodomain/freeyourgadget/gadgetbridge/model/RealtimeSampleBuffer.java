@@ -0,0 +1,164 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fixed-capacity ring buffer of the realtime samples reported by the connected devices. Device
+ * support classes feed it directly (see {@link nodomain.freeyourgadget.gadgetbridge.util.GB#signalRealtimeSample}),
+ * instead of sending a broadcast for every sample, and consumers process whatever arrived since
+ * they last ran in one go.
+ * <p>
+ * Only timestamp, heart rate and steps are kept, in primitive arrays, so the memory used is the
+ * same no matter how long a live session runs. A consumer that falls behind by more than the
+ * capacity loses the oldest samples.
+ */
+public class RealtimeSampleBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeSampleBuffer.class);
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final RealtimeSampleBuffer INSTANCE = new RealtimeSampleBuffer(DEFAULT_CAPACITY);
+
+    public interface Consumer {
+        void accept(int timestamp, int heartRate, int steps);
+    }
+
+    private final int[] timestamps;
+    private final int[] heartRates;
+    private final int[] steps;
+
+    /**
+     * Total number of samples ever written, the position of the next sample.
+     */
+    private long position;
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public static RealtimeSampleBuffer getInstance() {
+        return INSTANCE;
+    }
+
+    public RealtimeSampleBuffer(final int capacity) {
+        timestamps = new int[capacity];
+        heartRates = new int[capacity];
+        steps = new int[capacity];
+    }
+
+    public void add(final ActivitySample sample) {
+        add(sample.getTimestamp(), sample.getHeartRate(), sample.getSteps());
+    }
+
+    public void add(final int timestamp, final int heartRate, final int steps) {
+        synchronized (this) {
+            final int index = (int) (position % timestamps.length);
+            this.timestamps[index] = timestamp;
+            this.heartRates[index] = heartRate;
+            this.steps[index] = steps;
+            position++;
+        }
+
+        for (final Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Passes all samples written since the given position to the consumer, oldest first.
+     *
+     * @return the position to pass to the next call
+     */
+    public synchronized long drain(long from, final Consumer consumer) {
+        if (position - from > timestamps.length) {
+            LOG.warn("Consumer fell behind, dropping {} realtime samples", position - from - timestamps.length);
+            from = position - timestamps.length;
+        }
+        for (long i = from; i < position; i++) {
+            final int index = (int) (i % timestamps.length);
+            consumer.accept(timestamps[index], heartRates[index], steps[index]);
+        }
+        return position;
+    }
+
+    /**
+     * @return the current write position, to start draining from without getting older samples
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * Adds a listener that is notified after every added sample, on the thread that added it.
+     */
+    public void addListener(final Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener that passes the samples added from now on to the consumer, on the given
+     * executor (e.g. the main thread). All samples that arrive before the executor gets to run
+     * are passed in one go.
+     *
+     * @return the listener, to be passed to {@link #removeListener(Runnable)}
+     */
+    public Runnable addConsumer(final Executor executor, final Consumer consumer) {
+        final Runnable listener = new CoalescingListener(executor, consumer);
+        addListener(listener);
+        return listener;
+    }
+
+    private class CoalescingListener implements Runnable {
+        private final Executor executor;
+        private final Consumer consumer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable drainTask = this::drainNew;
+        // only accessed on the executor once registered
+        private long position = getPosition();
+
+        private CoalescingListener(final Executor executor, final Consumer consumer) {
+            this.executor = executor;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(drainTask);
+            }
+        }
+
+        private void drainNew() {
+            scheduled.set(false);
+            position = drain(position, consumer);
+        }
+    }
+}
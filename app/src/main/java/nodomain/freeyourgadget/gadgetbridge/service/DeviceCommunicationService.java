@@ -47,8 +47,9 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -57,6 +58,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.capabilities.loyaltycards.LoyaltyCard;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCapabilities;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.AlarmClockReceiver;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.AlarmReceiver;
@@ -94,6 +96,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.WorldClock;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.AutoConnectIntervalReceiver;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.GBAutoFetchReceiver;
+import nodomain.freeyourgadget.gadgetbridge.util.DevicePrefsSnapshot;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.EmojiConverter;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -107,6 +110,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         private GBDevice device;
         private DeviceCoordinator coordinator;
         private DeviceSupport deviceSupport;
+        private final SanitizedTextCache sanitizedTextCache = new SanitizedTextCache();
 
         public GBDevice getDevice() {
             return device;
@@ -131,6 +135,10 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         public void setDeviceSupport(DeviceSupport deviceSupport) {
             this.deviceSupport = deviceSupport;
         }
+
+        SanitizedTextCache getSanitizedTextCache() {
+            return sanitizedTextCache;
+        }
     }
 
     private class FeatureSet{
@@ -180,20 +188,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             this.supportsNavigation = supportsNavigation;
         }
 
-        public void logicalOr(DeviceCoordinator operand){
-            if(operand.supportsCalendarEvents()){
+        public void logicalOr(DeviceCapabilities operand){
+            if(operand.supports(DeviceCapabilities.Capability.CALENDAR_EVENTS)){
                 setSupportsCalendarEvents(true);
             }
-            if(operand.supportsWeather()){
+            if(operand.supports(DeviceCapabilities.Capability.WEATHER)){
                 setSupportsWeather(true);
             }
-            if(operand.supportsActivityDataFetching()){
+            if(operand.supports(DeviceCapabilities.Capability.ACTIVITY_DATA_FETCHING)){
                 setSupportsActivityDataFetching(true);
             }
-            if(operand.supportsMusicInfo()){
+            if(operand.supports(DeviceCapabilities.Capability.MUSIC_INFO)){
                 setSupportsMusicInfo(true);
             }
-            if(operand.supportsNavigation()){
+            if(operand.supports(DeviceCapabilities.Capability.NAVIGATION)){
                 setSupportsNavigation(true);
             }
         }
@@ -225,7 +233,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
     private DeviceSupportFactory mFactory;
     private final ArrayList<DeviceStruct> deviceStructs = new ArrayList<>(1);
-    private final HashMap<String, ArrayList<Intent>> cachedNotifications = new HashMap<>();
+    private PendingNotificationQueue cachedNotifications;
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -266,7 +274,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
     private final String COMMAND_BLUETOOTH_CONNECT = "nodomain.freeyourgadget.gadgetbridge.BLUETOOTH_CONNECT";
     private final String ACTION_DEVICE_CONNECTED = "nodomain.freeyourgadget.gadgetbridge.BLUETOOTH_CONNECTED";
-    private final int NOTIFICATIONS_CACHE_MAX = 10;  // maximum amount of notifications to cache per device while disconnected
+    private static final int NOTIFICATIONS_CACHE_MAX = 50;  // maximum amount of notifications to cache per device while disconnected
     private boolean allowBluetoothIntentApi = false;
 
     private void sendDeviceConnectedBroadcast(String address){
@@ -348,6 +356,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             if(GBDevice.ACTION_DEVICE_CHANGED.equals(action)){
                 GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
 
+                GBDevice.DeviceUpdateSubject subject = (GBDevice.DeviceUpdateSubject) intent.getSerializableExtra(GBDevice.EXTRA_UPDATE_SUBJECT);
+
                 // create a new instance of the changed devices coordinator, in case it's capabilities changed
                 DeviceStruct cachedStruct = getDeviceStructOrNull(device);
                 if(cachedStruct != null) {
@@ -357,8 +367,6 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 }
                 updateReceiversState();
 
-                GBDevice.DeviceUpdateSubject subject = (GBDevice.DeviceUpdateSubject) intent.getSerializableExtra(GBDevice.EXTRA_UPDATE_SUBJECT);
-
                 if(subject == GBDevice.DeviceUpdateSubject.DEVICE_STATE && device.isInitialized()){
                     LOG.debug("device state update reason");
                     sendDeviceConnectedBroadcast(device.getAddress());
@@ -386,8 +394,9 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
             DeviceCoordinator coordinator = struct.getCoordinator();
             if(coordinator != null){
-                features.logicalOr(coordinator);
-                if (coordinator.supportsCalendarEvents()){
+                DeviceCapabilities capabilities = DeviceCapabilities.of(struct.getDevice());
+                features.logicalOr(capabilities);
+                if (capabilities.supports(DeviceCapabilities.Capability.CALENDAR_EVENTS)){
                     devicesWithCalendar.add(struct.getDevice());
                 }
             }
@@ -401,6 +410,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onCreate();
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, new IntentFilter(GBDevice.ACTION_DEVICE_CHANGED));
         mFactory = getDeviceSupportFactory();
+        cachedNotifications = new PendingNotificationQueue(new File(getFilesDir(), "pending_notifications"), NOTIFICATIONS_CACHE_MAX);
 
         mBlueToothConnectReceiver = new BluetoothConnectReceiver(this);
         registerReceiver(mBlueToothConnectReceiver, new IntentFilter(BluetoothDevice.ACTION_ACL_CONNECTED));
@@ -548,27 +558,10 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                         if(isDeviceInitialized(device)){
                             targetedDevices.add(device);
                         } else if (isDeviceReconnecting(device) && action.equals(ACTION_NOTIFICATION) && GBApplication.getPrefs().getBoolean("notification_cache_while_disconnected", false)) {
-                            if (!cachedNotifications.containsKey(device.getAddress())) {
-                                cachedNotifications.put(device.getAddress(), new ArrayList<>());
-                            }
-                            ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-                            notifCache.add(intent);
-                            if (notifCache.size() > NOTIFICATIONS_CACHE_MAX) {
-                                // remove the oldest notification if the maximum is reached
-                                notifCache.remove(0);
-                            }
+                            cachedNotifications.add(device.getAddress(), intent);
                         } else if (action.equals(ACTION_DELETE_NOTIFICATION)) {
-                            ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-                            if (notifCache != null) {
-                                int notifId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
-                                ArrayList<Intent> toRemove = new ArrayList<>();
-                                for (Intent cached : notifCache) {
-                                    if (notifId == cached.getIntExtra(EXTRA_NOTIFICATION_ID, -1)) {
-                                        toRemove.add(cached);
-                                    }
-                                }
-                                notifCache.removeAll(toRemove);
-                            }
+                            // a dismissal cancels the pending post, no need to send it after reconnecting
+                            cachedNotifications.remove(device.getAddress(), intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                         }
                     }
                 }
@@ -618,18 +611,26 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private void handleAction(Intent intent, String action, GBDevice device) throws DeviceNotFoundException {
         DeviceSupport deviceSupport = getDeviceSupport(device);
 
-        Prefs devicePrefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(device.getAddress()));
-
         final Transliterator transliterator = LanguageUtils.getTransliterator(device);
+        final SanitizedTextCache sanitizedTextCache = getDeviceStruct(device).getSanitizedTextCache();
+        // the sanitized text also depends on the string filter of the support and the emoji support
+        final List<?> sanitizerSettings = Arrays.asList(
+                DevicePrefsSnapshot.of(device).getTransliterationLanguages(),
+                deviceSupport,
+                getDeviceCoordinator(device).supportsUnicodeEmojis()
+        );
 
         for (String extra : GBDeviceService.transliterationExtras) {
             if (intent.hasExtra(extra)) {
                 // Ensure the text is sanitized (eg. emoji converted to ascii) before applying the transliterators
                 // otherwise the emoji are removed before converting them
-                String sanitizedText = sanitizeNotifText(intent.getStringExtra(extra), device);
-                if (transliterator != null) {
-                    sanitizedText = transliterator.transliterate(sanitizedText);
-                }
+                String sanitizedText = sanitizedTextCache.get(intent.getStringExtra(extra), sanitizerSettings, text -> {
+                    String result = sanitizeNotifText(text, device);
+                    if (transliterator != null) {
+                        result = transliterator.transliterate(result);
+                    }
+                    return result;
+                });
                 intent.putExtra(extra, sanitizedText);
             }
         }
@@ -666,14 +667,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     // NOTE: maybe not where it belongs
                     // I would rather like to save that as an array in SharedPreferences
                     // this would work but I dont know how to do the same in the Settings Activity's xml
-                    ArrayList<String> replies = new ArrayList<>();
-                    for (int i = 1; i <= 16; i++) {
-                        String reply = devicePrefs.getString("canned_reply_" + i, null);
-                        if (reply != null && !reply.equals("")) {
-                            replies.add(reply);
-                        }
-                    }
-                    notificationSpec.cannedReplies = replies.toArray(new String[0]);
+                    notificationSpec.cannedReplies = DevicePrefsSnapshot.of(device).getCannedReplies().clone();
                 }
 
                 deviceSupport.onNotification(notificationSpec);
@@ -886,6 +880,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             }
             case ACTION_SEND_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
+                // the string filter may depend on the changed preference, eg. a custom font
+                sanitizedTextCache.clear();
                 deviceSupport.onSendConfiguration(config);
                 break;
             }
@@ -1276,11 +1272,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     }
 
     private void sendCachedNotifications(GBDevice device) {
-        ArrayList<Intent> notifCache = cachedNotifications.get(device.getAddress());
-        if (notifCache == null) return;
+        List<Intent> notifCache = cachedNotifications.drain(device.getAddress());
+        if (notifCache.isEmpty()) return;
+        LOG.info("Sending {} cached notifications to {}", notifCache.size(), device.getAliasOrName());
         try {
-            while (notifCache.size() > 0) {
-                handleAction(notifCache.remove(0), ACTION_NOTIFICATION, device);
+            for (Intent cachedIntent : notifCache) {
+                handleAction(cachedIntent, ACTION_NOTIFICATION, device);
             }
         } catch (DeviceNotFoundException e) {
             LOG.error("Error while sending cached notifications to "+device.getAliasOrName(), e);
@@ -1318,6 +1315,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         unregisterReceiver(bluetoothCommandReceiver);
         unregisterReceiver(deviceSettingsReceiver);
         unregisterReceiver(intentApiReceiver);
+        cachedNotifications.shutdown();
     }
 
     @Override
@@ -0,0 +1,330 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.content.Intent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.ACTION_NOTIFICATION;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ACTIONS;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_BODY;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_DNDSUPPRESSED;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_FLAGS;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ICONID;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_ID;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_KEY;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_PEBBLE_COLOR;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_PHONENUMBER;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_SENDER;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_SOURCEAPPID;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_SOURCENAME;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_SUBJECT;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_TITLE;
+import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_NOTIFICATION_TYPE;
+
+/**
+ * Bounded, per-device queue of notifications that could not be delivered because the device was
+ * out of range. The queue is persisted to disk, so that pending notifications survive the process
+ * being killed while the device is disconnected.
+ * <p>
+ * Posts are coalesced: a newer post for the same notification key replaces the pending one, and
+ * a dismissal drops the pending post altogether instead of being queued itself.
+ * <p>
+ * The queue is written to disk on a background thread, so that it can be updated from the main
+ * thread. Changes that pile up while a write is pending are written together.
+ * <p>
+ * The handles of the notification actions are only known to the process that posted the
+ * notification, so the actions of notifications that are loaded from disk are dropped.
+ */
+class PendingNotificationQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(PendingNotificationQueue.class);
+
+    private static final String[] STRING_EXTRAS = new String[]{
+            EXTRA_NOTIFICATION_PHONENUMBER,
+            EXTRA_NOTIFICATION_SENDER,
+            EXTRA_NOTIFICATION_SUBJECT,
+            EXTRA_NOTIFICATION_TITLE,
+            EXTRA_NOTIFICATION_BODY,
+            EXTRA_NOTIFICATION_KEY,
+            EXTRA_NOTIFICATION_SOURCENAME,
+            EXTRA_NOTIFICATION_SOURCEAPPID,
+    };
+
+    private static final String[] INT_EXTRAS = new String[]{
+            EXTRA_NOTIFICATION_ID,
+            EXTRA_NOTIFICATION_FLAGS,
+            EXTRA_NOTIFICATION_ICONID,
+            EXTRA_NOTIFICATION_DNDSUPPRESSED,
+    };
+
+    private final File directory;
+    private final int maxPerDevice;
+    private final Map<String, List<JSONObject>> queues = new HashMap<>();
+    private final Set<String> pendingWrites = new HashSet<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    PendingNotificationQueue(final File directory, final int maxPerDevice) {
+        this.directory = directory;
+        this.maxPerDevice = maxPerDevice;
+    }
+
+    synchronized void add(final String address, final Intent intent) {
+        final JSONObject entry;
+        try {
+            entry = toJson(intent);
+        } catch (final JSONException e) {
+            LOG.error("Failed to serialize pending notification", e);
+            return;
+        }
+
+        final List<JSONObject> queue = getQueue(address);
+        final String key = entry.optString(EXTRA_NOTIFICATION_KEY, null);
+        if (key != null) {
+            for (final Iterator<JSONObject> it = queue.iterator(); it.hasNext(); ) {
+                if (key.equals(it.next().optString(EXTRA_NOTIFICATION_KEY, null))) {
+                    it.remove();
+                }
+            }
+        }
+        queue.add(entry);
+        while (queue.size() > maxPerDevice) {
+            // remove the oldest notification if the maximum is reached
+            queue.remove(0);
+        }
+        persist(address);
+    }
+
+    /**
+     * Drops a pending notification, eg. because it was dismissed on the phone before the device
+     * reconnected.
+     *
+     * @return whether a pending notification was removed
+     */
+    synchronized boolean remove(final String address, final int notificationId) {
+        final List<JSONObject> queue = getQueue(address);
+        boolean removed = false;
+        for (final Iterator<JSONObject> it = queue.iterator(); it.hasNext(); ) {
+            if (notificationId == it.next().optInt(EXTRA_NOTIFICATION_ID, -1)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            persist(address);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes and returns all pending notifications for the device, oldest first.
+     */
+    synchronized List<Intent> drain(final String address) {
+        final List<JSONObject> queue = getQueue(address);
+        final List<Intent> intents = new ArrayList<>(queue.size());
+        for (final JSONObject entry : queue) {
+            try {
+                intents.add(fromJson(entry));
+            } catch (final JSONException e) {
+                LOG.error("Failed to deserialize pending notification", e);
+            }
+        }
+        queue.clear();
+        persist(address);
+        return intents;
+    }
+
+    /**
+     * Stops the background writer once the pending writes are done.
+     */
+    void shutdown() {
+        writer.shutdown();
+    }
+
+    private List<JSONObject> getQueue(final String address) {
+        List<JSONObject> queue = queues.get(address);
+        if (queue == null) {
+            queue = load(address);
+            queues.put(address, queue);
+        }
+        return queue;
+    }
+
+    private File getFile(final String address) {
+        return new File(directory, address.replace(':', '_') + ".json");
+    }
+
+    private List<JSONObject> load(final String address) {
+        final List<JSONObject> queue = new ArrayList<>();
+        final File file = getFile(address);
+        if (!file.exists()) {
+            return queue;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            final JSONArray array = new JSONArray(new String(FileUtils.readAll(in, file.length()), StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                final JSONObject entry = array.getJSONObject(i);
+                // the action handles of a previous process cannot be resolved anymore
+                entry.remove(EXTRA_NOTIFICATION_ACTIONS);
+                queue.add(entry);
+            }
+            LOG.info("Loaded {} pending notifications for {}", queue.size(), address);
+        } catch (final IOException | JSONException e) {
+            LOG.error("Failed to load pending notifications for {}", address, e);
+        }
+        return queue;
+    }
+
+    private void persist(final String address) {
+        if (pendingWrites.add(address)) {
+            writer.execute(() -> write(address));
+        }
+    }
+
+    private void write(final String address) {
+        final String json;
+        synchronized (this) {
+            pendingWrites.remove(address);
+            final List<JSONObject> queue = getQueue(address);
+            json = queue.isEmpty() ? null : new JSONArray(queue).toString();
+        }
+
+        final File file = getFile(address);
+        if (json == null) {
+            if (file.exists() && !file.delete()) {
+                LOG.warn("Failed to delete {}", file);
+            }
+            return;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            LOG.error("Failed to create {}", directory);
+            return;
+        }
+
+        // Write to a temporary file first, so a crash never leaves a truncated queue behind
+        final File tmpFile = new File(directory, file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            LOG.error("Failed to persist pending notifications for {}", address, e);
+            return;
+        }
+        if (!tmpFile.renameTo(file)) {
+            LOG.error("Failed to replace {}", file);
+        }
+    }
+
+    static JSONObject toJson(final Intent intent) throws JSONException {
+        final JSONObject json = new JSONObject();
+        for (final String extra : STRING_EXTRAS) {
+            final String value = intent.getStringExtra(extra);
+            if (value != null) {
+                json.put(extra, value);
+            }
+        }
+        for (final String extra : INT_EXTRAS) {
+            json.put(extra, intent.getIntExtra(extra, 0));
+        }
+        final NotificationType type = (NotificationType) intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE);
+        if (type != null) {
+            json.put(EXTRA_NOTIFICATION_TYPE, type.name());
+        }
+        final Object pebbleColor = intent.getSerializableExtra(EXTRA_NOTIFICATION_PEBBLE_COLOR);
+        if (pebbleColor instanceof Byte) {
+            json.put(EXTRA_NOTIFICATION_PEBBLE_COLOR, (byte) pebbleColor);
+        }
+
+        @SuppressWarnings("unchecked") final ArrayList<NotificationSpec.Action> actions =
+                (ArrayList<NotificationSpec.Action>) intent.getSerializableExtra(EXTRA_NOTIFICATION_ACTIONS);
+        if (actions != null) {
+            final JSONArray actionsJson = new JSONArray();
+            for (final NotificationSpec.Action action : actions) {
+                final JSONObject actionJson = new JSONObject();
+                actionJson.put("type", action.type);
+                actionJson.put("handle", action.handle);
+                actionJson.put("title", action.title);
+                actionsJson.put(actionJson);
+            }
+            json.put(EXTRA_NOTIFICATION_ACTIONS, actionsJson);
+        }
+        return json;
+    }
+
+    static Intent fromJson(final JSONObject json) throws JSONException {
+        final Intent intent = new Intent(ACTION_NOTIFICATION);
+        for (final String extra : STRING_EXTRAS) {
+            if (json.has(extra)) {
+                intent.putExtra(extra, json.getString(extra));
+            }
+        }
+        for (final String extra : INT_EXTRAS) {
+            intent.putExtra(extra, json.optInt(extra, 0));
+        }
+        NotificationType type = NotificationType.UNKNOWN;
+        if (json.has(EXTRA_NOTIFICATION_TYPE)) {
+            try {
+                type = NotificationType.valueOf(json.getString(EXTRA_NOTIFICATION_TYPE));
+            } catch (final IllegalArgumentException e) {
+                LOG.warn("Unknown notification type {}", json.getString(EXTRA_NOTIFICATION_TYPE));
+            }
+        }
+        intent.putExtra(EXTRA_NOTIFICATION_TYPE, type);
+        intent.putExtra(EXTRA_NOTIFICATION_PEBBLE_COLOR, (byte) json.optInt(EXTRA_NOTIFICATION_PEBBLE_COLOR, 0));
+
+        final JSONArray actionsJson = json.optJSONArray(EXTRA_NOTIFICATION_ACTIONS);
+        if (actionsJson != null) {
+            final ArrayList<NotificationSpec.Action> actions = new ArrayList<>(actionsJson.length());
+            for (int i = 0; i < actionsJson.length(); i++) {
+                final JSONObject actionJson = actionsJson.getJSONObject(i);
+                final NotificationSpec.Action action = new NotificationSpec.Action();
+                action.type = actionJson.getInt("type");
+                action.handle = actionJson.getLong("handle");
+                action.title = Objects.toString(actionJson.opt("title"), null);
+                actions.add(action);
+            }
+            intent.putExtra(EXTRA_NOTIFICATION_ACTIONS, actions);
+        }
+        return intent;
+    }
+}
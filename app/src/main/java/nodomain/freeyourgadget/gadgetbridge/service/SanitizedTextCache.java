@@ -0,0 +1,105 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-device LRU cache of texts after they went through the device string filter, emoji
+ * conversion and transliteration. Messaging apps re-post the same notification over and over with
+ * small changes, so most texts (sender, title, app name) have already been sanitized before.
+ * <p>
+ * The cache is cleared when the settings the entries were produced with change, and has to be
+ * {@link #clear() cleared} when a device preference that the string filter may read changes.
+ */
+class SanitizedTextCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SanitizedTextCache.class);
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Everything besides the text that the cached entries depend on, such as the transliteration
+     * languages and the device support that filtered them.
+     */
+    private List<?> settings;
+
+    private long hits;
+    private long misses;
+    private long missNanos;
+
+    interface Sanitizer {
+        String sanitize(String text) throws DeviceCommunicationService.DeviceNotFoundException;
+    }
+
+    synchronized String get(final String text,
+                            final List<?> settings,
+                            final Sanitizer sanitizer) throws DeviceCommunicationService.DeviceNotFoundException {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+
+        if (!settings.equals(this.settings)) {
+            entries.clear();
+            this.settings = settings;
+        }
+
+        String sanitized = entries.get(text);
+        if (sanitized != null) {
+            hits++;
+        } else {
+            final long start = System.nanoTime();
+            sanitized = sanitizer.sanitize(text);
+            missNanos += System.nanoTime() - start;
+            misses++;
+            entries.put(text, sanitized);
+        }
+
+        if ((hits + misses) % STATS_LOG_INTERVAL == 0) {
+            logStats();
+        }
+
+        return sanitized;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private void logStats() {
+        final long avgMissMicros = misses > 0 ? missNanos / misses / 1000 : 0;
+        LOG.debug(
+                "Sanitized text cache: {} hits, {} misses ({}% hit rate), ~{}ms of sanitizing saved",
+                hits,
+                misses,
+                hits * 100 / (hits + misses),
+                hits * avgMissMicros / 1000
+        );
+    }
+}
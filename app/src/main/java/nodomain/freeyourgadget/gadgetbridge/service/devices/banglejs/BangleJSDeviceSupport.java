@@ -37,7 +37,6 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.location.Location;
@@ -64,10 +63,12 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
@@ -82,15 +83,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.SimpleTimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 
 import de.greenrobot.dao.query.QueryBuilder;
-import io.wax911.emojify.Emoji;
-import io.wax911.emojify.EmojiManager;
-import io.wax911.emojify.EmojiUtils;
 import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -120,7 +119,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NavigationInfoSpec;
@@ -149,9 +147,9 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     int bangleCommandSeq = 0; // to attempt to stop duplicate packets when sending Local Intents
 
     /// Current line of data received from Bangle.js
-    private String receivedLine = "";
+    private final UartLineBuffer receivedLine = new UartLineBuffer();
     /// All characters received from Bangle.js for debug purposes (limited to MAX_RECEIVE_HISTORY_CHARS). Can be dumped with 'Fetch Device Debug Logs' from Debug menu
-    private String receiveHistory = "";
+    private final UartReceiveHistory receiveHistory = new UartReceiveHistory(MAX_RECEIVE_HISTORY_CHARS);
     private boolean realtimeHRM = false;
     private boolean realtimeStep = false;
     /// How often should activity data be sent - in seconds
@@ -161,6 +159,9 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
 
     private final LimitedQueue<Integer, Long> mNotificationReplyAction = new LimitedQueue<>(16);
 
+    /// Renders words the Bangle.js can not display as images, created on first use
+    private BangleJSTextRenderer textRenderer = null;
+
     private boolean gpsUpdateSetup = false;
 
     // this stores the globalUartReceiver (for uart.tx intents)
@@ -177,6 +178,8 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     // Local Intents - for app manager communication
     public static final String BANGLEJS_COMMAND_TX = "banglejs_command_tx";
     public static final String BANGLEJS_COMMAND_RX = "banglejs_command_rx";
+    /// Number of registered BANGLEJS_COMMAND_RX receivers, received data is only broadcast if there is one
+    private static final AtomicInteger rxListenerCount = new AtomicInteger();
     // Global Intents
     private static final String BANGLE_ACTION_UART_TX = "com.banglejs.uart.tx";
 
@@ -225,9 +228,17 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     }
 
     private void addReceiveHistory(String s) {
-        receiveHistory += s;
-        if (receiveHistory.length() > MAX_RECEIVE_HISTORY_CHARS)
-            receiveHistory = receiveHistory.substring(receiveHistory.length() - MAX_RECEIVE_HISTORY_CHARS);
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        receiveHistory.append(bytes, 0, bytes.length);
+    }
+
+    /// Call when registering a receiver for BANGLEJS_COMMAND_RX, and unregisterRxListener when removing it
+    public static void registerRxListener() {
+        rxListenerCount.incrementAndGet();
+    }
+
+    public static void unregisterRxListener() {
+        rxListenerCount.decrementAndGet();
     }
 
     private void registerLocalIntents() {
@@ -357,92 +368,25 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
 
     /// Write a string of data, and chunk it up
     private void uartTx(TransactionBuilder builder, String str) {
-        byte[] bytes = str.getBytes(StandardCharsets.ISO_8859_1);
         LOG.info("UART TX: " + str);
-        addReceiveHistory("\n================================================\nSENDING "+str+"\n================================================\n");
+        EspruinoJsonEncoder encoder = createUartEncoder(builder);
+        encoder.writeRaw(str);
+        finishUartTx(encoder);
+    }
+
+    /// Creates an encoder that writes MTU sized packets to the builder and the debug log
+    private EspruinoJsonEncoder createUartEncoder(final TransactionBuilder builder) {
+        addReceiveHistory("\n================================================\nSENDING ");
         // FIXME: somehow this is still giving us UTF8 data when we put images in strings. Maybe JSON.stringify is converting to UTF-8?
-        for (int i=0;i<bytes.length;i+=mtuSize) {
-            int l = bytes.length-i;
-            if (l>mtuSize) l=mtuSize;
-            byte[] packet = new byte[l];
-            System.arraycopy(bytes, i, packet, 0, l);
+        return new EspruinoJsonEncoder(mtuSize, packet -> {
             builder.write(txCharacteristic, packet);
-        }
+            receiveHistory.append(packet, 0, packet.length);
+        });
     }
 
-    /// Converts an object to a JSON string. see jsonToString
-    private String jsonToStringInternal(Object v) {
-        if (v instanceof String) {
-            /* Convert a string, escaping chars we can't send over out UART connection */
-            String s = (String)v;
-            StringBuilder json = new StringBuilder("\"");
-            //String rawString = "";
-            for (int i=0;i<s.length();i++) {
-                int ch = (int)s.charAt(i); // 0..255
-                int nextCh = (int)(i+1<s.length() ? s.charAt(i+1) : 0); // 0..255
-                //rawString = rawString+ch+",";
-                if (ch<8) {
-                    // if the next character is a digit, it'd be interpreted
-                    // as a 2 digit octal character, so we can't use `\0` to escape it
-                    if (nextCh>='0' && nextCh<='7') json.append("\\x0").append(ch);
-                    else json.append("\\").append(ch);
-                } else if (ch==8) json.append("\\b");
-                else if (ch==9) json.append("\\t");
-                else if (ch==10) json.append("\\n");
-                else if (ch==11) json.append("\\v");
-                else if (ch==12) json.append("\\f");
-                else if (ch==34) json.append("\\\""); // quote
-                else if (ch==92) json.append("\\\\"); // slash
-                else if (ch<32 || ch==127 || ch==173 ||
-                         ((ch>=0xC2) && (ch<=0xF4))) // unicode start char range
-                    json.append("\\x").append(Integer.toHexString((ch & 255) | 256).substring(1));
-                else if (ch>255)
-                    json.append("\\u").append(Integer.toHexString((ch & 65535) | 65536).substring(1));
-                else json.append(s.charAt(i));
-            }
-            // if it was less characters to send base64, do that!
-            if (json.length() > 5+(s.length()*4/3)) {
-                byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
-                return "atob(\""+Base64.encodeToString(bytes, Base64.DEFAULT).replaceAll("\n","")+"\")";
-            }
-            // for debugging...
-            //addReceiveHistory("\n---------------------\n"+rawString+"\n---------------------\n");
-            return json.append("\"").toString();
-        } else if (v instanceof JSONArray) {
-            JSONArray a = (JSONArray)v;
-            StringBuilder json = new StringBuilder("[");
-            for (int i=0;i<a.length();i++) {
-                if (i>0) json.append(",");
-                Object o = null;
-                try {
-                    o = a.get(i);
-                } catch (JSONException e) {
-                    LOG.warn("jsonToString array error: " + e.getLocalizedMessage());
-                }
-                json.append(jsonToStringInternal(o));
-            }
-            return json.append("]").toString();
-        } else if (v instanceof JSONObject) {
-            JSONObject obj = (JSONObject)v;
-            StringBuilder json = new StringBuilder("{");
-            Iterator<String> iter = obj.keys();
-            while (iter.hasNext()) {
-                String key = iter.next();
-                Object o = null;
-                try {
-                    o = obj.get(key);
-                } catch (JSONException e) {
-                    LOG.warn("jsonToString object error: " + e.getLocalizedMessage());
-                }
-                json.append("\"").append(key).append("\":").append(jsonToStringInternal(o));
-                if (iter.hasNext()) json.append(",");
-            }
-            return json.append("}").toString();
-        } else if (v==null) {
-            // else int/double/null
-            return "null";
-        }
-        return v.toString();
+    private void finishUartTx(EspruinoJsonEncoder encoder) {
+        encoder.finish();
+        addReceiveHistory("\n================================================\n");
     }
 
     /// Convert a JSON object to a JSON String (NOT 100% JSON compliant)
@@ -453,14 +397,24 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         So we do it manually, which can be more compact anyway.
         This is JSON-ish, so not exactly as per JSON1 spec but good enough for Espruino.
         */
-        return jsonToStringInternal(jsonObj);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EspruinoJsonEncoder encoder = new EspruinoJsonEncoder(1024, packet -> out.write(packet, 0, packet.length));
+        encoder.writeJson(jsonObj);
+        encoder.finish();
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
     }
 
     /// Write a JSON object of data
     private void uartTxJSON(String taskName, JSONObject json) {
         try {
             TransactionBuilder builder = performInitialized(taskName);
-            uartTx(builder, "\u0010GB("+jsonToString(json)+")\n");
+            // stream the JSON straight into packets, rather than building the whole string first
+            EspruinoJsonEncoder encoder = createUartEncoder(builder);
+            encoder.writeRaw("\u0010GB(");
+            encoder.writeJson(json);
+            encoder.writeRaw(")\n");
+            finishUartTx(encoder);
+            LOG.info("UART TX: {} JSON, {} bytes", taskName, encoder.getLength());
             builder.queue(getQueue());
         } catch (IOException e) {
             GB.toast(getContext(), "Error in "+taskName+": " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
@@ -694,9 +648,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
 
         // push realtime data
         if (realtime && (realtimeHRM || realtimeStep)) {
-            Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+            GB.signalRealtimeSample(sample);
         }
     }
 
@@ -1011,23 +963,23 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
                     i--; // back up one (because we deleted it)
                 }
             }
-            String packetStr = new String(chars, StandardCharsets.ISO_8859_1);
-            LOG.debug("RX: " + packetStr);
+            boolean hasRxListener = rxListenerCount.get() > 0;
+            String packetStr = null;
+            if (hasRxListener || LOG.isDebugEnabled()) {
+                packetStr = new String(chars, StandardCharsets.ISO_8859_1);
+                LOG.debug("RX: " + packetStr);
+            }
             // logging
-            addReceiveHistory(packetStr);
+            receiveHistory.append(chars, 0, chars.length);
             // split into input lines
-            receivedLine += packetStr;
-            while (receivedLine.contains("\n")) {
-                int p = receivedLine.indexOf("\n");
-                String line =  receivedLine.substring(0,p-1);
-                receivedLine = receivedLine.substring(p+1);
-                handleUartRxLine(line);
+            receivedLine.append(chars, 0, chars.length, this::handleUartRxLine);
+            if (hasRxListener) {
+                // Send an intent with new data
+                Intent intent = new Intent(BangleJSDeviceSupport.BANGLEJS_COMMAND_RX);
+                intent.putExtra("DATA", packetStr);
+                intent.putExtra("SEQ", bangleCommandSeq++);
+                LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
             }
-            // Send an intent with new data
-            Intent intent = new Intent(BangleJSDeviceSupport.BANGLEJS_COMMAND_RX);
-            intent.putExtra("DATA", packetStr);
-            intent.putExtra("SEQ", bangleCommandSeq++);
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
         }
         return false;
     }
@@ -1122,93 +1074,25 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         return true;
     }
 
-    private String renderUnicodeWordPartAsImage(String word) {
-        // check for emoji
-        boolean hasEmoji = false;
-        if (EmojiUtils.getAllEmojis() == null)
-            EmojiManager.initEmojiData(GBApplication.getContext());
-        for (Emoji emoji : EmojiUtils.getAllEmojis())
-            if (word.contains(emoji.getEmoji())) {
-                hasEmoji = true;
-                break;
-            }
-        // if we had emoji, ensure we create 3 bit color (not 1 bit B&W)
-        BangleJSBitmapStyle style = hasEmoji ? BangleJSBitmapStyle.RGB_3BPP_TRANSPARENT : BangleJSBitmapStyle.MONOCHROME_TRANSPARENT;
-        return "\0"+bitmapToEspruinoString(textToBitmap(word), style);
-    }
-
-    private String renderUnicodeWordAsImage(String word) {
-        // if we have Chinese/Japanese/Korean chars, split into 2 char chunks to allow easier text wrapping
-        // it's not perfect but better than nothing
-        boolean hasCJK = false;
-        for (int i=0;i<word.length();i++) {
-            char ch = word.charAt(i);
-            hasCJK |= ch>=0x4E00 && ch<=0x9FFF; // "CJK Unified Ideographs" block
-        }
-        if (hasCJK) {
-            // split every 2 chars
-            StringBuilder result = new StringBuilder();
-            for (int i=0;i<word.length();i+=2) {
-                int len = 2;
-                if (i+len > word.length())
-                    len = word.length()-i;
-                result.append(renderUnicodeWordPartAsImage(word.substring(i, i + len)));
-            }
-            return result.toString();
+    private synchronized BangleJSTextRenderer getTextRenderer() {
+        if (textRenderer == null) {
+            textRenderer = new BangleJSTextRenderer(EmojiDetector.getInstance(), BangleJSTextRenderer.MAX_CACHED_IMAGES);
         }
-        // else just render the word as-is
-        return renderUnicodeWordPartAsImage(word);
+        return textRenderer;
     }
 
     public String renderUnicodeAsImage(String txt) {
         // FIXME: it looks like we could implement this as customStringFilter now so it happens automatically
         if (txt==null) return null;
         // Simple conversions
-        txt = txt.replaceAll("…", "...");
+        txt = txt.replace("…", "...");
         /* If we're not doing conversion, pass this right back (we use the EmojiConverter
         As we would have done if BangleJSCoordinator.supportsUnicodeEmojis had reported false */
         Prefs devicePrefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(gbDevice.getAddress()));
         if (!devicePrefs.getBoolean(PREF_BANGLEJS_TEXT_BITMAP, false))
             return EmojiConverter.convertUnicodeEmojiToAscii(txt, GBApplication.getContext());
-         // Otherwise split up and check each word
-        String word = "";
-        StringBuilder result = new StringBuilder();
-        boolean needsTranslate = false;
-        for (int i=0;i<txt.length();i++) {
-            char ch = txt.charAt(i);
-            // Special cases where we can just use a built-in character...
-            // Based on https://op.europa.eu/en/web/eu-vocabularies/formex/physical-specifications/character-encoding
-            if (ch=='–' || ch=='‐' || ch=='—') ch='-';
-            else if (ch =='‚' || ch=='，' || ch=='、') ch=',';
-            else if (ch =='。') ch='.';
-            else if (ch =='【') ch='[';
-            else if (ch =='】') ch=']';
-            else if (ch=='‘' || ch=='’' || ch=='‛' || ch=='′' || ch=='ʹ') ch='\'';
-            else if (ch=='“' || ch=='”' || ch =='„' || ch=='‟' || ch=='″') ch='"';
-            // chars which break words up
-            if (" -_/:.,?!'\"&*()[]".indexOf(ch)>=0) {
-                // word split
-                if (needsTranslate) { // convert word
-                    LOG.info("renderUnicodeAsImage converting " + word);
-                    result.append(renderUnicodeWordAsImage(word)).append(ch);
-                } else { // or just copy across
-                    result.append(word).append(ch);
-                }
-                word = "";
-                needsTranslate = false;
-            } else {
-                // TODO: better check?
-                if (ch>255) needsTranslate = true;
-                word += ch;
-            }
-        }
-        if (needsTranslate) { // convert word
-            LOG.info("renderUnicodeAsImage converting " + word);
-            result.append(renderUnicodeWordAsImage(word));
-        } else { // or just copy across
-            result.append(word);
-        }
-        return result.toString();
+        // Otherwise split up and check each word
+        return getTextRenderer().renderUnicodeAsImage(txt, devicePrefs.getInt(PREF_BANGLEJS_TEXT_BITMAP_SIZE, 18));
     }
 
     /// Crop a text string to ensure it's not longer than requested
@@ -1392,10 +1276,10 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
             File outputFile = new File(dir, filename );
             LOG.warn("Writing log to "+outputFile.toString());
             try {
-                BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-                writer.write(receiveHistory);
-                writer.close();
-                receiveHistory = "";
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile));
+                receiveHistory.writeTo(out);
+                out.close();
+                receiveHistory.clear();
                 GB.toast(getContext(), "Log written to "+filename, Toast.LENGTH_LONG, GB.INFO);
             } catch (IOException e) {
                 LOG.warn("Could not write to file", e);
@@ -1581,20 +1465,8 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     }
 
     public Bitmap textToBitmap(String text) {
-        Paint paint = new Paint(0); // Paint.ANTI_ALIAS_FLAG not wanted as 1bpp
         Prefs devicePrefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(gbDevice.getAddress()));
-        paint.setTextSize(devicePrefs.getInt(PREF_BANGLEJS_TEXT_BITMAP_SIZE, 18));
-        paint.setColor(0xFFFFFFFF);
-        paint.setTextAlign(Paint.Align.LEFT);
-        float baseline = -paint.ascent(); // ascent() is negative
-        int width = (int) (paint.measureText(text) + 0.5f); // round
-        int height = (int) (baseline + paint.descent() + 0.5f);
-        if (width<1) width=1;
-        if (height<1) height=1;
-        Bitmap image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(image);
-        canvas.drawText(text, 0, baseline, paint);
-        return image;
+        return BangleJSTextRenderer.textToBitmap(text, devicePrefs.getInt(PREF_BANGLEJS_TEXT_BITMAP_SIZE, 18));
     }
 
     public enum BangleJSBitmapStyle {
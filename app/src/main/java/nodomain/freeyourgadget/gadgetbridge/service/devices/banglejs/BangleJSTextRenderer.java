@@ -0,0 +1,156 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts the words of a text the Bangle.js can not display into images. Rendered and encoded
+ * images are kept in an LRU cache, as chat notifications tend to repeat the same names, words and
+ * emojis.
+ */
+class BangleJSTextRenderer {
+    private static final Logger LOG = LoggerFactory.getLogger(BangleJSTextRenderer.class);
+
+    static final int MAX_CACHED_IMAGES = 256;
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private final EmojiDetector emojiDetector;
+    private final LinkedHashMap<String, String> images;
+
+    private long hits;
+    private long misses;
+
+    BangleJSTextRenderer(final EmojiDetector emojiDetector, final int maxCachedImages) {
+        this.emojiDetector = emojiDetector;
+        this.images = new LinkedHashMap<String, String>(Math.min(maxCachedImages, 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > maxCachedImages;
+            }
+        };
+    }
+
+    synchronized String renderUnicodeAsImage(String txt, int fontSize) {
+        // split up and check each word
+        StringBuilder word = new StringBuilder();
+        StringBuilder result = new StringBuilder(txt.length());
+        boolean needsTranslate = false;
+        for (int i=0;i<txt.length();i++) {
+            char ch = txt.charAt(i);
+            // Special cases where we can just use a built-in character...
+            // Based on https://op.europa.eu/en/web/eu-vocabularies/formex/physical-specifications/character-encoding
+            if (ch=='–' || ch=='‐' || ch=='—') ch='-';
+            else if (ch =='‚' || ch=='，' || ch=='、') ch=',';
+            else if (ch =='。') ch='.';
+            else if (ch =='【') ch='[';
+            else if (ch =='】') ch=']';
+            else if (ch=='‘' || ch=='’' || ch=='‛' || ch=='′' || ch=='ʹ') ch='\'';
+            else if (ch=='“' || ch=='”' || ch =='„' || ch=='‟' || ch=='″') ch='"';
+            // chars which break words up
+            if (" -_/:.,?!'\"&*()[]".indexOf(ch)>=0) {
+                // word split
+                if (needsTranslate) { // convert word
+                    LOG.info("renderUnicodeAsImage converting " + word);
+                    result.append(renderUnicodeWordAsImage(word.toString(), fontSize)).append(ch);
+                } else { // or just copy across
+                    result.append(word).append(ch);
+                }
+                word.setLength(0);
+                needsTranslate = false;
+            } else {
+                // TODO: better check?
+                if (ch>255) needsTranslate = true;
+                word.append(ch);
+            }
+        }
+        if (needsTranslate) { // convert word
+            LOG.info("renderUnicodeAsImage converting " + word);
+            result.append(renderUnicodeWordAsImage(word.toString(), fontSize));
+        } else { // or just copy across
+            result.append(word);
+        }
+        return result.toString();
+    }
+
+    private String renderUnicodeWordAsImage(String word, int fontSize) {
+        // if we have Chinese/Japanese/Korean chars, split into 2 char chunks to allow easier text wrapping
+        // it's not perfect but better than nothing
+        boolean hasCJK = false;
+        for (int i=0;i<word.length();i++) {
+            char ch = word.charAt(i);
+            hasCJK |= ch>=0x4E00 && ch<=0x9FFF; // "CJK Unified Ideographs" block
+        }
+        if (hasCJK) {
+            // split every 2 chars
+            StringBuilder result = new StringBuilder();
+            for (int i=0;i<word.length();i+=2) {
+                int len = 2;
+                if (i+len > word.length())
+                    len = word.length()-i;
+                result.append(renderUnicodeWordPartAsImage(word.substring(i, i + len), fontSize));
+            }
+            return result.toString();
+        }
+        // else just render the word as-is
+        return renderUnicodeWordPartAsImage(word, fontSize);
+    }
+
+    private String renderUnicodeWordPartAsImage(String word, int fontSize) {
+        // if we had emoji, ensure we create 3 bit color (not 1 bit B&W)
+        BangleJSDeviceSupport.BangleJSBitmapStyle style = emojiDetector.containsEmoji(word) ?
+                BangleJSDeviceSupport.BangleJSBitmapStyle.RGB_3BPP_TRANSPARENT :
+                BangleJSDeviceSupport.BangleJSBitmapStyle.MONOCHROME_TRANSPARENT;
+        String key = style.ordinal() + ":" + fontSize + ":" + word;
+        String image = images.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+            image = "\0" + BangleJSDeviceSupport.bitmapToEspruinoString(textToBitmap(word, fontSize), style);
+            images.put(key, image);
+        }
+        if ((hits + misses) % STATS_LOG_INTERVAL == 0) {
+            LOG.debug("Rendered word cache: {} hits, {} misses, {} images", hits, misses, images.size());
+        }
+        return image;
+    }
+
+    static Bitmap textToBitmap(String text, int fontSize) {
+        Paint paint = new Paint(0); // Paint.ANTI_ALIAS_FLAG not wanted as 1bpp
+        paint.setTextSize(fontSize);
+        paint.setColor(0xFFFFFFFF);
+        paint.setTextAlign(Paint.Align.LEFT);
+        float baseline = -paint.ascent(); // ascent() is negative
+        int width = (int) (paint.measureText(text) + 0.5f); // round
+        int height = (int) (baseline + paint.descent() + 0.5f);
+        if (width<1) width=1;
+        if (height<1) height=1;
+        Bitmap image = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(image);
+        canvas.drawText(text, 0, baseline, paint);
+        return image;
+    }
+}
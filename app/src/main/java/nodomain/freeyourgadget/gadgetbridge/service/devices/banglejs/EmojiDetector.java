@@ -0,0 +1,92 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.wax911.emojify.Emoji;
+import io.wax911.emojify.EmojiManager;
+import io.wax911.emojify.EmojiUtils;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+
+/**
+ * Finds out whether a text contains an emoji, without going through all known emojis for each
+ * text. Only positions starting with a character that starts an emoji are looked up, and only
+ * with the lengths emojis actually have.
+ */
+class EmojiDetector {
+    private static EmojiDetector instance;
+
+    private final Set<String> emojis;
+    private final BitSet firstChars = new BitSet(Character.MAX_VALUE + 1);
+    /// Distinct lengths of the known emojis, in chars
+    private final int[] lengths;
+
+    EmojiDetector(Collection<String> emojis) {
+        this.emojis = new HashSet<>(emojis.size() * 2);
+        Set<Integer> lengths = new TreeSet<>();
+        for (String emoji : emojis) {
+            if (emoji == null || emoji.isEmpty()) {
+                continue;
+            }
+            this.emojis.add(emoji);
+            firstChars.set(emoji.charAt(0));
+            lengths.add(emoji.length());
+        }
+        this.lengths = new int[lengths.size()];
+        int i = 0;
+        for (int length : lengths) {
+            this.lengths[i++] = length;
+        }
+    }
+
+    static synchronized EmojiDetector getInstance() {
+        if (instance == null) {
+            if (EmojiUtils.getAllEmojis() == null)
+                EmojiManager.initEmojiData(GBApplication.getContext());
+            List<String> emojis = new ArrayList<>();
+            for (Emoji emoji : EmojiUtils.getAllEmojis()) {
+                emojis.add(emoji.getEmoji());
+            }
+            instance = new EmojiDetector(emojis);
+        }
+        return instance;
+    }
+
+    boolean containsEmoji(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!firstChars.get(text.charAt(i))) {
+                continue;
+            }
+            for (int length : lengths) {
+                if (i + length > text.length()) {
+                    break;
+                }
+                if (emojis.contains(text.substring(i, i + length))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,290 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+
+/**
+ * Writes JSON objects as the JS Espruino evaluates (JSON-ish, NOT 100% JSON compliant) straight
+ * into packets of the given size, without building the whole text first.
+ * <p>
+ * Strings are written escaped, or as base64 with atob() when that is shorter. Characters above 255
+ * can not be sent over the UART and are written as '?' outside of escaped strings.
+ */
+class EspruinoJsonEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(EspruinoJsonEncoder.class);
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    /// Length of each char 0..255 once escaped, chars below 8 take 2 more before an octal digit
+    private static final byte[] ESCAPED_LENGTH = new byte[256];
+
+    static {
+        for (int ch = 0; ch < 256; ch++) {
+            if (ch <= 12 || ch == 34 || ch == 92) {
+                ESCAPED_LENGTH[ch] = 2;
+            } else if (ch < 32 || ch == 127 || ch == 173 || ((ch >= 0xC2) && (ch <= 0xF4))) {
+                ESCAPED_LENGTH[ch] = 4;
+            } else {
+                ESCAPED_LENGTH[ch] = 1;
+            }
+        }
+    }
+
+    interface PacketSink {
+        void onPacket(byte[] packet);
+    }
+
+    private final int packetSize;
+    private final PacketSink sink;
+
+    private byte[] packet;
+    private int position = 0;
+    private int sentLength = 0;
+
+    EspruinoJsonEncoder(int packetSize, PacketSink sink) {
+        this.packetSize = packetSize;
+        this.sink = sink;
+        this.packet = new byte[packetSize];
+    }
+
+    /// Total number of bytes written
+    int getLength() {
+        return sentLength + position;
+    }
+
+    /// Sends the last, partial packet
+    void finish() {
+        if (position == packetSize) {
+            sendPacket();
+        } else if (position > 0) {
+            byte[] last = new byte[position];
+            System.arraycopy(packet, 0, last, 0, position);
+            sink.onPacket(last);
+            sentLength += position;
+            position = 0;
+        }
+    }
+
+    private void write(int b) {
+        if (position == packetSize) {
+            sendPacket();
+        }
+        packet[position++] = (byte) b;
+    }
+
+    private void sendPacket() {
+        // the sink keeps the packet, so start a new one instead of reusing it
+        sink.onPacket(packet);
+        packet = new byte[packetSize];
+        sentLength += position;
+        position = 0;
+    }
+
+    /// Writes text as it is, in ISO-8859-1
+    void writeRaw(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            write(latin1At(s, i));
+            if (isSurrogatePair(s, i)) i++;
+        }
+    }
+
+    /// Writes an org.json value, JSONObject, JSONArray, String, number, boolean or null
+    void writeJson(Object v) {
+        if (v instanceof String) {
+            writeString((String) v);
+        } else if (v instanceof JSONArray) {
+            JSONArray a = (JSONArray) v;
+            write('[');
+            for (int i = 0; i < a.length(); i++) {
+                if (i > 0) write(',');
+                Object o = null;
+                try {
+                    o = a.get(i);
+                } catch (JSONException e) {
+                    LOG.warn("jsonToString array error: " + e.getLocalizedMessage());
+                }
+                writeJson(o);
+            }
+            write(']');
+        } else if (v instanceof JSONObject) {
+            JSONObject obj = (JSONObject) v;
+            write('{');
+            Iterator<String> iter = obj.keys();
+            while (iter.hasNext()) {
+                String key = iter.next();
+                Object o = null;
+                try {
+                    o = obj.get(key);
+                } catch (JSONException e) {
+                    LOG.warn("jsonToString object error: " + e.getLocalizedMessage());
+                }
+                write('"');
+                writeRaw(key);
+                write('"');
+                write(':');
+                writeJson(o);
+                if (iter.hasNext()) write(',');
+            }
+            write('}');
+        } else if (v == null) {
+            writeRaw("null");
+        } else {
+            // else int/double/boolean/JSONObject.NULL
+            writeRaw(v.toString());
+        }
+    }
+
+    /* Convert a string, escaping chars we can't send over out UART connection */
+    private void writeString(String s) {
+        final int n = s.length();
+        int escapedLength = 0;
+        for (int i = 0; i < n; i++) {
+            escapedLength += escapedLength(s, i);
+        }
+        // if it was less characters to send base64, do that!
+        if (1 + escapedLength > 5 + (n * 4 / 3)) {
+            writeRaw("atob(\"");
+            writeBase64(s);
+            writeRaw("\")");
+            return;
+        }
+        write('"');
+        int i = 0;
+        while (i < n) {
+            if (position == packetSize) {
+                sendPacket();
+            }
+            // copy characters that need no escaping straight into the packet
+            final int end = Math.min(n, i + packetSize - position);
+            for (; i < end; i++) {
+                final int ch = s.charAt(i);
+                if (ch > 255 || ESCAPED_LENGTH[ch] != 1) {
+                    break;
+                }
+                packet[position++] = (byte) ch;
+            }
+            if (i < end) {
+                writeEscaped(s, i++);
+            }
+        }
+        write('"');
+    }
+
+    private static int escapedLength(String s, int i) {
+        int ch = s.charAt(i);
+        if (ch > 255) {
+            return 6;
+        }
+        if (ch < 8 && isOctalDigitAt(s, i + 1)) {
+            return 4;
+        }
+        return ESCAPED_LENGTH[ch];
+    }
+
+    private static boolean isOctalDigitAt(String s, int i) {
+        if (i >= s.length()) {
+            return false;
+        }
+        char ch = s.charAt(i);
+        return ch >= '0' && ch <= '7';
+    }
+
+    private void writeEscaped(String s, int i) {
+        int ch = s.charAt(i); // 0..255
+        if (ch < 8) {
+            write('\\');
+            // if the next character is a digit, it'd be interpreted
+            // as a 2 digit octal character, so we can't use `\0` to escape it
+            if (isOctalDigitAt(s, i + 1)) {
+                write('x');
+                write('0');
+            }
+            write('0' + ch);
+            return;
+        }
+        int escape = 0;
+        if (ch == 8) escape = 'b';
+        else if (ch == 9) escape = 't';
+        else if (ch == 10) escape = 'n';
+        else if (ch == 11) escape = 'v';
+        else if (ch == 12) escape = 'f';
+        else if (ch == 34) escape = '"'; // quote
+        else if (ch == 92) escape = '\\'; // slash
+        write('\\');
+        if (escape != 0) {
+            write(escape);
+        } else if (ch > 255) {
+            write('u');
+            write(HEX[(ch >> 12) & 15]);
+            write(HEX[(ch >> 8) & 15]);
+            write(HEX[(ch >> 4) & 15]);
+            write(HEX[ch & 15]);
+        } else { // below 32, 127, 173 and the unicode start char range
+            write('x');
+            write(HEX[(ch >> 4) & 15]);
+            write(HEX[ch & 15]);
+        }
+    }
+
+    /// Writes the ISO-8859-1 bytes of s as base64
+    private void writeBase64(String s) {
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits = (bits << 8) | latin1At(s, i);
+            if (isSurrogatePair(s, i)) i++;
+            if (++count == 3) {
+                write(BASE64[(bits >> 18) & 63]);
+                write(BASE64[(bits >> 12) & 63]);
+                write(BASE64[(bits >> 6) & 63]);
+                write(BASE64[bits & 63]);
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            write(BASE64[(bits >> 2) & 63]);
+            write(BASE64[(bits << 4) & 63]);
+            write('=');
+            write('=');
+        } else if (count == 2) {
+            write(BASE64[(bits >> 10) & 63]);
+            write(BASE64[(bits >> 4) & 63]);
+            write(BASE64[(bits << 2) & 63]);
+            write('=');
+        }
+    }
+
+    /// The character at i as String.getBytes(ISO_8859_1) would encode it
+    private static int latin1At(String s, int i) {
+        char ch = s.charAt(i);
+        return ch <= 255 ? ch : '?';
+    }
+
+    /// Whether i is the start of a surrogate pair, which ISO-8859-1 encodes as a single '?'
+    private static boolean isSurrogatePair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+}
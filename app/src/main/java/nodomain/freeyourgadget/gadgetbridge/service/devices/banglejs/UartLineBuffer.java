@@ -0,0 +1,65 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits the data received from the Bangle.js into lines. Received bytes are collected in a
+ * buffer which is reused for the following packets, and only the new bytes of each packet are
+ * scanned for the end of a line.
+ */
+class UartLineBuffer {
+    interface LineHandler {
+        void onLine(String line);
+    }
+
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+    /// Number of bytes at the start of the buffer that were already scanned
+    private int scanned = 0;
+
+    void append(byte[] data, int offset, int count, LineHandler handler) {
+        if (length + count > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + count)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+        System.arraycopy(data, offset, buffer, length, count);
+        length += count;
+
+        int lineStart = 0;
+        try {
+            while (scanned < length) {
+                int i = scanned++;
+                if (buffer[i] == '\n') {
+                    // lines end with "\r\n", drop the '\r'
+                    int lineEnd = i > lineStart ? i - 1 : i;
+                    String line = new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1);
+                    lineStart = scanned;
+                    handler.onLine(line);
+                }
+            }
+        } finally {
+            if (lineStart > 0) {
+                System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+                length -= lineStart;
+                scanned -= lineStart;
+            }
+        }
+    }
+}
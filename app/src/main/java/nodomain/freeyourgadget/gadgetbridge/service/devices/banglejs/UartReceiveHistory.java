@@ -0,0 +1,71 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the last bytes received from the Bangle.js for the debug log, in a fixed ring buffer so
+ * appending a packet does not copy the whole history.
+ */
+class UartReceiveHistory {
+    private final byte[] buffer;
+    /// Position the next byte is written to
+    private int end = 0;
+    private boolean wrapped = false;
+
+    UartReceiveHistory(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    void append(byte[] data, int offset, int length) {
+        if (length >= buffer.length) {
+            System.arraycopy(data, offset + length - buffer.length, buffer, 0, buffer.length);
+            end = 0;
+            wrapped = true;
+            return;
+        }
+        int first = Math.min(length, buffer.length - end);
+        System.arraycopy(data, offset, buffer, end, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+        end += length;
+        if (end >= buffer.length) {
+            end -= buffer.length;
+            wrapped = true;
+        }
+    }
+
+    int size() {
+        return wrapped ? buffer.length : end;
+    }
+
+    /**
+     * Writes the history, oldest byte first.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (wrapped) {
+            out.write(buffer, end, buffer.length - end);
+        }
+        out.write(buffer, 0, end);
+    }
+
+    void clear() {
+        end = 0;
+        wrapped = false;
+    }
+}
@@ -16,11 +16,14 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 
 import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -32,12 +35,15 @@ public class Huami2021ChunkedDecoder {
     private int currentType;
     private int currentLength;
     ByteBuffer reassemblyBuffer;
+    private byte[] reassemblyArray = new byte[0];
 
     // Keep track of last handle and count for acks
     private byte lastHandle;
     private byte lastCount;
 
     private volatile byte[] sharedSessionKey;
+    private volatile SecretKeySpec[] messageKeys = new SecretKeySpec[256];
+    private CryptoUtils.AesEcbCipher cipher;
 
     private Huami2021Handler huami2021Handler;
     private final boolean force2021Protocol;
@@ -50,6 +56,8 @@ public class Huami2021ChunkedDecoder {
 
     public void setEncryptionParameters(final byte[] sharedSessionKey) {
         this.sharedSessionKey = sharedSessionKey;
+        // after the key, so that whoever sees the new array also sees the new key
+        this.messageKeys = new SecretKeySpec[256];
     }
 
     public void setHuami2021Handler(final Huami2021Handler huami2021Handler) {
@@ -97,13 +105,20 @@ public class Huami2021ChunkedDecoder {
                 }
                 full_length = encrypted_length;
             }
-            reassemblyBuffer = ByteBuffer.allocate(full_length);
+            // reuse the array of the previous message, only the decoded payload is handed on
+            if (reassemblyArray.length < full_length) {
+                reassemblyArray = new byte[Math.max(full_length, reassemblyArray.length * 2)];
+            }
+            reassemblyBuffer = ByteBuffer.wrap(reassemblyArray, 0, full_length);
             currentType = (data[i++] & 0xff) | ((data[i++] & 0xff) << 8);
             currentHandle = handle;
         }
         reassemblyBuffer.put(data, i, data.length - i);
         if (lastChunk) { // end
             byte[] buf = reassemblyBuffer.array();
+            int bufLength = reassemblyBuffer.limit();
+            // a message cut short leaves zeros at the end, like a newly allocated buffer would
+            Arrays.fill(buf, reassemblyBuffer.position(), bufLength, (byte) 0);
             if (encrypted) {
                 if (sharedSessionKey == null) {
                     // Should never happen
@@ -113,13 +128,12 @@ public class Huami2021ChunkedDecoder {
                     return false;
                 }
 
-                byte[] messagekey = new byte[16];
-                for (int j = 0; j < 16; j++) {
-                    messagekey[j] = (byte) (sharedSessionKey[j] ^ handle);
-                }
                 try {
-                    buf = CryptoUtils.decryptAES(buf, messagekey);
-                    buf = ArrayUtils.subarray(buf, 0, currentLength);
+                    if (cipher == null) {
+                        cipher = new CryptoUtils.AesEcbCipher(Cipher.DECRYPT_MODE);
+                    }
+                    cipher.doFinal(getMessageKey(handle), buf, 0, bufLength);
+                    bufLength = currentLength;
                 } catch (Exception e) {
                     LOG.warn("error decrypting " + e);
                     currentHandle = null;
@@ -127,6 +141,7 @@ public class Huami2021ChunkedDecoder {
                     return false;
                 }
             }
+            buf = Arrays.copyOf(buf, bufLength);
             LOG.debug(
                     "{} data {}: {}",
                     encrypted ? "Decrypted" : "Plaintext",
@@ -145,4 +160,22 @@ public class Huami2021ChunkedDecoder {
 
         return needsAck;
     }
+
+    /**
+     * The session key XORed with the message handle, which is what each message is encrypted with.
+     * There are only 256 handles, so they are kept for the whole session.
+     */
+    private SecretKeySpec getMessageKey(final byte handle) {
+        final SecretKeySpec[] keys = messageKeys;
+        SecretKeySpec messageKey = keys[handle & 0xff];
+        if (messageKey == null) {
+            byte[] messagekey = new byte[16];
+            for (int j = 0; j < 16; j++) {
+                messagekey[j] = (byte) (sharedSessionKey[j] ^ handle);
+            }
+            messageKey = new SecretKeySpec(messagekey, "AES");
+            keys[handle & 0xff] = messageKey;
+        }
+        return messageKey;
+    }
 }
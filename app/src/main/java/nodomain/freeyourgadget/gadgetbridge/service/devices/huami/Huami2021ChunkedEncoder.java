@@ -21,6 +21,11 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
 import nodomain.freeyourgadget.gadgetbridge.util.CryptoUtils;
@@ -41,6 +46,11 @@ public class Huami2021ChunkedEncoder {
     private final boolean force2021Protocol;
     private volatile int mMTU = 23;
 
+    // Reused between writes, guarded by this
+    private CryptoUtils.AesEcbCipher cipher;
+    private SecretKeySpec[] messageKeys = new SecretKeySpec[256];
+    private byte[] payloadBuffer = new byte[0];
+
     public Huami2021ChunkedEncoder(final BluetoothGattCharacteristic characteristicChunked2021Write,
                                    final boolean force2021Protocol,
                                    final int mMTU) {
@@ -52,6 +62,7 @@ public class Huami2021ChunkedEncoder {
     public synchronized void setEncryptionParameters(final int encryptedSequenceNr, final byte[] sharedSessionKey) {
         this.encryptedSequenceNr = encryptedSequenceNr;
         this.sharedSessionKey = sharedSessionKey;
+        this.messageKeys = new SecretKeySpec[256];
     }
 
     public synchronized void setMTU(int mMTU) {
@@ -80,17 +91,16 @@ public class Huami2021ChunkedEncoder {
         }
 
         if (extended_flags && encrypt) {
-            byte[] messagekey = new byte[16];
-            for (int i = 0; i < 16; i++) {
-                messagekey[i] = (byte) (sharedSessionKey[i] ^ writeHandle);
-            }
             int encrypted_length = length + 8;
             int overflow = encrypted_length % 16;
             if (overflow > 0) {
                 encrypted_length += (16 - overflow);
             }
 
-            byte[] encryptable_payload = new byte[encrypted_length];
+            if (payloadBuffer.length < encrypted_length) {
+                payloadBuffer = new byte[Math.max(encrypted_length, payloadBuffer.length * 2)];
+            }
+            byte[] encryptable_payload = payloadBuffer;
             System.arraycopy(data, 0, encryptable_payload, 0, length);
             encryptable_payload[length] = (byte) (encryptedSequenceNr & 0xff);
             encryptable_payload[length + 1] = (byte) ((encryptedSequenceNr >> 8) & 0xff);
@@ -102,16 +112,22 @@ public class Huami2021ChunkedEncoder {
             encryptable_payload[length + 5] = (byte) ((checksum >> 8) & 0xff);
             encryptable_payload[length + 6] = (byte) ((checksum >> 16) & 0xff);
             encryptable_payload[length + 7] = (byte) ((checksum >> 24) & 0xff);
+            // the buffer is reused, so clear the padding left over from the previous message
+            Arrays.fill(encryptable_payload, length + 8, encrypted_length, (byte) 0);
             remaining = encrypted_length;
             try {
-                data = CryptoUtils.encryptAES(encryptable_payload, messagekey);
+                if (cipher == null) {
+                    cipher = new CryptoUtils.AesEcbCipher(Cipher.ENCRYPT_MODE);
+                }
+                cipher.doFinal(getMessageKey(writeHandle), encryptable_payload, 0, encrypted_length);
             } catch (Exception e) {
                 LOG.error("error while encrypting", e);
                 return;
             }
-
+            data = encryptable_payload;
         }
 
+        int offset = 0;
         while (remaining > 0) {
             int MAX_CHUNKLENGTH = mMTU - 3 - header_size;
             int copybytes = Math.min(remaining, MAX_CHUNKLENGTH);
@@ -148,8 +164,9 @@ public class Huami2021ChunkedEncoder {
                 chunk[3] = count;
             }
 
-            System.arraycopy(data, data.length - remaining, chunk, header_size, copybytes);
+            System.arraycopy(data, offset, chunk, header_size, copybytes);
             builder.write(characteristicChunked2021Write, chunk);
+            offset += copybytes;
             remaining -= copybytes;
             header_size = 4;
 
@@ -160,4 +177,21 @@ public class Huami2021ChunkedEncoder {
             count++;
         }
     }
+
+    /**
+     * The session key XORed with the write handle, which is what each message is encrypted with.
+     * There are only 256 handles, so they are kept for the whole session.
+     */
+    private SecretKeySpec getMessageKey(final byte handle) {
+        SecretKeySpec messageKey = messageKeys[handle & 0xff];
+        if (messageKey == null) {
+            byte[] messagekey = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                messagekey[i] = (byte) (sharedSessionKey[i] ^ handle);
+            }
+            messageKey = new SecretKeySpec(messagekey, "AES");
+            messageKeys[handle & 0xff] = messageKey;
+        }
+        return messageKey;
+    }
 }
@@ -2617,9 +2617,7 @@ public abstract class HuamiSupport extends AbstractBTLEDeviceSupport implements
                             LOG.debug("realtime sample: " + sample);
                         }
 
-                        Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
-                        LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+                        GB.signalRealtimeSample(sample);
 
                     } catch (Exception e) {
                         LOG.warn("Unable to acquire db for saving realtime samples", e);
@@ -19,14 +19,11 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.lefun;
 
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.text.format.DateFormat;
 import android.widget.Toast;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,7 +64,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CannedMessagesSpec;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
@@ -762,10 +758,7 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
         int diff = command.getSteps() - lastStepsCount;
         sample.setSteps(diff);
         lastStepsCount = command.getSteps();
-        Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                .putExtra(DeviceService.EXTRA_TIMESTAMP, sample.getTimestamp());
-        LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+        GB.signalRealtimeSample(sample);
     }
 
     /**
@@ -916,9 +909,7 @@ public class LefunDeviceSupport extends AbstractBTLEDeviceSupport {
 
                 session.getLefunActivitySampleDao().insertOrReplace(sample);
 
-                final Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                        .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
-                LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+                GB.signalRealtimeSample(sample);
             }
 
             LefunBiometricSample bioSample = new LefunBiometricSample(timestamp,
@@ -29,15 +29,12 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.makibeshr3;
 
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.CountDownTimer;
 import android.os.Handler;
 import android.widget.Toast;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,7 +69,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.BatteryState;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CannedMessagesSpec;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
@@ -559,10 +555,7 @@ public class MakibesHR3DeviceSupport extends AbstractBTLEDeviceSupport implement
      * {@link MakibesHR3DeviceSupport#addGBActivitySamples}
      */
     private void broadcastSample(MakibesHR3ActivitySample sample) {
-        Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                .putExtra(DeviceService.EXTRA_TIMESTAMP, sample.getTimestamp());
-        LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+        GB.signalRealtimeSample(sample);
     }
 
     private void onReceiveFitness(int steps) {
@@ -0,0 +1,161 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+/**
+ * Collects the records of the Pebble Health datalog sessions across datalog messages and stores
+ * them in a single transaction. The replies to the buffered messages of the health sessions are
+ * held back until the records are stored, so the watch only discards data that actually made it
+ * into the database. Messages of other sessions are replied to right away.
+ * <p>
+ * The buffer is flushed when it is full, when a health session is closed, or when no more data
+ * has arrived on the connection for a short while (see {@link PebbleProtocol#flushDatalog()}).
+ * A watch that waits for each reply thus sees its replies delayed by that idle timeout, while a
+ * backlog that arrives back to back is stored in large transactions.
+ */
+class DatalogIngestionBuffer {
+    private static final Logger LOG = LoggerFactory.getLogger(DatalogIngestionBuffer.class);
+
+    static final int MAX_PENDING_RECORDS = 2000;
+
+    private final GBDevice device;
+
+    private final List<PebbleHealthActivitySample> samples = new ArrayList<>();
+    private final List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+    private final List<Reply> replies = new ArrayList<>();
+
+    private Long userId;
+    private Long deviceId;
+
+    static class Reply {
+        final byte handle;
+        final boolean ack;
+
+        Reply(final byte handle, final boolean ack) {
+            this.handle = handle;
+            this.ack = ack;
+        }
+    }
+
+    DatalogIngestionBuffer(final GBDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Adds samples to be stored. Device and user ids are set when flushing.
+     */
+    void addSamples(final PebbleHealthActivitySample[] newSamples) {
+        Collections.addAll(samples, newSamples);
+    }
+
+    /**
+     * Adds overlays to be stored. Device and user ids are set when flushing.
+     */
+    void addOverlays(final List<PebbleHealthActivityOverlay> newOverlays) {
+        overlays.addAll(newOverlays);
+    }
+
+    boolean hasPendingRecords() {
+        return !samples.isEmpty() || !overlays.isEmpty();
+    }
+
+    boolean hasPendingReplies() {
+        return !replies.isEmpty();
+    }
+
+    boolean isFull() {
+        return samples.size() + overlays.size() >= MAX_PENDING_RECORDS;
+    }
+
+    /**
+     * Holds back the reply to a datalog message until the pending records are stored.
+     */
+    void deferReply(final byte handle, final boolean ack) {
+        replies.add(new Reply(handle, ack));
+    }
+
+    /**
+     * Stores all pending records in one transaction.
+     *
+     * @return the replies to send now, in the order they were deferred. If storing failed, all
+     * of them are NACKs, so that the watch sends the data again.
+     */
+    List<Reply> flush() {
+        if (!hasPendingRecords() && replies.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final long start = System.currentTimeMillis();
+        final int sampleCount = samples.size();
+        final int overlayCount = overlays.size();
+        boolean stored = false;
+        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+            final DaoSession session = dbHandler.getDaoSession();
+            if (userId == null || deviceId == null) {
+                userId = DBHelper.getUser(session).getId();
+                deviceId = DBHelper.getDevice(device, session).getId();
+            }
+            session.runInTx(() -> {
+                for (final PebbleHealthActivitySample sample : samples) {
+                    sample.setDeviceId(deviceId);
+                    sample.setUserId(userId);
+                }
+                for (final PebbleHealthActivityOverlay overlay : overlays) {
+                    overlay.setDeviceId(deviceId);
+                    overlay.setUserId(userId);
+                }
+                if (!samples.isEmpty()) {
+                    session.getPebbleHealthActivitySampleDao().insertOrReplaceInTx(samples);
+                }
+                if (!overlays.isEmpty()) {
+                    session.getPebbleHealthActivityOverlayDao().insertOrReplaceInTx(overlays);
+                }
+            });
+            stored = true;
+        } catch (final Exception e) {
+            LOG.error("Failed to store {} datalog samples and {} overlays", sampleCount, overlayCount, e);
+            // the device or user may have been deleted, look them up again next time
+            userId = null;
+            deviceId = null;
+        }
+
+        samples.clear();
+        overlays.clear();
+        final List<Reply> result = new ArrayList<>(replies.size());
+        for (final Reply reply : replies) {
+            result.add(stored ? reply : new Reply(reply.handle, false));
+        }
+        LOG.debug("Flushed {} datalog samples and {} overlays for {} messages in {}ms", sampleCount, overlayCount, replies.size(), System.currentTimeMillis() - start);
+        replies.clear();
+        return result;
+    }
+}
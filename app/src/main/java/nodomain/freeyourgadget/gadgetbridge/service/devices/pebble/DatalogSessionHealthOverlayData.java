@@ -26,13 +26,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
-import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
-import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
@@ -40,8 +35,8 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionHealthOverlayData.class);
 
-    DatalogSessionHealthOverlayData(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device) {
-        super(id, uuid, timestamp, tag, item_type, item_size, device);
+    DatalogSessionHealthOverlayData(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device, DatalogIngestionBuffer ingestionBuffer) {
+        super(id, uuid, timestamp, tag, item_type, item_size, device, ingestionBuffer);
         taginfo = "(Health - overlay data " + tag + " )";
     }
 
@@ -77,21 +72,12 @@ class DatalogSessionHealthOverlayData extends DatalogSessionPebbleHealth {
     }
 
     private void store(OverlayRecord[] overlayRecords) {
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            DaoSession session = dbHandler.getDaoSession();
-            Long userId = DBHelper.getUser(session).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
-
-            PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
-
-            List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
-            for (OverlayRecord overlayRecord : overlayRecords) {
-                overlayList.add(new PebbleHealthActivityOverlay(overlayRecord.timestampStart, overlayRecord.timestampStart + overlayRecord.durationSeconds, overlayRecord.type, deviceId, userId, overlayRecord.getRawData()));
-            }
-            overlayDao.insertOrReplaceInTx(overlayList);
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage());
+        List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
+        for (OverlayRecord overlayRecord : overlayRecords) {
+            // device and user are set when the buffer is flushed
+            overlayList.add(new PebbleHealthActivityOverlay(overlayRecord.timestampStart, overlayRecord.timestampStart + overlayRecord.durationSeconds, overlayRecord.type, 0, 0, overlayRecord.getRawData()));
         }
+        getIngestionBuffer().addOverlays(overlayList);
     }
 
     private class OverlayRecord {
@@ -25,11 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
-import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -38,8 +34,8 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionHealthSteps.class);
 
-    DatalogSessionHealthSteps(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device) {
-        super(id, uuid, timestamp, tag, item_type, item_size, device);
+    DatalogSessionHealthSteps(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device, DatalogIngestionBuffer ingestionBuffer) {
+        super(id, uuid, timestamp, tag, item_type, item_size, device, ingestionBuffer);
         taginfo = "(Health - steps)";
     }
 
@@ -93,30 +89,20 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
     }
 
     private void store(StepsRecord[] stepsRecords) {
-
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            PebbleHealthSampleProvider sampleProvider = new PebbleHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-            PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
-            // TODO: user and device
-            Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
-            for (int j = 0; j < stepsRecords.length; j++) {
-                StepsRecord stepsRecord = stepsRecords[j];
-                samples[j] = new PebbleHealthActivitySample(
-                        stepsRecord.timestamp,
-                        deviceId, userId,
-                        stepsRecord.getRawData(),
-                        stepsRecord.intensity,
-                        stepsRecord.steps,
-                        stepsRecord.heart_rate
-                );
-                samples[j].setProvider(sampleProvider);
-            }
-
-            sampleProvider.addGBActivitySamples(samples);
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage());
+        PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
+        for (int j = 0; j < stepsRecords.length; j++) {
+            StepsRecord stepsRecord = stepsRecords[j];
+            // device and user are set when the buffer is flushed
+            samples[j] = new PebbleHealthActivitySample(
+                    stepsRecord.timestamp,
+                    0, 0,
+                    stepsRecord.getRawData(),
+                    stepsRecord.intensity,
+                    stepsRecord.steps,
+                    stepsRecord.heart_rate
+            );
         }
+        getIngestionBuffer().addSamples(samples);
     }
 
     private class StepsRecord {
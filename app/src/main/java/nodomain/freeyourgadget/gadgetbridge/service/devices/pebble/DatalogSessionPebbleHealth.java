@@ -26,16 +26,22 @@ import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 abstract class DatalogSessionPebbleHealth extends DatalogSession {
 
     private final GBDevice mDevice;
+    private final DatalogIngestionBuffer mIngestionBuffer;
 
-    DatalogSessionPebbleHealth(byte id, UUID uuid, int timestamp, int tag, byte itemType, short itemSize, GBDevice device) {
+    DatalogSessionPebbleHealth(byte id, UUID uuid, int timestamp, int tag, byte itemType, short itemSize, GBDevice device, DatalogIngestionBuffer ingestionBuffer) {
         super(id, uuid, timestamp, tag, itemType, itemSize);
         mDevice = device;
+        mIngestionBuffer = ingestionBuffer;
     }
 
     public GBDevice getDevice() {
         return mDevice;
     }
 
+    DatalogIngestionBuffer getIngestionBuffer() {
+        return mIngestionBuffer;
+    }
+
     boolean isPebbleHealthEnabled() {
         Prefs prefs = GBApplication.getPrefs();
         return prefs.getBoolean("pebble_sync_health", true);
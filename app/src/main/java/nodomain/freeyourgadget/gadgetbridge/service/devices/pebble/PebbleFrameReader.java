@@ -0,0 +1,185 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads Pebble protocol frames from the device stream on its own thread and hands them to the
+ * thread decoding and handling them.
+ * <p>
+ * Frames are read into a fixed pool of buffers which the handler gives back once it is done with a
+ * frame. When all buffers are in use the reader stops reading, so a slow handler results in flow
+ * control towards the watch instead of unbounded memory use, and socket reads never wait for a
+ * handler as long as a buffer is free.
+ */
+class PebbleFrameReader implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleFrameReader.class);
+
+    static final int HEADER_LENGTH = 4;
+    static final int MAX_PAYLOAD_LENGTH = 8192;
+
+    /**
+     * Queued in place of a frame when the stream ended, never recycled.
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final InputStream mInStream;
+    private final boolean mIsTCP;
+    private final BlockingQueue<byte[]> mFrames;
+    private final BlockingQueue<byte[]> mFreeBuffers;
+
+    private volatile boolean mClosed = false;
+    private volatile Thread mThread;
+
+    PebbleFrameReader(InputStream inStream, boolean isTCP, int bufferCount) {
+        mInStream = inStream;
+        mIsTCP = isTCP;
+        // one more slot for the end of stream marker
+        mFrames = new ArrayBlockingQueue<>(bufferCount + 1);
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            mFreeBuffers.add(new byte[HEADER_LENGTH + MAX_PAYLOAD_LENGTH]);
+        }
+    }
+
+    @Override
+    public void run() {
+        mThread = Thread.currentThread();
+        try {
+            while (!mClosed) {
+                byte[] frame = mFreeBuffers.poll();
+                if (frame == null) {
+                    LOG.debug("all frame buffers in use, pausing reads until the handler catches up");
+                    frame = mFreeBuffers.take();
+                }
+                try {
+                    if (readFrame(frame)) {
+                        mFrames.put(frame);
+                        frame = null;
+                    }
+                } catch (IOException e) {
+                    if (mClosed || (e.getMessage() != null && (e.getMessage().equals("broken pipe") || e.getMessage().contains("socket closed")))) { //FIXME: this does not feel right
+                        LOG.info(e.getMessage());
+                        break;
+                    }
+                    LOG.warn("error reading frame", e);
+                } finally {
+                    if (frame != null) {
+                        mFreeBuffers.add(frame);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("frame reader interrupted");
+        } finally {
+            mFrames.offer(END_OF_STREAM);
+        }
+    }
+
+    /**
+     * Reads one frame, header included, into the given buffer.
+     *
+     * @return false if the frame was invalid and has been skipped
+     */
+    private boolean readFrame(byte[] frame) throws IOException {
+        if (mIsTCP) {
+            mInStream.skip(6);
+        }
+        readFully(frame, 0, HEADER_LENGTH);
+
+        int length = ((frame[0] & 0xff) << 8) | (frame[1] & 0xff);
+        if (length > MAX_PAYLOAD_LENGTH) {
+            LOG.info("invalid length " + length);
+            while (mInStream.available() > 0) {
+                readWithException(frame, 0, frame.length); // read all
+            }
+            return false;
+        }
+
+        readFully(frame, HEADER_LENGTH, length);
+
+        if (mIsTCP) {
+            mInStream.skip(2);
+        }
+        return true;
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        int bytes = 0;
+        while (bytes < length) {
+            bytes += readWithException(buffer, offset + bytes, length - bytes);
+        }
+    }
+
+    private int readWithException(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        int ret = mInStream.read(buffer, byteOffset, byteCount);
+        if (ret == -1) {
+            throw new IOException("broken pipe");
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the next frame, which must be given back with {@link #recycle(byte[])} once it was
+     * handled.
+     *
+     * @param timeoutMillis how long to wait for a frame, or 0 to wait until one arrives
+     * @return the next frame, or null if none arrived in time
+     * @throws IOException if the stream ended
+     */
+    byte[] nextFrame(long timeoutMillis) throws IOException, InterruptedException {
+        final byte[] frame;
+        if (timeoutMillis > 0) {
+            frame = mFrames.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } else {
+            frame = mFrames.take();
+        }
+        if (frame == END_OF_STREAM) {
+            // keep it queued for later calls
+            mFrames.offer(END_OF_STREAM);
+            throw new IOException("broken pipe");
+        }
+        return frame;
+    }
+
+    void recycle(byte[] frame) {
+        mFreeBuffers.add(frame);
+    }
+
+    int getQueuedFrameCount() {
+        return mFrames.size();
+    }
+
+    /**
+     * Stops reading. The stream itself has to be closed by the caller to unblock a pending read.
+     */
+    void close() {
+        mClosed = true;
+        Thread thread = mThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
@@ -72,6 +72,9 @@ import nodomain.freeyourgadget.gadgetbridge.util.WebViewSingleton;
 class PebbleIoThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(PebbleIoThread.class);
 
+    private static final int FRAME_BUFFER_COUNT = 32;
+    private static final int DATALOG_FLUSH_DELAY = 100;
+
     private final Prefs prefs = GBApplication.getPrefs();
 
     private final PebbleProtocol mPebbleProtocol;
@@ -87,6 +90,7 @@ class PebbleIoThread extends GBDeviceIoThread {
     private InputStream mInStream = null;
     private OutputStream mOutStream = null;
     private PebbleLESupport mPebbleLESupport;
+    private PebbleFrameReader mFrameReader = null;
 
     private boolean mQuit = false;
     private boolean mIsConnected = false;
@@ -156,14 +160,6 @@ class PebbleIoThread extends GBDeviceIoThread {
         mPebbleActiveAppTracker = new PebbleActiveAppTracker();
     }
 
-    private int readWithException(InputStream inputStream, byte[] buffer, int byteOffset, int byteCount) throws IOException {
-        int ret = inputStream.read(buffer, byteOffset, byteCount);
-        if (ret == -1) {
-            throw new IOException("broken pipe");
-        }
-        return ret;
-    }
-
     @Override
     protected boolean connect() {
         String deviceAddress = gbDevice.getAddress();
@@ -249,9 +245,11 @@ class PebbleIoThread extends GBDeviceIoThread {
             return;
         }
 
-        byte[] buffer = new byte[8192];
+        byte[] buffer = new byte[2000];
         enablePebbleKitSupport(true);
         mQuit = false;
+        mFrameReader = new PebbleFrameReader(mInStream, mIsTCP, FRAME_BUFFER_COUNT);
+        new Thread(mFrameReader, "PebbleFrameReader").start();
         while (!mQuit) {
             try {
                 if (mIsInstalling) {
@@ -336,54 +334,30 @@ class PebbleIoThread extends GBDeviceIoThread {
                             break;
                     }
                 }
-                if (mIsTCP) {
-                    mInStream.skip(6);
+                byte[] frame = mFrameReader.nextFrame(DATALOG_FLUSH_DELAY);
+                if (frame == null) {
+                    // the watch is waiting for us, store buffered datalog records and reply
+                    evaluateDeviceEvents(mPebbleProtocol.flushDatalog());
+                    frame = mFrameReader.nextFrame(0);
                 }
-                int bytes = readWithException(mInStream, buffer, 0, 4);
 
-                while (bytes < 4) {
-                    bytes += readWithException(mInStream, buffer, bytes, 4 - bytes);
-                }
-
-                ByteBuffer buf = ByteBuffer.wrap(buffer);
-                buf.order(ByteOrder.BIG_ENDIAN);
-                short length = buf.getShort();
-                short endpoint = buf.getShort();
-                if (length < 0 || length > 8192) {
-                    LOG.info("invalid length " + length);
-                    while (mInStream.available() > 0) {
-                        readWithException(mInStream, buffer, 0, buffer.length); // read all
-                    }
-                    continue;
-                }
-
-                bytes = readWithException(mInStream, buffer, 4, length);
-                while (bytes < length) {
-                    bytes += readWithException(mInStream, buffer, bytes + 4, length - bytes);
-                }
-
-                if (mIsTCP) {
-                    mInStream.skip(2);
-                }
-
-                GBDeviceEvent[] deviceEvents = mPebbleProtocol.decodeResponse(buffer);
-                if (deviceEvents == null) {
-                    LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
-                } else {
-                    for (GBDeviceEvent deviceEvent : deviceEvents) {
-                        if (deviceEvent == null) {
-                            continue;
-                        }
-                        if (!evaluateGBDeviceEventPebble(deviceEvent)) {
-                            mPebbleSupport.evaluateGBDeviceEvent(deviceEvent);
-                        }
-                    }
-                }
                 try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    GBDeviceEvent[] deviceEvents = mPebbleProtocol.decodeResponse(frame);
+                    if (deviceEvents == null) {
+                        ByteBuffer buf = ByteBuffer.wrap(frame);
+                        buf.order(ByteOrder.BIG_ENDIAN);
+                        short length = buf.getShort();
+                        short endpoint = buf.getShort();
+                        LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
+                    } else {
+                        evaluateDeviceEvents(deviceEvents);
+                    }
+                } finally {
+                    mFrameReader.recycle(frame);
                 }
+            } catch (InterruptedException e) {
+                LOG.info("IO Thread interrupted, will quit");
+                break;
             } catch (IOException e) {
                 if (e.getMessage() != null && (e.getMessage().equals("broken pipe") || e.getMessage().contains("socket closed"))) { //FIXME: this does not feel right
                     LOG.info(e.getMessage());
@@ -395,6 +369,10 @@ class PebbleIoThread extends GBDeviceIoThread {
             }
         }
         mIsConnected = false;
+        mFrameReader.close();
+        // store what is still buffered, the replies can not be sent anymore and the watch will
+        // send the data again
+        mPebbleProtocol.flushDatalog();
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -419,6 +397,20 @@ class PebbleIoThread extends GBDeviceIoThread {
         gbDevice.sendDeviceUpdateIntent(getContext());
     }
 
+    private void evaluateDeviceEvents(GBDeviceEvent[] deviceEvents) {
+        if (deviceEvents == null) {
+            return;
+        }
+        for (GBDeviceEvent deviceEvent : deviceEvents) {
+            if (deviceEvent == null) {
+                continue;
+            }
+            if (!evaluateGBDeviceEventPebble(deviceEvent)) {
+                mPebbleSupport.evaluateGBDeviceEvent(deviceEvent);
+            }
+        }
+    }
+
     private void enablePebbleKitSupport(boolean enable) {
         if (enable && mEnablePebblekit) {
             mPebbleKitSupport = new PebbleKitSupport(getContext(), PebbleIoThread.this, mPebbleProtocol);
@@ -728,6 +720,9 @@ class PebbleIoThread extends GBDeviceIoThread {
     @Override
     public void quit() {
         mQuit = true;
+        if (mFrameReader != null) {
+            mFrameReader.close();
+        }
         if (mBtSocket != null) {
             try {
                 mBtSocket.close();
@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -443,6 +444,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
     }
 
     private final HashMap<Byte, DatalogSession> mDatalogSessions = new HashMap<>();
+    private final DatalogIngestionBuffer mDatalogIngestionBuffer = new DatalogIngestionBuffer(getDevice());
 
     private Integer[] idLookup = new Integer[256];
 
@@ -2266,6 +2268,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         byte command = buf.get();
         byte id = buf.get();
         GBDeviceEvent[] devEvtsDataLogging = null;
+        GBDeviceEvent[] devEvtsFlushed = null;
         switch (command) {
             case DATALOG_TIMEOUT:
                 LOG.info("DATALOG TIMEOUT. id=" + (id & 0xff) + " - ignoring");
@@ -2297,13 +2300,13 @@ public class PebbleProtocol extends GBDeviceProtocol {
                     if (uuid.equals(UUID_ZERO) && log_tag == 78) {
                         mDatalogSessions.put(id, new DatalogSessionAnalytics(id, uuid, timestamp, log_tag, item_type, item_size, getDevice()));
                     } else if (uuid.equals(UUID_ZERO) && log_tag == 81) {
-                        mDatalogSessions.put(id, new DatalogSessionHealthSteps(id, uuid, timestamp, log_tag, item_type, item_size, getDevice()));
+                        mDatalogSessions.put(id, new DatalogSessionHealthSteps(id, uuid, timestamp, log_tag, item_type, item_size, getDevice(), mDatalogIngestionBuffer));
                     } else if (uuid.equals(UUID_ZERO) && log_tag == 83) {
-                        mDatalogSessions.put(id, new DatalogSessionHealthSleep(id, uuid, timestamp, log_tag, item_type, item_size, getDevice()));
+                        mDatalogSessions.put(id, new DatalogSessionHealthSleep(id, uuid, timestamp, log_tag, item_type, item_size, getDevice(), mDatalogIngestionBuffer));
                     } else if (uuid.equals(UUID_ZERO) && log_tag == 84) {
-                        mDatalogSessions.put(id, new DatalogSessionHealthOverlayData(id, uuid, timestamp, log_tag, item_type, item_size, getDevice()));
+                        mDatalogSessions.put(id, new DatalogSessionHealthOverlayData(id, uuid, timestamp, log_tag, item_type, item_size, getDevice(), mDatalogIngestionBuffer));
                     } else if (uuid.equals(UUID_ZERO) && log_tag == 85) {
-                        mDatalogSessions.put(id, new DatalogSessionHealthHR(id, uuid, timestamp, log_tag, item_type, item_size, getDevice()));
+                        mDatalogSessions.put(id, new DatalogSessionHealthHR(id, uuid, timestamp, log_tag, item_type, item_size, getDevice(), mDatalogIngestionBuffer));
                     } else {
                         mDatalogSessions.put(id, new DatalogSession(id, uuid, timestamp, log_tag, item_type, item_size));
                     }
@@ -2322,6 +2325,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
                         devEvtsDataLogging = new GBDeviceEvent[]{dataLogging, null};
                     }
                     if (datalogSession.uuid.equals(UUID_ZERO) && (datalogSession.tag == 81 || datalogSession.tag == 83 || datalogSession.tag == 84)) {
+                        devEvtsFlushed = flushDatalog();
                         GB.signalActivityDataFinish();
                     }
                     mDatalogSessions.remove(id);
@@ -2331,6 +2335,21 @@ public class PebbleProtocol extends GBDeviceProtocol {
                 LOG.info("unknown DATALOG command: " + (command & 0xff));
                 break;
         }
+        // only the replies of the health sessions wait for their records, the others are sent right away
+        if (mDatalogSessions.get(id) instanceof DatalogSessionPebbleHealth && mDatalogIngestionBuffer.hasPendingRecords()) {
+            // reply once the buffered records are stored, keeping the order of the health replies
+            mDatalogIngestionBuffer.deferReply(id, devEvtsDataLogging != null);
+            if (devEvtsDataLogging == null) {
+                devEvtsDataLogging = new GBDeviceEvent[]{null};
+            } else {
+                devEvtsDataLogging[devEvtsDataLogging.length - 1] = null;
+            }
+            if (mDatalogIngestionBuffer.isFull()) {
+                devEvtsFlushed = flushDatalog();
+            }
+            return concatEvents(devEvtsDataLogging, devEvtsFlushed);
+        }
+
         GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
 
         if (devEvtsDataLogging != null) {
@@ -2343,7 +2362,39 @@ public class PebbleProtocol extends GBDeviceProtocol {
             sendBytes.encodedBytes = encodeDatalog(id, DATALOG_NACK);
             devEvtsDataLogging = new GBDeviceEvent[]{sendBytes};
         }
-        return devEvtsDataLogging;
+        return concatEvents(devEvtsFlushed, devEvtsDataLogging);
+    }
+
+    /**
+     * Stores the buffered Pebble Health datalog records and returns the replies that were held
+     * back for them. To be called when no more data is waiting on the connection.
+     *
+     * @return the replies to send, or null if there were none
+     */
+    GBDeviceEvent[] flushDatalog() {
+        if (!mDatalogIngestionBuffer.hasPendingReplies()) {
+            return null;
+        }
+        final List<DatalogIngestionBuffer.Reply> replies = mDatalogIngestionBuffer.flush();
+        final GBDeviceEvent[] events = new GBDeviceEvent[replies.size()];
+        for (int i = 0; i < events.length; i++) {
+            final DatalogIngestionBuffer.Reply reply = replies.get(i);
+            events[i] = new GBDeviceEventSendBytes(encodeDatalog(reply.handle, reply.ack ? DATALOG_ACK : DATALOG_NACK));
+        }
+        LOG.info("sending " + events.length + " deferred datalog replies");
+        return events;
+    }
+
+    private static GBDeviceEvent[] concatEvents(GBDeviceEvent[] first, GBDeviceEvent[] second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        GBDeviceEvent[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
     }
 
     private GBDeviceEvent decodeAppReorder(ByteBuffer buf) {
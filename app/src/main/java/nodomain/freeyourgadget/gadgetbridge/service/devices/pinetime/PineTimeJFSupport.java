@@ -86,7 +86,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.Alarm;
 import nodomain.freeyourgadget.gadgetbridge.model.CalendarEventSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.CannedMessagesSpec;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NavigationInfoSpec;
@@ -1079,10 +1078,7 @@ public class PineTimeJFSupport extends AbstractBTLEDeviceSupport implements DfuL
 
             this.addGBActivitySample(sample);
 
-            Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                    .putExtra(DeviceService.EXTRA_TIMESTAMP, sample.getTimestamp());
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+            GB.signalRealtimeSample(sample);
         } else {
             logDebug("ignoring " + diff + " steps");
         }
@@ -1105,10 +1101,7 @@ public class PineTimeJFSupport extends AbstractBTLEDeviceSupport implements DfuL
 
             this.addGBActivitySample(sample);
 
-            Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                    .putExtra(DeviceService.EXTRA_TIMESTAMP, sample.getTimestamp());
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+            GB.signalRealtimeSample(sample);
         } else {
             logDebug("ignoring heartrate of 0");
         }
@@ -72,6 +72,7 @@ import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -145,6 +146,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fos
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.configuration.ConfigurationGetRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.configuration.ConfigurationPutRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.AssetFilePutRequest;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.FileCipher;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.FileEncryptedGetRequest;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file.FileEncryptedInterface;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.AssetImage;
@@ -181,6 +183,7 @@ public class FossilHRWatchAdapter extends FossilWatchAdapter {
 
     private byte[] phoneRandomNumber;
     private byte[] watchRandomNumber;
+    private FileCipher fileCipher;
 
     private static ArrayList<Widget> widgets = new ArrayList<>();
 
@@ -1620,6 +1623,7 @@ public class FossilHRWatchAdapter extends FossilWatchAdapter {
 
     public void setPhoneRandomNumber(byte[] phoneRandomNumber) {
         this.phoneRandomNumber = phoneRandomNumber;
+        this.fileCipher = null;
     }
 
     public byte[] getPhoneRandomNumber() {
@@ -1628,12 +1632,24 @@ public class FossilHRWatchAdapter extends FossilWatchAdapter {
 
     public void setWatchRandomNumber(byte[] watchRandomNumber) {
         this.watchRandomNumber = watchRandomNumber;
+        this.fileCipher = null;
     }
 
     public byte[] getWatchRandomNumber() {
         return watchRandomNumber;
     }
 
+    /**
+     * @return the cipher for encrypted file transfers, shared by all transfers of the current
+     * authenticated session
+     */
+    public synchronized FileCipher getFileCipher() throws IllegalAccessException, GeneralSecurityException {
+        if (fileCipher == null) {
+            fileCipher = new FileCipher(getSecretKey(), phoneRandomNumber, watchRandomNumber);
+        }
+        return fileCipher;
+    }
+
     @Override
     public void overwriteButtons(String jsonConfigString) {
         try {
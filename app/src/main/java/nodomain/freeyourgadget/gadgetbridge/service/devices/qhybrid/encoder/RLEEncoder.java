@@ -16,11 +16,23 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.encoder;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 public class RLEEncoder {
     public static byte[] RLEEncode(byte[] data) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length * 2);
+        // every byte can at worst become a run of its own
+        byte[] result = new byte[data.length * 2];
+        int length = RLEEncode(data, result, 0);
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Writes the runs of data into output, which needs room for data.length * 2 bytes.
+     *
+     * @return the number of bytes written
+     */
+    public static int RLEEncode(byte[] data, byte[] output, int offset) {
+        int position = offset;
 
         int lastByte = data[0];
         int count = 1;
@@ -30,8 +42,8 @@ public class RLEEncoder {
             currentByte = data[i];
 
             if (currentByte != lastByte || count >= 255) {
-                bos.write(count);
-                bos.write(data[i - 1]);
+                output[position++] = (byte) count;
+                output[position++] = data[i - 1];
 
                 count = 1;
                 lastByte = data[i];
@@ -40,11 +52,9 @@ public class RLEEncoder {
             }
         }
 
-        bos.write(count);
-        bos.write(currentByte);
-
-        byte[] result = bos.toByteArray();
+        output[position++] = (byte) count;
+        output[position++] = currentByte;
 
-        return result;
+        return position - offset;
     }
 }
@@ -0,0 +1,117 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file;
+
+import java.security.GeneralSecurityException;
+import java.util.zip.CRC32;
+
+import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
+
+/**
+ * Produces the encrypted packets of a file upload one at a time. A packet is the packet index
+ * followed by a slice of the 12 byte header, the file and its CRC32C, encrypted in place.
+ * The checksums are computed up front, so the file is never copied as a whole.
+ */
+class EncryptedFilePackets {
+    static final int HEADER_LENGTH = 12;
+    static final int TRAILER_LENGTH = 4;
+
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private final byte[] file;
+    private final byte[] trailer = new byte[TRAILER_LENGTH];
+    private final int maxPacketSize;
+    private final FileCipher cipher;
+    private final int fullCRC;
+
+    private final int length;
+    private int position = 0;
+    private int packetIndex = 0;
+
+    EncryptedFilePackets(short handle, byte[] file, int maxPacketSize, FileCipher cipher) {
+        this.file = file;
+        this.maxPacketSize = maxPacketSize;
+        this.cipher = cipher;
+        this.length = HEADER_LENGTH + file.length + TRAILER_LENGTH;
+
+        header[0] = (byte) handle;
+        header[1] = (byte) (handle >> 8);
+        header[2] = 2;
+        header[3] = 0;
+        // bytes 4..7 are 0
+        putInt(header, 8, file.length);
+
+        CRC32C crc = new CRC32C();
+        crc.update(file, 0, file.length);
+        putInt(trailer, 0, (int) crc.getValue());
+
+        CRC32 fullCRC = new CRC32();
+        fullCRC.update(header, 0, HEADER_LENGTH);
+        fullCRC.update(file, 0, file.length);
+        fullCRC.update(trailer, 0, TRAILER_LENGTH);
+        this.fullCRC = (int) fullCRC.getValue();
+    }
+
+    /// The CRC32 the watch reports once it received all packets
+    int getFullCRC() {
+        return fullCRC;
+    }
+
+    int getPacketCount() {
+        return (length + maxPacketSize - 1) / maxPacketSize;
+    }
+
+    boolean hasNext() {
+        return position < length;
+    }
+
+    byte[] next() throws GeneralSecurityException {
+        int payloadLength = Math.min(maxPacketSize, length - position);
+        byte[] packet = new byte[payloadLength + 1];
+        packet[0] = (byte) packetIndex++;
+
+        int offset = 1;
+        int end = position + payloadLength;
+        while (position < end) {
+            byte[] source;
+            int sourceOffset;
+            if (position < HEADER_LENGTH) {
+                source = header;
+                sourceOffset = position;
+            } else if (position < HEADER_LENGTH + file.length) {
+                source = file;
+                sourceOffset = position - HEADER_LENGTH;
+            } else {
+                source = trailer;
+                sourceOffset = position - HEADER_LENGTH - file.length;
+            }
+            int count = Math.min(end - position, source.length - sourceOffset);
+            System.arraycopy(source, sourceOffset, packet, offset, count);
+            offset += count;
+            position += count;
+        }
+
+        cipher.encrypt(packet, 0, packet.length);
+        return packet;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,80 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The AES/CTR cipher for encrypted file transfers of one authenticated session. The IV is derived
+ * from the random numbers exchanged during authentication, so the adapter creates a new instance
+ * whenever those change.
+ */
+public class FileCipher {
+    private final Cipher cipher;
+    private final SecretKeySpec keySpec;
+    private final byte[] fileIv;
+    private final byte[] iv = new byte[16];
+
+    /**
+     * Whether the cipher is initialized for encryption with the file IV, doFinal() returns it to
+     * that state.
+     */
+    private boolean encrypting = false;
+
+    public FileCipher(byte[] secretKey, byte[] phoneRandomNumber, byte[] watchRandomNumber) throws GeneralSecurityException {
+        cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        keySpec = new SecretKeySpec(secretKey, "AES");
+
+        fileIv = new byte[16];
+        System.arraycopy(phoneRandomNumber, 0, fileIv, 2, 6);
+        System.arraycopy(watchRandomNumber, 0, fileIv, 9, 7);
+        fileIv[7]++;
+    }
+
+    /**
+     * Encrypts length bytes of data in place, starting with the key stream of the file IV. Every
+     * packet of an upload is encrypted that way.
+     */
+    public synchronized void encrypt(byte[] data, int offset, int length) throws GeneralSecurityException {
+        if (!encrypting) {
+            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(fileIv));
+            encrypting = true;
+        }
+        cipher.doFinal(data, offset, length, data, offset);
+    }
+
+    /**
+     * Decrypts a packet of a download, with the file IV incremented by ivSummand.
+     */
+    public synchronized byte[] decrypt(byte[] data, int ivSummand) throws GeneralSecurityException {
+        System.arraycopy(fileIv, 0, iv, 0, 16);
+        int number = ((iv[12] & 0xff) << 24) | ((iv[13] & 0xff) << 16) | ((iv[14] & 0xff) << 8) | (iv[15] & 0xff);
+        number += ivSummand;
+        iv[12] = (byte) (number >> 24);
+        iv[13] = (byte) (number >> 16);
+        iv[14] = (byte) (number >> 8);
+        iv[15] = (byte) number;
+
+        encrypting = false;
+        cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
+        return cipher.doFinal(data);
+    }
+}
@@ -21,19 +21,10 @@ import android.widget.Toast;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.UUID;
 import java.util.zip.CRC32;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.file.FileHandle;
@@ -53,9 +44,7 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
 
     private boolean finished = false;
 
-    private Cipher cipher;
-    private SecretKeySpec keySpec;
-    private byte[] originalIv;
+    private FileCipher cipher;
 
     int fileSize;
 
@@ -82,26 +71,10 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
 
     private void initDecryption() {
         try {
-            cipher = Cipher.getInstance("AES/CTR/NoPadding");
-            try {
-                keySpec = new SecretKeySpec(this.adapter.getSecretKey(), "AES");
-            } catch (IllegalAccessException e) {
-                GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
-                return;
-            }
-
-
-            originalIv = new byte[16];
-
-
-            byte[] phoneRandomNumber = adapter.getPhoneRandomNumber();
-            byte[] watchRandomNumber = adapter.getWatchRandomNumber();
-
-            System.arraycopy(phoneRandomNumber, 0, originalIv, 2, 6);
-            System.arraycopy(watchRandomNumber, 0, originalIv, 9, 7);
-
-            originalIv[7]++;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            cipher = adapter.getFileCipher();
+        } catch (IllegalAccessException e) {
+            GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
     }
@@ -110,17 +83,6 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
         return adapter;
     }
 
-    private byte[] incrementIV(byte[] iv, int amount){
-        byte[] incrementedIv = new byte[iv.length];
-        System.arraycopy(iv, 0, incrementedIv, 0, iv.length);
-        ByteBuffer buffer = ByteBuffer.wrap(incrementedIv);
-        int number = buffer.getInt(12);
-        number += amount;
-        buffer.position(12);
-        buffer.putInt(number);
-        return buffer.array();
-    }
-
     @Override
     public boolean isFinished() {
         return finished;
@@ -189,9 +151,7 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
                 byte[] result = null;
                 if(packetCount == 1) {
                     for(int testIvSummand = 0x1e; testIvSummand < 0x30; testIvSummand++){
-                        byte[] iv = incrementIV(originalIv, testIvSummand);
-                        cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                        result = cipher.doFinal(value);
+                        result = cipher.decrypt(value, testIvSummand);
 
                         int currentLength = fileBuffer.position() + result.length - 1;
 
@@ -205,10 +165,7 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
                         log("no iv summand found");
                     }
                 }else{
-                    byte[] iv = incrementIV(originalIv, ivIncrementor * packetCount);
-
-                    cipher.init(Cipher.DECRYPT_MODE, keySpec, new IvParameterSpec(iv));
-                    result = cipher.doFinal(value);
+                    result = cipher.decrypt(value, ivIncrementor * packetCount);
                 }
 
                 log("decryption result: " + StringUtils.bytesToHex(result));
@@ -218,7 +175,7 @@ public abstract class FileEncryptedGetRequest extends FossilRequest implements F
                 if ((result[0] & 0x80) == 0x80) {
                     this.fileData = fileBuffer.array();
                 }
-            } catch (BadPaddingException | IllegalBlockSizeException | InvalidAlgorithmParameterException | InvalidKeyException e) {
+            } catch (GeneralSecurityException e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
@@ -21,19 +21,13 @@ import android.widget.Toast;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
+import java.security.GeneralSecurityException;
 import java.util.UUID;
-import java.util.zip.CRC32;
-
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil.FossilWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.adapter.fossil_hr.FossilHRWatchAdapter;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil.FossilRequest;
-import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class FileEncryptedPutRequest extends FossilRequest implements FileEncryptedInterface {
@@ -41,8 +35,6 @@ public class FileEncryptedPutRequest extends FossilRequest implements FileEncryp
 
     public UploadState state;
 
-    private ArrayList<byte[]> packets = new ArrayList<>();
-
     private short handle;
 
     private FossilHRWatchAdapter adapter;
@@ -89,36 +81,23 @@ public class FileEncryptedPutRequest extends FossilRequest implements FileEncryp
                     TransactionBuilder transactionBuilder = new TransactionBuilder("file upload");
                     BluetoothGattCharacteristic uploadCharacteristic = adapter.getDeviceSupport().getCharacteristic(UUID.fromString("3dda0004-957f-7d4a-34a6-74696673696d"));
 
-                    this.prepareFilePackets(this.file);
-
-                    SecretKeySpec keySpec = null;
+                    EncryptedFilePackets packets;
                     try {
-                        keySpec = new SecretKeySpec(this.adapter.getSecretKey(), "AES");
+                        packets = new EncryptedFilePackets(handle, this.file, adapter.getMTU() - 4, adapter.getFileCipher());
                     } catch (IllegalAccessException e) {
                         GB.toast("error getting key: " + e.getMessage(), Toast.LENGTH_LONG, GB.ERROR, e);
                         return;
+                    } catch (GeneralSecurityException e) {
+                        GB.toast("error encrypting file", Toast.LENGTH_LONG, GB.ERROR, e);
+                        return;
                     }
-                    try {
-                        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-
-                        byte[] fileIV = new byte[16];
+                    this.fullCRC = packets.getFullCRC();
 
-
-                        byte[] phoneRandomNumber = adapter.getPhoneRandomNumber();
-                        byte[] watchRandomNumber = adapter.getWatchRandomNumber();
-
-                        System.arraycopy(phoneRandomNumber, 0, fileIV, 2, 6);
-                        System.arraycopy(watchRandomNumber, 0, fileIV, 9, 7);
-
-                        fileIV[7]++;
-
-                        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(fileIV));
-
-                        for (byte[] packet : packets) {
-                            byte[] result = cipher.doFinal(packet);
-                            transactionBuilder.write(uploadCharacteristic, result);
+                    try {
+                        while (packets.hasNext()) {
+                            transactionBuilder.write(uploadCharacteristic, packets.next());
                         }
-                    }catch (Exception e){
+                    } catch (Exception e) {
                         GB.toast("error encrypting file", Toast.LENGTH_LONG, GB.ERROR, e);
                     }
 
@@ -221,44 +200,6 @@ public class FileEncryptedPutRequest extends FossilRequest implements FileEncryp
         return this.state == UploadState.UPLOADED;
     }
 
-    private void prepareFilePackets(byte[] file) {
-        int maxPacketSize = adapter.getMTU() - 4;
-
-        ByteBuffer buffer = ByteBuffer.allocate(file.length + 12 + 4);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-
-        buffer.putShort(handle);
-        buffer.put((byte) 2);
-        buffer.put((byte) 0);
-        buffer.putInt(0);
-        buffer.putInt(file.length);
-
-        buffer.put(file);
-
-        CRC32C crc = new CRC32C();
-
-        crc.update(file,0,file.length);
-        buffer.putInt((int) crc.getValue());
-
-        byte[] data = buffer.array();
-
-        CRC32 fullCRC = new CRC32();
-
-        fullCRC.update(data);
-        this.fullCRC = (int) fullCRC.getValue();
-
-        int packetCount = (int) Math.ceil(data.length / (float) maxPacketSize);
-
-        for (int i = 0; i < packetCount; i++) {
-            int currentPacketLength = Math.min(maxPacketSize, data.length - i * maxPacketSize);
-            byte[] packet = new byte[currentPacketLength + 1];
-            packet[0] = (byte) i;
-            System.arraycopy(data, i * maxPacketSize, packet, 1, currentPacketLength);
-
-            packets.add(packet);
-        }
-    }
-
     public void onFilePut(boolean success) {
     }
 
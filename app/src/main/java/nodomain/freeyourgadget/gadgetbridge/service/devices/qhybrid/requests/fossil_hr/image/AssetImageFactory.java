@@ -21,8 +21,6 @@ import java.io.IOException;
 
 import static nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.ImageConverter.encodeToRLEImage;
 import static nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.ImageConverter.encodeToRawImage;
-import static nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.ImageConverter.get2BitsRAWImageBytes;
-import static nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.ImageConverter.get2BitsRLEImageBytes;
 
 public class AssetImageFactory {
     public static AssetImage createAssetImage(byte[] fileData, int angle, int distance, int indexZ){
@@ -32,9 +30,9 @@ public class AssetImageFactory {
     public static AssetImage createAssetImage(Bitmap fileData, boolean RLEencode, int angle, int distance, int indexZ) throws IOException {
         if(RLEencode == (distance == 0)) throw new RuntimeException("when RLEencoding distance must be 0, image must be at center of screen");
         if(RLEencode){
-            return new AssetImage(encodeToRLEImage(get2BitsRLEImageBytes(fileData), fileData.getHeight(), fileData.getWidth()), angle, distance, indexZ);
+            return new AssetImage(encodeToRLEImage(fileData, fileData.getHeight(), fileData.getWidth()), angle, distance, indexZ);
         }else{
-            return new AssetImage(encodeToRawImage(get2BitsRAWImageBytes(fileData)), angle, distance, indexZ);
+            return new AssetImage(encodeToRawImage(fileData), angle, distance, indexZ);
         }
     }
 }
@@ -0,0 +1,89 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of encoded images, keyed by the format and a hash of the pixels. Widget backgrounds
+ * and notification icons are mostly the same on every configuration push, and are decoded from
+ * resources into new bitmaps each time.
+ */
+class EncodedImageCache {
+    private static final Logger LOG = LoggerFactory.getLogger(EncodedImageCache.class);
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int STATS_LOG_INTERVAL = 100;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long hits;
+    private long misses;
+
+    interface Encoder {
+        byte[] encode(int[] pixels);
+    }
+
+    /**
+     * @param format the encoding and anything else besides the pixels that changes the result
+     * @return a copy of the encoded image, so that callers can not change the cached one
+     */
+    byte[] get(final String format, final int width, final int height, final int[] pixels, final Encoder encoder) {
+        final String key = format + ":" + width + "x" + height + ":" + hash(pixels);
+
+        byte[] encoded;
+        synchronized (this) {
+            encoded = entries.get(key);
+            if (encoded != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            if ((hits + misses) % STATS_LOG_INTERVAL == 0) {
+                LOG.debug("Encoded image cache: {} hits, {} misses", hits, misses);
+            }
+        }
+
+        if (encoded == null) {
+            encoded = encoder.encode(pixels);
+            synchronized (this) {
+                entries.put(key, encoded);
+            }
+        }
+        return encoded.clone();
+    }
+
+    /// Two independent hashes of the pixels, 96 bits together
+    private static String hash(final int[] pixels) {
+        int h1 = 1;
+        long h2 = 0xcbf29ce484222325L;
+        for (final int pixel : pixels) {
+            h1 = 31 * h1 + pixel;
+            h2 = (h2 ^ pixel) * 0x100000001b3L;
+        }
+        return Integer.toHexString(h1) + ":" + Long.toHexString(h2);
+    }
+}
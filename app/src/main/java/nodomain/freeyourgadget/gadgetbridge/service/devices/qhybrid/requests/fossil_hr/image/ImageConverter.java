@@ -24,10 +24,9 @@ import androidx.annotation.ColorInt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import nodomain.freeyourgadget.gadgetbridge.devices.qhybrid.FossilFileReader;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.encoder.RLEEncoder;
@@ -35,49 +34,100 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.encoder.RLEE
 public class ImageConverter {
     private static final Logger LOG = LoggerFactory.getLogger(ImageConverter.class);
 
+    /// convertToMonochrome() of every sum of red, green and blue
+    private static final byte[] MONOCHROME = new byte[3 * 255 + 1];
+
+    /// The transparency bits of the RLE format for every alpha value
+    private static final byte[] RLE_ALPHA = new byte[256];
+
+    static {
+        for (int sum = 0; sum < MONOCHROME.length; sum++) {
+            MONOCHROME[sum] = (byte) (sum / 3);
+        }
+        for (int alpha = 0; alpha < RLE_ALPHA.length; alpha++) {
+            RLE_ALPHA[alpha] = (byte) (~(alpha >> 4) & 0b00001100);
+        }
+    }
+
+    private static final EncodedImageCache CACHE = new EncodedImageCache();
+
     public static byte[] get2BitsRLEImageBytes(Bitmap bitmap) {
-        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
-        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return get2BitsRLEImageBytes(getPixels(bitmap));
+    }
+
+    static byte[] get2BitsRLEImageBytes(int[] pixels) {
         byte[] b_pixels = new byte[pixels.length];
         for (int i = 0; i < pixels.length; i++) {
-            int monochrome = convertToMonochrome(pixels[i]);
-            monochrome >>= 6;
-
-            int alpha = Color.alpha(pixels[i]);
-            monochrome |= (~((alpha & 0xFF) >> 4) & 0b00001100);
-
-            b_pixels[i] = (byte) monochrome;
+            int pixel = pixels[i];
+            int monochrome = (MONOCHROME[colorSum(pixel)] & 0xff) >> 6;
+            b_pixels[i] = (byte) (monochrome | RLE_ALPHA[pixel >>> 24]);
         }
         return b_pixels;
     }
 
     public static byte[] get2BitsRAWImageBytes(Bitmap bitmap) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        byte[] pixelBytes = new byte[width * height];
-
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                int pixel = bitmap.getPixel(x, y);
-                int monochrome = convertToMonochrome(pixel);
-                pixelBytes[pixelBytes.length - 1 - (y * width + x)] = (byte) monochrome;
-            }
+        return get2BitsRAWImageBytes(getPixels(bitmap));
+    }
+
+    static byte[] get2BitsRAWImageBytes(int[] pixels) {
+        byte[] pixelBytes = new byte[pixels.length];
+        // the raw format starts at the bottom right
+        for (int i = 0, j = pixels.length - 1; i < pixels.length; i++, j--) {
+            pixelBytes[j] = MONOCHROME[colorSum(pixels[i])];
         }
         return pixelBytes;
     }
 
-    public static byte[] encodeToRLEImage(byte[] monochromeImage, int height, int width) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(monochromeImage.length * 2);
+    private static int[] getPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    private static int colorSum(@ColorInt int color) {
+        return ((color >> 16) & 0xff) + ((color >> 8) & 0xff) + (color & 0xff);
+    }
+
+    /**
+     * Same as encodeToRLEImage(get2BitsRLEImageBytes(bitmap), height, width), but returns the
+     * cached result when the same image was encoded before.
+     */
+    public static byte[] encodeToRLEImage(Bitmap bitmap, int height, int width) {
+        return CACHE.get("rleImage:" + height + "x" + width, bitmap.getWidth(), bitmap.getHeight(), getPixels(bitmap),
+                pixels -> encodeToRLEImage(get2BitsRLEImageBytes(pixels), height, width));
+    }
+
+    /**
+     * Same as encodeToRawImage(get2BitsRAWImageBytes(bitmap)), but returns the cached result when
+     * the same image was encoded before.
+     */
+    public static byte[] encodeToRawImage(Bitmap bitmap) {
+        return CACHE.get("raw", bitmap.getWidth(), bitmap.getHeight(), getPixels(bitmap),
+                pixels -> encodeToRawImage(get2BitsRAWImageBytes(pixels)));
+    }
 
-        bos.write((byte) height);
-        bos.write((byte) width);
+    /**
+     * Same as RLEEncoder.RLEEncode(get2BitsRLEImageBytes(bitmap)), without the size header and end
+     * marker of encodeToRLEImage, but returns the cached result when the same image was encoded
+     * before.
+     */
+    public static byte[] encodeToRLE(Bitmap bitmap) {
+        return CACHE.get("rle", bitmap.getWidth(), bitmap.getHeight(), getPixels(bitmap),
+                pixels -> RLEEncoder.RLEEncode(get2BitsRLEImageBytes(pixels)));
+    }
 
-        bos.write(RLEEncoder.RLEEncode(monochromeImage));
+    public static byte[] encodeToRLEImage(byte[] monochromeImage, int height, int width) {
+        byte[] result = new byte[2 + monochromeImage.length * 2 + 2];
 
-        bos.write((byte) 0x0FF);
-        bos.write((byte) 0x0FF);
+        result[0] = (byte) height;
+        result[1] = (byte) width;
 
-        return bos.toByteArray();
+        int length = 2 + RLEEncoder.RLEEncode(monochromeImage, result, 2);
+
+        result[length++] = (byte) 0x0FF;
+        result[length++] = (byte) 0x0FF;
+
+        return Arrays.copyOf(result, length);
     }
 
     public static byte[] encodeToRawImage(byte[] monochromeImage){
@@ -85,12 +135,11 @@ public class ImageConverter {
 
         byte[] result = new byte[imageSize / 4]; // 4 pixels per byte e.g. 2 bits per pixel
 
-        for(int i = 0; i < imageSize; i++){
-            int resultPixelIndex = i / 4;
-            int shiftIndex = 6 - i % 4 * 2;
-
-            result[resultPixelIndex] |= (byte) (((monochromeImage[i] & 0xFF) >> 6) << shiftIndex);
-            assert Boolean.TRUE;
+        for (int i = 0, j = 0; j < result.length; i += 4, j++) {
+            result[j] = (byte) ((((monochromeImage[i] & 0xFF) >> 6) << 6)
+                    | (((monochromeImage[i + 1] & 0xFF) >> 6) << 4)
+                    | (((monochromeImage[i + 2] & 0xFF) >> 6) << 2)
+                    | ((monochromeImage[i + 3] & 0xFF) >> 6));
         }
 
         return result;
@@ -23,8 +23,6 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fos
 import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image.ImageConverter;
 import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
 
-import static nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.encoder.RLEEncoder.RLEEncode;
-
 public class NotificationImage extends AssetFile {
     public static final int MAX_ICON_WIDTH = 24;
     public static final int MAX_ICON_HEIGHT = 24;
@@ -38,7 +36,7 @@ public class NotificationImage extends AssetFile {
     }
 
     public NotificationImage(String fileName, Bitmap iconBitmap) {
-        super(fileName, RLEEncode(ImageConverter.get2BitsRLEImageBytes(BitmapUtil.scaleWithMax(iconBitmap, MAX_ICON_WIDTH, MAX_ICON_HEIGHT))));
+        super(fileName, ImageConverter.encodeToRLE(BitmapUtil.scaleWithMax(iconBitmap, MAX_ICON_WIDTH, MAX_ICON_HEIGHT)));
         this.width = Math.min(iconBitmap.getWidth(), MAX_ICON_WIDTH);
         this.height = Math.min(iconBitmap.getHeight(), MAX_ICON_HEIGHT);
     }
@@ -50,6 +48,6 @@ public class NotificationImage extends AssetFile {
 
     public static byte[] getEncodedIconFromDrawable(Drawable drawable) {
         Bitmap iconBitmap = BitmapUtil.scaleWithMax(BitmapUtil.convertDrawableToBitmap(drawable), MAX_ICON_WIDTH, MAX_ICON_HEIGHT);
-        return RLEEncode(ImageConverter.get2BitsRLEImageBytes(iconBitmap));
+        return ImageConverter.encodeToRLE(iconBitmap);
     }
 }
@@ -17,9 +17,6 @@
 package nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12;
 
 import android.content.Context;
-import android.content.Intent;
-
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +30,6 @@ import nodomain.freeyourgadget.gadgetbridge.devices.sonyswr12.SonySWR12SamplePro
 import nodomain.freeyourgadget.gadgetbridge.entities.SonySWR12Sample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.activity.ActivityBase;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.activity.ActivitySleep;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.activity.ActivityWithData;
@@ -42,6 +38,7 @@ import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.a
 import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.activity.EventWithActivity;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.sonyswr12.entities.activity.EventWithValue;
 import nodomain.freeyourgadget.gadgetbridge.service.serial.GBDeviceIoThread;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class SonySWR12HandlerThread extends GBDeviceIoThread {
     private static final Logger LOG = LoggerFactory.getLogger(SonySWR12HandlerThread.class);
@@ -70,10 +67,7 @@ public class SonySWR12HandlerThread extends GBDeviceIoThread {
             SonySWR12Sample sample = new SonySWR12Sample(timestamp, deviceId, userId, (int) event.value, ActivitySample.NOT_MEASURED, 0, 1);
             provider.addGBActivitySample(sample);
             GBApplication.releaseDB();
-            Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
-                    .putExtra(DeviceService.EXTRA_TIMESTAMP, timestamp);
-            LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
+            GB.signalRealtimeSample(sample);
         } catch (Exception e) {
             LOG.error(e.getMessage(), e);
         }
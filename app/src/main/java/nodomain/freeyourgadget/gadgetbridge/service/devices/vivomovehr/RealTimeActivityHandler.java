@@ -16,8 +16,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr;
 
-import android.content.Intent;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
@@ -30,8 +28,8 @@ import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -162,9 +160,7 @@ import java.util.UUID;
             LOG.error("Error saving real-time activity data", e);
         }
 
-        final Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, lastSample);
-        LocalBroadcastManager.getInstance(owner.getContext()).sendBroadcast(intent);
+        GB.signalRealtimeSample(lastSample);
     }
 
     public VivomoveHrActivitySample createActivitySample(Device device, User user, int timestampInSeconds, VivomoveHrSampleProvider provider) {
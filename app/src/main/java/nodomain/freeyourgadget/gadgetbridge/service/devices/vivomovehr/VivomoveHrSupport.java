@@ -126,7 +126,7 @@ import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements FileDownloadListener {
+public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements FileDownloadListener<FitDbImporter> {
     private static final Logger LOG = LoggerFactory.getLogger(VivomoveHrSupport.class);
 
     // Should all FIT data files be fully stored into the database? (Currently, there is no user-friendly way to
@@ -140,14 +140,12 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
     private int lastProtobufRequestId;
     private int maxPacketSize;
 
-    private final FitParser fitParser = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS);
     private final NotificationStorage notificationStorage = new NotificationStorage();
     private VivomoveHrCommunicator communicator;
     private RealTimeActivityHandler realTimeActivityHandler;
     private GncsDataSourceQueue gncsDataSourceQueue;
-    private FileDownloadQueue fileDownloadQueue;
+    private FileDownloadQueue<FitDbImporter> fileDownloadQueue;
     private FileUploadQueue fileUploadQueue;
-    private FitDbImporter fitImporter;
     private boolean notificationSubscription;
 
     public VivomoveHrSupport() {
@@ -157,6 +155,14 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
         addSupportedService(VivomoveConstants.UUID_SERVICE_GARMIN_REALTIME);
     }
 
+    @Override
+    public void dispose() {
+        if (fileDownloadQueue != null) {
+            fileDownloadQueue.dispose();
+        }
+        super.dispose();
+    }
+
     private int getNextProtobufRequestId() {
         lastProtobufRequestId = (lastProtobufRequestId + 1) % 65536;
         return lastProtobufRequestId;
@@ -174,7 +180,10 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
 
         builder.setCallback(this);
         communicator.start(builder);
-        fileDownloadQueue = new FileDownloadQueue(communicator, this);
+        if (fileDownloadQueue != null) {
+            fileDownloadQueue.dispose();
+        }
+        fileDownloadQueue = new FileDownloadQueue<>(communicator, this);
         fileUploadQueue = new FileUploadQueue(communicator);
 
         LOG.info("Initialization Done");
@@ -791,7 +800,6 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
 
     private void doSync() {
         LOG.info("Starting sync");
-        fitImporter = new FitDbImporter(getDevice());
         // sendMessage(new SystemEventMessage(GarminSystemEventType.PAIR_START, 0).packet);
         listFiles(DirectoryFileFilterRequestMessage.FILTER_NO_FILTER);
         // TODO: Localization
@@ -1009,7 +1017,13 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
     }
 
     @Override
-    public void onFileDownloadComplete(int fileIndex, byte[] data) {
+    public FitDbImporter onSyncStarted() {
+        // each sync decodes with its own parser, a file of a previous sync may still be processed
+        return new FitDbImporter(getDevice(), new FitParser(FitMessageDefinitions.ALL_DEFINITIONS));
+    }
+
+    @Override
+    public void onFileDownloadComplete(FitDbImporter importer, int fileIndex, byte[] data) {
         LOG.info("Downloaded file {}: {} bytes", fileIndex, data.length);
         final DirectoryEntry downloadedDirectoryEntry = filesToDownload.get(fileIndex);
         if (downloadedDirectoryEntry == null) {
@@ -1031,7 +1045,7 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
         }
 
         if (fileIndex <= 0x8000) {
-            fitImporter.processFitFile(fitParser.parseFitFile(data));
+            importer.processFitFile(data);
         } else {
             LOG.debug("Not importing file {} as FIT", fileIndex);
         }
@@ -1060,14 +1074,12 @@ public class VivomoveHrSupport extends AbstractBTLEDeviceSupport implements File
     }
 
     @Override
-    public void onAllDownloadsCompleted() {
+    public void onAllDownloadsCompleted(FitDbImporter importer) {
         LOG.info("All downloads completed");
         GB.updateTransferNotification(null, null, false, 100, getContext());
         sendMessage(new SystemEventMessage(GarminSystemEventType.SYNC_COMPLETE, 0).packet);
-        if (fitImporter != null) {
-            fitImporter.processData();
+        if (importer.processData()) {
             GB.signalActivityDataFinish();
         }
-        fitImporter = null;
     }
 }
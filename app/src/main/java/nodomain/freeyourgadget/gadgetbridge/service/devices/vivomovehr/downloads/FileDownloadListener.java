@@ -16,10 +16,23 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.downloads;
 
-public interface FileDownloadListener {
+/**
+ * Receives the results of a {@link FileDownloadQueue}. Downloaded files and the completion of all
+ * downloads are reported on the processing thread of the queue, in download order; everything
+ * else on the thread handling the transfer.
+ *
+ * @param <S> the state of one sync, passed along with the files downloaded in it
+ */
+public interface FileDownloadListener<S> {
+    /**
+     * Called when a download is queued while the queue is idle, on the thread queuing it.
+     *
+     * @return the state of the sync started by the download
+     */
+    S onSyncStarted();
     void onDirectoryDownloaded(DirectoryData directoryData);
-    void onFileDownloadComplete(int fileIndex, byte[] data);
+    void onFileDownloadComplete(S sync, int fileIndex, byte[] data);
     void onFileDownloadError(int fileIndex);
     void onDownloadProgress(long remainingBytes);
-    void onAllDownloadsCompleted();
+    void onAllDownloadsCompleted(S sync);
 }
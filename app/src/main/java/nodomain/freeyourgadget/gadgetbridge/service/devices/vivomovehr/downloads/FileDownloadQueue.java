@@ -30,21 +30,36 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class FileDownloadQueue {
+/**
+ * Downloads files one after another. Downloaded files are passed to the listener on a processing
+ * thread, so the transfer of the next file overlaps with the import of the previous one.
+ * <p>
+ * A sync lasts from the first download queued while the queue is idle until it is idle again.
+ * Each queued download remembers the state of its sync, so files still being processed after a
+ * new sync started are passed along with the state of their own sync.
+ *
+ * @param <S> the state of one sync, see {@link FileDownloadListener#onSyncStarted()}
+ */
+public class FileDownloadQueue<S> {
     private static final Logger LOG = LoggerFactory.getLogger(FileDownloadQueue.class);
 
     private final VivomoveHrCommunicator communicator;
-    private final FileDownloadListener listener;
+    private final FileDownloadListener<S> listener;
 
-    private final Queue<QueueItem> queue = new LinkedList<>();
+    private final Queue<QueueItem<S>> queue = new LinkedList<>();
     private final Set<Integer> queuedFileIndices = new HashSet<>();
 
-    private QueueItem currentlyDownloadingItem;
+    private final ExecutorService processingExecutor = Executors.newSingleThreadExecutor();
+
+    private QueueItem<S> currentlyDownloadingItem;
     private int currentCrc;
     private long totalRemainingBytes;
+    private Sync<S> sync;
 
-    public FileDownloadQueue(VivomoveHrCommunicator communicator, FileDownloadListener listener) {
+    public FileDownloadQueue(VivomoveHrCommunicator communicator, FileDownloadListener<S> listener) {
         this.communicator = communicator;
         this.listener = listener;
     }
@@ -54,7 +69,10 @@ public class FileDownloadQueue {
             LOG.debug("Ignoring download request of {}, already in queue", fileIndex);
             return;
         }
-        queue.add(new QueueItem(fileIndex, dataSize));
+        if (sync == null) {
+            sync = new Sync<>(listener.onSyncStarted());
+        }
+        queue.add(new QueueItem<>(fileIndex, dataSize, sync));
         queuedFileIndices.add(fileIndex);
         totalRemainingBytes += dataSize;
         checkRequestNextDownload();
@@ -63,6 +81,7 @@ public class FileDownloadQueue {
     public void cancelAllDownloads() {
         queue.clear();
         currentlyDownloadingItem = null;
+        sync = null;
         communicator.sendMessage(new FileTransferDataResponseMessage(VivomoveConstants.STATUS_ACK, FileTransferDataResponseMessage.RESPONSE_ABORT_DOWNLOAD_REQUEST, 0).packet);
     }
 
@@ -103,12 +122,20 @@ public class FileDownloadQueue {
             listener.onFileDownloadError(currentlyDownloadingItem.fileIndex);
             totalRemainingBytes -= currentlyDownloadingItem.dataSize;
             currentlyDownloadingItem = null;
-            checkRequestNextDownload();
+            if (checkRequestNextDownload()) finishSync();
         }
     }
 
+    /**
+     * Stops the processing thread, files not processed yet are dropped. A file still being
+     * processed finishes with the state of its own sync.
+     */
+    public void dispose() {
+        processingExecutor.shutdownNow();
+    }
+
     public void onFileTransferData(FileTransferDataMessage dataMessage) {
-        final QueueItem currentlyDownloadingItem = this.currentlyDownloadingItem;
+        final QueueItem<S> currentlyDownloadingItem = this.currentlyDownloadingItem;
         if (currentlyDownloadingItem == null) {
             LOG.error("Download request response arrived, but nothing is being downloaded");
             communicator.sendMessage(new FileTransferDataResponseMessage(VivomoveConstants.STATUS_ACK, FileTransferDataResponseMessage.RESPONSE_ABORT_DOWNLOAD_REQUEST, 0).packet);
@@ -146,7 +173,7 @@ public class FileDownloadQueue {
             this.currentlyDownloadingItem = null;
             final boolean allDone = checkRequestNextDownload();
             reportCompletedDownload(currentlyDownloadingItem);
-            if (allDone && isIdle()) listener.onAllDownloadsCompleted();
+            if (allDone && isIdle()) finishSync();
         }
     }
 
@@ -154,24 +181,76 @@ public class FileDownloadQueue {
         return currentlyDownloadingItem == null;
     }
 
-    private void reportCompletedDownload(QueueItem downloadedItem) {
+    private void reportCompletedDownload(QueueItem<S> downloadedItem) {
+        final Sync<S> itemSync = downloadedItem.sync;
+        ++itemSync.fileCount;
+        itemSync.byteCount += downloadedItem.dataOffset;
         if (downloadedItem.fileIndex == 0) {
+            // the directory decides what to download next, so it is handled right away
             final DirectoryData directoryData = DirectoryData.parse(downloadedItem.data);
             listener.onDirectoryDownloaded(directoryData);
         } else {
-            listener.onFileDownloadComplete(downloadedItem.fileIndex, downloadedItem.data);
+            processingExecutor.execute(() -> {
+                final long start = System.nanoTime();
+                try {
+                    listener.onFileDownloadComplete(itemSync.state, downloadedItem.fileIndex, downloadedItem.data);
+                } catch (Exception e) {
+                    LOG.error("Error processing downloaded file {}", downloadedItem.fileIndex, e);
+                }
+                itemSync.processingNanos += System.nanoTime() - start;
+            });
+        }
+    }
+
+    private void finishSync() {
+        final Sync<S> finishedSync = sync;
+        sync = null;
+        if (finishedSync == null) {
+            return;
+        }
+        final long transferEnd = System.nanoTime();
+        processingExecutor.execute(() -> {
+            final long start = System.nanoTime();
+            try {
+                listener.onAllDownloadsCompleted(finishedSync.state);
+            } catch (Exception e) {
+                LOG.error("Error finishing downloads", e);
+            }
+            final long end = System.nanoTime();
+            LOG.info("Downloaded {} files, {}B in {}ms: transfer {}ms, processing {}ms, waiting for processing {}ms, completion {}ms",
+                    finishedSync.fileCount, finishedSync.byteCount, (end - finishedSync.startNanos) / 1000000,
+                    (transferEnd - finishedSync.startNanos) / 1000000, finishedSync.processingNanos / 1000000,
+                    (start - transferEnd) / 1000000, (end - start) / 1000000);
+        });
+    }
+
+    /**
+     * State and timings of one sync, from the first queued download until the queue is idle
+     * again. The processing time is only updated on the processing thread.
+     */
+    private static class Sync<S> {
+        private final S state;
+        private final long startNanos = System.nanoTime();
+        private int fileCount;
+        private long byteCount;
+        private long processingNanos;
+
+        private Sync(S state) {
+            this.state = state;
         }
     }
 
-    private static class QueueItem {
+    private static class QueueItem<S> {
         public final int fileIndex;
+        public final Sync<S> sync;
         public int dataSize;
         public int dataOffset;
         public byte[] data;
 
-        public QueueItem(int fileIndex, int dataSize) {
+        public QueueItem(int fileIndex, int dataSize, Sync<S> sync) {
             this.fileIndex = fileIndex;
             this.dataSize = dataSize;
+            this.sync = sync;
         }
 
         public void setDataSize(int dataSize) {
@@ -23,32 +23,55 @@ import nodomain.freeyourgadget.gadgetbridge.devices.vivomovehr.VivomoveHrSampleP
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Imports the FIT files downloaded in one sync into the database. Each file is decoded when it
+ * arrives, the samples of all files are written in one transaction when the sync is done.
+ */
 public class FitDbImporter {
     private static final Logger LOG = LoggerFactory.getLogger(FitDbImporter.class);
 
     private final GBDevice gbDevice;
+    private final FitParser fitParser;
     private final FitImporter fitImporter;
 
-    public FitDbImporter(GBDevice gbDevice) {
+    public FitDbImporter(GBDevice gbDevice, FitParser fitParser) {
         this.gbDevice = gbDevice;
+        this.fitParser = fitParser;
         fitImporter = new FitImporter();
     }
 
-    public void processFitFile(List<FitMessage> messages) {
+    public void processFitFile(byte[] data) {
+        final long start = System.nanoTime();
         try {
-            fitImporter.importFitData(messages);
+            fitImporter.importFitData(fitParser, ByteBuffer.wrap(data));
         } catch (Exception e) {
+            // the samples decoded before the error are still written
             LOG.error("Error importing FIT data", e);
         }
+        LOG.debug("Decoded {}B of FIT data in {}ms", data.length, (System.nanoTime() - start) / 1000000);
     }
 
-    public void processData() {
+    /**
+     * Writes the samples of all files processed so far in one transaction.
+     *
+     * @return whether any samples were written
+     */
+    public boolean processData() {
+        final List<VivomoveHrActivitySample> samples = new ArrayList<>();
+        fitImporter.processImportedData(samples::add);
+        if (samples.isEmpty()) {
+            return false;
+        }
+
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             final DaoSession session = dbHandler.getDaoSession();
 
@@ -56,15 +79,18 @@ public class FitDbImporter {
             final User user = DBHelper.getUser(session);
             final VivomoveHrSampleProvider provider = new VivomoveHrSampleProvider(gbDevice, session);
 
-            fitImporter.processImportedData(sample -> {
+            for (final VivomoveHrActivitySample sample : samples) {
                 sample.setDevice(device);
                 sample.setUser(user);
                 sample.setProvider(provider);
-
-                provider.addGBActivitySample(sample);
-            });
+            }
+            final long start = System.nanoTime();
+            provider.addGBActivitySamples(samples.toArray(new VivomoveHrActivitySample[0]));
+            LOG.info("Wrote {} samples in {}ms", samples.size(), (System.nanoTime() - start) / 1000000);
+            return true;
         } catch (Exception e) {
             LOG.error("Error importing FIT data", e);
+            return false;
         }
     }
 }
@@ -22,143 +22,120 @@ import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.GarminTimeUtils;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+/**
+ * Merges the monitoring and sleep data of FIT files into one sample per timestamp.
+ * <p>
+ * The files are decoded straight into the merged samples, without keeping their messages.
+ * {@link #processImportedData(FitImportProcessor)} passes on the samples changed since its last
+ * call, so they can be written after each file.
+ */
 public class FitImporter {
     private static final int ACTIVITY_TYPE_ALL = -1;
-    private final SortedMap<Integer, List<FitEvent>> eventsPerTimestamp = new TreeMap<>();
-
-    public void importFitData(List<FitMessage> messages) {
-        boolean ohrEnabled = false;
-        int softwareVersion = -1;
-
-        int lastTimestamp = 0;
-        final SparseIntArray lastCycles = new SparseIntArray();
-
-        for (FitMessage message : messages) {
-            switch (message.definition.globalMessageID) {
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_EVENT:
-                    //message.getField();
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE:
-                    final Integer versionField = message.getIntegerField("version");
-                    if (versionField != null) softwareVersion = versionField;
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO:
-                    lastTimestamp = message.getIntegerField("timestamp");
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING:
-                    lastTimestamp = processMonitoringMessage(message, ohrEnabled, lastTimestamp, lastCycles);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS:
-                    final Boolean isOhrEnabled = message.getBooleanField("enabled");
-                    if (isOhrEnabled != null) ohrEnabled = isOhrEnabled;
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL:
-                    processSleepLevelMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_HR_DATA:
-                    processHrDataMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_STRESS_LEVEL:
-                    processStressLevelMessage(message);
-                    break;
-
-                case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MAX_MET_DATA:
-                    processMaxMetDataMessage(message);
-                    break;
-            }
-        }
+
+    private static final int FIELD_SOFTWARE_VERSION = fieldNumber(FitMessageDefinitions.DEFINITION_SOFTWARE, "version");
+    private static final int FIELD_MONITORING_INFO_TIMESTAMP = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING_INFO, "timestamp");
+    private static final int FIELD_OHR_SETTINGS_ENABLED = fieldNumber(FitMessageDefinitions.DEFINITION_OHR_SETTINGS, "enabled");
+    private static final int FIELD_SLEEP_LEVEL_TIMESTAMP = fieldNumber(FitMessageDefinitions.DEFINITION_SLEEP_LEVEL, "timestamp");
+    private static final int FIELD_SLEEP_LEVEL_SLEEP_LEVEL = fieldNumber(FitMessageDefinitions.DEFINITION_SLEEP_LEVEL, "sleep_level");
+    private static final int FIELD_MONITORING_ACTIVITY_TYPE = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "activity_type");
+    private static final int FIELD_MONITORING_ACTIVE_CALORIES = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "active_calories");
+    private static final int FIELD_MONITORING_INTENSITY = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "current_activity_type_intensity");
+    private static final int FIELD_MONITORING_CYCLES = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "cycles");
+    private static final int FIELD_MONITORING_HEART_RATE = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "heart_rate");
+    private static final int FIELD_MONITORING_TIMESTAMP = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "timestamp");
+    private static final int FIELD_MONITORING_TIMESTAMP_16 = fieldNumber(FitMessageDefinitions.DEFINITION_MONITORING, "timestamp_16");
+
+    private final SortedMap<Integer, MergedSample> samplesPerTimestamp = new TreeMap<>();
+    private final List<MergedSample> changedSamples = new ArrayList<>();
+
+    // state of the file being imported
+    private boolean ohrEnabled;
+    private int softwareVersion;
+    private int lastTimestamp;
+    private final SparseIntArray lastCycles = new SparseIntArray();
+
+    public void importFitData(FitParser parser, ByteBuffer data) {
+        ohrEnabled = false;
+        softwareVersion = -1;
+        lastTimestamp = 0;
+        lastCycles.clear();
+
+        parser.parse(data, this::processMessage);
     }
 
-    public void processImportedData(FitImportProcessor processor) {
-        for (final Map.Entry<Integer, List<FitEvent>> eventsForTimestamp : eventsPerTimestamp.entrySet()) {
-            final VivomoveHrActivitySample sample = new VivomoveHrActivitySample();
-            sample.setTimestamp(eventsForTimestamp.getKey());
-
-            sample.setRawKind(ActivitySample.NOT_MEASURED);
-            sample.setCaloriesBurnt(ActivitySample.NOT_MEASURED);
-            sample.setSteps(ActivitySample.NOT_MEASURED);
-            sample.setHeartRate(ActivitySample.NOT_MEASURED);
-            sample.setFloorsClimbed(ActivitySample.NOT_MEASURED);
-            sample.setRawIntensity(ActivitySample.NOT_MEASURED);
-
-            FitEvent.EventKind bestKind = FitEvent.EventKind.UNKNOWN;
-            float bestScore = Float.NEGATIVE_INFINITY;
-            for (final FitEvent event : eventsForTimestamp.getValue()) {
-                if (event.getHeartRate() > sample.getHeartRate()) {
-                    sample.setHeartRate(event.getHeartRate());
-                }
-                if (event.getFloorsClimbed() > sample.getFloorsClimbed()) {
-                    sample.setFloorsClimbed(event.getFloorsClimbed());
-                }
-
-                float score = 0;
-                if (event.getRawKind() > 0) score += 1;
-                if (event.getCaloriesBurnt() > 0) score += event.getCaloriesBurnt() * 10.0f;
-                if (event.getSteps() > 0) score += event.getSteps();
-                //if (event.getRawIntensity() > 0) score += 10.0f * event.getRawIntensity();
-                if (event.getKind().isBetterThan(bestKind) || (event.getKind() == bestKind && score > bestScore)) {
-//                    if (bestScore > Float.NEGATIVE_INFINITY && event.getKind() != FitEvent.EventKind.NOT_WORN) {
-//                        System.out.println(String.format(Locale.ROOT, "Replacing %s %d (%d cal, %d steps) with %s %d (%d cal, %d steps)", sample.getRawKind(), sample.getRawIntensity(), sample.getCaloriesBurnt(), sample.getSteps(), event.getRawKind(), event.getRawIntensity(), event.getCaloriesBurnt(), event.getSteps()));
-//                    }
-                    bestScore = score;
-                    bestKind = event.getKind();
-                    sample.setRawKind(event.getRawKind());
-                    sample.setCaloriesBurnt(event.getCaloriesBurnt());
-                    sample.setSteps(event.getSteps());
-                    sample.setRawIntensity(event.getRawIntensity());
-                }
-            }
+    private void processMessage(FitRecord record) {
+        switch (record.getGlobalMessageID()) {
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_EVENT:
+                break;
 
-            if (sample.getHeartRate() == ActivitySample.NOT_MEASURED && ((sample.getRawKind() & VivomoveHrSampleProvider.RAW_TYPE_KIND_SLEEP) != 0)) {
-                sample.setRawKind(VivomoveHrSampleProvider.RAW_NOT_WORN);
-                sample.setRawIntensity(0);
-            }
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE:
+                softwareVersion = record.getIntegerField(FIELD_SOFTWARE_VERSION, softwareVersion);
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO:
+                lastTimestamp = record.getIntegerField(FIELD_MONITORING_INFO_TIMESTAMP, lastTimestamp);
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING:
+                processMonitoringMessage(record);
+                break;
 
-            processor.onSample(sample);
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS:
+                final int isOhrEnabled = record.getIntegerField(FIELD_OHR_SETTINGS_ENABLED, FitBool.INVALID);
+                if (isOhrEnabled != FitBool.INVALID) ohrEnabled = isOhrEnabled != 0;
+                break;
+
+            case FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL:
+                processSleepLevelMessage(record);
+                break;
+        }
+    }
+
+    /**
+     * Passes each sample changed since the last call to the processor, in timestamp order.
+     */
+    public void processImportedData(FitImportProcessor processor) {
+        Collections.sort(changedSamples, (a, b) -> Integer.compare(a.timestamp, b.timestamp));
+        for (final MergedSample merged : changedSamples) {
+            merged.changed = false;
+            processor.onSample(merged.toSample());
         }
+        changedSamples.clear();
     }
 
-    private void processSleepLevelMessage(FitMessage message) {
-        final Integer timestampFull = message.getIntegerField("timestamp");
-        final Integer sleepLevel = message.getIntegerField("sleep_level");
+    private void processSleepLevelMessage(FitRecord record) {
+        if (!record.hasField(FIELD_SLEEP_LEVEL_TIMESTAMP) || !record.hasField(FIELD_SLEEP_LEVEL_SLEEP_LEVEL)) {
+            throw new IllegalArgumentException("Incomplete sleep level message");
+        }
+        final int sleepLevel = record.getIntegerField(FIELD_SLEEP_LEVEL_SLEEP_LEVEL, 0);
 
-        final int timestamp = GarminTimeUtils.garminTimestampToUnixTime(timestampFull);
+        final int timestamp = GarminTimeUtils.garminTimestampToUnixTime(record.getIntegerField(FIELD_SLEEP_LEVEL_TIMESTAMP, 0));
         final int rawIntensity = (4 - sleepLevel) * 40;
         final int rawKind = VivomoveHrSampleProvider.RAW_TYPE_KIND_SLEEP | sleepLevel;
 
-        addEvent(new FitEvent(timestamp, FitEvent.EventKind.SLEEP, rawKind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, rawIntensity));
+        addEvent(timestamp, EventKind.SLEEP, rawKind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, rawIntensity);
     }
 
-    private int processMonitoringMessage(FitMessage message, boolean ohrEnabled, int lastTimestamp, SparseIntArray lastCycles) {
-        final Integer activityType = message.getIntegerField("activity_type");
-        final Double activeCalories = message.getNumericField("active_calories");
-        final Integer intensity = message.getIntegerField("current_activity_type_intensity");
-        final Integer cycles = message.getIntegerField("cycles");
-        final Double heartRateMeasured = message.getNumericField("heart_rate");
-        final Integer timestampFull = message.getIntegerField("timestamp");
-        final Integer timestamp16 = message.getIntegerField("timestamp_16");
-        final Double activeTime = message.getNumericField("active_time");
+    private void processMonitoringMessage(FitRecord record) {
+        final boolean hasActivityType = record.hasField(FIELD_MONITORING_ACTIVITY_TYPE);
+        final int activityType = record.getIntegerField(FIELD_MONITORING_ACTIVITY_TYPE, 0);
+        final boolean hasCycles = record.hasField(FIELD_MONITORING_CYCLES);
+        final int cycles = record.getIntegerField(FIELD_MONITORING_CYCLES, 0);
 
-        final int activityTypeOrAll = activityType == null ? ACTIVITY_TYPE_ALL : activityType;
-        final int activityTypeOrDefault = activityType == null ? 0 : activityType;
+        final int activityTypeOrAll = hasActivityType ? activityType : ACTIVITY_TYPE_ALL;
+        final int activityTypeOrDefault = activityType;
 
         final int lastDefaultCycleCount = lastCycles.get(ACTIVITY_TYPE_ALL);
         final int lastCycleCount = Math.max(lastCycles.get(activityTypeOrAll), lastDefaultCycleCount);
-        final Integer currentCycles = cycles == null ? null : cycles < lastCycleCount ? cycles : cycles - lastCycleCount;
-        if (currentCycles != null) {
+        final int currentCycles = cycles < lastCycleCount ? cycles : cycles - lastCycleCount;
+        if (hasCycles) {
             lastCycles.put(activityTypeOrDefault, cycles);
             final int newAllCycles = Math.max(lastDefaultCycleCount, cycles);
             if (newAllCycles != lastDefaultCycleCount) {
@@ -167,9 +144,10 @@ public class FitImporter {
             }
         }
 
-        if (timestampFull != null) {
-            lastTimestamp = timestampFull;
-        } else if (timestamp16 != null) {
+        if (record.hasField(FIELD_MONITORING_TIMESTAMP)) {
+            lastTimestamp = record.getIntegerField(FIELD_MONITORING_TIMESTAMP, 0);
+        } else if (record.hasField(FIELD_MONITORING_TIMESTAMP_16)) {
+            final int timestamp16 = record.getIntegerField(FIELD_MONITORING_TIMESTAMP_16, 0);
             lastTimestamp += (timestamp16 - (lastTimestamp & 0xFFFF)) & 0xFFFF;
         } else {
             // TODO: timestamp_min_8
@@ -178,15 +156,16 @@ public class FitImporter {
 
         final int timestamp = GarminTimeUtils.garminTimestampToUnixTime(lastTimestamp);
         final int rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity;
-        final FitEvent.EventKind eventKind;
+        final EventKind eventKind;
 
-        caloriesBurnt = activeCalories == null ? ActivitySample.NOT_MEASURED : (int) Math.round(activeCalories);
+        final double heartRateMeasured = record.getNumericField(FIELD_MONITORING_HEART_RATE, 0);
+        caloriesBurnt = record.hasField(FIELD_MONITORING_ACTIVE_CALORIES) ? (int) Math.round(record.getNumericField(FIELD_MONITORING_ACTIVE_CALORIES, 0)) : ActivitySample.NOT_MEASURED;
         floorsClimbed = ActivitySample.NOT_MEASURED;
-        heartRate = ohrEnabled && heartRateMeasured != null && heartRateMeasured > 0 ? (int) Math.round(heartRateMeasured) : ActivitySample.NOT_MEASURED;
-        steps = currentCycles == null ? ActivitySample.NOT_MEASURED : currentCycles;
-        rawIntensity = intensity == null ? 0 : intensity;
+        heartRate = ohrEnabled && heartRateMeasured > 0 ? (int) Math.round(heartRateMeasured) : ActivitySample.NOT_MEASURED;
+        steps = hasCycles ? currentCycles : ActivitySample.NOT_MEASURED;
+        rawIntensity = record.getIntegerField(FIELD_MONITORING_INTENSITY, 0);
         rawKind = VivomoveHrSampleProvider.RAW_TYPE_KIND_ACTIVITY | activityTypeOrDefault;
-        eventKind = steps != ActivitySample.NOT_MEASURED || rawIntensity > 0 || activityTypeOrDefault > 0 ? FitEvent.EventKind.ACTIVITY : FitEvent.EventKind.WORN;
+        eventKind = steps != ActivitySample.NOT_MEASURED || rawIntensity > 0 || activityTypeOrDefault > 0 ? EventKind.ACTIVITY : EventKind.WORN;
 
         if (rawKind != ActivitySample.NOT_MEASURED
                 || caloriesBurnt != ActivitySample.NOT_MEASURED
@@ -195,94 +174,103 @@ public class FitImporter {
                 || steps != ActivitySample.NOT_MEASURED
                 || rawIntensity != ActivitySample.NOT_MEASURED) {
 
-            addEvent(new FitEvent(timestamp, eventKind, rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity));
+            addEvent(timestamp, eventKind, rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity);
         } else {
-            addEvent(new FitEvent(timestamp, FitEvent.EventKind.NOT_WORN, VivomoveHrSampleProvider.RAW_NOT_WORN, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED));
+            addEvent(timestamp, EventKind.NOT_WORN, VivomoveHrSampleProvider.RAW_NOT_WORN, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED);
         }
-        return lastTimestamp;
     }
 
-    private void processHrDataMessage(FitMessage message) {
-    }
-
-    private void processStressLevelMessage(FitMessage message) {
-    }
-
-    private void processMaxMetDataMessage(FitMessage message) {
+    private void addEvent(int timestamp, EventKind kind, int rawKind, int caloriesBurnt, int floorsClimbed, int heartRate, int steps, int rawIntensity) {
+        MergedSample merged = samplesPerTimestamp.get(timestamp);
+        if (merged == null) {
+            merged = new MergedSample(timestamp);
+            samplesPerTimestamp.put(timestamp, merged);
+        }
+        if (merged.merge(kind, rawKind, caloriesBurnt, floorsClimbed, heartRate, steps, rawIntensity) && !merged.changed) {
+            merged.changed = true;
+            changedSamples.add(merged);
+        }
     }
 
-    private void addEvent(FitEvent event) {
-        List<FitEvent> eventsForTimestamp = eventsPerTimestamp.get(event.getTimestamp());
-        if (eventsForTimestamp == null) {
-            eventsForTimestamp = new ArrayList<>();
-            eventsPerTimestamp.put(event.getTimestamp(), eventsForTimestamp);
-        }
-        eventsForTimestamp.add(event);
+    private static int fieldNumber(FitMessageDefinition definition, String fieldName) {
+        return definition.findField(fieldName).fieldNumber;
     }
 
-    private static class FitEvent {
+    /**
+     * All events of a timestamp folded into one sample: the highest heart rate and floors, and
+     * the activity of the best event.
+     */
+    private static class MergedSample {
         private final int timestamp;
-        private final EventKind kind;
-        private final int rawKind;
-        private final int caloriesBurnt;
-        private final int floorsClimbed;
-        private final int heartRate;
-        private final int steps;
-        private final int rawIntensity;
-
-        private FitEvent(int timestamp, EventKind kind, int rawKind, int caloriesBurnt, int floorsClimbed, int heartRate, int steps, int rawIntensity) {
+        private EventKind bestKind = EventKind.UNKNOWN;
+        private float bestScore = Float.NEGATIVE_INFINITY;
+        private int rawKind = ActivitySample.NOT_MEASURED;
+        private int caloriesBurnt = ActivitySample.NOT_MEASURED;
+        private int floorsClimbed = ActivitySample.NOT_MEASURED;
+        private int heartRate = ActivitySample.NOT_MEASURED;
+        private int steps = ActivitySample.NOT_MEASURED;
+        private int rawIntensity = ActivitySample.NOT_MEASURED;
+        /// Whether the sample changed since it was last passed on
+        private boolean changed;
+
+        private MergedSample(int timestamp) {
             this.timestamp = timestamp;
-            this.kind = kind;
-            this.rawKind = rawKind;
-            this.caloriesBurnt = caloriesBurnt;
-            this.floorsClimbed = floorsClimbed;
-            this.heartRate = heartRate;
-            this.steps = steps;
-            this.rawIntensity = rawIntensity;
-        }
-
-        public int getTimestamp() {
-            return timestamp;
-        }
-
-        public EventKind getKind() {
-            return kind;
-        }
-
-        public int getRawKind() {
-            return rawKind;
-        }
-
-        public int getCaloriesBurnt() {
-            return caloriesBurnt;
-        }
-
-        public int getFloorsClimbed() {
-            return floorsClimbed;
         }
 
-        public int getHeartRate() {
-            return heartRate;
-        }
+        private boolean merge(EventKind kind, int rawKind, int caloriesBurnt, int floorsClimbed, int heartRate, int steps, int rawIntensity) {
+            boolean updated = false;
+            if (heartRate > this.heartRate) {
+                this.heartRate = heartRate;
+                updated = true;
+            }
+            if (floorsClimbed > this.floorsClimbed) {
+                this.floorsClimbed = floorsClimbed;
+                updated = true;
+            }
 
-        public int getSteps() {
-            return steps;
+            float score = 0;
+            if (rawKind > 0) score += 1;
+            if (caloriesBurnt > 0) score += caloriesBurnt * 10.0f;
+            if (steps > 0) score += steps;
+            if (kind.isBetterThan(bestKind) || (kind == bestKind && score > bestScore)) {
+                bestScore = score;
+                bestKind = kind;
+                this.rawKind = rawKind;
+                this.caloriesBurnt = caloriesBurnt;
+                this.steps = steps;
+                this.rawIntensity = rawIntensity;
+                updated = true;
+            }
+            return updated;
         }
 
-        public int getRawIntensity() {
-            return rawIntensity;
+        private VivomoveHrActivitySample toSample() {
+            final VivomoveHrActivitySample sample = new VivomoveHrActivitySample();
+            sample.setTimestamp(timestamp);
+            sample.setRawKind(rawKind);
+            sample.setCaloriesBurnt(caloriesBurnt);
+            sample.setSteps(steps);
+            sample.setHeartRate(heartRate);
+            sample.setFloorsClimbed(floorsClimbed);
+            sample.setRawIntensity(rawIntensity);
+
+            if (heartRate == ActivitySample.NOT_MEASURED && ((rawKind & VivomoveHrSampleProvider.RAW_TYPE_KIND_SLEEP) != 0)) {
+                sample.setRawKind(VivomoveHrSampleProvider.RAW_NOT_WORN);
+                sample.setRawIntensity(0);
+            }
+            return sample;
         }
+    }
 
-        public enum EventKind {
-            UNKNOWN,
-            NOT_WORN,
-            WORN,
-            SLEEP,
-            ACTIVITY;
+    private enum EventKind {
+        UNKNOWN,
+        NOT_WORN,
+        WORN,
+        SLEEP,
+        ACTIVITY;
 
-            public boolean isBetterThan(EventKind other) {
-                return ordinal() > other.ordinal();
-            }
+        public boolean isBetterThan(EventKind other) {
+            return ordinal() > other.ordinal();
         }
     }
 }
@@ -17,13 +17,66 @@
 package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
 
 class FitLocalFieldDefinition {
+    /// Unscaled number of up to 4 bytes, read into an int
+    static final int KIND_INT = 0;
+    /// Unscaled number of 7 or 8 bytes, read into a long
+    static final int KIND_LONG = 1;
+    /// Number with a scale and offset, read into a double
+    static final int KIND_SCALED = 2;
+    /// Everything else, read into an object
+    static final int KIND_OBJECT = 3;
+
     public final FitMessageFieldDefinition globalDefinition;
     public final int size;
     public final FitFieldBaseType baseType;
+    final int kind;
 
     FitLocalFieldDefinition(FitMessageFieldDefinition globalDefinition, int size, FitFieldBaseType baseType) {
         this.globalDefinition = globalDefinition;
         this.size = size;
         this.baseType = baseType;
+        this.kind = getKind(globalDefinition, size);
+    }
+
+    /**
+     * Whether an int or long value of the field is the invalid value of its base type.
+     */
+    boolean isInvalid(long value) {
+        final Object invalidValue = baseType.invalidValue;
+        if (kind == KIND_INT) {
+            return invalidValue instanceof Integer && (Integer) invalidValue == (int) value;
+        } else if (kind == KIND_LONG) {
+            return invalidValue instanceof Long && (Long) invalidValue == value;
+        }
+        return false;
+    }
+
+    private static int getKind(FitMessageFieldDefinition globalDefinition, int size) {
+        switch (globalDefinition.fieldType) {
+            case ENUM:
+            case SINT8:
+            case UINT8:
+            case SINT16:
+            case UINT16:
+            case SINT32:
+            case UINT32:
+            case UINT8Z:
+            case UINT16Z:
+            case UINT32Z:
+            case SINT64:
+            case UINT64:
+            case UINT64Z:
+                if (globalDefinition.scale != 0) {
+                    return size == 1 || size == 2 || size == 4 || size == 8 ? KIND_SCALED : KIND_OBJECT;
+                }
+                if (size >= 1 && size <= 4) {
+                    return KIND_INT;
+                }
+                return size == 7 || size == 8 ? KIND_LONG : KIND_OBJECT;
+            case BYTE:
+                return size == 1 ? KIND_INT : KIND_OBJECT;
+            default:
+                return KIND_OBJECT;
+        }
     }
 }
@@ -16,14 +16,28 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
 
+import java.util.Arrays;
 import java.util.List;
 
 class FitLocalMessageDefinition {
     public final FitMessageDefinition globalDefinition;
     public final List<FitLocalFieldDefinition> fieldDefinitions;
+    /// Index of the field with each field number, -1 if the message has no such field
+    final int[] fieldIndexes = new int[256];
+    /// Size of a data message of this definition, without the record header
+    final int dataSize;
 
     FitLocalMessageDefinition(FitMessageDefinition globalDefinition, List<FitLocalFieldDefinition> fieldDefinitions) {
         this.globalDefinition = globalDefinition;
         this.fieldDefinitions = fieldDefinitions;
+
+        Arrays.fill(fieldIndexes, -1);
+        int size = 0;
+        for (int i = 0; i < fieldDefinitions.size(); ++i) {
+            final FitLocalFieldDefinition fieldDefinition = fieldDefinitions.get(i);
+            fieldIndexes[fieldDefinition.globalDefinition.fieldNumber & 0xFF] = i;
+            size += fieldDefinition.size;
+        }
+        dataSize = size;
     }
 }
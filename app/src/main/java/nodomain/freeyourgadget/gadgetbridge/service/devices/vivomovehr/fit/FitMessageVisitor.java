@@ -0,0 +1,28 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
+
+/**
+ * Receives the data messages of a FIT file while {@link FitParser} decodes it.
+ */
+public interface FitMessageVisitor {
+    /**
+     * Called for each data message. The record is reused for the next message, so it must not be
+     * kept after the call returns.
+     */
+    void onMessage(FitRecord record);
+}
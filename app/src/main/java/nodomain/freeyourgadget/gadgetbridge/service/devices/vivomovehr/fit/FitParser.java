@@ -17,19 +17,32 @@
 package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
 
 import android.util.SparseArray;
-import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
-import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.messages.MessageReader;
 import nodomain.freeyourgadget.gadgetbridge.util.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_INT;
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_LONG;
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_SCALED;
+
+/**
+ * Decodes FIT files, either into a list of {@link FitMessage}s or message by message into a
+ * {@link FitMessageVisitor}, which reads the numeric fields without boxing them.
+ * <p>
+ * Definition messages are kept by their raw bytes, so the definitions the device repeats in every
+ * file are only compiled once per parser.
+ */
 public class FitParser {
     private static final Logger LOG = LoggerFactory.getLogger(FitParser.class);
 
@@ -43,8 +56,13 @@ public class FitParser {
     private static final int MASK_TIME_OFFSET = 0x1F;
     private static final int MASK_COMPRESSED_LOCAL_MESSAGE_TYPE = 0x60;
 
+    private static final int STREAM_BUFFER_SIZE = 4096;
+    private static final int MAX_CACHED_DEFINITIONS = 256;
+
     private final SparseArray<FitMessageDefinition> globalMessageDefinitions;
     private final SparseArray<FitLocalMessageDefinition> localMessageDefinitions = new SparseArray<>(16);
+    private final Map<ByteBuffer, FitLocalMessageDefinition> definitionCache = new HashMap<>();
+    private final FitRecord record = new FitRecord();
 
     public FitParser(Collection<FitMessageDefinition> knownDefinitions) {
         globalMessageDefinitions = new SparseArray<>(knownDefinitions.size());
@@ -60,30 +78,58 @@ public class FitParser {
     public List<FitMessage> parseFitFile(byte[] data) {
         if (data.length < 12) throw new IllegalArgumentException("Too short data");
 
-        final MessageReader reader = new MessageReader(data);
         final List<FitMessage> result = new ArrayList<>();
-        while (!reader.isEof()) {
-            final int fileHeaderStart = reader.getPosition();
-            final int fileHeaderSize = reader.readByte();
-            final int protocolVersion = reader.readByte();
-            final int profileVersion = reader.readShort();
-            final int dataSize = reader.readInt();
-            final int dataTypeMagic = reader.readInt();
-            final int headerCrc = fileHeaderSize >= 14 ? reader.readShort() : 0;
+        parse(ByteBuffer.wrap(data), record -> result.add(record.toFitMessage()));
+        return result;
+    }
+
+    /**
+     * Decodes the remaining bytes of data, which may hold several chained FIT files. The position
+     * of data is not changed.
+     */
+    public void parse(ByteBuffer data, FitMessageVisitor visitor) {
+        try {
+            parse(new Input(data.slice(), null), visitor);
+        } catch (IOException e) {
+            // only reading from a stream throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the FIT files read from stream, without reading the whole stream into memory.
+     */
+    public void parse(InputStream stream, FitMessageVisitor visitor) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        buffer.limit(0);
+        parse(new Input(buffer, stream), visitor);
+    }
+
+    private void parse(Input input, FitMessageVisitor visitor) throws IOException {
+        while (input.fill(1)) {
+            final long fileHeaderStart = input.getPosition();
+            input.require(12);
+            final int fileHeaderSize = input.buffer.get() & 0xFF;
+            final int protocolVersion = input.buffer.get() & 0xFF;
+            final int profileVersion = input.buffer.getShort() & 0xFFFF;
+            final long dataSize = input.buffer.getInt() & 0xFFFFFFFFL;
+            final int dataTypeMagic = input.buffer.getInt();
             if (dataTypeMagic != FIT_MAGIC) {
                 throw new IllegalArgumentException("Not a FIT file, data type signature not found");
             }
             if (fileHeaderSize < 12) throw new IllegalArgumentException("Header size too low");
-            reader.skip(fileHeaderSize - 14);
+            // the rest of the header, including its CRC if present
+            input.skip(fileHeaderSize - 12);
 
             // TODO: Check header CRC
 
             localMessageDefinitions.clear();
 
             int lastTimestamp = 0;
-            final int end = fileHeaderStart + fileHeaderSize + dataSize;
-            while (reader.getPosition() < end) {
-                final int recordHeader = reader.readByte();
+            final long end = fileHeaderStart + fileHeaderSize + dataSize;
+            while (input.getPosition() < end) {
+                input.require(1);
+                final int recordHeader = input.buffer.get() & 0xFF;
                 final boolean isDefinitionMessage;
                 final int localMessageType;
                 final int currentTimestamp;
@@ -103,7 +149,7 @@ public class FitParser {
 
                 if (isDefinitionMessage) {
                     final boolean hasDeveloperFields = (recordHeader & FLAG_DEVELOPER_FIELDS) != 0;
-                    final FitLocalMessageDefinition definition = parseDefinitionMessage(reader, hasDeveloperFields);
+                    final FitLocalMessageDefinition definition = parseDefinitionMessage(input, hasDeveloperFields);
                     LOG.trace("Defining local message {} to global message {}", localMessageType, definition.globalDefinition.globalMessageID);
                     localMessageDefinitions.put(localMessageType, definition);
                 } else {
@@ -112,28 +158,73 @@ public class FitParser {
                         LOG.error("Use of undefined local message {}", localMessageType);
                         throw new IllegalArgumentException("Use of undefined local message " + localMessageType);
                     }
-                    final FitMessage dataMessage = new FitMessage(definition.globalDefinition);
-                    parseDataMessage(reader, definition, dataMessage);
-                    result.add(dataMessage);
+                    input.require(definition.dataSize);
+                    parseDataMessage(input.buffer, definition);
+                    visitor.onMessage(record);
                 }
             }
 
-            final int fileCrc = reader.readShort();
             // TODO: Check file CRC
+            input.skip(2);
         }
-        return result;
     }
 
-    private void parseDataMessage(MessageReader reader, FitLocalMessageDefinition localMessageDefinition, FitMessage dataMessage) {
-        for (FitLocalFieldDefinition localFieldDefinition : localMessageDefinition.fieldDefinitions) {
-            final Object value = readValue(reader, localFieldDefinition);
-            if (!localFieldDefinition.baseType.invalidValue.equals(value)) {
-                dataMessage.setField(localFieldDefinition.globalDefinition.fieldNumber, value);
+    private void parseDataMessage(ByteBuffer buffer, FitLocalMessageDefinition localMessageDefinition) {
+        record.reset(localMessageDefinition);
+        final List<FitLocalFieldDefinition> fieldDefinitions = localMessageDefinition.fieldDefinitions;
+        for (int i = 0; i < fieldDefinitions.size(); ++i) {
+            final FitLocalFieldDefinition fieldDefinition = fieldDefinitions.get(i);
+            switch (fieldDefinition.kind) {
+                case KIND_INT:
+                    record.setLong(i, readInt(buffer, fieldDefinition.size));
+                    break;
+                case KIND_LONG:
+                    record.setLong(i, fieldDefinition.size == 8 ? buffer.getLong() : readUint56(buffer));
+                    break;
+                case KIND_SCALED:
+                    final FitMessageFieldDefinition globalDefinition = fieldDefinition.globalDefinition;
+                    record.setDouble(i, readScaledRaw(buffer, fieldDefinition.size) / globalDefinition.scale + globalDefinition.offset);
+                    break;
+                default:
+                    record.setObject(i, readValue(buffer, fieldDefinition));
+                    break;
             }
         }
     }
 
-    private Object readValue(MessageReader reader, FitLocalFieldDefinition fieldDefinition) {
+    private static int readInt(ByteBuffer buffer, int size) {
+        switch (size) {
+            case 1:
+                return buffer.get() & 0xFF;
+            case 2:
+                return buffer.getShort() & 0xFFFF;
+            case 3:
+                return (buffer.get() & 0xFF) | ((buffer.get() & 0xFF) << 8) | ((buffer.get() & 0xFF) << 16);
+            default:
+                return buffer.getInt();
+        }
+    }
+
+    private static long readUint56(ByteBuffer buffer) {
+        final long lower = buffer.getInt() & 0xFFFFFFFFL;
+        return lower | ((long) readInt(buffer, 3) << 32);
+    }
+
+    private static long readScaledRaw(ByteBuffer buffer, int size) {
+        // as before, only 4 and 8 byte values are signed
+        switch (size) {
+            case 1:
+                return buffer.get() & 0xFF;
+            case 2:
+                return buffer.getShort() & 0xFFFF;
+            case 4:
+                return buffer.getInt();
+            default:
+                return buffer.getLong();
+        }
+    }
+
+    private Object readValue(ByteBuffer buffer, FitLocalFieldDefinition fieldDefinition) {
         //switch (fieldDefinition.baseType) {
         switch (fieldDefinition.globalDefinition.fieldType) {
             case ENUM:
@@ -149,39 +240,43 @@ public class FitParser {
             case SINT64:
             case UINT64:
             case UINT64Z:
-                return readFitNumber(reader, fieldDefinition.size, fieldDefinition.globalDefinition.scale, fieldDefinition.globalDefinition.offset);
+                return readFitNumber(buffer, fieldDefinition.size, fieldDefinition.globalDefinition.scale, fieldDefinition.globalDefinition.offset);
             case BYTE:
-                return fieldDefinition.size == 1 ? reader.readByte() : reader.readBytes(fieldDefinition.size);
+                return fieldDefinition.size == 1 ? buffer.get() & 0xFF : readBytes(buffer, fieldDefinition.size);
             case STRING:
-                return readFitString(reader, fieldDefinition.size);
+                return readFitString(buffer, fieldDefinition.size);
             case FLOAT32:
-                return readFloat32(reader, fieldDefinition.size);
+                return readFloat32(buffer, fieldDefinition.size);
             case FLOAT64:
-                return readFloat64(reader, fieldDefinition.size);
+                return readFloat64(buffer, fieldDefinition.size);
             // TODO: Float data types
             default:
                 throw new IllegalArgumentException("Unable to read value of type " + fieldDefinition.baseType);
         }
     }
 
-    private float readFloat32(MessageReader reader, int size) {
+    private static byte[] readBytes(ByteBuffer buffer, int size) {
+        final byte[] result = new byte[size];
+        buffer.get(result);
+        return result;
+    }
+
+    private float readFloat32(ByteBuffer buffer, int size) {
         if (size != 4) {
             throw new IllegalArgumentException("Invalid size for Float32: " + size);
         }
-        final byte[] bytes = reader.readBytes(size);
-        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        return buffer.getFloat();
     }
 
-    private double readFloat64(MessageReader reader, int size) {
+    private double readFloat64(ByteBuffer buffer, int size) {
         if (size != 8) {
             throw new IllegalArgumentException("Invalid size for Float64: " + size);
         }
-        final byte[] bytes = reader.readBytes(size);
-        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getDouble();
+        return buffer.getDouble();
     }
 
-    private String readFitString(MessageReader reader, int size) {
-        final byte[] bytes = reader.readBytes(size);
+    private String readFitString(ByteBuffer buffer, int size) {
+        final byte[] bytes = readBytes(buffer, size);
         final int zero = ArrayUtils.indexOf((byte) 0, bytes);
         if (zero < 0) {
             LOG.warn("Unterminated string");
@@ -190,79 +285,86 @@ public class FitParser {
         return new String(bytes, 0, zero, StandardCharsets.UTF_8);
     }
 
-    private Object readRawFitNumber(MessageReader reader, int size) {
+    private Object readRawFitNumber(ByteBuffer buffer, int size) {
         switch (size) {
             case 1:
-                return reader.readByte();
             case 2:
-                return reader.readShort();
-            case 3: {
-                // this is strange?
-                byte[] bytes = new byte[4];
-                reader.readBytesTo(3, bytes, 0);
-                return BLETypeConversions.toUint32(bytes, 0);
-            }
+            case 3:
             case 4:
-                return reader.readInt();
-            case 7: {
+                return readInt(buffer, size);
+            case 7:
                 // this is strange?
-                byte[] bytes = new byte[8];
-                reader.readBytesTo(7, bytes, 0);
-                return BLETypeConversions.toUint64(bytes, 0);
-            }
+                return readUint56(buffer);
             case 8:
-                return reader.readLong();
+                return buffer.getLong();
             case 12:
                 // this is strange?
-                long lower = reader.readLong();
-                int upper = reader.readInt();
+                long lower = buffer.getLong();
+                int upper = buffer.getInt();
                 return upper * ((double) Long.MAX_VALUE) + lower;
             case 16:
                 // this is strange?
-                return reader.readLong() + reader.readLong() * (double) (Long.MAX_VALUE);
+                return buffer.getLong() + buffer.getLong() * (double) (Long.MAX_VALUE);
             case 32:
                 // this is strange?
                 // TODO: FIXME: 32-byte integer?!?
-                reader.skip(16);
-                return Math.pow(2, 128) * (reader.readLong() + reader.readLong() * (double) (Long.MAX_VALUE));
+                buffer.position(buffer.position() + 16);
+                return Math.pow(2, 128) * (buffer.getLong() + buffer.getLong() * (double) (Long.MAX_VALUE));
             default:
                 throw new IllegalArgumentException("Unable to read number of size " + size);
         }
     }
 
-    private Object readFitNumber(MessageReader reader, int size, double scale, double offset) {
+    private Object readFitNumber(ByteBuffer buffer, int size, double scale, double offset) {
         if (scale == 0) {
-            return readRawFitNumber(reader, size);
+            return readRawFitNumber(buffer, size);
         } else {
             switch (size) {
                 case 1:
-                    return reader.readByte() / scale + offset;
                 case 2:
-                    return reader.readShort() / scale + offset;
                 case 4:
-                    return reader.readInt() / scale + offset;
                 case 8:
-                    return reader.readLong() / scale + offset;
+                    return readScaledRaw(buffer, size) / scale + offset;
                 default:
                     throw new IllegalArgumentException("Unable to read number of size " + size);
             }
         }
     }
 
-    private FitLocalMessageDefinition parseDefinitionMessage(MessageReader reader, boolean hasDeveloperFields) {
-        reader.skip(1);
-        final int architecture = reader.readByte();
+    private FitLocalMessageDefinition parseDefinitionMessage(Input input, boolean hasDeveloperFields) throws IOException {
+        input.require(5);
+        final int fieldCount = input.buffer.get(input.buffer.position() + 4) & 0xFF;
+        final int length = 5 + 3 * fieldCount + (hasDeveloperFields ? 1 : 0);
+        input.require(length);
+
+        final byte[] raw = new byte[length];
+        input.buffer.get(raw);
+        final ByteBuffer key = ByteBuffer.wrap(raw);
+        final FitLocalMessageDefinition cached = definitionCache.get(key);
+        if (cached != null) return cached;
+
+        final FitLocalMessageDefinition definition = compileDefinition(key.duplicate().order(ByteOrder.LITTLE_ENDIAN), hasDeveloperFields);
+        if (definitionCache.size() >= MAX_CACHED_DEFINITIONS) {
+            definitionCache.clear();
+        }
+        definitionCache.put(key, definition);
+        return definition;
+    }
+
+    private FitLocalMessageDefinition compileDefinition(ByteBuffer reader, boolean hasDeveloperFields) {
+        reader.get();
+        final int architecture = reader.get() & 0xFF;
         final boolean isBigEndian = architecture == 1;
         if (isBigEndian) throw new IllegalArgumentException("Big-endian data not supported yet");
-        final int globalMessageType = reader.readShort();
+        final int globalMessageType = reader.getShort() & 0xFFFF;
         final FitMessageDefinition messageDefinition = getGlobalDefinition(globalMessageType);
 
-        final int fieldCount = reader.readByte();
+        final int fieldCount = reader.get() & 0xFF;
         final List<FitLocalFieldDefinition> fields = new ArrayList<>(fieldCount);
         for (int i = 0; i < fieldCount; ++i) {
-            final int globalField = reader.readByte();
-            final int size = reader.readByte();
-            final int baseTypeNum = reader.readByte();
+            final int globalField = reader.get() & 0xFF;
+            final int size = reader.get() & 0xFF;
+            final int baseTypeNum = reader.get() & 0xFF;
             final FitFieldBaseType baseType = FitFieldBaseType.decodeTypeID(baseTypeNum);
 
             final FitMessageFieldDefinition globalFieldDefinition = getFieldDefinition(messageDefinition, globalField, size, baseType);
@@ -270,7 +372,7 @@ public class FitParser {
             fields.add(new FitLocalFieldDefinition(globalFieldDefinition, size, baseType));
         }
         if (hasDeveloperFields) {
-            final int developerFieldCount = reader.readByte();
+            final int developerFieldCount = reader.get() & 0xFF;
             if (developerFieldCount != 0) throw new IllegalArgumentException("Developer fields not supported yet");
         }
 
@@ -298,4 +400,56 @@ public class FitParser {
         globalMessageDefinitions.append(globalMessageType, newDefinition);
         return newDefinition;
     }
+
+    /**
+     * Little-endian view of the data being decoded, refilled from the stream if there is one.
+     */
+    private static final class Input {
+        private final InputStream stream;
+        private ByteBuffer buffer;
+        /// Stream position of the start of the buffer
+        private long bufferStart;
+
+        Input(ByteBuffer buffer, InputStream stream) {
+            this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            this.stream = stream;
+        }
+
+        long getPosition() {
+            return bufferStart + buffer.position();
+        }
+
+        void require(int count) throws IOException {
+            if (!fill(count)) throw new IllegalStateException("Unexpected end of data");
+        }
+
+        void skip(int count) throws IOException {
+            require(count);
+            buffer.position(buffer.position() + count);
+        }
+
+        /**
+         * Makes count bytes available in the buffer, returns false if the data ends before.
+         */
+        boolean fill(int count) throws IOException {
+            if (buffer.remaining() >= count) return true;
+            if (stream == null) return false;
+
+            bufferStart += buffer.position();
+            if (buffer.capacity() < count) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(count, 2 * buffer.capacity()));
+                larger.put(buffer);
+                buffer = larger.order(ByteOrder.LITTLE_ENDIAN);
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < count) {
+                final int read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read < 0) break;
+                buffer.position(buffer.position() + read);
+            }
+            buffer.flip();
+            return buffer.remaining() >= count;
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
+
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_INT;
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_LONG;
+import static nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit.FitLocalFieldDefinition.KIND_SCALED;
+
+/**
+ * A decoded data message, as passed to a {@link FitMessageVisitor}.
+ * <p>
+ * Numeric values are kept unboxed and are read by field number. Fields holding the invalid value
+ * of their base type are missing, the same as in a {@link FitMessage}. The record is reused for
+ * the next message, use {@link #toFitMessage()} to keep its values.
+ */
+public class FitRecord {
+    private FitLocalMessageDefinition definition;
+    private boolean[] present = new boolean[0];
+    private long[] longValues = new long[0];
+    private double[] doubleValues = new double[0];
+    private Object[] objectValues = new Object[0];
+
+    void reset(FitLocalMessageDefinition definition) {
+        this.definition = definition;
+        final int fieldCount = definition.fieldDefinitions.size();
+        if (present.length < fieldCount) {
+            present = new boolean[fieldCount];
+            longValues = new long[fieldCount];
+            doubleValues = new double[fieldCount];
+            objectValues = new Object[fieldCount];
+        }
+    }
+
+    void setLong(int index, long value) {
+        present[index] = !definition.fieldDefinitions.get(index).isInvalid(value);
+        longValues[index] = value;
+    }
+
+    void setDouble(int index, double value) {
+        present[index] = true;
+        doubleValues[index] = value;
+    }
+
+    void setObject(int index, Object value) {
+        present[index] = !definition.fieldDefinitions.get(index).baseType.invalidValue.equals(value);
+        objectValues[index] = value;
+    }
+
+    public FitMessageDefinition getDefinition() {
+        return definition.globalDefinition;
+    }
+
+    public int getGlobalMessageID() {
+        return definition.globalDefinition.globalMessageID;
+    }
+
+    public boolean hasField(int fieldNumber) {
+        return getPresentIndex(fieldNumber) >= 0;
+    }
+
+    /**
+     * The value of a numeric field, cut to an int, or defaultValue if the field is missing.
+     */
+    public int getIntegerField(int fieldNumber, int defaultValue) {
+        final int index = getPresentIndex(fieldNumber);
+        if (index < 0) return defaultValue;
+        switch (definition.fieldDefinitions.get(index).kind) {
+            case KIND_INT:
+            case KIND_LONG:
+                return (int) longValues[index];
+            case KIND_SCALED:
+                return (int) doubleValues[index];
+            default:
+                final Object value = objectValues[index];
+                return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+        }
+    }
+
+    /**
+     * The scaled value of a numeric field, or defaultValue if the field is missing.
+     */
+    public double getNumericField(int fieldNumber, double defaultValue) {
+        final int index = getPresentIndex(fieldNumber);
+        if (index < 0) return defaultValue;
+        switch (definition.fieldDefinitions.get(index).kind) {
+            case KIND_INT:
+            case KIND_LONG:
+                return longValues[index];
+            case KIND_SCALED:
+                return doubleValues[index];
+            default:
+                final Object value = objectValues[index];
+                return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+        }
+    }
+
+    /**
+     * The value of a field boxed as in a {@link FitMessage}, or null if the field is missing.
+     */
+    public Object getField(int fieldNumber) {
+        final int index = getPresentIndex(fieldNumber);
+        return index < 0 ? null : getValue(index);
+    }
+
+    public FitMessage toFitMessage() {
+        final FitMessage message = new FitMessage(definition.globalDefinition);
+        for (int i = 0; i < definition.fieldDefinitions.size(); ++i) {
+            if (present[i]) {
+                message.setField(definition.fieldDefinitions.get(i).globalDefinition.fieldNumber, getValue(i));
+            }
+        }
+        return message;
+    }
+
+    private Object getValue(int index) {
+        switch (definition.fieldDefinitions.get(index).kind) {
+            case KIND_INT:
+                return (int) longValues[index];
+            case KIND_LONG:
+                return longValues[index];
+            case KIND_SCALED:
+                return doubleValues[index];
+            default:
+                return objectValues[index];
+        }
+    }
+
+    private int getPresentIndex(int fieldNumber) {
+        if (fieldNumber < 0 || fieldNumber > 255) return -1;
+        final int index = definition.fieldIndexes[fieldNumber];
+        return index >= 0 && present[index] ? index : -1;
+    }
+}
@@ -18,6 +18,8 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.imp
 
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,47 +55,11 @@ public class WorkoutGpsParser extends XiaomiActivityParser {
 
     @Override
     public boolean parse(final XiaomiSupport support, final XiaomiActivityFileId fileId, final byte[] bytes) {
-        final int version = fileId.getVersion();
-        final int headerSize;
-        final int sampleSize;
-        switch (version) {
-            case 1:
-            case 2:
-                headerSize = 1;
-                sampleSize = 18;
-                break;
-            default:
-                LOG.warn("Unable to parse workout gps version {}", fileId.getVersion());
-                return false;
-        }
-
-        final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-        final byte[] header = new byte[headerSize];
-        buf.get(header);
-
-        LOG.debug("Workout gps Header: {}", GB.hexdump(header));
-
-        if ((buf.limit() - buf.position()) % sampleSize != 0) {
-            LOG.warn("Remaining data in the buffer is not a multiple of {}", sampleSize);
+        final ActivityTrack activityTrack = parseTrack(fileId, bytes);
+        if (activityTrack == null) {
             return false;
         }
 
-        final ActivityTrack activityTrack = new ActivityTrack();
-
-        while (buf.position() < buf.limit()) {
-            final int ts = buf.getInt();
-            final float longitude = buf.getFloat();
-            final float latitude = buf.getFloat();
-            final int unk1 = buf.getInt(); // 0
-            final float speed = (buf.getShort() >> 2) / 10.0f;
-
-            final ActivityPoint ap = new ActivityPoint(new Date(ts * 1000L));
-            ap.setLocation(new GPSCoordinate(longitude, latitude, 0));
-            activityTrack.addTrackPoint(ap);
-
-            LOG.trace("ActivityPoint: ts={} lon={} lat={} unk1={} speed={}", ts, longitude, latitude, unk1, speed);
-        }
-
         try (DBHandler dbHandler = GBApplication.acquireDB()) {
             final DaoSession session = dbHandler.getDaoSession();
             final Device device = DBHelper.getDevice(support.getDevice(), session);
@@ -140,6 +106,57 @@ public class WorkoutGpsParser extends XiaomiActivityParser {
         return true;
     }
 
+    /**
+     * Decodes the gps points of a workout, without the file id.
+     *
+     * @return the track, or null if the data could not be decoded
+     */
+    @Nullable
+    public static ActivityTrack parseTrack(final XiaomiActivityFileId fileId, final byte[] bytes) {
+        final int version = fileId.getVersion();
+        final int headerSize;
+        final int sampleSize;
+        switch (version) {
+            case 1:
+            case 2:
+                headerSize = 1;
+                sampleSize = 18;
+                break;
+            default:
+                LOG.warn("Unable to parse workout gps version {}", fileId.getVersion());
+                return null;
+        }
+
+        final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final byte[] header = new byte[headerSize];
+        buf.get(header);
+
+        LOG.debug("Workout gps Header: {}", GB.hexdump(header));
+
+        if ((buf.limit() - buf.position()) % sampleSize != 0) {
+            LOG.warn("Remaining data in the buffer is not a multiple of {}", sampleSize);
+            return null;
+        }
+
+        final ActivityTrack activityTrack = new ActivityTrack();
+
+        while (buf.position() < buf.limit()) {
+            final int ts = buf.getInt();
+            final float longitude = buf.getFloat();
+            final float latitude = buf.getFloat();
+            final int unk1 = buf.getInt(); // 0
+            final float speed = (buf.getShort() >> 2) / 10.0f;
+
+            final ActivityPoint ap = new ActivityPoint(new Date(ts * 1000L));
+            ap.setLocation(new GPSCoordinate(longitude, latitude, 0));
+            activityTrack.addTrackPoint(ap);
+
+            LOG.trace("ActivityPoint: ts={} lon={} lat={} unk1={} speed={}", ts, longitude, latitude, unk1, speed);
+        }
+
+        return activityTrack;
+    }
+
     private String saveRawBytes(final XiaomiActivityFileId fileId, final byte[] bytes) {
         try {
             final File targetFolder = new File(FileUtils.getExternalFilesDir(), "rawDetails");
@@ -16,12 +16,9 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.services;
 
-import android.content.Intent;
 import android.location.Location;
 import android.os.Handler;
 
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-
 import com.google.protobuf.ByteString;
 
 import org.slf4j.Logger;
@@ -54,7 +51,6 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.proto.xiaomi.XiaomiProto;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.XiaomiPreferences;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.XiaomiSupport;
@@ -937,8 +933,6 @@ public class XiaomiHealthService extends AbstractXiaomiService {
 
         previousSteps = realTimeStats.getSteps();
 
-        final Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
-        LocalBroadcastManager.getInstance(getSupport().getContext()).sendBroadcast(intent);
+        GB.signalRealtimeSample(sample);
     }
 }
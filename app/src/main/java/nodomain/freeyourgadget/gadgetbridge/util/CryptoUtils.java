@@ -4,25 +4,92 @@ import android.annotation.SuppressLint;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 public class CryptoUtils {
+    // Cipher instances are not thread safe, so each thread gets its own. Looking up the provider
+    // is what makes Cipher.getInstance() slow, and devices encrypt every single message.
+    private static final ThreadLocal<AesEcbCipher> ENCRYPT_CIPHER = new ThreadLocal<>();
+    private static final ThreadLocal<AesEcbCipher> DECRYPT_CIPHER = new ThreadLocal<>();
+
     public static byte[] encryptAES(byte[] value, byte[] secretKey) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-        @SuppressLint("GetInstance") Cipher ecipher = Cipher.getInstance("AES/ECB/NoPadding");
-        SecretKeySpec newKey = new SecretKeySpec(secretKey, "AES");
-        ecipher.init(Cipher.ENCRYPT_MODE, newKey);
-        return ecipher.doFinal(value);
+        return getCipher(ENCRYPT_CIPHER, Cipher.ENCRYPT_MODE).doFinal(value, secretKey);
     }
 
     public static byte[] decryptAES(byte[] value, byte[] secretKey) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-        @SuppressLint("GetInstance") Cipher ecipher = Cipher.getInstance("AES/ECB/NoPadding");
-        SecretKeySpec newKey = new SecretKeySpec(secretKey, "AES");
-        ecipher.init(Cipher.DECRYPT_MODE, newKey);
-        return ecipher.doFinal(value);
+        return getCipher(DECRYPT_CIPHER, Cipher.DECRYPT_MODE).doFinal(value, secretKey);
+    }
+
+    private static AesEcbCipher getCipher(ThreadLocal<AesEcbCipher> threadLocal, int mode) throws NoSuchPaddingException, NoSuchAlgorithmException {
+        AesEcbCipher cipher = threadLocal.get();
+        if (cipher == null) {
+            cipher = new AesEcbCipher(mode);
+            threadLocal.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * An AES/ECB/NoPadding cipher for one direction that is created once and kept initialized with
+     * the last used key, so that encrypting many messages with the same key skips the key setup.
+     * Not thread safe.
+     */
+    public static class AesEcbCipher {
+        private final int mode;
+        private final Cipher cipher;
+        private byte[] currentKeyBytes;
+        private SecretKeySpec currentKey;
+
+        public AesEcbCipher(int mode) throws NoSuchPaddingException, NoSuchAlgorithmException {
+            this.mode = mode;
+            @SuppressLint("GetInstance") Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            this.cipher = cipher;
+        }
+
+        public byte[] doFinal(byte[] value, byte[] secretKey) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+            if (!Arrays.equals(secretKey, currentKeyBytes)) {
+                init(new SecretKeySpec(secretKey, "AES"));
+                currentKeyBytes = secretKey.clone();
+            }
+            try {
+                return cipher.doFinal(value);
+            } catch (BadPaddingException | IllegalBlockSizeException e) {
+                currentKey = null;
+                currentKeyBytes = null;
+                throw e;
+            }
+        }
+
+        /**
+         * Encrypts or decrypts length bytes of data in place. doFinal() leaves the cipher
+         * initialized with the key, so passing the same key instance again skips the key setup.
+         */
+        public void doFinal(SecretKeySpec key, byte[] data, int offset, int length) throws InvalidKeyException, BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+            if (key != currentKey) {
+                init(key);
+            }
+            try {
+                cipher.doFinal(data, offset, length, data, offset);
+            } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+                currentKey = null;
+                currentKeyBytes = null;
+                throw e;
+            }
+        }
+
+        private void init(SecretKeySpec key) throws InvalidKeyException {
+            // forget the key first, in case init fails
+            currentKey = null;
+            currentKeyBytes = null;
+            cipher.init(mode, key);
+            currentKey = key;
+        }
     }
 }
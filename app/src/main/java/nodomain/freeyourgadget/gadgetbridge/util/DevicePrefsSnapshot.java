@@ -0,0 +1,142 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_TRANSLITERATION_LANGUAGES;
+
+/**
+ * Immutable, typed snapshot of the device-specific preferences that are read for every
+ * notification or call dispatched to a device. Snapshots are built lazily and replaced as a whole
+ * when any preference of the device changes.
+ */
+public final class DevicePrefsSnapshot {
+    public static final int CANNED_REPLIES_MAX = 16;
+
+    private static final Map<String, Holder> HOLDERS = new ConcurrentHashMap<>();
+
+    private final int generation;
+    private final String[] cannedReplies;
+    private final List<String> transliterationLanguages;
+    private final boolean autoRemoveNotifications;
+
+    private DevicePrefsSnapshot(final Prefs devicePrefs, final int generation) {
+        this.generation = generation;
+        final ArrayList<String> replies = new ArrayList<>();
+        for (int i = 1; i <= CANNED_REPLIES_MAX; i++) {
+            final String reply = devicePrefs.getString("canned_reply_" + i, null);
+            if (reply != null && !reply.equals("")) {
+                replies.add(reply);
+            }
+        }
+        cannedReplies = replies.toArray(new String[0]);
+
+        final String transliterateLanguagesPref = devicePrefs.getString(PREF_TRANSLITERATION_LANGUAGES, "");
+        if (transliterateLanguagesPref.isEmpty()) {
+            transliterationLanguages = Collections.emptyList();
+        } else {
+            transliterationLanguages = Collections.unmodifiableList(Arrays.asList(transliterateLanguagesPref.split(",")));
+        }
+
+        autoRemoveNotifications = devicePrefs.getBoolean("autoremove_notifications", true);
+    }
+
+    @NonNull
+    public static DevicePrefsSnapshot of(@NonNull final GBDevice device) {
+        Holder holder = HOLDERS.get(device.getAddress());
+        if (holder == null) {
+            final SharedPreferences sharedPrefs = GBApplication.getDeviceSpecificSharedPrefs(device.getAddress());
+            holder = new Holder(sharedPrefs);
+            final Holder existing = HOLDERS.putIfAbsent(device.getAddress(), holder);
+            if (existing != null) {
+                holder = existing;
+            } else {
+                sharedPrefs.registerOnSharedPreferenceChangeListener(holder);
+            }
+        }
+        return holder.get();
+    }
+
+    /**
+     * Drops the snapshot of a device. Clearing the preferences does not notify the listeners before
+     * Android 11, so this must be called explicitly when they are deleted.
+     */
+    public static void invalidate(final String address) {
+        final Holder holder = HOLDERS.remove(address);
+        if (holder != null) {
+            holder.sharedPrefs.unregisterOnSharedPreferenceChangeListener(holder);
+        }
+    }
+
+    /**
+     * @return the non-empty canned replies configured for the device. Must not be modified.
+     */
+    public String[] getCannedReplies() {
+        return cannedReplies;
+    }
+
+    public List<String> getTransliterationLanguages() {
+        return transliterationLanguages;
+    }
+
+    public boolean isAutoRemoveNotifications() {
+        return autoRemoveNotifications;
+    }
+
+    /**
+     * Keeps the listener strongly referenced (SharedPreferences only holds it weakly) and
+     * publishes a new snapshot whenever the device preferences change.
+     */
+    private static final class Holder implements SharedPreferences.OnSharedPreferenceChangeListener {
+        private final SharedPreferences sharedPrefs;
+        private final AtomicInteger generation = new AtomicInteger();
+        private volatile DevicePrefsSnapshot snapshot;
+
+        private Holder(final SharedPreferences sharedPrefs) {
+            this.sharedPrefs = sharedPrefs;
+        }
+
+        private DevicePrefsSnapshot get() {
+            final int currentGeneration = generation.get();
+            DevicePrefsSnapshot current = snapshot;
+            if (current == null || current.generation != currentGeneration) {
+                current = new DevicePrefsSnapshot(new Prefs(sharedPrefs), currentGeneration);
+                snapshot = current;
+            }
+            return current;
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+            generation.incrementAndGet();
+        }
+    }
+}
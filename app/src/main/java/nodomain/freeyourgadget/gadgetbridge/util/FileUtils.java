@@ -102,6 +102,23 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Copies the remaining contents of the input stream to the output stream, until the end of the
+     * input stream is reached. Neither stream is closed.
+     * @return the number of bytes copied
+     * @throws IOException
+     */
+    public static long copyStream(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[65536];
+        long total = 0;
+        int bytes;
+        while ((bytes = in.read(buf)) != -1) {
+            out.write(buf, 0, bytes);
+            total += bytes;
+        }
+        return total;
+    }
+
     public static void copyURItoFile(Context ctx, Uri uri, File destFile) throws IOException {
         if (uri.getPath().equals(destFile.getPath())) {
             return;
@@ -59,7 +59,9 @@ import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSampleBuffer;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
 
 import static nodomain.freeyourgadget.gadgetbridge.GBApplication.isRunningOreoOrLater;
@@ -604,6 +606,14 @@ public class GB {
         LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
     }
 
+    /**
+     * Publishes a realtime sample to the {@link RealtimeSampleBuffer}, whose consumers pick it up
+     * on their own threads.
+     */
+    public static void signalRealtimeSample(ActivitySample sample) {
+        RealtimeSampleBuffer.getInstance().add(sample);
+    }
+
     public static boolean checkPermission(final Context context, final String permission) {
         return ActivityCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
     }
@@ -17,50 +17,78 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import android.util.Pair;
-
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
+/**
+ * A bounded, insertion-ordered key/value store which evicts its oldest entry once the limit is
+ * reached. Lookups in both directions are backed by hash maps, so all operations are O(1).
+ * Adding an existing key replaces its value and makes it the newest entry.
+ */
 public class LimitedQueue<K, V> {
     private final int limit;
-    private final LinkedList<Pair<K, V>> list = new LinkedList<>();
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>();
+    // Several keys may share a value, keep them in insertion order to return the oldest
+    private final Map<V, LinkedHashSet<K>> keysByValue = new HashMap<>();
 
     public LimitedQueue(final int limit) {
         this.limit = limit;
     }
 
     synchronized public void add(final K id, final V obj) {
-        if (list.size() > limit - 1) {
-            list.removeFirst();
+        removeInternal(id);
+        if (entries.size() > limit - 1) {
+            final Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+            final Map.Entry<K, V> eldest = it.next();
+            it.remove();
+            unindex(eldest.getKey(), eldest.getValue());
+        }
+        entries.put(id, obj);
+        LinkedHashSet<K> keys = keysByValue.get(obj);
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            keysByValue.put(obj, keys);
         }
-        list.add(new Pair<>(id, obj));
+        keys.add(id);
     }
 
     synchronized public void remove(final K id) {
-        for (final Iterator<Pair<K, V>> it = list.iterator(); it.hasNext(); ) {
-            Pair<K, V> pair = it.next();
-            if (id.equals(pair.first)) {
-                it.remove();
-            }
-        }
+        removeInternal(id);
     }
 
     synchronized public V lookup(final K id) {
-        for (final Pair<K, V> entry : list) {
-            if (id.equals(entry.first)) {
-                return entry.second;
-            }
+        return entries.get(id);
+    }
+
+    synchronized public K lookupByValue(final V value) {
+        final LinkedHashSet<K> keys = keysByValue.get(value);
+        if (keys == null || keys.isEmpty()) {
+            return null;
+        }
+        return keys.iterator().next();
+    }
+
+    synchronized public int size() {
+        return entries.size();
+    }
+
+    private void removeInternal(final K id) {
+        if (!entries.containsKey(id)) {
+            return;
         }
-        return null;
+        unindex(id, entries.remove(id));
     }
 
-    synchronized public K lookupByValue(final V value){
-        for (final Pair<K, V> entry : list) {
-            if (value.equals(entry.second)) {
-                return entry.first;
+    private void unindex(final K id, final V value) {
+        final LinkedHashSet<K> keys = keysByValue.get(value);
+        if (keys != null) {
+            keys.remove(id);
+            if (keys.isEmpty()) {
+                keysByValue.remove(value);
             }
         }
-        return null;
     }
 }
@@ -0,0 +1,96 @@
+/*  Copyright (C) 2024 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import android.content.SharedPreferences;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+
+/**
+ * Immutable, typed snapshot of the global preferences that are read for every posted or removed
+ * notification. The snapshot is built lazily and dropped whenever any global preference changes,
+ * so that readers never parse the underlying SharedPreferences on the notification path.
+ */
+public final class NotificationPrefs {
+    private static final AtomicReference<NotificationPrefs> CURRENT = new AtomicReference<>();
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener LISTENER = (sharedPreferences, key) -> invalidate();
+    private static volatile boolean listenerRegistered = false;
+
+    private final int generation;
+
+    public final boolean ignoreWorkProfile;
+    public final boolean mediaIgnoresAppList;
+    public final boolean dndFilter;
+    public final boolean supportVoipCalls;
+    public final int timeoutSeconds;
+    public final boolean preferLongText;
+    public final boolean listIsBlacklist;
+    public final boolean ignoreSmsApps;
+    public final boolean genericWhenScreenOn;
+    public final boolean ignoreLowPriority;
+
+    private NotificationPrefs(final Prefs prefs, final int generation) {
+        this.generation = generation;
+        ignoreWorkProfile = prefs.getBoolean("notifications_ignore_work_profile", false);
+        mediaIgnoresAppList = prefs.getBoolean("notification_media_ignores_application_list", false);
+        dndFilter = prefs.getBoolean("notification_filter", false);
+        supportVoipCalls = prefs.getBoolean("notification_support_voip_calls", false);
+        timeoutSeconds = prefs.getInt("notifications_timeout", 0);
+        preferLongText = prefs.getBoolean("notification_prefer_long_text", true);
+        listIsBlacklist = prefs.getString("notification_list_is_blacklist", "true").equals("true");
+        ignoreSmsApps = !"never".equals(prefs.getString("notification_mode_sms", "when_screen_off"));
+        genericWhenScreenOn = prefs.getBoolean("notifications_generic_whenscreenon", false);
+        ignoreLowPriority = prefs.getBoolean("notifications_ignore_low_priority", true);
+    }
+
+    public static NotificationPrefs get() {
+        final int generation = GENERATION.get();
+        NotificationPrefs snapshot = CURRENT.get();
+        if (snapshot != null && snapshot.generation == generation) {
+            return snapshot;
+        }
+
+        final Prefs prefs = GBApplication.getPrefs();
+        if (!listenerRegistered && prefs.getPreferences() != null) {
+            synchronized (NotificationPrefs.class) {
+                if (!listenerRegistered) {
+                    prefs.getPreferences().registerOnSharedPreferenceChangeListener(LISTENER);
+                    listenerRegistered = true;
+                }
+            }
+        }
+
+        // A preference change while building bumps the generation, so a stale snapshot
+        // published here is simply rebuilt by the next reader
+        snapshot = new NotificationPrefs(prefs, generation);
+        CURRENT.set(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Forces the snapshot to be rebuilt on the next access.
+     */
+    public static void invalidate() {
+        GENERATION.incrementAndGet();
+    }
+}
@@ -18,23 +18,19 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util.language;
 
-import static nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst.PREF_TRANSLITERATION_LANGUAGES;
-
 import androidx.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
-import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
+import nodomain.freeyourgadget.gadgetbridge.util.DevicePrefsSnapshot;
 import nodomain.freeyourgadget.gadgetbridge.util.language.impl.ArabicTransliterator;
 import nodomain.freeyourgadget.gadgetbridge.util.language.impl.BengaliTransliterator;
 import nodomain.freeyourgadget.gadgetbridge.util.language.impl.CommonSymbolsTransliterator;
@@ -113,14 +109,12 @@ public class LanguageUtils {
     @Nullable
     public static Transliterator getTransliterator(final GBDevice device) {
         final DeviceCoordinator coordinator = device.getDeviceCoordinator();
-        final Prefs devicePrefs = new Prefs(GBApplication.getDeviceSpecificSharedPrefs(device.getAddress()));
-        final String transliterateLanguagesPref = devicePrefs.getString(PREF_TRANSLITERATION_LANGUAGES, "");
+        final List<String> languages = DevicePrefsSnapshot.of(device).getTransliterationLanguages();
 
-        if (transliterateLanguagesPref.isEmpty()) {
+        if (languages.isEmpty()) {
             return null;
         }
 
-        final List<String> languages = Arrays.asList(transliterateLanguagesPref.split(","));
         final List<Transliterator> transliterators = new ArrayList<>(languages.size());
 
         for (String language : languages) {
@@ -0,0 +1,152 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.appmanager;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceApp;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AppMetadataIndexTest extends TestBase {
+    private static final String UUID_1 = "8f3c8686-31a1-4f5f-91f5-01600c9bdc59";
+    private static final String UUID_2 = "1f03293d-47af-4f28-b960-f2b02a6dd757";
+
+    private File cacheDir;
+
+    @Before
+    public void setUpCacheDir() throws Exception {
+        cacheDir = FileUtils.createTempDir("app-metadata-index");
+    }
+
+    @Test
+    public void testQueryReadsMetadata() throws Exception {
+        writeApp(UUID_1, "First", "1.0", GBDeviceApp.Type.WATCHFACE);
+        writeApp(UUID_2, "Second", "2.0", GBDeviceApp.Type.APP_GENERIC);
+        write(new File(cacheDir, UUID_2 + "_config.js"), "config");
+
+        final List<AppMetadataIndex.Entry> entries = new AppMetadataIndex(cacheDir, ".pbw").query(Arrays.asList(UUID_1, UUID_2));
+        assertEquals(2, entries.size());
+
+        final GBDeviceApp first = entries.get(0).createApp();
+        assertEquals(UUID_1, first.getUUID().toString());
+        assertEquals("First", first.getName());
+        assertEquals("1.0", first.getVersion());
+        assertEquals(GBDeviceApp.Type.WATCHFACE, first.getType());
+        assertFalse(first.isConfigurable());
+        assertTrue(first.isInCache());
+
+        final GBDeviceApp second = entries.get(1).createApp();
+        assertEquals("Second", second.getName());
+        assertTrue(second.isConfigurable());
+    }
+
+    @Test
+    public void testMissingMetadata() throws Exception {
+        write(new File(cacheDir, UUID_1 + ".pbw"), "app");
+
+        final AppMetadataIndex index = new AppMetadataIndex(cacheDir, ".pbw");
+        final AppMetadataIndex.Entry entry = index.query(null).get(0);
+        assertEquals(UUID_1, entry.baseName);
+        assertNull(entry.metadata);
+        assertNull(entry.createApp());
+        assertNull(index.loadThumbnail(entry));
+    }
+
+    @Test
+    public void testPersistedEntriesAreReusedUntilChanged() throws Exception {
+        final File jsonFile = writeApp(UUID_1, "First", "1.0", GBDeviceApp.Type.WATCHFACE);
+        final long modified = jsonFile.lastModified();
+
+        final AppMetadataIndex index = new AppMetadataIndex(cacheDir, ".pbw");
+        assertEquals("First", index.query(null).get(0).createApp().getName());
+        index.save();
+        assertTrue(new File(cacheDir, AppMetadataIndex.INDEX_FILENAME).exists());
+
+        // same size and modification time, so a new index uses the stored entry
+        writeMetadata(UUID_1, "Other", "1.0", GBDeviceApp.Type.WATCHFACE);
+        assertTrue(jsonFile.setLastModified(modified));
+        assertEquals("First", new AppMetadataIndex(cacheDir, ".pbw").query(null).get(0).createApp().getName());
+
+        // a changed file is read again
+        assertTrue(jsonFile.setLastModified(modified - 10000));
+        final AppMetadataIndex reloaded = new AppMetadataIndex(cacheDir, ".pbw");
+        assertEquals("Other", reloaded.query(null).get(0).createApp().getName());
+    }
+
+    @Test
+    public void testFullQueryDropsRemovedApps() throws Exception {
+        writeApp(UUID_1, "First", "1.0", GBDeviceApp.Type.WATCHFACE);
+        writeApp(UUID_2, "Second", "2.0", GBDeviceApp.Type.WATCHFACE);
+        final AppMetadataIndex index = new AppMetadataIndex(cacheDir, ".pbw");
+        assertEquals(2, index.query(null).size());
+
+        assertTrue(new File(cacheDir, UUID_2 + ".pbw").delete());
+        final List<AppMetadataIndex.Entry> entries = index.query(null);
+        assertEquals(1, entries.size());
+        assertEquals(UUID_1, entries.get(0).baseName);
+    }
+
+    @Test
+    public void testThumbnailOfPreview() throws Exception {
+        writeApp(UUID_1, "First", "1.0", GBDeviceApp.Type.WATCHFACE);
+        writePreview(UUID_1, 64);
+
+        final AppMetadataIndex index = new AppMetadataIndex(cacheDir, ".pbw");
+        final AppMetadataIndex.Entry entry = index.query(null).get(0);
+        assertNotNull(index.loadThumbnail(entry));
+    }
+
+    @Test
+    public void testThumbnailIsCreatedWhenLoaded() throws Exception {
+        writeApp(UUID_1, "First", "1.0", GBDeviceApp.Type.WATCHFACE);
+        writePreview(UUID_1, AppMetadataIndex.THUMBNAIL_SIZE * 2);
+        final File thumbnailDir = new File(cacheDir, AppMetadataIndex.THUMBNAIL_DIRNAME);
+
+        final AppMetadataIndex index = new AppMetadataIndex(cacheDir, ".pbw");
+        final AppMetadataIndex.Entry entry = index.query(null).get(0);
+        assertFalse(thumbnailDir.exists());
+
+        assertNotNull(index.loadThumbnail(entry));
+    }
+
+    private File writeApp(final String uuid, final String name, final String version, final GBDeviceApp.Type type) throws Exception {
+        write(new File(cacheDir, uuid + ".pbw"), "app");
+        return writeMetadata(uuid, name, version, type);
+    }
+
+    private File writeMetadata(final String uuid, final String name, final String version, final GBDeviceApp.Type type) throws IOException {
+        final File jsonFile = new File(cacheDir, uuid + ".json");
+        write(jsonFile, new GBDeviceApp(UUID.fromString(uuid), name, "Creator", version, type).getJSON().toString());
+        return jsonFile;
+    }
+
+    private void writePreview(final String uuid, final int size) throws IOException {
+        final Bitmap preview = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        try (OutputStream out = new FileOutputStream(new File(cacheDir, uuid + "_preview.png"))) {
+            preview.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineDataSet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.model.RealtimeSampleBuffer;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Simulates a multi-hour live activity session and checks that neither the sample buffer nor
+ * the chart data grow with its length.
+ */
+public class LiveActivitySoakTest extends TestBase {
+    private static final int SESSION_SECONDS = 6 * 60 * 60;
+    private static final int SAMPLES_PER_SECOND = 4;
+    private static final int HISTORY_CAPACITY = 3600;
+
+    private long received;
+    private int lastTimestamp;
+
+    @Test
+    public void testMemoryStaysConstant() {
+        final RealtimeSampleBuffer buffer = new RealtimeSampleBuffer(RealtimeSampleBuffer.DEFAULT_CAPACITY);
+        final LineDataSet history = new LineDataSet(new ArrayList<Entry>(), "history");
+        final Set<Entry> allocatedEntries = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+
+        long position = buffer.getPosition();
+        for (int second = 0; second < SESSION_SECONDS; second++) {
+            for (int i = 0; i < SAMPLES_PER_SECOND; i++) {
+                buffer.add(second, 60 + second % 100, 2);
+            }
+            // one frame per second, the pulse of the fragment
+            position = buffer.drain(position, (timestamp, heartRate, steps) -> {
+                received++;
+                lastTimestamp = timestamp;
+            });
+            LiveActivityFragment.addHistoryEntry(history, second, second % 150, HISTORY_CAPACITY);
+            allocatedEntries.add(history.getEntryForIndex(history.getEntryCount() - 1));
+        }
+
+        assertEquals((long) SESSION_SECONDS * SAMPLES_PER_SECOND, received);
+        assertEquals(SESSION_SECONDS - 1, lastTimestamp);
+        assertEquals(HISTORY_CAPACITY, history.getEntryCount());
+        assertEquals(HISTORY_CAPACITY, allocatedEntries.size());
+        // the history holds the last hour, in order
+        assertEquals(SESSION_SECONDS - HISTORY_CAPACITY, history.getEntryForIndex(0).getX(), 0f);
+        assertEquals(SESSION_SECONDS - 1, history.getEntryForIndex(HISTORY_CAPACITY - 1).getX(), 0f);
+        assertEquals(SESSION_SECONDS - 1, history.getXMax(), 0f);
+    }
+
+    @Test
+    public void testSlowConsumerLosesOldestSamples() {
+        final RealtimeSampleBuffer buffer = new RealtimeSampleBuffer(8);
+        final long start = buffer.getPosition();
+        for (int i = 0; i < 20; i++) {
+            buffer.add(i, 70, 1);
+        }
+
+        final ArrayList<Integer> timestamps = new ArrayList<>();
+        assertEquals(20, buffer.drain(start, (timestamp, heartRate, steps) -> timestamps.add(timestamp)));
+        assertEquals(8, timestamps.size());
+        assertEquals(12, (int) timestamps.get(0));
+        assertEquals(19, (int) timestamps.get(7));
+    }
+}
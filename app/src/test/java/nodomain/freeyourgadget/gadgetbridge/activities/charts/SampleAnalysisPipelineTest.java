@@ -0,0 +1,194 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySession;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleAnalysisPipelineTest extends TestBase {
+    private static final int[] KINDS = {
+            ActivityKind.TYPE_ACTIVITY,
+            ActivityKind.TYPE_LIGHT_SLEEP,
+            ActivityKind.TYPE_DEEP_SLEEP,
+            ActivityKind.TYPE_REM_SLEEP,
+            ActivityKind.TYPE_NOT_WORN,
+            ActivityKind.TYPE_UNKNOWN,
+    };
+
+    @Test
+    public void testFusedPassMatchesSeparateAnalyses() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            final List<TestSample> samples = createSamples(random);
+
+            final ActivityAnalysis activityAnalysis = new ActivityAnalysis();
+            final ActivityAmounts expectedAmounts = activityAnalysis.calculateActivityAmounts(samples);
+            final List<ActivitySession> expectedStepSessions = new StepAnalysis().calculateStepSessions(samples);
+            final List<SleepAnalysis.SleepSession> expectedSleepSessions = new SleepAnalysis().calculateSleepSessions(samples);
+
+            final ActivityAnalysis.AmountsAccumulator amounts = new ActivityAnalysis.AmountsAccumulator();
+            final ActivityAnalysis.SpeedZonesAccumulator speedZones = new ActivityAnalysis.SpeedZonesAccumulator(new HashMap<Integer, Long>());
+            final StepAnalysis.SessionAccumulator stepSessions = new StepAnalysis.SessionAccumulator();
+            final SleepAnalysis.SessionAccumulator sleepSessions = new SleepAnalysis.SessionAccumulator();
+            new SampleAnalysisPipeline()
+                    .add(amounts)
+                    .add(speedZones)
+                    .add(stepSessions)
+                    .add(sleepSessions)
+                    .run(samples);
+
+            assertEquals(describeAmounts(expectedAmounts), describeAmounts(amounts.getResult()));
+            assertEquals(activityAnalysis.stats, speedZones.getStats());
+            assertEquals(describeStepSessions(expectedStepSessions), describeStepSessions(stepSessions.getResult()));
+            assertEquals(describeSleepSessions(expectedSleepSessions), describeSleepSessions(sleepSessions.getResult()));
+        }
+    }
+
+    @Test
+    public void testStats() {
+        final List<TestSample> samples = new ArrayList<>();
+        samples.add(new TestSample(60, ActivityKind.TYPE_ACTIVITY, 100, 150, 0.9f));
+        samples.add(new TestSample(120, ActivityKind.TYPE_LIGHT_SLEEP, 0, 60, 0.2f));
+        samples.add(new TestSample(180, ActivityKind.TYPE_DEEP_SLEEP, 0, 50, 0.1f));
+        samples.add(new TestSample(240, ActivityKind.TYPE_DEEP_SLEEP, 0, ActivitySample.NOT_MEASURED, 0.05f));
+
+        final HeartRateStatsAccumulator heartRateStats = new HeartRateStatsAccumulator(ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP);
+        final IntensityStatsAccumulator intensityStats = new IntensityStatsAccumulator(ActivityKind.TYPE_LIGHT_SLEEP, ActivityKind.TYPE_DEEP_SLEEP);
+        new SampleAnalysisPipeline().add(heartRateStats).add(intensityStats).run(samples);
+
+        assertEquals(2, heartRateStats.getCount());
+        assertEquals(55f, heartRateStats.getAverage(), 0f);
+        assertEquals(50, heartRateStats.getMin());
+        assertEquals(60, heartRateStats.getMax());
+        assertEquals(3, intensityStats.getCount());
+        assertEquals(0.35f, intensityStats.getSum(), 0.0001f);
+        assertEquals(0.05f, intensityStats.getMin(), 0f);
+        assertEquals(0.2f, intensityStats.getMax(), 0f);
+    }
+
+    private static List<TestSample> createSamples(final Random random) {
+        final List<TestSample> samples = new ArrayList<>();
+        final int phaseLength = 30 + random.nextInt(120);
+        int timestamp = 1700000000;
+        for (int i = random.nextInt(1500); i > 0; i--) {
+            timestamp += random.nextInt(20) == 0 ? random.nextInt(4 * 3600) : 60;
+            final int kind = random.nextInt(10) == 0 ? KINDS[random.nextInt(KINDS.length)] : KINDS[(i / phaseLength) % KINDS.length];
+            final int steps = random.nextInt(5) == 0 ? ActivitySample.NOT_MEASURED : random.nextInt(150);
+            samples.add(new TestSample(timestamp, kind, steps, 40 + random.nextInt(120), random.nextFloat()));
+        }
+        return samples;
+    }
+
+    private static String describeAmounts(final ActivityAmounts amounts) {
+        final StringBuilder sb = new StringBuilder();
+        for (final ActivityAmount amount : amounts.getAmounts()) {
+            sb.append(amount.getActivityKind()).append(' ')
+                    .append(amount.getTotalSeconds()).append(' ')
+                    .append(amount.getTotalSteps()).append(' ')
+                    .append(amount.getPercent()).append(' ')
+                    .append(amount.getStartDate()).append(' ')
+                    .append(amount.getEndDate()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String describeStepSessions(final List<ActivitySession> sessions) {
+        final StringBuilder sb = new StringBuilder();
+        for (final ActivitySession session : sessions) {
+            sb.append(session.getStartTime()).append(' ')
+                    .append(session.getEndTime()).append(' ')
+                    .append(session.getActiveSteps()).append(' ')
+                    .append(session.getHeartRateAverage()).append(' ')
+                    .append(session.getIntensity()).append(' ')
+                    .append(session.getDistance()).append(' ')
+                    .append(session.getActivityKind()).append(' ')
+                    .append(session.getSessionType()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String describeSleepSessions(final List<SleepAnalysis.SleepSession> sessions) {
+        final StringBuilder sb = new StringBuilder();
+        for (final SleepAnalysis.SleepSession session : sessions) {
+            sb.append(session.getSleepStart()).append(' ')
+                    .append(session.getSleepEnd()).append(' ')
+                    .append(session.getLightSleepDuration()).append(' ')
+                    .append(session.getDeepSleepDuration()).append(' ')
+                    .append(session.getRemSleepDuration()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static class TestSample implements ActivitySample {
+        private final int timestamp;
+        private final int kind;
+        private final int steps;
+        private int heartRate;
+        private final float intensity;
+
+        private TestSample(final int timestamp, final int kind, final int steps, final int heartRate, final float intensity) {
+            this.timestamp = timestamp;
+            this.kind = kind;
+            this.steps = steps;
+            this.heartRate = heartRate;
+            this.intensity = intensity;
+        }
+
+        @Override
+        public SampleProvider getProvider() {
+            return null;
+        }
+
+        @Override
+        public int getRawKind() {
+            return kind;
+        }
+
+        @Override
+        public int getKind() {
+            return kind;
+        }
+
+        @Override
+        public int getRawIntensity() {
+            return (int) (intensity * 100);
+        }
+
+        @Override
+        public float getIntensity() {
+            return intensity;
+        }
+
+        @Override
+        public int getSteps() {
+            return steps;
+        }
+
+        @Override
+        public int getHeartRate() {
+            return heartRate;
+        }
+
+        @Override
+        public void setHeartRate(final int heartRate) {
+            this.heartRate = heartRate;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+    }
+}
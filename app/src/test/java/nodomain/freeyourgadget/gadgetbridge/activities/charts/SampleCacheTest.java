@@ -0,0 +1,130 @@
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleCacheTest extends TestBase {
+    private static final String DEVICE = "00:00:00:00:00:01";
+
+    private int loads;
+
+    @Test
+    public void testExactAndSubRangeHits() {
+        final SampleCache cache = new SampleCache();
+
+        assertEquals(101, get(cache, 1000, 1100, false).size());
+        assertEquals(1, loads);
+
+        // the same range again, then a day within it
+        assertEquals(101, get(cache, 1000, 1100, false).size());
+        final List<AbstractActivitySample> subRange = get(cache, 1010, 1019, false);
+        assertEquals(1, loads);
+        assertEquals(10, subRange.size());
+        assertEquals(1010, subRange.get(0).getTimestamp());
+        assertEquals(1019, subRange.get(9).getTimestamp());
+
+        // partially outside the cached range
+        assertEquals(21, get(cache, 1090, 1110, false).size());
+        assertEquals(2, loads);
+
+        // range dependent queries only hit exact ranges
+        assertEquals(10, get(cache, 1020, 1029, true).size());
+        assertEquals(3, loads);
+        assertEquals(10, get(cache, 1020, 1029, true).size());
+        assertEquals(3, loads);
+    }
+
+    @Test
+    public void testResultsMayBeModified() {
+        final SampleCache cache = new SampleCache();
+
+        get(cache, 1000, 1009, false).clear();
+        assertEquals(10, get(cache, 1000, 1009, false).size());
+        get(cache, 1000, 1004, false).clear();
+        assertEquals(5, get(cache, 1000, 1004, false).size());
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testSamplesAreNotShared() {
+        final SampleCache cache = new SampleCache();
+
+        final List<AbstractActivitySample> loaded = get(cache, 1000, 1009, false);
+        loaded.get(0).setTimestamp(1);
+        final List<AbstractActivitySample> exact = get(cache, 1000, 1009, false);
+        assertEquals(1000, exact.get(0).getTimestamp());
+        exact.get(0).setTimestamp(2);
+        final List<AbstractActivitySample> subRange = get(cache, 1000, 1004, false);
+        assertEquals(1000, subRange.get(0).getTimestamp());
+        assertNotSame(exact.get(1), subRange.get(1));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() {
+        final SampleCache cache = new SampleCache(250);
+
+        get(cache, 0, 99, false);
+        get(cache, 1000, 1099, false);
+        get(cache, 0, 99, false);
+        assertEquals(2, loads);
+
+        // exceeds the limit, evicts the least recently used range
+        get(cache, 2000, 2099, false);
+        assertEquals(200, cache.getCachedSampleCount());
+        get(cache, 0, 99, false);
+        assertEquals(3, loads);
+        get(cache, 1000, 1099, false);
+        assertEquals(4, loads);
+
+        // larger than the whole cache, not cached at all
+        get(cache, 5000, 5299, false);
+        get(cache, 5000, 5299, false);
+        assertEquals(6, loads);
+
+        cache.invalidate("00:00:00:00:00:02");
+        get(cache, 1000, 1099, false);
+        assertEquals(6, loads);
+
+        cache.invalidate(DEVICE);
+        assertEquals(0, cache.getCachedSampleCount());
+        get(cache, 1000, 1099, false);
+        assertEquals(7, loads);
+    }
+
+    @Test
+    public void testRangeDependentProviders() {
+        final GBDevice device = createDummyGDevice(DEVICE);
+        assertFalse(new MiBandSampleProvider(device, daoSession).isRangeDependent());
+        // adds virtual samples for the queried range
+        assertTrue(new HPlusHealthSampleProvider(device, daoSession).isRangeDependent());
+    }
+
+    private List<AbstractActivitySample> get(final SampleCache cache, final int tsFrom, final int tsTo, final boolean rangeDependent) {
+        return cache.get(DEVICE, "all", tsFrom, tsTo, rangeDependent, this::load);
+    }
+
+    private List<? extends AbstractActivitySample> load(final int tsFrom, final int tsTo) {
+        loads++;
+        final List<AbstractActivitySample> samples = new ArrayList<>();
+        for (int ts = tsFrom; ts <= tsTo; ts++) {
+            final TrailingActivitySample sample = new TrailingActivitySample();
+            sample.setTimestamp(ts);
+            samples.add(sample);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,183 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalExporterTest extends TestBase {
+    private File workDir;
+    private SQLiteDatabase db;
+    private IncrementalExporter exporter;
+
+    @Before
+    public void setUpDatabase() throws Exception {
+        workDir = FileUtils.createTempDir("incremental-export");
+        db = SQLiteDatabase.openOrCreateDatabase(new File(workDir, "live.db"), null);
+        DaoMaster.createAllTables(db, false);
+        exporter = new IncrementalExporter(new File(workDir, "export"), "Gadgetbridge");
+    }
+
+    @After
+    public void tearDownDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void testDeltasRestoreToLiveState() throws Exception {
+        insertDevice(1, "Watch");
+        insertSamples(1, 1000, 100);
+        commitBase();
+
+        // new samples, a replaced sample and an updated non-sample table
+        insertSamples(1, 1100, 50);
+        db.execSQL("INSERT OR REPLACE INTO PEBBLE_HEALTH_ACTIVITY_SAMPLE (TIMESTAMP, DEVICE_ID, USER_ID, STEPS, RAW_INTENSITY) VALUES (1010, 1, 1, 999, 3)");
+        db.execSQL("UPDATE DEVICE SET NAME = 'Renamed' WHERE _id = 1");
+        assertFalse(exporter.writeDelta(db, exporter.loadState(), 0).base);
+
+        insertDevice(2, "Band");
+        insertSamples(2, 1000, 20);
+        assertFalse(exporter.writeDelta(db, exporter.loadState(), 0).base);
+        assertEquals(2, exporter.getDeltaFiles().size());
+
+        final File restoredFile = new File(workDir, "restored.db");
+        FileUtils.copyFile(exporter.getBaseFile(), restoredFile);
+        try (SQLiteDatabase restored = SQLiteDatabase.openDatabase(restoredFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE)) {
+            assertEquals(2, exporter.importDeltas(restored));
+            assertEquals(dump(db, "DEVICE"), dump(restored, "DEVICE"));
+            assertEquals(dump(db, "PEBBLE_HEALTH_ACTIVITY_SAMPLE"), dump(restored, "PEBBLE_HEALTH_ACTIVITY_SAMPLE"));
+            assertEquals(170, dump(restored, "PEBBLE_HEALTH_ACTIVITY_SAMPLE").size());
+        }
+    }
+
+    @Test
+    public void testDeltasCatchBackfillAndDeletesInWithoutRowidTables() throws Exception {
+        db.execSQL("CREATE TABLE TEST_SAMPLE (TIMESTAMP INTEGER NOT NULL, DEVICE_ID INTEGER NOT NULL, VALUE INTEGER,"
+                + " PRIMARY KEY (TIMESTAMP, DEVICE_ID) ON CONFLICT REPLACE) WITHOUT ROWID");
+        for (int i = 0; i < 10; i++) {
+            db.execSQL("INSERT INTO TEST_SAMPLE VALUES (?, 1, ?)", new Object[]{1000 + i, i});
+        }
+        commitBase();
+
+        // a backfilled sample older than everything in the base, and a delete plus an insert that keep the count
+        db.execSQL("INSERT INTO TEST_SAMPLE VALUES (500, 1, 42)");
+        db.execSQL("DELETE FROM TEST_SAMPLE WHERE TIMESTAMP IN (1003, 1004)");
+        db.execSQL("UPDATE TEST_SAMPLE SET VALUE = 99 WHERE TIMESTAMP = 1005");
+        assertFalse(exporter.writeDelta(db, exporter.loadState(), 0).base);
+        db.execSQL("DELETE FROM TEST_SAMPLE WHERE TIMESTAMP = 1000");
+        db.execSQL("INSERT INTO TEST_SAMPLE VALUES (1000, 2, 7)");
+        assertFalse(exporter.writeDelta(db, exporter.loadState(), 0).base);
+
+        final File restoredFile = new File(workDir, "restored.db");
+        FileUtils.copyFile(exporter.getBaseFile(), restoredFile);
+        try (SQLiteDatabase restored = SQLiteDatabase.openDatabase(restoredFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE)) {
+            assertEquals(2, exporter.importDeltas(restored));
+            assertEquals(dump(db, "TEST_SAMPLE"), dump(restored, "TEST_SAMPLE"));
+            assertEquals(9, dump(restored, "TEST_SAMPLE").size());
+        }
+    }
+
+    @Test
+    public void testDeltasOnlyHoldChangedRowsOfTablesWithPrimaryKey() throws Exception {
+        insertDevice(1, "Watch");
+        insertDevice(2, "Band");
+        commitBase();
+
+        db.execSQL("UPDATE DEVICE SET NAME = 'Renamed' WHERE _id = 2");
+        final File deltaFile = exporter.writeDelta(db, exporter.loadState(), 0).file;
+        try (SQLiteDatabase delta = SQLiteDatabase.openDatabase(deltaFile.getPath(), null, SQLiteDatabase.OPEN_READONLY)) {
+            final List<String> rows = dump(delta, "DEVICE");
+            assertEquals(1, rows.size());
+            assertTrue(rows.get(0).startsWith("2|Renamed|"));
+        }
+
+        final File restoredFile = new File(workDir, "restored.db");
+        FileUtils.copyFile(exporter.getBaseFile(), restoredFile);
+        try (SQLiteDatabase restored = SQLiteDatabase.openDatabase(restoredFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE)) {
+            assertEquals(1, exporter.importDeltas(restored));
+            assertEquals(dump(db, "DEVICE"), dump(restored, "DEVICE"));
+        }
+    }
+
+    @Test
+    public void testMissingChangeTrackingNeedsBase() throws Exception {
+        insertDevice(1, "Watch");
+        insertSamples(1, 1000, 10);
+        commitBase();
+        assertFalse(exporter.needsBase(exporter.loadState(), db));
+
+        // eg. the database was replaced by an import
+        IncrementalExporter.stopChangeTracking(db);
+        try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE name LIKE 'INCREMENTAL_EXPORT_%'", null)) {
+            assertEquals(0, cursor.getCount());
+        }
+        assertTrue(exporter.needsBase(exporter.loadState(), db));
+    }
+
+    @Test
+    public void testDeltasIgnoredForForeignBase() throws Exception {
+        insertDevice(1, "Watch");
+        insertSamples(1, 1000, 10);
+        commitBase();
+        insertSamples(1, 2000, 10);
+        exporter.writeDelta(db, exporter.loadState(), 0);
+
+        // a manual export replaced the base the deltas belong to
+        assertTrue(exporter.getBaseFile().setLastModified(exporter.getBaseFile().lastModified() - 60000));
+        assertEquals(0, exporter.importDeltas(db));
+    }
+
+    private void commitBase() throws Exception {
+        final IncrementalExporter.State state = exporter.startChangeTracking(db);
+        final File snapshot = new File(workDir, "snapshot.db");
+        FileUtils.copyFile(new File(workDir, "live.db"), snapshot);
+        assertTrue(exporter.commitBase(snapshot, state, 0).base);
+    }
+
+    private void insertDevice(final long id, final String name) {
+        db.execSQL("INSERT INTO DEVICE (_id, NAME, MANUFACTURER, IDENTIFIER, TYPE, TYPE_NAME) VALUES (?, ?, 'test', ?, 0, 'TEST')", new Object[]{id, name, "00:00:00:00:00:0" + id});
+    }
+
+    private void insertSamples(final long deviceId, final int startTs, final int count) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                db.execSQL(
+                        "INSERT OR REPLACE INTO PEBBLE_HEALTH_ACTIVITY_SAMPLE (TIMESTAMP, DEVICE_ID, USER_ID, STEPS, RAW_INTENSITY) VALUES (?, ?, 1, ?, 0)",
+                        new Object[]{startTs + i, deviceId, i}
+                );
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static List<String> dump(final SQLiteDatabase database, final String table) {
+        final List<String> rows = new ArrayList<>();
+        try (Cursor cursor = database.rawQuery("SELECT * FROM \"" + table + "\" ORDER BY 1, 2", null)) {
+            while (cursor.moveToNext()) {
+                final StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(cursor.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}
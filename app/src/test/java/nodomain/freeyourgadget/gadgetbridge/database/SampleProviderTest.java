@@ -57,6 +57,26 @@ public class SampleProviderTest extends TestBase {
         assertEquals(ActivityKind.TYPE_NOT_WORN, type);
     }
 
+    @Test
+    public void testNormalizationLookup() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        for (int raw = -300; raw <= 300; raw++) {
+            assertEquals(sampleProvider.normalizeType(raw), sampleProvider.getNormalizedType(raw));
+            assertEquals(sampleProvider.normalizeIntensity(raw), sampleProvider.getNormalizedIntensity(raw), 0f);
+            // looked up twice, the second time from the table
+            assertEquals(sampleProvider.normalizeType(raw), sampleProvider.getNormalizedType(raw));
+            assertEquals(sampleProvider.normalizeIntensity(raw), sampleProvider.getNormalizedIntensity(raw), 0f);
+        }
+
+        // the kind cached in the sample follows changes of the raw kind
+        MiBandActivitySample sample = sampleProvider.createActivitySample();
+        sample.setProvider(sampleProvider);
+        sample.setRawKind(MiBandSampleProvider.TYPE_DEEP_SLEEP);
+        assertEquals(ActivityKind.TYPE_DEEP_SLEEP, sample.getKind());
+        sample.setRawKind(MiBandSampleProvider.TYPE_LIGHT_SLEEP);
+        assertEquals(ActivityKind.TYPE_LIGHT_SLEEP, sample.getKind());
+    }
+
     @Test
     public void testNoSamples() {
         MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
@@ -0,0 +1,112 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSampleBlockCodecTest {
+    private static final long DAY_START = 1700006400000L; // 2023-11-15T00:00:00Z
+
+    @Test
+    public void testRoundTrip() {
+        final TimeSampleBlockCodec.Block block = new TimeSampleBlockCodec.Block(5, 3);
+        final long[] timestamps = {DAY_START, DAY_START + 1, DAY_START + 60000, DAY_START + 60001, DAY_START + TimeSampleBlockCodec.BLOCK_DURATION - 1};
+        final int[][] columns = {
+                {0, -1, 1, 127, -128},
+                {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, Integer.MIN_VALUE},
+                {Float.floatToIntBits(1.5f), Float.floatToIntBits(-2.25f), Float.floatToIntBits(Float.NaN), 0, Float.floatToIntBits(1e30f)},
+        };
+        System.arraycopy(timestamps, 0, block.timestamps, 0, timestamps.length);
+        for (int c = 0; c < columns.length; c++) {
+            System.arraycopy(columns[c], 0, block.columns[c], 0, columns[c].length);
+        }
+
+        final TimeSampleBlockCodec.Block decoded = TimeSampleBlockCodec.decode(DAY_START, TimeSampleBlockCodec.encode(DAY_START, block));
+        assertEquals(5, decoded.count);
+        assertArrayEquals(timestamps, decoded.timestamps);
+        for (int c = 0; c < columns.length; c++) {
+            assertArrayEquals(columns[c], decoded.columns[c]);
+        }
+    }
+
+    @Test
+    public void testEmptyBlock() {
+        final TimeSampleBlockCodec.Block decoded = TimeSampleBlockCodec.decode(DAY_START, TimeSampleBlockCodec.encode(DAY_START, new TimeSampleBlockCodec.Block(0, 2)));
+        assertEquals(0, decoded.count);
+        assertEquals(2, decoded.columns.length);
+    }
+
+    @Test
+    public void testMinuteSamplesAreCompact() {
+        // a heart rate sample every minute, which is one byte per timestamp and value
+        final TimeSampleBlockCodec.Block block = new TimeSampleBlockCodec.Block(1440, 2);
+        for (int i = 0; i < block.count; i++) {
+            block.timestamps[i] = DAY_START + i * 60000L;
+            block.columns[0][i] = 3600;
+            block.columns[1][i] = 60 + (i % 20);
+        }
+        final byte[] data = TimeSampleBlockCodec.encode(DAY_START, block);
+        assertTrue("encoded to " + data.length + " bytes", data.length < 1440 * 3 + 16);
+
+        final TimeSampleBlockCodec.Block decoded = TimeSampleBlockCodec.decode(DAY_START, data);
+        assertArrayEquals(block.timestamps, decoded.timestamps);
+        assertArrayEquals(block.columns[0], decoded.columns[0]);
+        assertArrayEquals(block.columns[1], decoded.columns[1]);
+    }
+
+    @Test
+    public void testInvalidTimestamps() {
+        assertEncodeFails(DAY_START + 2, DAY_START + 1);
+        assertEncodeFails(DAY_START + 1, DAY_START + 1);
+        assertEncodeFails(DAY_START - 1);
+        assertEncodeFails(DAY_START + TimeSampleBlockCodec.BLOCK_DURATION);
+    }
+
+    @Test
+    public void testInvalidData() {
+        final TimeSampleBlockCodec.Block block = new TimeSampleBlockCodec.Block(3, 1);
+        for (int i = 0; i < block.count; i++) {
+            block.timestamps[i] = DAY_START + i * 1000L;
+            block.columns[0][i] = i;
+        }
+        final byte[] data = TimeSampleBlockCodec.encode(DAY_START, block);
+        assertDecodeFails(Arrays.copyOf(data, data.length - 1));
+        final byte[] otherVersion = data.clone();
+        otherVersion[0] = 99;
+        assertDecodeFails(otherVersion);
+        assertDecodeFails(new byte[]{1, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 1});
+    }
+
+    @Test
+    public void testBlockStart() {
+        assertEquals(DAY_START, TimeSampleBlockCodec.getBlockStart(DAY_START));
+        assertEquals(DAY_START, TimeSampleBlockCodec.getBlockStart(DAY_START + TimeSampleBlockCodec.BLOCK_DURATION - 1));
+        assertEquals(0, TimeSampleBlockCodec.getBlockStart(0));
+        assertEquals(-TimeSampleBlockCodec.BLOCK_DURATION, TimeSampleBlockCodec.getBlockStart(-1));
+    }
+
+    private static void assertEncodeFails(final long... timestamps) {
+        final TimeSampleBlockCodec.Block block = new TimeSampleBlockCodec.Block(timestamps.length, 1);
+        System.arraycopy(timestamps, 0, block.timestamps, 0, timestamps.length);
+        try {
+            TimeSampleBlockCodec.encode(DAY_START, block);
+            fail("Expected " + Arrays.toString(timestamps) + " to be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertDecodeFails(final byte[] data) {
+        try {
+            TimeSampleBlockCodec.decode(DAY_START, data);
+            fail("Expected " + Arrays.toString(data) + " to be rejected");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.TimeSampleBlockCodec;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiHeartRateManualSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiPaiSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiStressSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuamiHeartRateManualSample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuamiPaiSample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HuamiStressSample;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSampleBlockStorageTest extends TestBase {
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSampleBlockStorageTest.class);
+
+    private static final long DAY_START = 1700006400000L; // 2023-11-15T00:00:00Z
+    private static final long DAY = TimeSampleBlockCodec.BLOCK_DURATION;
+    private static final long MINUTE = 60 * 1000L;
+
+    private GBDevice gbDevice;
+    private Device device;
+    private User user;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        gbDevice = createDummyGDevice("00:00:00:00:50");
+        device = DBHelper.getDevice(gbDevice, daoSession);
+        user = DBHelper.getUser(daoSession);
+    }
+
+    @After
+    public void disableBlockStorage() {
+        setBlockStorageEnabled(false);
+    }
+
+    @Test
+    public void testMoveSamplesToBlocks() {
+        final HuamiStressSampleProvider provider = new HuamiStressSampleProvider(gbDevice, daoSession);
+        // 3 days of samples every 5 minutes, starting and ending within a day
+        final List<HuamiStressSample> samples = new ArrayList<>();
+        for (long timestamp = DAY_START + 7 * MINUTE; timestamp < DAY_START + 3 * DAY - MINUTE; timestamp += 5 * MINUTE) {
+            samples.add(createStressSample(provider, timestamp, (int) (timestamp / MINUTE % 100)));
+        }
+        provider.addSamples(samples);
+        final List<HuamiStressSample> rows = provider.getAllSamples(DAY_START, DAY_START + 3 * DAY);
+        assertEquals(samples.size(), rows.size());
+
+        assertEquals(samples.size(), provider.moveSamplesToBlocks());
+        assertEquals(0, provider.getSampleDao().count());
+        assertEquals(3, daoSession.getTimeSampleBlockDao().count());
+
+        assertStressSamplesEqual(rows, provider.getAllSamples(DAY_START, DAY_START + 3 * DAY));
+        assertStressSamplesEqual(rows.subList(10, 400), provider.getAllSamples(rows.get(10).getTimestamp(), rows.get(399).getTimestamp()));
+        assertEquals(0, provider.getAllSamples(DAY_START + 3 * DAY, DAY_START + 4 * DAY).size());
+        assertEquals(rows.get(0).getTimestamp(), provider.getFirstSample().getTimestamp());
+        assertEquals(rows.get(rows.size() - 1).getTimestamp(), provider.getLatestSample().getTimestamp());
+        assertEquals(rows.get(rows.size() - 1).getStress(), provider.getLatestSample().getStress());
+
+        // nothing left to move
+        assertEquals(0, provider.moveSamplesToBlocks());
+    }
+
+    @Test
+    public void testAddSamplesMergesIntoBlocks() {
+        setBlockStorageEnabled(true);
+        final HuamiStressSampleProvider provider = new HuamiStressSampleProvider(gbDevice, daoSession);
+        final List<HuamiStressSample> samples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            samples.add(createStressSample(provider, DAY_START + i * MINUTE, i));
+        }
+        provider.addSamples(samples);
+        assertEquals(0, provider.getSampleDao().count());
+        assertEquals(1, daoSession.getTimeSampleBlockDao().count());
+
+        // replaces an existing sample, adds one to the same day and one to the next
+        provider.addSample(createStressSample(provider, DAY_START + 5 * MINUTE, 50));
+        provider.addSamples(Arrays.asList(
+                createStressSample(provider, DAY_START + 10 * MINUTE, 10),
+                createStressSample(provider, DAY_START + DAY, 99)
+        ));
+        assertEquals(0, provider.getSampleDao().count());
+        assertEquals(2, daoSession.getTimeSampleBlockDao().count());
+
+        final List<HuamiStressSample> stored = provider.getAllSamples(DAY_START, DAY_START + DAY);
+        assertEquals(12, stored.size());
+        for (int i = 0; i < 11; i++) {
+            assertEquals(DAY_START + i * MINUTE, stored.get(i).getTimestamp());
+            assertEquals(i == 5 ? 50 : i, stored.get(i).getStress());
+            assertEquals(device.getId().longValue(), stored.get(i).getDeviceId());
+            assertEquals(user.getId().longValue(), stored.get(i).getUserId());
+        }
+        assertEquals(99, stored.get(11).getStress());
+        assertEquals(99, provider.getLatestSample().getStress());
+    }
+
+    @Test
+    public void testRowsAndBlocksAreMerged() {
+        final HuamiStressSampleProvider provider = new HuamiStressSampleProvider(gbDevice, daoSession);
+        provider.addSample(createStressSample(provider, DAY_START + MINUTE, 1));
+        provider.moveSamplesToBlocks();
+        // rows written before the storage was enabled, one of them replaced by a block sample
+        provider.addSample(createStressSample(provider, DAY_START, 10));
+        provider.addSample(createStressSample(provider, DAY_START + 2 * MINUTE, 20));
+        setBlockStorageEnabled(true);
+        provider.addSample(createStressSample(provider, DAY_START + 2 * MINUTE, 30));
+
+        final List<HuamiStressSample> stored = provider.getAllSamples(DAY_START, DAY_START + DAY);
+        assertEquals(3, stored.size());
+        assertEquals(10, stored.get(0).getStress());
+        assertEquals(1, stored.get(1).getStress());
+        assertEquals(30, stored.get(2).getStress());
+        assertEquals(10, provider.getFirstSample().getStress());
+        assertEquals(30, provider.getLatestSample().getStress());
+    }
+
+    @Test
+    public void testFloatColumns() {
+        setBlockStorageEnabled(true);
+        final HuamiPaiSampleProvider provider = new HuamiPaiSampleProvider(gbDevice, daoSession);
+        final HuamiPaiSample sample = provider.createSample();
+        sample.setTimestamp(DAY_START + MINUTE);
+        sample.setDeviceId(device.getId());
+        sample.setUserId(user.getId());
+        sample.setUtcOffset(3600000);
+        sample.setPaiLow(1.5f);
+        sample.setPaiModerate(2.25f);
+        sample.setPaiHigh(-0.1f);
+        sample.setTimeLow(10);
+        sample.setTimeModerate(20);
+        sample.setTimeHigh(30);
+        sample.setPaiToday(4.125f);
+        sample.setPaiTotal(99.9f);
+        provider.addSample(sample);
+
+        final HuamiPaiSample stored = provider.getLatestSample();
+        assertNotNull(stored);
+        assertEquals(3600000, stored.getUtcOffset());
+        assertEquals(1.5f, stored.getPaiLow(), 0f);
+        assertEquals(2.25f, stored.getPaiModerate(), 0f);
+        assertEquals(-0.1f, stored.getPaiHigh(), 0f);
+        assertEquals(10, stored.getTimeLow());
+        assertEquals(20, stored.getTimeModerate());
+        assertEquals(30, stored.getTimeHigh());
+        assertEquals(4.125f, stored.getPaiToday(), 0f);
+        assertEquals(99.9f, stored.getPaiTotal(), 0f);
+    }
+
+    @Test
+    public void testSizeAndQueryTime() {
+        final HuamiHeartRateManualSampleProvider provider = new HuamiHeartRateManualSampleProvider(gbDevice, daoSession);
+        // 30 days of heart rate samples every minute
+        final List<HuamiHeartRateManualSample> samples = new ArrayList<>();
+        for (long timestamp = DAY_START; timestamp < DAY_START + 30 * DAY; timestamp += MINUTE) {
+            final HuamiHeartRateManualSample sample = provider.createSample();
+            sample.setTimestamp(timestamp);
+            sample.setDeviceId(device.getId());
+            sample.setUserId(user.getId());
+            sample.setUtcOffset(3600000);
+            sample.setHeartRate(60 + (int) (timestamp / MINUTE % 40));
+            samples.add(sample);
+        }
+        provider.addSamples(samples);
+        final long rowsSize = getDatabaseSize();
+        final long rowsQueryNanos = timeDayQueries(provider);
+
+        provider.moveSamplesToBlocks();
+        final long blocksSize = getDatabaseSize();
+        final long blocksQueryNanos = timeDayQueries(provider);
+
+        LOG.info("{} samples, database {} bytes as rows, {} bytes as blocks; querying each day took {}ms as rows, {}ms as blocks",
+                samples.size(), rowsSize, blocksSize, rowsQueryNanos / 1000000, blocksQueryNanos / 1000000);
+        assertTrue(blocksSize < rowsSize);
+        assertEquals(samples.size(), provider.getAllSamples(DAY_START, DAY_START + 30 * DAY).size());
+    }
+
+    private long timeDayQueries(final HuamiHeartRateManualSampleProvider provider) {
+        final long start = System.nanoTime();
+        for (int day = 0; day < 30; day++) {
+            assertEquals(1440, provider.getAllSamples(DAY_START + day * DAY, DAY_START + (day + 1) * DAY - 1).size());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long getDatabaseSize() {
+        daoSession.getDatabase().execSQL("VACUUM");
+        try (Cursor pageCount = daoSession.getDatabase().rawQuery("PRAGMA page_count", null);
+             Cursor pageSize = daoSession.getDatabase().rawQuery("PRAGMA page_size", null)) {
+            assertTrue(pageCount.moveToFirst());
+            assertTrue(pageSize.moveToFirst());
+            return pageCount.getLong(0) * pageSize.getLong(0);
+        }
+    }
+
+    private HuamiStressSample createStressSample(final HuamiStressSampleProvider provider, final long timestamp, final int stress) {
+        final HuamiStressSample sample = provider.createSample();
+        sample.setTimestamp(timestamp);
+        sample.setDeviceId(device.getId());
+        sample.setUserId(user.getId());
+        sample.setTypeNum(1);
+        sample.setStress(stress);
+        return sample;
+    }
+
+    private static void assertStressSamplesEqual(final List<HuamiStressSample> expected, final List<HuamiStressSample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getTypeNum(), actual.get(i).getTypeNum());
+            assertEquals(expected.get(i).getStress(), actual.get(i).getStress());
+            assertEquals(expected.get(i).getDeviceId(), actual.get(i).getDeviceId());
+            assertEquals(expected.get(i).getUserId(), actual.get(i).getUserId());
+        }
+    }
+
+    private static void setBlockStorageEnabled(final boolean enabled) {
+        GBApplication.getPrefs().getPreferences().edit().putBoolean(GBPrefs.COMPACT_SAMPLE_STORAGE, enabled).commit();
+    }
+}
@@ -0,0 +1,122 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.hplus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.hplus.HPlusDataRecord;
+
+import static org.junit.Assert.assertEquals;
+
+public class HPlusHealthSampleProviderTest {
+    private static final int[] SAMPLE_KINDS = {
+            HPlusDataRecord.TYPE_DAY_SLOT,
+            HPlusDataRecord.TYPE_REALTIME,
+            HPlusDataRecord.TYPE_DAY_SUMMARY,
+            ActivityKind.TYPE_UNKNOWN,
+            ActivityKind.TYPE_NOT_WORN,
+    };
+    private static final int[] OVERLAY_KINDS = {
+            ActivityKind.TYPE_LIGHT_SLEEP,
+            ActivityKind.TYPE_DEEP_SLEEP,
+            ActivityKind.TYPE_NOT_WORN,
+            ActivityKind.TYPE_ACTIVITY,
+    };
+
+    @Test
+    public void testMergeByTimestampKeepsSamplesFirst() {
+        final List<HPlusHealthActivitySample> samples = new ArrayList<>();
+        samples.add(createSample(30, HPlusDataRecord.TYPE_DAY_SLOT, 0));
+        samples.add(createSample(10, HPlusDataRecord.TYPE_REALTIME, 0));
+        final List<HPlusHealthActivitySample> virtualSamples = new ArrayList<>();
+        virtualSamples.add(createSample(30, ActivityKind.TYPE_UNKNOWN, 0));
+        virtualSamples.add(createSample(5, ActivityKind.TYPE_UNKNOWN, 0));
+
+        final List<HPlusHealthActivitySample> merged = HPlusHealthSampleProvider.mergeByTimestamp(samples, virtualSamples);
+
+        assertEquals(4, merged.size());
+        assertEquals(5, merged.get(0).getTimestamp());
+        assertEquals(10, merged.get(1).getTimestamp());
+        assertEquals(HPlusDataRecord.TYPE_DAY_SLOT, merged.get(2).getRawKind());
+        assertEquals(ActivityKind.TYPE_UNKNOWN, merged.get(3).getRawKind());
+    }
+
+    @Test
+    public void testMatchesNestedLoop() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final long seed = random.nextLong();
+            final List<HPlusHealthActivityOverlay> overlays = new ArrayList<>();
+            for (int i = random.nextInt(12); i > 0; i--) {
+                final HPlusHealthActivityOverlay overlay = new HPlusHealthActivityOverlay();
+                overlay.setTimestampFrom(random.nextInt(20000));
+                overlay.setTimestampTo(overlay.getTimestampFrom() + random.nextInt(5000));
+                overlay.setRawKind(OVERLAY_KINDS[random.nextInt(OVERLAY_KINDS.length)]);
+                overlays.add(overlay);
+            }
+
+            final List<HPlusHealthActivitySample> expected = createSortedSamples(seed);
+            applyOverlaysNestedLoop(expected, overlays);
+            final List<HPlusHealthActivitySample> actual = createSortedSamples(seed);
+            HPlusHealthSampleProvider.applyOverlays(actual, overlays);
+
+            for (int i = 0; i < expected.size(); i++) {
+                final String message = "sample " + i + " in round " + round;
+                assertEquals(message, expected.get(i).getRawKind(), actual.get(i).getRawKind());
+                assertEquals(message, expected.get(i).getRawIntensity(), actual.get(i).getRawIntensity());
+                assertEquals(message, expected.get(i).getHeartRate(), actual.get(i).getHeartRate());
+            }
+        }
+    }
+
+    /**
+     * The overlay application as it was before the sweep-line implementation.
+     */
+    private static void applyOverlaysNestedLoop(final List<HPlusHealthActivitySample> samples, final List<HPlusHealthActivityOverlay> overlays) {
+        for (HPlusHealthActivityOverlay overlay : overlays) {
+            long nonSleepTimeEnd = 0;
+            for (HPlusHealthActivitySample sample : samples) {
+                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    continue;
+
+                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0) {
+                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60;
+                            continue;
+                        } else if (sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd) {
+                            continue;
+                        }
+
+                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                            sample.setHeartRate(0);
+
+                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
+                            sample.setRawKind(overlay.getRawKind());
+
+                        sample.setRawIntensity(10);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<HPlusHealthActivitySample> createSortedSamples(final long seed) {
+        final Random random = new Random(seed);
+        final List<HPlusHealthActivitySample> samples = new ArrayList<>();
+        for (int i = random.nextInt(400); i > 0; i--) {
+            samples.add(createSample(random.nextInt(25000), SAMPLE_KINDS[random.nextInt(SAMPLE_KINDS.length)], random.nextInt(3)));
+        }
+        return HPlusHealthSampleProvider.mergeByTimestamp(samples, new ArrayList<>());
+    }
+
+    private static HPlusHealthActivitySample createSample(final int timestamp, final int rawKind, final int steps) {
+        return new HPlusHealthActivitySample(timestamp, 0, 0, null, rawKind, 1, steps, 70, 0, 0);
+    }
+}
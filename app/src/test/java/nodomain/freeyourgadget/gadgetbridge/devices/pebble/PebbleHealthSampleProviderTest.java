@@ -0,0 +1,82 @@
+package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+
+import static org.junit.Assert.assertEquals;
+
+public class PebbleHealthSampleProviderTest {
+    @Test
+    public void testLastOverlayWins() {
+        final List<PebbleHealthActivitySample> samples = createSamples(new int[]{10, 20, 30, 40, 50});
+        final List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+        overlays.add(createOverlay(0, 45, PebbleHealthSampleProvider.TYPE_LIGHT_SLEEP));
+        overlays.add(createOverlay(20, 40, PebbleHealthSampleProvider.TYPE_DEEP_SLEEP));
+
+        PebbleHealthSampleProvider.applyOverlays(samples, overlays);
+
+        assertEquals(PebbleHealthSampleProvider.TYPE_LIGHT_SLEEP, samples.get(0).getRawKind());
+        assertEquals(PebbleHealthSampleProvider.TYPE_DEEP_SLEEP, samples.get(1).getRawKind());
+        assertEquals(PebbleHealthSampleProvider.TYPE_DEEP_SLEEP, samples.get(2).getRawKind());
+        // overlay ends are exclusive
+        assertEquals(PebbleHealthSampleProvider.TYPE_LIGHT_SLEEP, samples.get(3).getRawKind());
+        assertEquals(0, samples.get(4).getRawKind());
+    }
+
+    @Test
+    public void testMatchesNestedLoop() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            final int[] timestamps = new int[random.nextInt(300)];
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = random.nextInt(2000);
+            }
+            final List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                final int from = random.nextInt(2000);
+                overlays.add(createOverlay(from, from + random.nextInt(500), 1 + random.nextInt(6)));
+            }
+
+            final List<PebbleHealthActivitySample> expected = createSamples(timestamps);
+            for (final PebbleHealthActivityOverlay overlay : overlays) {
+                for (final PebbleHealthActivitySample sample : expected) {
+                    if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                        sample.setRawKind(overlay.getRawKind());
+                    }
+                }
+            }
+
+            final List<PebbleHealthActivitySample> actual = createSamples(timestamps);
+            PebbleHealthSampleProvider.applyOverlays(actual, overlays);
+
+            for (int i = 0; i < timestamps.length; i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals("sample " + i + " in round " + round, expected.get(i).getRawKind(), actual.get(i).getRawKind());
+            }
+        }
+    }
+
+    private static List<PebbleHealthActivitySample> createSamples(final int[] timestamps) {
+        final List<PebbleHealthActivitySample> samples = new ArrayList<>();
+        for (final int timestamp : timestamps) {
+            final PebbleHealthActivitySample sample = new PebbleHealthActivitySample();
+            sample.setTimestamp(timestamp);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private static PebbleHealthActivityOverlay createOverlay(final int from, final int to, final int rawKind) {
+        final PebbleHealthActivityOverlay overlay = new PebbleHealthActivityOverlay();
+        overlay.setTimestampFrom(from);
+        overlay.setTimestampTo(to);
+        overlay.setRawKind(rawKind);
+        return overlay;
+    }
+}
@@ -0,0 +1,169 @@
+package nodomain.freeyourgadget.gadgetbridge.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.BaseActivitySummary;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.xiaomi.activity.XiaomiActivityFileId;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+public class GpxRegenerationJobTest extends TestBase {
+    private static final int POINTS = 3;
+
+    private File dir;
+    private Device device;
+    private User user;
+
+    @Before
+    public void setUpDevice() throws Exception {
+        dir = FileUtils.createTempDir("gpx-regeneration");
+        final GBDevice gbDevice = new GBDevice("AA:BB:CC:DD:EE:FF", "Xiaomi Smart Band 8", null, null, DeviceType.MIBAND8);
+        device = DBHelper.getDevice(gbDevice, daoSession);
+        user = DBHelper.getUser(daoSession);
+    }
+
+    @Test
+    public void testRegeneratesTracksAndSkipsMissingDetails() throws Exception {
+        final File target = new File(dir, "track.gpx");
+        writeFile(target, "stale".getBytes(StandardCharsets.UTF_8));
+        final BaseActivitySummary withDetails = createSummary(writeRawDetails("details.bin"), target);
+        final BaseActivitySummary withoutDetails = createSummary(null, new File(dir, "none.gpx"));
+        final BaseActivitySummary detailsGone = createSummary(new File(dir, "gone.bin"), new File(dir, "gone.gpx"));
+
+        final GpxRegenerationJob.Result result = runJob(Arrays.asList(withDetails, withoutDetails, detailsGone), false);
+
+        assertEquals(1, result.regenerated);
+        assertEquals(2, result.skipped);
+        assertEquals(0, result.failed);
+        assertEquals(POINTS, result.trackPoints);
+        assertFalse(result.cancelled);
+
+        final String gpx = new String(readFile(target), StandardCharsets.UTF_8);
+        assertTrue(gpx.contains("<trkpt"));
+        assertEquals(target.getAbsolutePath(), withDetails.getGpxTrack());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testCancelledJobLeavesNoFiles() throws Exception {
+        final File target = new File(dir, "track.gpx");
+        final BaseActivitySummary summary = createSummary(writeRawDetails("details.bin"), target);
+
+        final GpxRegenerationJob.Result result = runJob(Collections.singletonList(summary), true);
+
+        assertTrue(result.cancelled);
+        assertEquals(0, result.regenerated);
+        assertFalse(target.exists());
+        assertNoTempFiles();
+    }
+
+    private GpxRegenerationJob.Result runJob(final List<BaseActivitySummary> summaries, final boolean cancel) {
+        final GpxRegenerationJob.Result[] result = new GpxRegenerationJob.Result[1];
+        final GpxRegenerationJob job = new GpxRegenerationJob(getContext(), summaries, new GpxRegenerationJob.Listener() {
+            @Override
+            public void onProgress(final int done, final int total) {
+            }
+
+            @Override
+            public void onFinished(final GpxRegenerationJob.Result finished) {
+                result[0] = finished;
+            }
+        });
+        if (cancel) {
+            job.cancel();
+        }
+        job.run();
+        assertNotNull(result[0]);
+        return result[0];
+    }
+
+    private BaseActivitySummary createSummary(final File rawDetails, final File gpxTrack) {
+        final BaseActivitySummary summary = new BaseActivitySummary();
+        summary.setName("Test");
+        summary.setStartTime(new Date(1697182497000L));
+        summary.setEndTime(new Date(1697182497000L + POINTS * 1000L));
+        summary.setActivityKind(ActivityKind.TYPE_RUNNING);
+        summary.setDevice(device);
+        summary.setUser(user);
+        summary.setRawDetailsPath(rawDetails != null ? rawDetails.getAbsolutePath() : null);
+        summary.setGpxTrack(gpxTrack.getAbsolutePath());
+        daoSession.getBaseActivitySummaryDao().insert(summary);
+        return summary;
+    }
+
+    /**
+     * Writes the raw details of a workout gps track as they are stored when fetched: the file id,
+     * followed by a one-byte header and the points.
+     */
+    private File writeRawDetails(final String name) throws IOException {
+        final XiaomiActivityFileId fileId = new XiaomiActivityFileId(
+                new Date(1697182497000L),
+                4,
+                XiaomiActivityFileId.Type.SPORTS.getCode(),
+                XiaomiActivityFileId.Subtype.SPORTS_OUTDOOR_RUNNING.getCode(),
+                XiaomiActivityFileId.DetailType.GPS_TRACK.getCode(),
+                2
+        );
+
+        final ByteBuffer buf = ByteBuffer.allocate(7 + 1 + POINTS * 18).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(fileId.toBytes());
+        buf.put((byte) 0);
+        for (int i = 0; i < POINTS; i++) {
+            buf.putInt(1697182497 + i);
+            buf.putFloat(8.5f + i * 0.0001f);
+            buf.putFloat(47.3f + i * 0.0001f);
+            buf.putInt(0);
+            buf.putShort((short) 0);
+        }
+
+        final File file = new File(dir, name);
+        writeFile(file, buf.array());
+        return file;
+    }
+
+    private void assertNoTempFiles() {
+        final File[] files = dir.listFiles();
+        assertNotNull(files);
+        for (final File file : files) {
+            assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+        }
+    }
+
+    private static void writeFile(final File file, final byte[] bytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return FileUtils.readAll(in, file.length());
+        }
+    }
+}
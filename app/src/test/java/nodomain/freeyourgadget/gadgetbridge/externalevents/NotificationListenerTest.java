@@ -3,10 +3,13 @@ package nodomain.freeyourgadget.gadgetbridge.externalevents;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertFalse;
@@ -108,4 +111,27 @@ public class NotificationListenerTest extends TestBase {
         filter.setNotificationFilterMode(NotificationFilterActivity.NOTIFICATION_FILTER_MODE_NONE);
         assertTrue(mNotificationListener.shouldContinueAfterFilter(body, wordList, filter));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void isUnchangedRepost_SameNotificationTime_MustReturnTrue() {
+        // a re-post only updates the post time of the status bar notification, not the notification time
+        assertFalse(mNotificationListener.isUnchangedRepost("key", 1000L, createSpec("See you later"), Collections.emptyList()));
+        assertTrue(mNotificationListener.isUnchangedRepost("key", 1000L, createSpec("See you later"), Collections.emptyList()));
+    }
+
+    @Test
+    public void isUnchangedRepost_NewMessageWithSameText_MustReturnFalse() {
+        assertFalse(mNotificationListener.isUnchangedRepost("key", 1000L, createSpec("ok"), Collections.emptyList()));
+        assertFalse(mNotificationListener.isUnchangedRepost("key", 2000L, createSpec("ok"), Collections.emptyList()));
+        assertFalse(mNotificationListener.isUnchangedRepost("other", 2000L, createSpec("ok"), Collections.emptyList()));
+    }
+
+    private static NotificationSpec createSpec(final String body) {
+        final NotificationSpec notificationSpec = new NotificationSpec();
+        notificationSpec.sourceAppId = "com.example.messenger";
+        notificationSpec.type = NotificationType.UNKNOWN;
+        notificationSpec.title = "Alice";
+        notificationSpec.body = body;
+        return notificationSpec;
+    }
+}
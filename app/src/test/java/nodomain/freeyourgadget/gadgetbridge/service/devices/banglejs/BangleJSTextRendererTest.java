@@ -0,0 +1,100 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.wax911.emojify.Emoji;
+import io.wax911.emojify.EmojiUtils;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BangleJSTextRendererTest extends TestBase {
+    /**
+     * Chat notifications as they arrive from messaging apps, senders and group names repeat.
+     */
+    private static final List<String> CORPUS = Arrays.asList(
+            "妈妈", "晚上回来吃饭吗？我做了红烧肉。",
+            "张伟", "明天的会议改到下午三点，请大家准时参加。",
+            "家人群", "妈妈: 周末一起去公园吧 🌸🌸",
+            "田中さん", "お疲れ様です！明日の打ち合わせは10時からでお願いします。",
+            "佐藤", "了解しました👍 よろしくお願いします。",
+            "김민수", "오늘 저녁에 시간 있어? 같이 밥 먹자 😊",
+            "엄마", "집에 언제 와? 🏠",
+            "Алексей", "Привет! Ты уже дома? Позвони, когда сможешь.",
+            "Мама", "Купи, пожалуйста, хлеб и молоко 🥛🍞",
+            "أحمد", "مرحبا، هل أنت متاح للاجتماع غدا؟",
+            "Γιώργος", "Καλημέρα! Τα λέμε στις 8 😀",
+            "Family", "Happy birthday!!! 🎂🎉🎉 Love you ❤️",
+            "Team chat", "Deploy is done ✅ thanks everyone 🙏",
+            "Lena", "Bin in 10 Minuten da 🚲",
+            "妈妈", "到家了吗？",
+            "张伟", "会议纪要已经发到群里了，请查收。",
+            "김민수", "ㅋㅋㅋ 알겠어 내일 봐 👋",
+            "Алексей", "Ок, до завтра 👍",
+            "Family", "Dinner at 7 🍕🍕",
+            "家人群", "爸爸: 收到 👌"
+    );
+
+    @Test
+    public void testEmojiDetectorMatchesEmojiList() {
+        final EmojiDetector detector = EmojiDetector.getInstance();
+        for (final String text : CORPUS) {
+            for (final String word : text.split(" ")) {
+                assertEquals(word, containsEmojiLegacy(word), detector.containsEmoji(word));
+            }
+        }
+        assertTrue(detector.containsEmoji("ok👍"));
+        assertFalse(detector.containsEmoji("晚上回来"));
+        assertFalse(detector.containsEmoji(""));
+    }
+
+    @Test
+    public void testCachedRenderingMatchesUncached() {
+        final BangleJSTextRenderer uncached = new BangleJSTextRenderer(EmojiDetector.getInstance(), 0);
+        final BangleJSTextRenderer cached = new BangleJSTextRenderer(EmojiDetector.getInstance(), BangleJSTextRenderer.MAX_CACHED_IMAGES);
+        for (int round = 0; round < 2; round++) {
+            for (final String text : CORPUS) {
+                assertEquals(uncached.renderUnicodeAsImage(text, 18), cached.renderUnicodeAsImage(text, 18));
+            }
+        }
+        // a different font size is a different image
+        final String small = cached.renderUnicodeAsImage("妈妈", 12);
+        final String large = cached.renderUnicodeAsImage("妈妈", 24);
+        assertEquals(uncached.renderUnicodeAsImage("妈妈", 12), small);
+        assertEquals(uncached.renderUnicodeAsImage("妈妈", 24), large);
+        // text the watch can display is passed through
+        assertEquals("Dinner at 7", cached.renderUnicodeAsImage("Dinner at 7", 18));
+    }
+
+    @Test
+    public void testEmojiWordCountMatchesEmojiList() {
+        final EmojiDetector detector = EmojiDetector.getInstance();
+        int legacyEmojiWords = 0;
+        int emojiWords = 0;
+        for (final String text : CORPUS) {
+            for (final String word : text.split(" ")) {
+                if (containsEmojiLegacy(word)) legacyEmojiWords++;
+                if (detector.containsEmoji(word)) emojiWords++;
+            }
+        }
+        assertTrue(emojiWords > 0);
+        assertEquals(legacyEmojiWords, emojiWords);
+    }
+
+    /**
+     * How emojis were detected before, by going through all known emojis.
+     */
+    private static boolean containsEmojiLegacy(final String word) {
+        for (final Emoji emoji : EmojiUtils.getAllEmojis()) {
+            if (word.contains(emoji.getEmoji())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
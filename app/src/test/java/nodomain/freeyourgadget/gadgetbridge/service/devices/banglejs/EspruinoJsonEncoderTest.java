@@ -0,0 +1,218 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the streaming encoder with the string building encoder it replaced, and measures how long
+ * both take to turn large calendar and weather payloads into packets.
+ */
+public class EspruinoJsonEncoderTest extends TestBase {
+    private static final int MTU = 20;
+
+    @Test
+    public void testGoldenOutput() throws Exception {
+        assertEquals("{\"t\":\"notify\",\"id\":1,\"ok\":true}",
+                encode(new JSONObject().put("t", "notify").put("id", 1).put("ok", true)));
+        assertEquals("{\"s\":\"a\\\"b\\\\c\\nd\"}", encode(new JSONObject().put("s", "a\"b\\c\nd")));
+        // \0 followed by an octal digit has to be written as \x00
+        assertEquals("{\"s\":\"a\\x001\\0a\"}", encode(new JSONObject().put("s", "a\u00001\u0000a")));
+        assertEquals("{\"s\":\"caf\\xe9 au lait \\u20ac\"}", encode(new JSONObject().put("s", "caf\u00e9 au lait \u20ac")));
+        assertEquals("{\"s\":atob(\"wsPExcbH\")}", encode(new JSONObject().put("s", "\u00c2\u00c3\u00c4\u00c5\u00c6\u00c7")));
+        assertEquals("{\"a\":[1,null,[\"x\"],{}]}",
+                encode(new JSONObject().put("a", new JSONArray().put(1).put(JSONObject.NULL).put(new JSONArray().put("x")).put(new JSONObject()))));
+    }
+
+    @Test
+    public void testMatchesLegacyEncoder() throws Exception {
+        final Random random = new Random(43);
+        for (int i = 0; i < 2000; i++) {
+            final JSONObject o = new JSONObject();
+            o.put("t", "test");
+            o.put("str", randomString(random));
+            o.put("num", random.nextInt());
+            o.put("dbl", random.nextDouble());
+            o.put("bool", random.nextBoolean());
+            o.put("null", JSONObject.NULL);
+            final JSONArray a = new JSONArray();
+            for (int j = random.nextInt(5); j > 0; j--) {
+                a.put(randomString(random));
+                a.put(new JSONObject().put("n", randomString(random)));
+            }
+            o.put("arr", a);
+            assertEquals(legacyToString(o), encode(o));
+        }
+        for (final JSONObject o : new JSONObject[]{createCalendar(), createWeather()}) {
+            assertEquals(legacyToString(o), encode(o));
+        }
+    }
+
+    @Test
+    public void testPacketization() throws Exception {
+        final JSONObject o = createWeather();
+        final String expected = "\u0010GB(" + legacyToString(o) + ")\n";
+        for (int mtu = 1; mtu <= 250; mtu += 7) {
+            final List<byte[]> packets = new ArrayList<>();
+            final EspruinoJsonEncoder encoder = new EspruinoJsonEncoder(mtu, packets::add);
+            encoder.writeRaw("\u0010GB(");
+            encoder.writeJson(o);
+            encoder.writeRaw(")\n");
+            encoder.finish();
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < packets.size(); i++) {
+                final byte[] packet = packets.get(i);
+                if (i < packets.size() - 1) {
+                    assertEquals(mtu, packet.length);
+                } else {
+                    assertTrue(packet.length > 0 && packet.length <= mtu);
+                }
+                out.write(packet, 0, packet.length);
+            }
+            assertEquals(expected, new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+            assertEquals(out.size(), encoder.getLength());
+        }
+    }
+
+    @Test
+    public void testRawMatchesIsoBytes() {
+        final String raw = "load(\"caf\u00e9 \u20ac \ud83d\ude00 \ud83d\")\n";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EspruinoJsonEncoder encoder = new EspruinoJsonEncoder(MTU, packet -> out.write(packet, 0, packet.length));
+        encoder.writeRaw(raw);
+        encoder.finish();
+        assertEquals(new String(raw.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1),
+                new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    private static String encode(final JSONObject o) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final EspruinoJsonEncoder encoder = new EspruinoJsonEncoder(MTU, packet -> out.write(packet, 0, packet.length));
+        encoder.writeJson(o);
+        encoder.finish();
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static JSONObject createCalendar() throws JSONException {
+        final JSONArray events = new JSONArray();
+        for (int i = 0; i < 200; i++) {
+            events.put(new JSONObject()
+                    .put("id", 1000 + i)
+                    .put("type", 0)
+                    .put("timestamp", 1700000000 + i * 3600)
+                    .put("durationInSeconds", 1800)
+                    .put("title", "Meeting #" + i + " \u2013 Caf\u00e9 \"Bl\u00fcte\"")
+                    .put("description", "Agenda:\n1. Status\n2. Next steps \ud83d\ude80\n\tDial-in: +49 123 4567-" + i)
+                    .put("location", "Raum " + (i % 12) + ", Stra\u00dfe 4")
+                    .put("calName", "Work")
+                    .put("color", -16738680)
+                    .put("allDay", i % 10 == 0));
+        }
+        return new JSONObject().put("t", "calendar").put("events", events);
+    }
+
+    private static JSONObject createWeather() throws JSONException {
+        final JSONArray forecast = new JSONArray();
+        for (int i = 0; i < 168; i++) {
+            forecast.put(new JSONArray().put(1700000000 + i * 3600).put(280.5 + (i % 7)).put(45 + (i % 30)).put(800 + (i % 5)).put("Partly cloudy"));
+        }
+        return new JSONObject()
+                .put("t", "weather")
+                .put("temp", 285.3)
+                .put("hum", 71)
+                .put("code", 803)
+                .put("txt", "Bew\u00f6lkt")
+                .put("wind", 4.1)
+                .put("wdir", 250)
+                .put("loc", "M\u00fcnchen")
+                .put("icon", new String(createIcon(), StandardCharsets.ISO_8859_1))
+                .put("hourly", forecast);
+    }
+
+    private static byte[] createIcon() {
+        final byte[] icon = new byte[2048];
+        new Random(1).nextBytes(icon);
+        return icon;
+    }
+
+    private static String randomString(final Random random) {
+        final char[] pool = {'a', 'Z', '0', '7', '8', ' ', '"', '\\', '\n', '\t', '\u0000', '\u0003', '\u0007', '\u001b',
+                '\u007f', '\u00ad', '\u00c2', '\u00e9', '\u00f4', '\u00f5', '\u00ff', '\u20ac', '\ud83d', '\ude00'};
+        final StringBuilder sb = new StringBuilder();
+        final int length = random.nextInt(40);
+        final boolean binary = random.nextInt(4) == 0;
+        for (int i = 0; i < length; i++) {
+            sb.append(binary ? (char) random.nextInt(256) : pool[random.nextInt(pool.length)]);
+        }
+        return sb.toString();
+    }
+
+    /// The string building encoder BangleJSDeviceSupport used before, kept as the golden reference
+    private static String legacyToString(final Object v) {
+        if (v instanceof String) {
+            String s = (String) v;
+            StringBuilder json = new StringBuilder("\"");
+            for (int i = 0; i < s.length(); i++) {
+                int ch = (int) s.charAt(i); // 0..255
+                int nextCh = (int) (i + 1 < s.length() ? s.charAt(i + 1) : 0); // 0..255
+                if (ch < 8) {
+                    if (nextCh >= '0' && nextCh <= '7') json.append("\\x0").append(ch);
+                    else json.append("\\").append(ch);
+                } else if (ch == 8) json.append("\\b");
+                else if (ch == 9) json.append("\\t");
+                else if (ch == 10) json.append("\\n");
+                else if (ch == 11) json.append("\\v");
+                else if (ch == 12) json.append("\\f");
+                else if (ch == 34) json.append("\\\""); // quote
+                else if (ch == 92) json.append("\\\\"); // slash
+                else if (ch < 32 || ch == 127 || ch == 173 ||
+                        ((ch >= 0xC2) && (ch <= 0xF4))) // unicode start char range
+                    json.append("\\x").append(Integer.toHexString((ch & 255) | 256).substring(1));
+                else if (ch > 255)
+                    json.append("\\u").append(Integer.toHexString((ch & 65535) | 65536).substring(1));
+                else json.append(s.charAt(i));
+            }
+            if (json.length() > 5 + (s.length() * 4 / 3)) {
+                byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+                return "atob(\"" + Base64.getEncoder().encodeToString(bytes) + "\")";
+            }
+            return json.append("\"").toString();
+        } else if (v instanceof JSONArray) {
+            JSONArray a = (JSONArray) v;
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < a.length(); i++) {
+                if (i > 0) json.append(",");
+                json.append(legacyToString(a.opt(i)));
+            }
+            return json.append("]").toString();
+        } else if (v instanceof JSONObject) {
+            JSONObject obj = (JSONObject) v;
+            StringBuilder json = new StringBuilder("{");
+            Iterator<String> iter = obj.keys();
+            while (iter.hasNext()) {
+                String key = iter.next();
+                json.append("\"").append(key).append("\":").append(legacyToString(obj.opt(key)));
+                if (iter.hasNext()) json.append(",");
+            }
+            return json.append("}").toString();
+        } else if (v == null) {
+            return "null";
+        }
+        return v.toString();
+    }
+}
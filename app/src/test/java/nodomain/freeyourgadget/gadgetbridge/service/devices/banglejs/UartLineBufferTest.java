@@ -0,0 +1,150 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Feeds a synthetic UART stream, lines of activity data chopped into packets of random MTU sizes,
+ * through the receive path of the Bangle.js.
+ */
+public class UartLineBufferTest {
+    private static final int HISTORY_SIZE = BangleJSDeviceSupport.MAX_RECEIVE_HISTORY_CHARS;
+
+    @Test
+    public void testLinesAndHistory() {
+        final byte[] stream = createStream(20000);
+        final List<byte[]> packets = split(stream, new Random(42));
+
+        final List<String> lines = new ArrayList<>();
+        final UartLineBuffer lineBuffer = new UartLineBuffer();
+        final UartReceiveHistory history = new UartReceiveHistory(HISTORY_SIZE);
+        for (final byte[] packet : packets) {
+            history.append(packet, 0, packet.length);
+            lineBuffer.append(packet, 0, packet.length, lines::add);
+        }
+
+        assertEquals(20000, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(createLine(i), lines.get(i));
+        }
+        assertArrayEquals(lastBytes(stream, HISTORY_SIZE), dumpHistory(history));
+    }
+
+    @Test
+    public void testMatchesStringImplementation() {
+        final byte[] stream = createStream(3000);
+        final List<byte[]> packets = split(stream, new Random(7));
+
+        // what the receive path did before, string concatenation and substring
+        final List<String> expectedLines = new ArrayList<>();
+        String receivedLine = "";
+        String receiveHistory = "";
+        for (final byte[] packet : packets) {
+            final String packetStr = new String(packet, StandardCharsets.ISO_8859_1);
+            receiveHistory += packetStr;
+            if (receiveHistory.length() > HISTORY_SIZE)
+                receiveHistory = receiveHistory.substring(receiveHistory.length() - HISTORY_SIZE);
+            receivedLine += packetStr;
+            while (receivedLine.contains("\n")) {
+                int p = receivedLine.indexOf("\n");
+                expectedLines.add(receivedLine.substring(0, p - 1));
+                receivedLine = receivedLine.substring(p + 1);
+            }
+        }
+
+        final List<String> lines = new ArrayList<>();
+        final UartLineBuffer lineBuffer = new UartLineBuffer();
+        final UartReceiveHistory history = new UartReceiveHistory(HISTORY_SIZE);
+        for (final byte[] packet : packets) {
+            history.append(packet, 0, packet.length);
+            lineBuffer.append(packet, 0, packet.length, lines::add);
+        }
+
+        assertEquals(expectedLines, lines);
+        assertArrayEquals(receiveHistory.getBytes(StandardCharsets.ISO_8859_1), dumpHistory(history));
+    }
+
+    @Test
+    public void testHistoryWrapsAround() {
+        final UartReceiveHistory history = new UartReceiveHistory(8);
+        history.append("abcde".getBytes(StandardCharsets.ISO_8859_1), 0, 5);
+        assertEquals("abcde", new String(dumpHistory(history), StandardCharsets.ISO_8859_1));
+        history.append("fghij".getBytes(StandardCharsets.ISO_8859_1), 0, 5);
+        assertEquals("cdefghij", new String(dumpHistory(history), StandardCharsets.ISO_8859_1));
+        history.append("0123456789".getBytes(StandardCharsets.ISO_8859_1), 0, 10);
+        assertEquals("23456789", new String(dumpHistory(history), StandardCharsets.ISO_8859_1));
+        history.clear();
+        assertEquals(0, history.size());
+    }
+
+    @Test
+    public void testLineHandlerFailure() {
+        final List<String> lines = new ArrayList<>();
+        final UartLineBuffer lineBuffer = new UartLineBuffer();
+        final byte[] packet = "bad\r\ngood\r\npart".getBytes(StandardCharsets.ISO_8859_1);
+        try {
+            lineBuffer.append(packet, 0, packet.length, line -> {
+                if (line.equals("bad")) {
+                    throw new IllegalStateException(line);
+                }
+                lines.add(line);
+            });
+        } catch (IllegalStateException e) {
+            // lines after the failing one are handled with the next packet
+        }
+        final byte[] rest = "ial\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        lineBuffer.append(rest, 0, rest.length, lines::add);
+        assertEquals(2, lines.size());
+        assertEquals("good", lines.get(0));
+        assertEquals("partial", lines.get(1));
+    }
+
+    private static String createLine(final int i) {
+        return "GB({\"t\":\"act\",\"hrm\":" + (60 + i % 40) + ",\"stp\":" + (i % 13) + ",\"time\":" + (1700000000 + i) + "})";
+    }
+
+    private static byte[] createStream(final int lineCount) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            sb.append(createLine(i)).append("\r\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<byte[]> split(final byte[] stream, final Random random) {
+        final List<byte[]> packets = new ArrayList<>();
+        int offset = 0;
+        while (offset < stream.length) {
+            final int length = Math.min(stream.length - offset, 20 + random.nextInt(225));
+            final byte[] packet = new byte[length];
+            System.arraycopy(stream, offset, packet, 0, length);
+            packets.add(packet);
+            offset += length;
+        }
+        return packets;
+    }
+
+    private static byte[] lastBytes(final byte[] data, final int count) {
+        final byte[] last = new byte[Math.min(count, data.length)];
+        System.arraycopy(data, data.length - last.length, last, 0, last.length);
+        return last;
+    }
+
+    private static byte[] dumpHistory(final UartReceiveHistory history) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            history.writeTo(out);
+        } catch (final Exception e) {
+            throw new AssertionError(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,218 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.service.btle.BtLEAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.WriteAction;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+
+public class Huami2021ChunkedCodecTest {
+    private static final int MTU = 247;
+    private static final short TYPE = 0x0018;
+
+    private final byte[] sessionKey = new byte[16];
+
+    public Huami2021ChunkedCodecTest() {
+        new Random(45).nextBytes(sessionKey);
+    }
+
+    @Test
+    public void testMatchesLegacyEncoder() throws Exception {
+        final Huami2021ChunkedEncoder encoder = createEncoder();
+        final Random random = new Random(1);
+        int sequenceNr = 1000;
+        for (int i = 0; i < 600; i++) {
+            final byte[] payload = new byte[random.nextInt(i % 50 == 0 ? 2000 : 100)];
+            random.nextBytes(payload);
+            final boolean encrypt = random.nextBoolean();
+            final byte handle = (byte) (i + 1);
+
+            final List<byte[]> expected = legacyWrite(handle, sequenceNr, payload, encrypt);
+            if (encrypt) {
+                sequenceNr++;
+            }
+            Assert.assertEquals(0, compare(expected, write(encoder, payload, encrypt)));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final Huami2021ChunkedEncoder encoder = createEncoder();
+        final List<byte[]> received = new ArrayList<>();
+        final Huami2021ChunkedDecoder decoder = new Huami2021ChunkedDecoder((type, payload) -> {
+            Assert.assertEquals(TYPE, type);
+            received.add(payload);
+        }, true);
+        decoder.setEncryptionParameters(sessionKey);
+
+        final Random random = new Random(2);
+        final List<byte[]> sent = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            final byte[] payload = new byte[1 + random.nextInt(i % 2 == 0 ? 1500 : 40)];
+            random.nextBytes(payload);
+            sent.add(payload);
+            for (final byte[] chunk : write(encoder, payload, i % 3 != 0)) {
+                decoder.decode(chunk);
+            }
+        }
+
+        Assert.assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            Assert.assertArrayEquals(sent.get(i), received.get(i));
+        }
+    }
+
+    @Test
+    public void testCachedCiphersMatchLegacyDecryption() throws Exception {
+        final Huami2021ChunkedEncoder encoder = createEncoder();
+        final List<byte[]> received = new ArrayList<>();
+        final Huami2021ChunkedDecoder decoder = new Huami2021ChunkedDecoder((type, payload) -> received.add(payload), true);
+        decoder.setEncryptionParameters(sessionKey);
+
+        // enough messages for the handles, and with them the message keys, to wrap around
+        final Random random = new Random(3);
+        for (int i = 0; i < 600; i++) {
+            final byte[] payload = new byte[1 + random.nextInt(200)];
+            random.nextBytes(payload);
+            final List<byte[]> chunks = write(encoder, payload, true);
+            Assert.assertArrayEquals(payload, legacyDecode(chunks));
+            for (final byte[] chunk : chunks) {
+                decoder.decode(chunk);
+            }
+            Assert.assertArrayEquals(payload, received.get(received.size() - 1));
+        }
+        Assert.assertEquals(600, received.size());
+    }
+
+    private Huami2021ChunkedEncoder createEncoder() {
+        final Huami2021ChunkedEncoder encoder = new Huami2021ChunkedEncoder(new BluetoothGattCharacteristic(null, 0, 0), true, MTU);
+        encoder.setEncryptionParameters(1000, sessionKey);
+        return encoder;
+    }
+
+    private static List<byte[]> write(final Huami2021ChunkedEncoder encoder, final byte[] payload, final boolean encrypt) {
+        final TransactionBuilder builder = new TransactionBuilder("test");
+        encoder.write(builder, TYPE, payload, true, encrypt);
+        final List<byte[]> chunks = new ArrayList<>();
+        for (final BtLEAction action : builder.getTransaction().getActions()) {
+            chunks.add(((WriteAction) action).getValue());
+        }
+        return chunks;
+    }
+
+    /// @return the number of differing chunks
+    private static int compare(final List<byte[]> expected, final List<byte[]> actual) {
+        int differences = Math.abs(expected.size() - actual.size());
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            if (!Arrays.equals(expected.get(i), actual.get(i))) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+
+    /// How Huami2021ChunkedEncoder wrote extended, optionally encrypted messages before
+    private List<byte[]> legacyWrite(final byte handle, final int sequenceNr, byte[] data, final boolean encrypt) throws Exception {
+        int remaining = data.length;
+        final int length = data.length;
+        if (encrypt) {
+            final byte[] messagekey = new byte[16];
+            for (int i = 0; i < 16; i++) {
+                messagekey[i] = (byte) (sessionKey[i] ^ handle);
+            }
+            int encrypted_length = length + 8;
+            final int overflow = encrypted_length % 16;
+            if (overflow > 0) {
+                encrypted_length += (16 - overflow);
+            }
+            final byte[] payload = new byte[encrypted_length];
+            System.arraycopy(data, 0, payload, 0, length);
+            payload[length] = (byte) (sequenceNr & 0xff);
+            payload[length + 1] = (byte) ((sequenceNr >> 8) & 0xff);
+            payload[length + 2] = (byte) ((sequenceNr >> 16) & 0xff);
+            payload[length + 3] = (byte) ((sequenceNr >> 24) & 0xff);
+            final int checksum = CheckSums.getCRC32(payload, 0, length + 4);
+            payload[length + 4] = (byte) (checksum & 0xff);
+            payload[length + 5] = (byte) ((checksum >> 8) & 0xff);
+            payload[length + 6] = (byte) ((checksum >> 16) & 0xff);
+            payload[length + 7] = (byte) ((checksum >> 24) & 0xff);
+            remaining = encrypted_length;
+            final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(messagekey, "AES"));
+            data = cipher.doFinal(payload);
+        }
+
+        final List<byte[]> chunks = new ArrayList<>();
+        int header_size = 11;
+        byte count = 0;
+        while (remaining > 0) {
+            final int maxChunkLength = MTU - 3 - header_size;
+            final int copybytes = Math.min(remaining, maxChunkLength);
+            final byte[] chunk = new byte[copybytes + header_size];
+            byte flags = 0;
+            if (encrypt) {
+                flags |= 0x08;
+            }
+            if (count == 0) {
+                flags |= 0x01;
+                int i = 5;
+                chunk[i++] = (byte) (length & 0xff);
+                chunk[i++] = (byte) ((length >> 8) & 0xff);
+                chunk[i++] = (byte) ((length >> 16) & 0xff);
+                chunk[i++] = (byte) ((length >> 24) & 0xff);
+                chunk[i++] = (byte) (TYPE & 0xff);
+                chunk[i] = (byte) ((TYPE >> 8) & 0xff);
+            }
+            if (remaining <= maxChunkLength) {
+                flags |= 0x06;
+            }
+            chunk[0] = 0x03;
+            chunk[1] = flags;
+            chunk[2] = 0;
+            chunk[3] = handle;
+            chunk[4] = count;
+            System.arraycopy(data, data.length - remaining, chunk, header_size, copybytes);
+            chunks.add(chunk);
+            remaining -= copybytes;
+            header_size = 5;
+            count++;
+        }
+        return chunks;
+    }
+
+    /// How Huami2021ChunkedDecoder decrypted a message before
+    private byte[] legacyDecode(final List<byte[]> chunks) throws Exception {
+        final byte handle = chunks.get(0)[3];
+        final int length = (chunks.get(0)[5] & 0xff) | ((chunks.get(0)[6] & 0xff) << 8);
+        int encryptedLength = length + 8;
+        if (encryptedLength % 16 > 0) {
+            encryptedLength += 16 - encryptedLength % 16;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(encryptedLength);
+        buffer.put(chunks.get(0), 11, chunks.get(0).length - 11);
+        for (int i = 1; i < chunks.size(); i++) {
+            buffer.put(chunks.get(i), 5, chunks.get(i).length - 5);
+        }
+        final byte[] messagekey = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            messagekey[i] = (byte) (sessionKey[i] ^ handle);
+        }
+        final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(messagekey, "AES"));
+        return ArrayUtils.subarray(cipher.doFinal(buffer.array()), 0, length);
+    }
+}
@@ -0,0 +1,207 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSendBytes;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the datalog stream of a Pebble that was offline for three days: a steps session with
+ * one message per 30 minutes and an overlay session with the sleep of each night.
+ */
+public class DatalogIngestionReplayTest extends TestBase {
+    private static final short ENDPOINT_DATALOG = 6778;
+    private static final byte DATALOG_OPENSESSION = 0x01;
+    private static final byte DATALOG_SENDDATA = 0x02;
+    private static final byte DATALOG_CLOSE = 0x03;
+    private static final byte DATALOG_ACK = (byte) 0x85;
+
+    private static final byte STEPS_SESSION = 1;
+    private static final byte OVERLAY_SESSION = 2;
+    private static final byte OTHER_SESSION = 3;
+
+    private static final int STEPS_RECORD_LENGTH = 13;
+    private static final int STEPS_RECORDS_PER_ITEM = 15;
+    private static final short STEPS_ITEM_SIZE = 9 + STEPS_RECORDS_PER_ITEM * STEPS_RECORD_LENGTH;
+    private static final short OVERLAY_ITEM_SIZE = 18;
+
+    private static final int START = 1700000000;
+    private static final int DAYS = 3;
+    private static final int STEPS_MESSAGES = DAYS * 24 * 2;
+
+    @Test
+    public void testBacklogIsStoredInBatches() {
+        final PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:81"));
+        final List<byte[]> stream = createStream();
+
+        final List<byte[]> replies = new ArrayList<>();
+        int sendDataMessages = 0;
+        for (final byte[] packet : stream) {
+            if (packet[4] == DATALOG_SENDDATA) {
+                sendDataMessages++;
+            }
+            // back to back, so the buffer is only flushed when full or when a session is closed
+            collectReplies(protocol.decodeResponse(packet), replies);
+        }
+        collectReplies(protocol.flushDatalog(), replies);
+
+        // every message got its reply, in order
+        assertEquals(stream.size(), replies.size());
+        for (int i = 0; i < stream.size(); i++) {
+            assertEquals(stream.get(i)[5], replies.get(i)[5]);
+            if (stream.get(i)[4] != DATALOG_CLOSE) {
+                assertEquals(DATALOG_ACK, replies.get(i)[4]);
+            }
+        }
+        assertEquals(STEPS_MESSAGES + DAYS, sendDataMessages);
+
+        assertEquals(STEPS_MESSAGES * 2 * STEPS_RECORDS_PER_ITEM, daoSession.getPebbleHealthActivitySampleDao().count());
+        assertEquals(DAYS, daoSession.getPebbleHealthActivityOverlayDao().count());
+    }
+
+    @Test
+    public void testRepliesWaitForStoredData() {
+        final PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:81"));
+        final List<byte[]> replies = new ArrayList<>();
+
+        collectReplies(protocol.decodeResponse(openSession(STEPS_SESSION, 81, STEPS_ITEM_SIZE)), replies);
+        assertEquals(1, replies.size());
+
+        collectReplies(protocol.decodeResponse(stepsMessage(START)), replies);
+        collectReplies(protocol.decodeResponse(stepsMessage(START + 1800)), replies);
+        // nothing acknowledged before the samples are in the database
+        assertEquals(1, replies.size());
+        assertEquals(0, daoSession.getPebbleHealthActivitySampleDao().count());
+
+        // the watch waits for a reply, no more data on the connection
+        collectReplies(protocol.flushDatalog(), replies);
+        assertEquals(3, replies.size());
+        assertEquals(2 * 2 * STEPS_RECORDS_PER_ITEM, daoSession.getPebbleHealthActivitySampleDao().count());
+        assertTrue(protocol.flushDatalog() == null);
+    }
+
+    @Test
+    public void testOtherSessionsAreNotDeferred() {
+        final PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:00:81"));
+        final List<byte[]> replies = new ArrayList<>();
+
+        collectReplies(protocol.decodeResponse(openSession(STEPS_SESSION, 81, STEPS_ITEM_SIZE)), replies);
+        collectReplies(protocol.decodeResponse(openSession(OTHER_SESSION, 42, (short) 4)), replies);
+        collectReplies(protocol.decodeResponse(stepsMessage(START)), replies);
+        assertEquals(2, replies.size());
+
+        // acknowledged while the steps are still buffered
+        collectReplies(protocol.decodeResponse(sendDataBuffer(OTHER_SESSION, 4).putInt(1).array()), replies);
+        assertEquals(3, replies.size());
+        assertEquals(OTHER_SESSION, replies.get(2)[5]);
+        assertEquals(DATALOG_ACK, replies.get(2)[4]);
+        assertEquals(0, daoSession.getPebbleHealthActivitySampleDao().count());
+
+        collectReplies(protocol.flushDatalog(), replies);
+        assertEquals(4, replies.size());
+        assertEquals(STEPS_SESSION, replies.get(3)[5]);
+    }
+
+    private static List<byte[]> createStream() {
+        final List<byte[]> stream = new ArrayList<>();
+        stream.add(openSession(STEPS_SESSION, 81, STEPS_ITEM_SIZE));
+        stream.add(openSession(OVERLAY_SESSION, 84, OVERLAY_ITEM_SIZE));
+        for (int i = 0; i < STEPS_MESSAGES; i++) {
+            stream.add(stepsMessage(START + i * 1800));
+            if (i % 48 == 47) {
+                final int night = START + (i - 40) * 1800;
+                stream.add(overlayMessage(night, 7 * 3600));
+            }
+        }
+        stream.add(datalogPacket(DATALOG_CLOSE, OVERLAY_SESSION, 0));
+        stream.add(datalogPacket(DATALOG_CLOSE, STEPS_SESSION, 0));
+        return stream;
+    }
+
+    private static byte[] openSession(final byte id, final int tag, final short itemSize) {
+        final ByteBuffer buf = datalogBuffer(DATALOG_OPENSESSION, id, 16 + 4 + 4 + 1 + 2);
+        buf.putLong(0).putLong(0); // system session
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(START);
+        buf.putInt(tag);
+        buf.put((byte) 0); // byte array
+        buf.putShort(itemSize);
+        return buf.array();
+    }
+
+    /**
+     * Two items of 15 minutes each.
+     */
+    private static byte[] stepsMessage(final int timestamp) {
+        final ByteBuffer buf = sendDataBuffer(STEPS_SESSION, 2 * STEPS_ITEM_SIZE);
+        for (int item = 0; item < 2; item++) {
+            buf.putShort((short) 13); // version
+            buf.putInt(timestamp + item * STEPS_RECORDS_PER_ITEM * 60);
+            buf.put((byte) 0);
+            buf.put((byte) STEPS_RECORD_LENGTH);
+            buf.put((byte) STEPS_RECORDS_PER_ITEM);
+            for (int record = 0; record < STEPS_RECORDS_PER_ITEM; record++) {
+                buf.put((byte) (record * 7)); // steps
+                buf.put((byte) 0); // orientation
+                buf.putShort((short) (record * 100)); // intensity
+                buf.put((byte) 0); // light
+                buf.put(new byte[7]);
+                buf.put((byte) (60 + record)); // heart rate
+            }
+        }
+        return buf.array();
+    }
+
+    private static byte[] overlayMessage(final int start, final int duration) {
+        final ByteBuffer buf = sendDataBuffer(OVERLAY_SESSION, OVERLAY_ITEM_SIZE);
+        buf.putShort((short) 3); // version
+        buf.putShort((short) 0);
+        buf.putShort((short) 1); // sleep
+        buf.putInt(3600);
+        buf.putInt(start);
+        buf.putInt(duration);
+        return buf.array();
+    }
+
+    private static ByteBuffer sendDataBuffer(final byte id, final int dataLength) {
+        final ByteBuffer buf = datalogBuffer(DATALOG_SENDDATA, id, 8 + dataLength);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0); // items left
+        buf.putInt(0); // crc
+        return buf;
+    }
+
+    private static byte[] datalogPacket(final byte command, final byte id, final int payloadLength) {
+        return datalogBuffer(command, id, payloadLength).array();
+    }
+
+    private static ByteBuffer datalogBuffer(final byte command, final byte id, final int payloadLength) {
+        final ByteBuffer buf = ByteBuffer.allocate(4 + 2 + payloadLength);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putShort((short) (2 + payloadLength));
+        buf.putShort(ENDPOINT_DATALOG);
+        buf.put(command);
+        buf.put(id);
+        return buf;
+    }
+
+    private static void collectReplies(final GBDeviceEvent[] events, final List<byte[]> replies) {
+        if (events == null) {
+            return;
+        }
+        for (final GBDeviceEvent event : events) {
+            if (event instanceof GBDeviceEventSendBytes) {
+                replies.add(((GBDeviceEventSendBytes) event).encodedBytes);
+            }
+        }
+    }
+}
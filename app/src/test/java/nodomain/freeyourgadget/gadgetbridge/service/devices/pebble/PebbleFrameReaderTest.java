@@ -0,0 +1,164 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds the frame reader through a pipe standing in for the watch.
+ */
+public class PebbleFrameReaderTest extends TestBase {
+    private static final int BUFFER_COUNT = 8;
+
+    private PipedOutputStream watch;
+    private PebbleFrameReader reader;
+
+    private void startReader() throws IOException {
+        startReader(new PipedInputStream(64 * 1024));
+    }
+
+    private void startReader(final PipedInputStream in) throws IOException {
+        watch = new PipedOutputStream(in);
+        reader = new PebbleFrameReader(in, false, BUFFER_COUNT);
+        new Thread(reader, "PebbleFrameReader").start();
+    }
+
+    @After
+    public void stopReader() {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testFramesAreReadInOrderIntoReusedBuffers() throws Exception {
+        startReader();
+        final int frameCount = 20000;
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < frameCount; i++) {
+                        watch.write(createFrame(i));
+                    }
+                    watch.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        final Set<byte[]> buffers = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+        writer.start();
+        for (int i = 0; i < frameCount; i++) {
+            final byte[] frame = reader.nextFrame(0);
+            final ByteBuffer buf = ByteBuffer.wrap(frame).order(ByteOrder.BIG_ENDIAN);
+            final int length = buf.getShort();
+            assertEquals(payloadLength(i), length);
+            assertEquals(endpoint(i), buf.getShort());
+            assertEquals(i, buf.getInt());
+            assertEquals((byte) (i + length - 5), frame[PebbleFrameReader.HEADER_LENGTH + length - 1]);
+            buffers.add(frame);
+            reader.recycle(frame);
+        }
+        // the frame buffers are reused
+        assertTrue(buffers.size() <= BUFFER_COUNT);
+
+        // the watch went away
+        try {
+            reader.nextFrame(0);
+            fail("expected end of stream");
+        } catch (IOException e) {
+            assertEquals("broken pipe", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testSlowHandlerPausesReads() throws Exception {
+        int bufferedBytes = 0;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            bufferedBytes += createFrame(i).length;
+        }
+        // counted down once the reader took the frames that fit into its buffers, and any byte beyond them
+        final CountDownLatch buffersFilled = new CountDownLatch(1);
+        final CountDownLatch overflowRead = new CountDownLatch(1);
+        final int limit = bufferedBytes;
+        startReader(new PipedInputStream(64 * 1024) {
+            private int bytesRead = 0;
+
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                bytesRead += Math.max(0, read);
+                if (bytesRead >= limit) {
+                    buffersFilled.countDown();
+                }
+                if (bytesRead > limit) {
+                    overflowRead.countDown();
+                }
+                return read;
+            }
+        });
+        for (int i = 0; i <= BUFFER_COUNT; i++) {
+            watch.write(createFrame(i));
+        }
+
+        assertTrue(buffersFilled.await(10, TimeUnit.SECONDS));
+
+        // with all buffers in use the last frame stays in the stream, although the handler did not take any frame yet
+        assertFalse(overflowRead.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(BUFFER_COUNT, reader.getQueuedFrameCount());
+
+        // handling one frame lets the reader continue
+        final byte[] first = reader.nextFrame(0);
+        reader.recycle(first);
+        assertTrue(overflowRead.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i <= BUFFER_COUNT; i++) {
+            final byte[] frame = reader.nextFrame(1000);
+            assertNotNull(frame);
+            assertEquals(i, ByteBuffer.wrap(frame, PebbleFrameReader.HEADER_LENGTH, 4).getInt());
+            reader.recycle(frame);
+        }
+        assertNull(reader.nextFrame(100));
+    }
+
+    private static int payloadLength(final int i) {
+        return 5 + (i * 31) % 1000;
+    }
+
+    private static short endpoint(final int i) {
+        return (short) (i % 7 == 0 ? 6778 : 48);
+    }
+
+    private static byte[] createFrame(final int i) {
+        final int length = payloadLength(i);
+        final ByteBuffer buf = ByteBuffer.allocate(PebbleFrameReader.HEADER_LENGTH + length).order(ByteOrder.BIG_ENDIAN);
+        buf.putShort((short) length);
+        buf.putShort(endpoint(i));
+        buf.putInt(i);
+        while (buf.remaining() > 1) {
+            buf.put((byte) buf.position());
+        }
+        buf.put((byte) (i + length - 5));
+        return buf.array();
+    }
+}
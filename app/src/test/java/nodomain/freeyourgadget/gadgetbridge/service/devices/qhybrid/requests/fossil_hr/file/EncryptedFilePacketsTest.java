@@ -0,0 +1,134 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.file;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import nodomain.freeyourgadget.gadgetbridge.util.CRC32C;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EncryptedFilePacketsTest {
+    private static final short HANDLE = 0x0503;
+
+    private final byte[] key = new byte[16];
+    private final byte[] phoneRandomNumber = new byte[8];
+    private final byte[] watchRandomNumber = new byte[8];
+
+    public EncryptedFilePacketsTest() {
+        final Random random = new Random(44);
+        random.nextBytes(key);
+        random.nextBytes(phoneRandomNumber);
+        random.nextBytes(watchRandomNumber);
+    }
+
+    @Test
+    public void testMatchesLegacyPackets() throws Exception {
+        final FileCipher cipher = new FileCipher(key, phoneRandomNumber, watchRandomNumber);
+        final Random random = new Random(1);
+        final int[] fileSizes = {0, 1, 11, 12, 240, 241, 4096, 250000};
+        final int[] mtus = {23, 185, 247, 512};
+        for (final int fileSize : fileSizes) {
+            final byte[] file = new byte[fileSize];
+            random.nextBytes(file);
+            for (final int mtu : mtus) {
+                final int[] legacyCRC = new int[1];
+                final List<byte[]> expected = legacyPackets(file, mtu - 4, legacyCRC);
+
+                final EncryptedFilePackets packets = new EncryptedFilePackets(HANDLE, file, mtu - 4, cipher);
+                assertEquals(legacyCRC[0], packets.getFullCRC());
+                assertEquals(expected.size(), packets.getPacketCount());
+                for (final byte[] packet : expected) {
+                    assertArrayEquals(packet, packets.next());
+                }
+                assertFalse(packets.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void testDecryptMatchesLegacy() throws Exception {
+        final FileCipher cipher = new FileCipher(key, phoneRandomNumber, watchRandomNumber);
+        final byte[] packet = new byte[240];
+        new Random(2).nextBytes(packet);
+        for (int summand = 0; summand < 0x30 * 40; summand += 0x1f) {
+            final Cipher legacy = Cipher.getInstance("AES/CTR/NoPadding");
+            legacy.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(legacyIncrementIV(legacyIv(), summand)));
+            assertArrayEquals(legacy.doFinal(packet), cipher.decrypt(packet, summand));
+        }
+
+        // decrypting must not disturb the encryption of the next upload
+        final byte[] file = new byte[1000];
+        final int[] legacyCRC = new int[1];
+        final List<byte[]> expected = legacyPackets(file, 240, legacyCRC);
+        final EncryptedFilePackets packets = new EncryptedFilePackets(HANDLE, file, 240, cipher);
+        for (final byte[] expectedPacket : expected) {
+            assertArrayEquals(expectedPacket, packets.next());
+        }
+    }
+
+    private byte[] legacyIv() {
+        final byte[] fileIV = new byte[16];
+        System.arraycopy(phoneRandomNumber, 0, fileIV, 2, 6);
+        System.arraycopy(watchRandomNumber, 0, fileIV, 9, 7);
+        fileIV[7]++;
+        return fileIV;
+    }
+
+    private static byte[] legacyIncrementIV(final byte[] iv, final int amount) {
+        final ByteBuffer buffer = ByteBuffer.wrap(iv.clone());
+        final int number = buffer.getInt(12) + amount;
+        buffer.position(12);
+        buffer.putInt(number);
+        return buffer.array();
+    }
+
+    /// How FileEncryptedPutRequest built the packets before, the whole file copied, split and then encrypted
+    private List<byte[]> legacyPackets(final byte[] file, final int maxPacketSize, final int[] fullCRCOut) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(file.length + 12 + 4);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort(HANDLE);
+        buffer.put((byte) 2);
+        buffer.put((byte) 0);
+        buffer.putInt(0);
+        buffer.putInt(file.length);
+        buffer.put(file);
+        final CRC32C crc = new CRC32C();
+        crc.update(file, 0, file.length);
+        buffer.putInt((int) crc.getValue());
+        final byte[] data = buffer.array();
+
+        final CRC32 fullCRC = new CRC32();
+        fullCRC.update(data);
+        fullCRCOut[0] = (int) fullCRC.getValue();
+
+        final List<byte[]> packets = new ArrayList<>();
+        final int packetCount = (int) Math.ceil(data.length / (float) maxPacketSize);
+        for (int i = 0; i < packetCount; i++) {
+            final int currentPacketLength = Math.min(maxPacketSize, data.length - i * maxPacketSize);
+            final byte[] packet = new byte[currentPacketLength + 1];
+            packet[0] = (byte) i;
+            System.arraycopy(data, i * maxPacketSize, packet, 1, currentPacketLength);
+            packets.add(packet);
+        }
+
+        final Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(legacyIv()));
+        final List<byte[]> encrypted = new ArrayList<>();
+        for (final byte[] packet : packets) {
+            encrypted.add(cipher.doFinal(packet));
+        }
+        return encrypted;
+    }
+}
@@ -0,0 +1,135 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.requests.fossil_hr.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.service.devices.qhybrid.encoder.RLEEncoder;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ImageConverterTest extends TestBase {
+    @Test
+    public void testMatchesLegacyConversion() {
+        final Random random = new Random(46);
+        for (int round = 0; round < 20; round++) {
+            final int[] pixels = createPixels(random, 24, 24);
+
+            final byte[] rle = ImageConverter.get2BitsRLEImageBytes(pixels);
+            assertArrayEquals(legacy2BitsRLEImageBytes(pixels), rle);
+            assertArrayEquals(legacyEncodeToRLEImage(rle, 24, 24), ImageConverter.encodeToRLEImage(rle, 24, 24));
+            assertArrayEquals(legacyRLEEncode(rle), RLEEncoder.RLEEncode(rle));
+
+            final byte[] raw = ImageConverter.get2BitsRAWImageBytes(pixels);
+            assertArrayEquals(legacy2BitsRAWImageBytes(pixels), raw);
+            assertArrayEquals(legacyEncodeToRawImage(raw), ImageConverter.encodeToRawImage(raw));
+        }
+
+        // long runs are split at 255
+        final byte[] flat = new byte[1000];
+        assertArrayEquals(legacyRLEEncode(flat), RLEEncoder.RLEEncode(flat));
+    }
+
+    @Test
+    public void testCache() {
+        final int[] pixels = createPixels(new Random(1), 24, 24);
+        final Bitmap first = Bitmap.createBitmap(pixels, 24, 24, Bitmap.Config.ARGB_8888);
+        final Bitmap second = Bitmap.createBitmap(pixels, 24, 24, Bitmap.Config.ARGB_8888);
+
+        final byte[] expected = RLEEncoder.RLEEncode(ImageConverter.get2BitsRLEImageBytes(first));
+        final byte[] encoded = ImageConverter.encodeToRLE(first);
+        assertArrayEquals(expected, encoded);
+        // callers get their own copy
+        encoded[0]++;
+        assertArrayEquals(expected, ImageConverter.encodeToRLE(second));
+
+        // a different header or format is a different entry
+        assertArrayEquals(ImageConverter.encodeToRLEImage(ImageConverter.get2BitsRLEImageBytes(first), 24, 24), ImageConverter.encodeToRLEImage(second, 24, 24));
+        assertArrayEquals(ImageConverter.encodeToRLEImage(ImageConverter.get2BitsRLEImageBytes(first), 76, 76), ImageConverter.encodeToRLEImage(second, 76, 76));
+        assertArrayEquals(ImageConverter.encodeToRawImage(ImageConverter.get2BitsRAWImageBytes(first)), ImageConverter.encodeToRawImage(second));
+    }
+
+    @Test
+    public void testBackgroundMatchesLegacyConversion() {
+        final int[] pixels = createPixels(new Random(2), 240, 240);
+        assertArrayEquals(legacyEncodeToRawImage(legacy2BitsRAWImageBytes(pixels)), ImageConverter.encodeToRawImage(ImageConverter.get2BitsRAWImageBytes(pixels)));
+    }
+
+    private static int[] createPixels(final Random random, final int width, final int height) {
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            // runs of the same color, like icons have
+            pixels[i] = i > 0 && random.nextInt(4) > 0 ? pixels[i - 1] : random.nextInt();
+        }
+        return pixels;
+    }
+
+    /// What ImageConverter.convertToMonochrome() computes, without android.graphics.Color
+    private static int legacyMonochrome(final int color) {
+        return (((color >> 16) & 0xff) + ((color >> 8) & 0xff) + (color & 0xff)) / 3;
+    }
+
+    private static byte[] legacy2BitsRLEImageBytes(final int[] pixels) {
+        final byte[] b_pixels = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int monochrome = legacyMonochrome(pixels[i]);
+            monochrome >>= 6;
+            final int alpha = pixels[i] >>> 24;
+            monochrome |= (~((alpha & 0xFF) >> 4) & 0b00001100);
+            b_pixels[i] = (byte) monochrome;
+        }
+        return b_pixels;
+    }
+
+    private static byte[] legacy2BitsRAWImageBytes(final int[] pixels) {
+        final byte[] pixelBytes = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            pixelBytes[pixelBytes.length - 1 - i] = (byte) legacyMonochrome(pixels[i]);
+        }
+        return pixelBytes;
+    }
+
+    private static byte[] legacyEncodeToRLEImage(final byte[] monochromeImage, final int height, final int width) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write((byte) height);
+        bos.write((byte) width);
+        final byte[] rle = legacyRLEEncode(monochromeImage);
+        bos.write(rle, 0, rle.length);
+        bos.write((byte) 0x0FF);
+        bos.write((byte) 0x0FF);
+        return bos.toByteArray();
+    }
+
+    private static byte[] legacyRLEEncode(final byte[] data) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length * 2);
+        int lastByte = data[0];
+        int count = 1;
+        byte currentByte = -1;
+        for (int i = 1; i < data.length; i++) {
+            currentByte = data[i];
+            if (currentByte != lastByte || count >= 255) {
+                bos.write(count);
+                bos.write(data[i - 1]);
+                count = 1;
+                lastByte = data[i];
+            } else {
+                count++;
+            }
+        }
+        bos.write(count);
+        bos.write(currentByte);
+        return bos.toByteArray();
+    }
+
+    private static byte[] legacyEncodeToRawImage(final byte[] monochromeImage) {
+        final byte[] result = new byte[monochromeImage.length / 4];
+        for (int i = 0; i < monochromeImage.length; i++) {
+            result[i / 4] |= (byte) (((monochromeImage[i] & 0xFF) >> 6) << (6 - i % 4 * 2));
+        }
+        return result;
+    }
+}
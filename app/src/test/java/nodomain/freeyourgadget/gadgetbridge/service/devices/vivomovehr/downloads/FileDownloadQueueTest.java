@@ -0,0 +1,146 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.downloads;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.vivomovehr.VivomoveConstants;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.ChecksumCalculator;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.VivomoveHrCommunicator;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.messages.DownloadRequestResponseMessage;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.messages.FileTransferDataMessage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class FileDownloadQueueTest {
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final List<Thread> processingThreads = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch releaseFirstFile = new CountDownLatch(1);
+    private final Semaphore completedSyncs = new Semaphore(0);
+    private int syncCount;
+
+    private VivomoveHrCommunicator communicator;
+    private FileDownloadQueue<String> queue;
+
+    @Before
+    public void setUpQueue() {
+        communicator = mock(VivomoveHrCommunicator.class);
+        queue = new FileDownloadQueue<>(communicator, new FileDownloadListener<String>() {
+            @Override
+            public String onSyncStarted() {
+                return "sync " + (++syncCount);
+            }
+
+            @Override
+            public void onDirectoryDownloaded(DirectoryData directoryData) {
+            }
+
+            @Override
+            public void onFileDownloadComplete(String sync, int fileIndex, byte[] data) {
+                processingThreads.add(Thread.currentThread());
+                if (fileIndex == 1) {
+                    try {
+                        releaseFirstFile.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                events.add(sync + ": file " + fileIndex + " " + Arrays.toString(data));
+            }
+
+            @Override
+            public void onFileDownloadError(int fileIndex) {
+                events.add("error " + fileIndex);
+            }
+
+            @Override
+            public void onDownloadProgress(long remainingBytes) {
+            }
+
+            @Override
+            public void onAllDownloadsCompleted(String sync) {
+                processingThreads.add(Thread.currentThread());
+                events.add(sync + ": completed");
+                completedSyncs.release();
+            }
+        });
+    }
+
+    @After
+    public void disposeQueue() {
+        queue.dispose();
+    }
+
+    @Test
+    public void testTransferOverlapsProcessing() throws InterruptedException {
+        queue.addToDownloadQueue(1, 3);
+        queue.addToDownloadQueue(2, 3);
+
+        transfer(new byte[]{1, 2, 3});
+        // the first file is still being processed, the second one is transferred meanwhile
+        transfer(new byte[]{4, 5, 6});
+        assertTrue(events.isEmpty());
+
+        releaseFirstFile.countDown();
+        assertTrue(completedSyncs.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("sync 1: file 1 [1, 2, 3]", "sync 1: file 2 [4, 5, 6]", "sync 1: completed"), events);
+        assertEquals(3, processingThreads.size());
+        for (final Thread thread : processingThreads) {
+            assertNotSame(Thread.currentThread(), thread);
+        }
+        verify(communicator, atLeast(4)).sendMessage(any(byte[].class));
+    }
+
+    @Test
+    public void testCompletedAfterFailedLastDownload() throws InterruptedException {
+        releaseFirstFile.countDown();
+        queue.addToDownloadQueue(1, 3);
+        queue.addToDownloadQueue(2, 3);
+
+        transfer(new byte[]{1, 2, 3});
+        queue.onDownloadRequestResponse(new DownloadRequestResponseMessage(VivomoveConstants.STATUS_ACK, DownloadRequestResponseMessage.RESPONSE_DATA_DOES_NOT_EXIST, 0));
+
+        assertTrue(completedSyncs.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("error 2", "sync 1: completed", "sync 1: file 1 [1, 2, 3]"), sorted(events));
+    }
+
+    @Test
+    public void testFilesKeepTheStateOfTheirSync() throws InterruptedException {
+        queue.addToDownloadQueue(1, 3);
+        transfer(new byte[]{1, 2, 3});
+
+        // the first sync is done transferring, but its file is still being processed
+        queue.addToDownloadQueue(2, 3);
+        transfer(new byte[]{4, 5, 6});
+
+        releaseFirstFile.countDown();
+        assertTrue(completedSyncs.tryAcquire(2, 5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("sync 1: file 1 [1, 2, 3]", "sync 1: completed", "sync 2: file 2 [4, 5, 6]", "sync 2: completed"), events);
+    }
+
+    private void transfer(byte[] data) {
+        queue.onDownloadRequestResponse(new DownloadRequestResponseMessage(VivomoveConstants.STATUS_ACK, DownloadRequestResponseMessage.RESPONSE_DOWNLOAD_REQUEST_OKAY, data.length));
+        final int crc = ChecksumCalculator.computeCrc(0, data, 0, data.length);
+        queue.onFileTransferData(new FileTransferDataMessage(0, crc, 0, data));
+    }
+
+    private static List<String> sorted(List<String> list) {
+        final List<String> result = new ArrayList<>(list);
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,292 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.fit;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.vivomovehr.VivomoveHrSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.VivomoveHrActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.vivomovehr.GarminTimeUtils;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes synthetic monitoring files the size of the ones downloaded from the watch, one record
+ * per minute of a day.
+ */
+public class FitParserTest extends TestBase {
+    private static final int MINUTES_PER_DAY = 1440;
+    private static final int SLEEP_MINUTES = 30;
+    private static final int START = 1000000000;
+    private static final int ACTIVITY_TYPE = 1;
+
+    private static final int LOCAL_SOFTWARE = 0;
+    private static final int LOCAL_OHR_SETTINGS = 1;
+    private static final int LOCAL_MONITORING_INFO = 2;
+    private static final int LOCAL_MONITORING = 3;
+    private static final int LOCAL_MONITORING_16 = 4;
+    private static final int LOCAL_SLEEP_LEVEL = 5;
+
+    @Test
+    public void testDecodeMonitoringFile() {
+        final byte[] file = createMonitoringFile(START, MINUTES_PER_DAY, 0, 14);
+        final List<FitMessage> messages = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS).parseFitFile(file);
+        assertEquals(3 + SLEEP_MINUTES + MINUTES_PER_DAY, messages.size());
+
+        final FitMessage software = messages.get(0);
+        assertEquals(290, (int) software.getIntegerField("version"));
+        assertEquals("006-B2345-00", software.getStringField("part_number"));
+        assertTrue(messages.get(1).isBooleanFieldTrue("enabled"));
+        assertEquals(START, (int) messages.get(2).getIntegerField("timestamp"));
+
+        final FitMessage first = messages.get(3 + SLEEP_MINUTES);
+        assertEquals(START, (int) first.getIntegerField("timestamp"));
+        assertEquals(ACTIVITY_TYPE, (int) first.getIntegerField("activity_type"));
+        assertEquals(60.0, first.getNumericField("heart_rate"), 0);
+
+        final FitMessage minute = messages.get(3 + SLEEP_MINUTES + 61);
+        assertEquals((START + 61 * 60) & 0xFFFF, (int) minute.getIntegerField("timestamp_16"));
+        assertEquals(null, minute.getField("timestamp"));
+        assertEquals(cycles(61), (int) minute.getIntegerField("cycles"));
+        assertEquals(61 % 5, minute.getNumericField("active_calories"), 0);
+        assertEquals(61 % 8, (int) minute.getIntegerField("current_activity_type_intensity"));
+    }
+
+    @Test
+    public void testVisitorMatchesMessages() throws IOException {
+        final byte[] file = createMonitoringFile(START, 200, 0, 14);
+        final FitParser parser = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS);
+        final List<FitMessage> messages = parser.parseFitFile(file);
+
+        final int heartRate = FitMessageDefinitions.DEFINITION_MONITORING.findField("heart_rate").fieldNumber;
+        final int cycles = FitMessageDefinitions.DEFINITION_MONITORING.findField("cycles").fieldNumber;
+        final List<String> fromBuffer = new ArrayList<>();
+        parser.parse(ByteBuffer.wrap(file), record -> {
+            final FitMessage message = messages.get(fromBuffer.size());
+            assertEquals(message.definition.globalMessageID, record.getGlobalMessageID());
+            if (record.getGlobalMessageID() == FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING) {
+                assertEquals(message.getField(heartRate), record.getField(heartRate));
+                assertEquals(message.getNumericField("heart_rate"), record.getNumericField(heartRate, -1), 0);
+                assertEquals((int) message.getIntegerField("cycles"), record.getIntegerField(cycles, -1));
+            }
+            fromBuffer.add(record.toFitMessage().toString());
+        });
+
+        // read a few bytes at a time, so messages cross the refills of the buffer
+        final List<String> fromStream = new ArrayList<>();
+        parser.parse(new ChunkedInputStream(file, 5), record -> fromStream.add(record.toFitMessage().toString()));
+
+        assertEquals(messages.size(), fromBuffer.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            assertEquals(messages.get(i).toString(), fromBuffer.get(i));
+        }
+        assertEquals(fromBuffer, fromStream);
+    }
+
+    @Test
+    public void testDefinitionsAreReused() {
+        final FitParser parser = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS);
+        parser.parseFitFile(createMonitoringFile(START, 10, 0, 14));
+        final FitLocalMessageDefinition definition = parser.getLocalMessageDefinitions().get(LOCAL_MONITORING);
+        parser.parseFitFile(createMonitoringFile(START + 86400, 10, 0, 14));
+        assertSame(definition, parser.getLocalMessageDefinitions().get(LOCAL_MONITORING));
+    }
+
+    @Test
+    public void testShortFileHeader() {
+        final List<FitMessage> messages = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS).parseFitFile(createMonitoringFile(START, 10, 0, 12));
+        assertEquals(3 + SLEEP_MINUTES + 10, messages.size());
+        assertEquals(290, (int) messages.get(0).getIntegerField("version"));
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        final byte[] file = createMonitoringFile(START, 10, 0, 14);
+        final byte[] truncated = new byte[file.length - 5];
+        System.arraycopy(file, 0, truncated, 0, truncated.length);
+        final FitParser parser = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS);
+
+        final int[] count = {0};
+        try {
+            parser.parse(new ChunkedInputStream(truncated, 64), record -> count[0]++);
+            fail("Truncated file decoded");
+        } catch (IllegalStateException e) {
+            // the messages before the end were decoded
+            assertEquals(3 + SLEEP_MINUTES + 9, count[0]);
+        }
+    }
+
+    @Test
+    public void testImportMergesFiles() {
+        final FitParser parser = new FitParser(FitMessageDefinitions.ALL_DEFINITIONS);
+        final FitImporter importer = new FitImporter();
+        importer.importFitData(parser, ByteBuffer.wrap(createMonitoringFile(START, MINUTES_PER_DAY, 0, 14)));
+
+        final List<VivomoveHrActivitySample> samples = new ArrayList<>();
+        importer.processImportedData(samples::add);
+        assertEquals(SLEEP_MINUTES + MINUTES_PER_DAY, samples.size());
+
+        for (int i = 0; i < SLEEP_MINUTES; ++i) {
+            // sleep without a heart rate is taken as not worn
+            final VivomoveHrActivitySample sample = samples.get(i);
+            assertEquals(GarminTimeUtils.garminTimestampToUnixTime(START - (SLEEP_MINUTES - i) * 60), sample.getTimestamp());
+            assertEquals(VivomoveHrSampleProvider.RAW_NOT_WORN, sample.getRawKind());
+            assertEquals(0, sample.getRawIntensity());
+        }
+        for (int i = 0; i < MINUTES_PER_DAY; ++i) {
+            final VivomoveHrActivitySample sample = samples.get(SLEEP_MINUTES + i);
+            assertEquals(GarminTimeUtils.garminTimestampToUnixTime(START + i * 60), sample.getTimestamp());
+            assertEquals(VivomoveHrSampleProvider.RAW_TYPE_KIND_ACTIVITY | ACTIVITY_TYPE, sample.getRawKind());
+            assertEquals(cycles(i) - (i == 0 ? 0 : cycles(i - 1)), sample.getSteps());
+            assertEquals(i % 5, sample.getCaloriesBurnt());
+            assertEquals(60 + i % 40, sample.getHeartRate());
+            assertEquals(i % 8, sample.getRawIntensity());
+            assertEquals(ActivitySample.NOT_MEASURED, sample.getFloorsClimbed());
+        }
+
+        // a later file with the first half hour again, with a higher heart rate
+        importer.importFitData(parser, ByteBuffer.wrap(createMonitoringFile(START, 30, 20, 14)));
+        samples.clear();
+        importer.processImportedData(samples::add);
+        assertEquals(30, samples.size());
+        for (int i = 0; i < 30; ++i) {
+            final VivomoveHrActivitySample sample = samples.get(i);
+            assertEquals(GarminTimeUtils.garminTimestampToUnixTime(START + i * 60), sample.getTimestamp());
+            assertEquals(80 + i % 40, sample.getHeartRate());
+            assertEquals(i % 5, sample.getCaloriesBurnt());
+        }
+
+        samples.clear();
+        importer.processImportedData(samples::add);
+        assertEquals(0, samples.size());
+    }
+
+    private static int cycles(final int minute) {
+        int total = 0;
+        for (int i = 0; i <= minute; ++i) {
+            total += (i % 7) * 10;
+        }
+        return total;
+    }
+
+    /**
+     * A monitoring file as the watch writes it: software and settings, sleep levels before the
+     * start, then one record per minute with a full timestamp every hour.
+     */
+    private static byte[] createMonitoringFile(final int start, final int minutes, final int heartRateOffset, final int headerSize) {
+        final ByteBuffer buffer = ByteBuffer.allocate(256 + (SLEEP_MINUTES + minutes) * 20).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(headerSize);
+
+        define(buffer, LOCAL_SOFTWARE, FitMessageDefinitions.FIT_MESSAGE_NUMBER_SOFTWARE,
+                3, 2, FitFieldBaseType.UINT16,
+                5, 20, FitFieldBaseType.STRING);
+        buffer.put((byte) LOCAL_SOFTWARE);
+        buffer.putShort((short) 290);
+        final byte[] partNumber = new byte[20];
+        final byte[] partNumberText = "006-B2345-00".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(partNumberText, 0, partNumber, 0, partNumberText.length);
+        buffer.put(partNumber);
+
+        define(buffer, LOCAL_OHR_SETTINGS, FitMessageDefinitions.FIT_MESSAGE_NUMBER_OHR_SETTINGS,
+                0, 1, FitFieldBaseType.ENUM);
+        buffer.put((byte) LOCAL_OHR_SETTINGS);
+        buffer.put((byte) FitBool.TRUE);
+
+        define(buffer, LOCAL_MONITORING_INFO, FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING_INFO,
+                253, 4, FitFieldBaseType.UINT32);
+        buffer.put((byte) LOCAL_MONITORING_INFO);
+        buffer.putInt(start);
+
+        define(buffer, LOCAL_SLEEP_LEVEL, FitMessageDefinitions.FIT_MESSAGE_NUMBER_SLEEP_LEVEL,
+                253, 4, FitFieldBaseType.UINT32,
+                0, 1, FitFieldBaseType.ENUM);
+        for (int i = SLEEP_MINUTES; i > 0; --i) {
+            buffer.put((byte) LOCAL_SLEEP_LEVEL);
+            buffer.putInt(start - i * 60);
+            buffer.put((byte) (i % 4));
+        }
+
+        define(buffer, LOCAL_MONITORING, FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING,
+                253, 4, FitFieldBaseType.UINT32,
+                3, 4, FitFieldBaseType.UINT32,
+                5, 1, FitFieldBaseType.ENUM,
+                19, 2, FitFieldBaseType.UINT16,
+                27, 1, FitFieldBaseType.UINT8,
+                24, 1, FitFieldBaseType.BYTE);
+        define(buffer, LOCAL_MONITORING_16, FitMessageDefinitions.FIT_MESSAGE_NUMBER_MONITORING,
+                26, 2, FitFieldBaseType.UINT16,
+                3, 4, FitFieldBaseType.UINT32,
+                5, 1, FitFieldBaseType.ENUM,
+                19, 2, FitFieldBaseType.UINT16,
+                27, 1, FitFieldBaseType.UINT8,
+                24, 1, FitFieldBaseType.BYTE);
+        for (int i = 0; i < minutes; ++i) {
+            final int timestamp = start + i * 60;
+            if (i % 60 == 0) {
+                buffer.put((byte) LOCAL_MONITORING);
+                buffer.putInt(timestamp);
+            } else {
+                buffer.put((byte) LOCAL_MONITORING_16);
+                buffer.putShort((short) timestamp);
+            }
+            buffer.putInt(cycles(i));
+            buffer.put((byte) ACTIVITY_TYPE);
+            buffer.putShort((short) (i % 5));
+            buffer.put((byte) (60 + i % 40 + heartRateOffset));
+            buffer.put((byte) (i % 8));
+        }
+
+        final int dataSize = buffer.position() - headerSize;
+        buffer.putShort((short) 0);
+        buffer.put(0, (byte) headerSize);
+        buffer.put(1, (byte) 0x10);
+        buffer.putShort(2, (short) 2093);
+        buffer.putInt(4, dataSize);
+        buffer.putInt(8, 0x5449462E);
+
+        final byte[] file = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(file);
+        return file;
+    }
+
+    private static void define(final ByteBuffer buffer, final int localMessageType, final int globalMessageType, final Object... fields) {
+        buffer.put((byte) (0x40 | localMessageType));
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.putShort((short) globalMessageType);
+        buffer.put((byte) (fields.length / 3));
+        for (int i = 0; i < fields.length; i += 3) {
+            buffer.put((byte) (int) (Integer) fields[i]);
+            buffer.put((byte) (int) (Integer) fields[i + 1]);
+            buffer.put((byte) ((FitFieldBaseType) fields[i + 2]).typeID);
+        }
+    }
+
+    private static class ChunkedInputStream extends FilterInputStream {
+        private final int chunkSize;
+
+        private ChunkedInputStream(final byte[] data, final int chunkSize) {
+            super(new ByteArrayInputStream(data));
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return super.read(b, off, Math.min(len, chunkSize));
+        }
+    }
+}
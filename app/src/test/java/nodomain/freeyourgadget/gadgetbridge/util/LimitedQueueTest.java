@@ -0,0 +1,105 @@
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LimitedQueueTest {
+    @Test
+    public void testEvictsOldest() {
+        final LimitedQueue<Integer, String> queue = new LimitedQueue<>(3);
+        queue.add(1, "a");
+        queue.add(2, "b");
+        queue.add(3, "c");
+        queue.add(4, "d");
+
+        assertEquals(3, queue.size());
+        assertNull(queue.lookup(1));
+        assertEquals("b", queue.lookup(2));
+        assertEquals("d", queue.lookup(4));
+        assertNull(queue.lookupByValue("a"));
+    }
+
+    @Test
+    public void testReAddRefreshesEntry() {
+        final LimitedQueue<Integer, String> queue = new LimitedQueue<>(2);
+        queue.add(1, "a");
+        queue.add(2, "b");
+        queue.add(1, "c");
+        queue.add(3, "d");
+
+        assertEquals("c", queue.lookup(1));
+        assertNull(queue.lookup(2));
+        assertNull(queue.lookupByValue("a"));
+        assertEquals(Integer.valueOf(1), queue.lookupByValue("c"));
+    }
+
+    @Test
+    public void testLookupByValueReturnsOldestKey() {
+        final LimitedQueue<Integer, String> queue = new LimitedQueue<>(8);
+        queue.add(1, "pkg");
+        queue.add(2, "other");
+        queue.add(3, "pkg");
+
+        assertEquals(Integer.valueOf(1), queue.lookupByValue("pkg"));
+        queue.remove(1);
+        assertEquals(Integer.valueOf(3), queue.lookupByValue("pkg"));
+        queue.remove(3);
+        assertNull(queue.lookupByValue("pkg"));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int limit = 64;
+        final int threads = 8;
+        final int iterations = 20000;
+        final LimitedQueue<Integer, Long> queue = new LimitedQueue<>(limit);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * iterations;
+            final Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        final int key = offset + i;
+                        queue.add(key, (long) key);
+                        final Long value = queue.lookup(key);
+                        if (value != null && value != key) {
+                            throw new AssertionError("unexpected value " + value + " for " + key);
+                        }
+                        final Integer reverse = queue.lookupByValue((long) key);
+                        if (reverse != null && reverse != key) {
+                            throw new AssertionError("unexpected key " + reverse + " for " + key);
+                        }
+                        if (i % 3 == 0) {
+                            queue.remove(key);
+                        }
+                    }
+                } catch (final Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(queue.size() <= limit);
+    }
+}